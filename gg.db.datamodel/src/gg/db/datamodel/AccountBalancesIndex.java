@@ -0,0 +1,209 @@
+/*
+ * AccountBalancesIndex.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.db.datamodel;
+
+import gg.db.entities.Account;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.joda.time.LocalDate;
+
+/**
+ * <B>AccountBalancesIndex</B>
+ * <UL>
+ * <LI>Cumulative balances of the accounts: for each account, the days with transactions are sorted,
+ * and the balance of the account at the end of each day is stored (with and without the transfers)</LI>
+ * <LI>The balance of an account at any date is found by a binary search on the days of the account,
+ * whatever the number of transactions</LI>
+ * <LI>The index is immutable: it is built by <CODE>Datamodel</CODE> after each import, and replaced when the transactions change</LI>
+ * </UL>
+ * The initial amounts of the accounts are not included in the balances
+ * @author Francois Duchemin
+ */
+final class AccountBalancesIndex {
+
+    /** Cumulative balances by account ID */
+    private final Map<Long, AccountBalances> accountsBalances = new HashMap<Long, AccountBalances>();
+    /** Currency ID of each active account by account ID */
+    private final Map<Long, Long> activeAccountsCurrencies = new HashMap<Long, Long>();
+
+    /**
+     * Creates a new instance of AccountBalancesIndex
+     * @param dailyBalances Balances of the accounts by day, sorted by account and by day: each item is an array which contains
+     * the account ID, the day, the sum of the transactions of the day and the sum of the transfers of the day
+     * @param activeAccounts Active accounts
+     */
+    AccountBalancesIndex(List dailyBalances, List<Account> activeAccounts) {
+        if (dailyBalances == null) {
+            throw new IllegalArgumentException("The parameter 'dailyBalances' is null");
+        }
+        if (activeAccounts == null) {
+            throw new IllegalArgumentException("The parameter 'activeAccounts' is null");
+        }
+
+        // Group the days by account
+        Map<Long, List<Object[]>> dailyBalancesByAccount = new HashMap<Long, List<Object[]>>();
+        for (Object dailyBalance : dailyBalances) {
+            Object[] row = (Object[]) dailyBalance;
+            List<Object[]> accountDailyBalances = dailyBalancesByAccount.get((Long) row[0]);
+            if (accountDailyBalances == null) {
+                accountDailyBalances = new ArrayList<Object[]>();
+                dailyBalancesByAccount.put((Long) row[0], accountDailyBalances);
+            }
+            accountDailyBalances.add(row);
+        }
+
+        // Compute the cumulative balances of each account
+        for (Map.Entry<Long, List<Object[]>> entry : dailyBalancesByAccount.entrySet()) {
+            accountsBalances.put(entry.getKey(), new AccountBalances(entry.getValue()));
+        }
+
+        for (Account account : activeAccounts) {
+            activeAccountsCurrencies.put(account.getId(), account.getCurrency().getId());
+        }
+    }
+
+    /**
+     * Gets the balance of an account at the end of a day
+     * @param accountId Account ID
+     * @param date Day (null to get the balance after the last transaction)
+     * @param includeTransfers Include the transfers in the balance?
+     * @return Sum of the transactions of the account until the day (included)
+     */
+    BigDecimal getBalanceUntil(Long accountId, LocalDate date, boolean includeTransfers) {
+        if (accountId == null) {
+            throw new IllegalArgumentException("The parameter 'accountId' is null");
+        }
+        AccountBalances accountBalances = accountsBalances.get(accountId);
+        if (accountBalances == null) {
+            return BigDecimal.ZERO; // No transaction for this account
+        }
+        return accountBalances.getBalanceUntil(date, includeTransfers);
+    }
+
+    /**
+     * Gets the balance corresponding to a search criteria (until the end of its period)<BR/>
+     * Only the active accounts are summed; the filters on categories, payees and keywords are not taken into account
+     * @param searchCriteria Search criteria
+     * @return Sum of the balances of the active accounts which match the search criteria
+     */
+    BigDecimal getBalanceUntil(SearchCriteria searchCriteria) {
+        if (searchCriteria == null) {
+            throw new IllegalArgumentException("The parameter 'searchCriteria' is null");
+        }
+
+        // Accounts to sum
+        List<Long> accountIds = new ArrayList<Long>();
+        if (searchCriteria.hasAccountsFilter()) {
+            for (Account account : searchCriteria.getAccounts()) {
+                if (activeAccountsCurrencies.containsKey(account.getId())) {
+                    accountIds.add(account.getId());
+                }
+            }
+        } else {
+            for (Map.Entry<Long, Long> entry : activeAccountsCurrencies.entrySet()) {
+                if (!searchCriteria.hasCurrencyFilter() || entry.getValue().equals(searchCriteria.getCurrency().getId())) {
+                    accountIds.add(entry.getKey());
+                }
+            }
+        }
+
+        LocalDate date = null;
+        if (searchCriteria.hasPeriodFilter()) {
+            date = searchCriteria.getPeriod().getEnd();
+        }
+        BigDecimal balance = BigDecimal.ZERO;
+        for (Long accountId : accountIds) {
+            balance = balance.add(getBalanceUntil(accountId, date, searchCriteria.isIncludeTransferTransactions()));
+        }
+
+        return balance;
+    }
+
+    /** Cumulative balances of an account */
+    private static class AccountBalances {
+
+        /** Days with transactions (sorted) */
+        private final LocalDate[] dates;
+        /** Balance of the account at the end of each day */
+        private final BigDecimal[] balances;
+        /** Balance of the account at the end of each day, without the transfers */
+        private final BigDecimal[] balancesWithoutTransfers;
+
+        /**
+         * Creates a new instance of AccountBalances
+         * @param dailyBalances Balances of the account by day, sorted by day
+         */
+        public AccountBalances(List<Object[]> dailyBalances) {
+            int size = dailyBalances.size();
+            dates = new LocalDate[size];
+            balances = new BigDecimal[size];
+            balancesWithoutTransfers = new BigDecimal[size];
+
+            BigDecimal balance = BigDecimal.ZERO;
+            BigDecimal balanceWithoutTransfers = BigDecimal.ZERO;
+            for (int i = 0; i < size; i++) {
+                Object[] row = dailyBalances.get(i);
+                BigDecimal amount = (BigDecimal) row[2];
+                BigDecimal transfersAmount = (BigDecimal) row[3];
+                balance = balance.add(amount);
+                balanceWithoutTransfers = balanceWithoutTransfers.add(amount.subtract(transfersAmount));
+
+                dates[i] = (LocalDate) row[1];
+                balances[i] = balance;
+                balancesWithoutTransfers[i] = balanceWithoutTransfers;
+            }
+        }
+
+        /**
+         * Gets the balance of the account at the end of a day
+         * @param date Day (null to get the balance after the last transaction)
+         * @param includeTransfers Include the transfers in the balance?
+         * @return Balance of the account
+         */
+        public BigDecimal getBalanceUntil(LocalDate date, boolean includeTransfers) {
+            // Binary search of the last day before the date (included)
+            int index = dates.length - 1;
+            if (date != null) {
+                int low = 0;
+                int high = dates.length - 1;
+                index = -1;
+                while (low <= high) {
+                    int middle = (low + high) >>> 1;
+                    if (dates[middle].compareTo(date) <= 0) {
+                        index = middle;
+                        low = middle + 1;
+                    } else {
+                        high = middle - 1;
+                    }
+                }
+            }
+
+            if (index < 0) {
+                return BigDecimal.ZERO; // No transaction before the date
+            }
+            return includeTransfers ? balances[index] : balancesWithoutTransfers[index];
+        }
+    }
+}
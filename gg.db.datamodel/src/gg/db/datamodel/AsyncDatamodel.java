@@ -0,0 +1,324 @@
+/*
+ * AsyncDatamodel.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.db.datamodel;
+
+import gg.db.entities.Account;
+import gg.db.entities.Category;
+import gg.db.entities.Transaction;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <B>AsyncDatamodel</B>
+ * <UL>
+ * <LI>Asynchronous access to <CODE>Datamodel</CODE>: the queries are run by a dedicated pool of threads
+ * (one thread per processor) and the results are returned as futures</LI>
+ * <LI>The views wait for the futures outside of the event dispatch thread, so that the UI is not frozen during the queries</LI>
+ * <LI>A query can be cancelled with <CODE>Future.cancel()</CODE>: a query which has not started yet is never run,
+ * and the statement of a running query is cancelled (<CODE>Statement.cancel()</CODE>, if the JDBC driver supports it).
+ * The threads are never interrupted (an interrupted thread can close the files of the embedded database)</LI>
+ * </UL>
+ * @author Francois Duchemin
+ */
+public class AsyncDatamodel {
+
+    /** Threads which run the queries */
+    private static final ExecutorService executor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread queryThread = new Thread(r, "Datamodel query");
+            queryThread.setDaemon(true);
+            return queryThread;
+        }
+    });
+
+    /**
+     * Submits a query
+     * @param query Query to run (it must not interrupt its thread)
+     * @return Result of the query (<CODE>cancel()</CODE> cancels the running statement instead of interrupting the thread)
+     */
+    public static <T> Future<T> submit(Callable<T> query) {
+        if (query == null) {
+            throw new IllegalArgumentException("The parameter 'query' is null");
+        }
+        QueryTask<T> task = new QueryTask<T>(query);
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Waits for the result of a query<BR/>
+     * If the current thread is interrupted while it waits (the result is not needed any more), the query is cancelled
+     * @param query Submitted query
+     * @return Result of the query
+     * @throws java.lang.InterruptedException If the current thread has been interrupted while waiting
+     * @throws java.util.concurrent.ExecutionException If the query has failed
+     */
+    public static <T> T getResult(Future<T> query) throws InterruptedException, ExecutionException {
+        if (query == null) {
+            throw new IllegalArgumentException("The parameter 'query' is null");
+        }
+        try {
+            return query.get();
+        } catch (InterruptedException ex) {
+            query.cancel(false);
+            throw ex;
+        }
+    }
+
+    /**
+     * Gets the income total based on a search criteria (see <CODE>Datamodel.getIncome()</CODE>)
+     * @param searchCriteria Search criteria
+     * @return Income
+     */
+    public static Future<BigDecimal> getIncome(final SearchCriteria searchCriteria) {
+        if (searchCriteria == null) {
+            throw new IllegalArgumentException("The parameter 'searchCriteria' is null");
+        }
+        return submit(new Callable<BigDecimal>() {
+
+            @Override
+            public BigDecimal call() {
+                return Datamodel.getIncome(searchCriteria);
+            }
+        });
+    }
+
+    /**
+     * Gets the expenses total based on a search criteria (see <CODE>Datamodel.getExpenses()</CODE>)
+     * @param searchCriteria Search criteria
+     * @return Expenses
+     */
+    public static Future<BigDecimal> getExpenses(final SearchCriteria searchCriteria) {
+        if (searchCriteria == null) {
+            throw new IllegalArgumentException("The parameter 'searchCriteria' is null");
+        }
+        return submit(new Callable<BigDecimal>() {
+
+            @Override
+            public BigDecimal call() {
+                return Datamodel.getExpenses(searchCriteria);
+            }
+        });
+    }
+
+    /**
+     * Gets the balance corresponding to a search criteria (see <CODE>Datamodel.getBalance()</CODE>)
+     * @param searchCriteria Search criteria
+     * @return Balance
+     */
+    public static Future<BigDecimal> getBalance(final SearchCriteria searchCriteria) {
+        if (searchCriteria == null) {
+            throw new IllegalArgumentException("The parameter 'searchCriteria' is null");
+        }
+        return submit(new Callable<BigDecimal>() {
+
+            @Override
+            public BigDecimal call() {
+                return Datamodel.getBalance(searchCriteria);
+            }
+        });
+    }
+
+    /**
+     * Gets the balance corresponding to a search criteria, until a certain date (see <CODE>Datamodel.getBalanceUntil()</CODE>)
+     * @param searchCriteria Search criteria
+     * @return Balance
+     */
+    public static Future<BigDecimal> getBalanceUntil(final SearchCriteria searchCriteria) {
+        if (searchCriteria == null) {
+            throw new IllegalArgumentException("The parameter 'searchCriteria' is null");
+        }
+        return submit(new Callable<BigDecimal>() {
+
+            @Override
+            public BigDecimal call() {
+                return Datamodel.getBalanceUntil(searchCriteria);
+            }
+        });
+    }
+
+    /**
+     * Gets the list of transactions that meet a search criteria (see <CODE>Datamodel.getTransactions()</CODE>)
+     * @param searchCriteria Search criteria
+     * @return List of transactions
+     */
+    public static Future<List<Transaction>> getTransactions(final SearchCriteria searchCriteria) {
+        if (searchCriteria == null) {
+            throw new IllegalArgumentException("The parameter 'searchCriteria' is null");
+        }
+        return submit(new Callable<List<Transaction>>() {
+
+            @Override
+            public List<Transaction> call() {
+                return Datamodel.getTransactions(searchCriteria);
+            }
+        });
+    }
+
+    /**
+     * Gets the categories' balances based on a search criteria (see <CODE>Datamodel.getCategoriesBalances()</CODE>)
+     * @param searchCriteria Search criteria
+     * @return List of category balances (category ID, category balance)
+     */
+    public static Future<List> getCategoriesBalances(final SearchCriteria searchCriteria) {
+        if (searchCriteria == null) {
+            throw new IllegalArgumentException("The parameter 'searchCriteria' is null");
+        }
+        return submit(new Callable<List>() {
+
+            @Override
+            public List call() {
+                return Datamodel.getCategoriesBalances(searchCriteria);
+            }
+        });
+    }
+
+    /**
+     * Gets the movements of accounts during each period (see <CODE>Datamodel.getAccountsMovements()</CODE>)
+     * @param accounts Accounts for which the movements are wanted
+     * @param periods Periods for which the movements are wanted
+     * @return Movements of each account during each period by account ID
+     */
+    public static Future<Map<Long, BigDecimal[]>> getAccountsMovements(final List<Account> accounts, final Periods periods) {
+        if (accounts == null) {
+            throw new IllegalArgumentException("The parameter 'accounts' is null");
+        }
+        if (periods == null) {
+            throw new IllegalArgumentException("The parameter 'periods' is null");
+        }
+        return submit(new Callable<Map<Long, BigDecimal[]>>() {
+
+            @Override
+            public Map<Long, BigDecimal[]> call() {
+                return Datamodel.getAccountsMovements(accounts, periods);
+            }
+        });
+    }
+
+    /**
+     * Gets the balances of accounts at the end of each period (see <CODE>Datamodel.getAccountsBalancesUntil()</CODE>)
+     * @param accounts Accounts for which the balances are wanted
+     * @param periods Periods for which the balances are wanted
+     * @return Balances of each account at the end of each period by account ID
+     */
+    public static Future<Map<Long, BigDecimal[]>> getAccountsBalancesUntil(final List<Account> accounts, final Periods periods) {
+        if (accounts == null) {
+            throw new IllegalArgumentException("The parameter 'accounts' is null");
+        }
+        if (periods == null) {
+            throw new IllegalArgumentException("The parameter 'periods' is null");
+        }
+        return submit(new Callable<Map<Long, BigDecimal[]>>() {
+
+            @Override
+            public Map<Long, BigDecimal[]> call() {
+                return Datamodel.getAccountsBalancesUntil(accounts, periods);
+            }
+        });
+    }
+
+    /**
+     * Gets the balances of categories and sub-categories during each period (see <CODE>Datamodel.getCategoriesCube()</CODE>)
+     * @param searchCriteria Search criteria (currency, accounts, categories filter and transfers)
+     * @param periods Periods for which the balances are wanted
+     * @param categories Categories and sub-categories of the cube
+     * @return Cube of the categories' balances by period
+     */
+    public static Future<CategoriesCube> getCategoriesCube(final SearchCriteria searchCriteria, final Periods periods, final List<Category> categories) {
+        if (searchCriteria == null) {
+            throw new IllegalArgumentException("The parameter 'searchCriteria' is null");
+        }
+        if (periods == null) {
+            throw new IllegalArgumentException("The parameter 'periods' is null");
+        }
+        if (categories == null) {
+            throw new IllegalArgumentException("The parameter 'categories' is null");
+        }
+        return submit(new Callable<CategoriesCube>() {
+
+            @Override
+            public CategoriesCube call() {
+                return Datamodel.getCategoriesCube(searchCriteria, periods, categories);
+            }
+        });
+    }
+
+    /** Query which cancels its running statement when it is cancelled */
+    private static class QueryTask<T> extends FutureTask<T> {
+
+        /** Thread which runs the query (null if the query is not running) */
+        private Thread runner;
+
+        /**
+         * Creates a new instance of QueryTask
+         * @param query Query to run
+         */
+        public QueryTask(Callable<T> query) {
+            super(query);
+        }
+
+        /** Runs the query */
+        @Override
+        public void run() {
+            synchronized (this) {
+                runner = Thread.currentThread();
+            }
+            try {
+                super.run();
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                }
+            }
+        }
+
+        /**
+         * Cancels the query: the thread is never interrupted, but the running statement is cancelled
+         * @param mayInterruptIfRunning Ignored
+         * @return false if the query has already completed
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(false);
+            if (cancelled) {
+                // The runner is not cleared before the end of the cancellation: the thread cannot run another query meanwhile
+                synchronized (this) {
+                    if (runner != null) {
+                        Installer.cancelQuery(runner);
+                    }
+                }
+            }
+            return cancelled;
+        }
+    }
+}
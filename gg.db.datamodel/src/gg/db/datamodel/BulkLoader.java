@@ -0,0 +1,199 @@
+/*
+ * BulkLoader.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.db.datamodel;
+
+import java.util.Iterator;
+import java.util.logging.Logger;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.engine.SessionImplementor;
+
+/**
+ * <B>BulkLoader</B>
+ * <UL>
+ * <LI>Inserts a large number of entities in the embedded database (used by the imports)</LI>
+ * <LI>The entities are written through a stateless session: the inserts are sent to the database by JDBC batches
+ * of <CODE>getBatchSize()</CODE> statements</LI>
+ * <LI>The database transaction is committed only when <CODE>commit()</CODE> is called (once per import phase),
+ * instead of once per entity like the <CODE>Datamodel.saveXXX()</CODE> methods</LI>
+ * </UL>
+ * Usage:
+ * <PRE>
+ * BulkLoader loader = new BulkLoader();
+ * try {
+ *     loader.insert(entity);
+ *     ...
+ *     loader.commit();
+ * } finally {
+ *     loader.close();
+ * }
+ * </PRE>
+ * @author Francois Duchemin
+ */
+public class BulkLoader {
+
+    /** System property which overrides the number of statements sent to the database in one JDBC batch */
+    public static final String BATCH_SIZE_PROPERTY = "gg.db.batchSize";
+    /** Default number of statements sent to the database in one JDBC batch */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    /** Class name */
+    private static final String CLASS_NAME = "gg.db.datamodel.BulkLoader";
+    /** Logger */
+    private static Logger log = Logger.getLogger(CLASS_NAME);
+    /** Stateless session used to write the entities */
+    private StatelessSession session;
+    /** Current database transaction */
+    private Transaction transaction;
+    /** Number of statements sent to the database in one JDBC batch */
+    private int batchSize;
+    /** Number of statements added to the current JDBC batch */
+    private int pendingStatements;
+    /** Number of entities written since the creation of the loader */
+    private long numberOfWrittenEntities;
+    /** Number of entities written when the last commit occurred */
+    private long numberOfCommittedEntities;
+
+    /** Creates a new instance of BulkLoader with the batch size <CODE>getBatchSize()</CODE> */
+    public BulkLoader() {
+        this(getBatchSize());
+    }
+
+    /**
+     * Creates a new instance of BulkLoader
+     * @param batchSize Number of statements sent to the database in one JDBC batch
+     * (cannot be greater than the Hibernate property <CODE>hibernate.jdbc.batch_size</CODE>)
+     */
+    public BulkLoader(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("The parameter 'batchSize' should be greater than 0");
+        }
+        this.batchSize = batchSize;
+        this.session = Installer.openStatelessSession();
+        this.transaction = session.beginTransaction();
+    }
+
+    /**
+     * Gets the default number of statements sent to the database in one JDBC batch
+     * @return Value of the system property <CODE>gg.db.batchSize</CODE> if it is defined, <CODE>DEFAULT_BATCH_SIZE</CODE> otherwise
+     */
+    public static int getBatchSize() {
+        return Integer.getInteger(BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Inserts an entity (the ID of the entity is generated if needed)
+     * @param entity Entity to insert
+     */
+    public void insert(Object entity) {
+        if (entity == null) {
+            throw new IllegalArgumentException("The parameter 'entity' is null");
+        }
+        session.insert(entity);
+        statementAdded();
+    }
+
+    /**
+     * Inserts a stream of entities
+     * @param entities Entities to insert
+     */
+    public void insert(Iterator<?> entities) {
+        if (entities == null) {
+            throw new IllegalArgumentException("The parameter 'entities' is null");
+        }
+        while (entities.hasNext()) {
+            insert(entities.next());
+        }
+    }
+
+    /**
+     * Updates an entity already saved in the database
+     * @param entity Entity to update
+     */
+    public void update(Object entity) {
+        if (entity == null) {
+            throw new IllegalArgumentException("The parameter 'entity' is null");
+        }
+        session.update(entity);
+        statementAdded();
+    }
+
+    /**
+     * Deletes an entity saved in the database (only the ID of the entity is needed)
+     * @param entity Entity to delete
+     */
+    public void delete(Object entity) {
+        if (entity == null) {
+            throw new IllegalArgumentException("The parameter 'entity' is null");
+        }
+        session.delete(entity);
+        statementAdded();
+    }
+
+    /** Sends the current JDBC batch to the database when it is full */
+    private void statementAdded() {
+        numberOfWrittenEntities++;
+        pendingStatements++;
+        if (pendingStatements >= batchSize) {
+            ((SessionImplementor) session).getBatcher().executeBatch();
+            pendingStatements = 0;
+        }
+    }
+
+    /**
+     * Commits the entities written since the last commit (the pending JDBC batch is sent to the database)<BR/>
+     * A new database transaction is started, so that the loader can be used for the next phase of the import<BR/>
+     * The stateless session bypasses the second-level cache: if entities have been written, the cached reference data and
+     * the query cache are emptied, so that the next phase does not read stale accounts, currencies, categories or payees
+     */
+    public void commit() {
+        log.entering(CLASS_NAME, "commit", numberOfWrittenEntities);
+        transaction.commit();
+        pendingStatements = 0;
+        if (numberOfWrittenEntities > numberOfCommittedEntities) {
+            Datamodel.evictReferenceData();
+            numberOfCommittedEntities = numberOfWrittenEntities;
+        }
+        transaction = session.beginTransaction();
+        log.exiting(CLASS_NAME, "commit");
+    }
+
+    /**
+     * Gets the number of entities written since the creation of the loader
+     * @return Number of written entities
+     */
+    public long getNumberOfWrittenEntities() {
+        return numberOfWrittenEntities;
+    }
+
+    /** Closes the loader: the entities written since the last commit are rolled back */
+    public void close() {
+        log.entering(CLASS_NAME, "close");
+        try {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+        } finally {
+            session.close();
+        }
+        log.exiting(CLASS_NAME, "close");
+    }
+}
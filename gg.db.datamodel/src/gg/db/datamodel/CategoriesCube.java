@@ -0,0 +1,134 @@
+/*
+ * CategoriesCube.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.db.datamodel;
+
+import gg.db.entities.Category;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <B>CategoriesCube</B>
+ * <UL>
+ * <LI>Immutable balances of categories and sub-categories by period</LI>
+ * <LI>The balances are stored in a dense array indexed by the ordinal of the category (position in <CODE>getCategories()</CODE>)
+ * and by the position of the period (position in <CODE>getPeriods().getPeriods()</CODE>)</LI>
+ * <LI>The balance of a top-category is the sum of the balances of its sub-categories which match the categories filter</LI>
+ * </UL>
+ * Created by <CODE>Datamodel.getCategoriesCube()</CODE>
+ * @author Francois Duchemin
+ */
+public final class CategoriesCube {
+
+    /** Periods (one column per period) */
+    private final Periods periods;
+    /** Categories and sub-categories (one row per category) */
+    private final List<Category> categories;
+    /** Categories selected in the search filter (empty if there is no filter on the categories) */
+    private final List<Category> categoriesFilter;
+    /** Ordinal of each category (position in <CODE>categories</CODE>) by category ID */
+    private final Map<Long, Integer> ordinals;
+    /** Balances by category ordinal and by period position */
+    private final BigDecimal[][] balances;
+
+    /**
+     * Creates a new instance of CategoriesCube
+     * @param periods Periods (one column per period)
+     * @param categories Categories and sub-categories (one row per category)
+     * @param categoriesFilter Categories selected in the search filter (empty if there is no filter on the categories)
+     * @param balances Balances by category ordinal and by period position (not copied: must not be modified afterwards)
+     */
+    CategoriesCube(Periods periods, List<Category> categories, List<Category> categoriesFilter, BigDecimal[][] balances) {
+        if (periods == null) {
+            throw new IllegalArgumentException("The parameter 'periods' is null");
+        }
+        if (categories == null) {
+            throw new IllegalArgumentException("The parameter 'categories' is null");
+        }
+        if (categoriesFilter == null) {
+            throw new IllegalArgumentException("The parameter 'categoriesFilter' is null");
+        }
+        if (balances == null) {
+            throw new IllegalArgumentException("The parameter 'balances' is null");
+        }
+        if (balances.length != categories.size()) {
+            throw new IllegalArgumentException("The balances do not match the categories");
+        }
+
+        this.periods = periods;
+        this.categories = Collections.unmodifiableList(new ArrayList<Category>(categories));
+        this.categoriesFilter = Collections.unmodifiableList(new ArrayList<Category>(categoriesFilter));
+        this.ordinals = new HashMap<Long, Integer>();
+        for (int i = 0; i < categories.size(); i++) {
+            ordinals.put(categories.get(i).getId(), i);
+        }
+        this.balances = balances;
+    }
+
+    /**
+     * Gets the periods
+     * @return Periods (one column per period)
+     */
+    public Periods getPeriods() {
+        return periods;
+    }
+
+    /**
+     * Gets the categories and sub-categories
+     * @return Unmodifiable list of categories (one row per category)
+     */
+    public List<Category> getCategories() {
+        return categories;
+    }
+
+    /**
+     * Gets the categories selected in the search filter
+     * @return Unmodifiable list of categories (empty if there is no filter on the categories)
+     */
+    public List<Category> getCategoriesFilter() {
+        return categoriesFilter;
+    }
+
+    /**
+     * Gets the balance of a category during a period
+     * @param category Category or sub-category
+     * @param periodIndex Position of the period in <CODE>getPeriods().getPeriods()</CODE>
+     * @return Balance of the category during the period
+     */
+    public BigDecimal getBalance(Category category, int periodIndex) {
+        if (category == null) {
+            throw new IllegalArgumentException("The parameter 'category' is null");
+        }
+        Integer ordinal = ordinals.get(category.getId());
+        if (ordinal == null) {
+            throw new IllegalArgumentException("The category '" + category + "' is not in the cube");
+        }
+        if (periodIndex < 0 || periodIndex >= balances[ordinal].length) {
+            throw new IllegalArgumentException("The parameter 'periodIndex' is not valid: " + periodIndex);
+        }
+
+        return balances[ordinal][periodIndex];
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * CommentIndex.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.db.datamodel;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * <B>CommentIndex</B>
+ * <UL>
+ * <LI>Trigram index of the comments of the transactions without parent transaction, used by the filter on keywords</LI>
+ * <LI>The comments are normalized (accents removed, upper case) and stored once in a dictionary: each row of the transaction columns
+ * (see <CODE>TransactionColumns</CODE>) refers to the ordinal of its comment</LI>
+ * <LI>Each sequence of three characters (trigram) is indexed by the bitmap of the comments which contain it: the comments which
+ * can contain a word are found by intersecting the bitmaps of the trigrams of the word, then each candidate comment is checked once</LI>
+ * <LI>The index is immutable: it is built by <CODE>Datamodel</CODE> after each import, and replaced when the transactions change</LI>
+ * </UL>
+ * @author Francois Duchemin
+ */
+final class CommentIndex {
+
+    /** Number of characters of the indexed sequences */
+    private static final int GRAM_LENGTH = 3;
+    /** Combining diacritical marks (removed from the decomposed comments) */
+    private static final Pattern DIACRITICAL_MARKS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+    /** Comment ordinal of each row of the transaction columns */
+    private final int[] commentOrdinals;
+    /** Normalized comment by comment ordinal */
+    private final String[] comments;
+    /** Comments which contain each trigram (by trigram) */
+    private final Map<Long, RowBitmap> trigrams;
+
+    /**
+     * Creates a new instance of CommentIndex
+     * @param commentOrdinals Comment ordinal of each row of the transaction columns
+     * @param comments Normalized comment by comment ordinal
+     * @param trigrams Comments which contain each trigram
+     */
+    private CommentIndex(int[] commentOrdinals, String[] comments, Map<Long, RowBitmap> trigrams) {
+        this.commentOrdinals = commentOrdinals;
+        this.comments = comments;
+        this.trigrams = trigrams;
+    }
+
+    /**
+     * Builds the index of the comments of the transactions
+     * @param transactions Transactions without parent transaction, in the order of the rows of the columns: each item is an array
+     * which contains the ID and the comment of the transaction
+     * @param columns Columns of the transactions
+     * @return Index of the comments (null if the transactions are not in the order of the rows of the columns)
+     */
+    static CommentIndex create(List transactions, TransactionColumns columns) {
+        if (transactions == null) {
+            throw new IllegalArgumentException("The parameter 'transactions' is null");
+        }
+        if (columns == null) {
+            throw new IllegalArgumentException("The parameter 'columns' is null");
+        }
+        if (transactions.size() != columns.size()) {
+            return null;
+        }
+
+        // Dictionary of the normalized comments
+        int[] commentOrdinals = new int[transactions.size()];
+        List<String> comments = new ArrayList<String>();
+        Map<String, Integer> ordinals = new HashMap<String, Integer>();
+        for (int i = 0; i < commentOrdinals.length; i++) {
+            Object[] row = (Object[]) transactions.get(i);
+            if (((Long) row[0]).longValue() != columns.getTransactionId(i)) {
+                return null;
+            }
+            String comment = normalize((String) row[1]);
+            Integer ordinal = ordinals.get(comment);
+            if (ordinal == null) {
+                ordinal = comments.size();
+                comments.add(comment);
+                ordinals.put(comment, ordinal);
+            }
+            commentOrdinals[i] = ordinal;
+        }
+
+        // Comments of each trigram (the ordinals are added in ascending order)
+        Map<Long, Postings> postings = new HashMap<Long, Postings>();
+        for (int i = 0; i < comments.size(); i++) {
+            for (long trigram : getTrigrams(comments.get(i))) {
+                Postings trigramPostings = postings.get(trigram);
+                if (trigramPostings == null) {
+                    trigramPostings = new Postings();
+                    postings.put(trigram, trigramPostings);
+                }
+                trigramPostings.add(i);
+            }
+        }
+        Map<Long, RowBitmap> trigrams = new HashMap<Long, RowBitmap>();
+        for (Map.Entry<Long, Postings> entry : postings.entrySet()) {
+            trigrams.put(entry.getKey(), RowBitmap.of(entry.getValue().ordinals, 0, entry.getValue().size));
+        }
+
+        return new CommentIndex(commentOrdinals, comments.toArray(new String[comments.size()]), trigrams);
+    }
+
+    /**
+     * Gets the number of distinct comments
+     * @return Number of comments of the dictionary
+     */
+    int getNumberOfComments() {
+        return comments.length;
+    }
+
+    /**
+     * Keeps the rows whose comment contains all the keywords (the case and the accents are ignored)
+     * @param rows Rows of the transaction columns, sorted
+     * @param keywords Words which must be contained by the comments
+     * @return Rows whose comment contains all the keywords, sorted
+     */
+    int[] filter(int[] rows, List<String> keywords) {
+        if (rows == null) {
+            throw new IllegalArgumentException("The parameter 'rows' is null");
+        }
+        if (keywords == null) {
+            throw new IllegalArgumentException("The parameter 'keywords' is null");
+        }
+
+        // Candidate comments: comments which contain all the trigrams of the keywords
+        List<String> words = new ArrayList<String>();
+        RowBitmap candidates = null;
+        for (String keyword : keywords) {
+            String word = normalize(keyword);
+            words.add(word);
+            for (long trigram : getTrigrams(word)) {
+                RowBitmap trigramComments = trigrams.get(trigram);
+                if (trigramComments == null) {
+                    return new int[0]; // Trigram which is in no comment
+                }
+                candidates = (candidates == null) ? trigramComments : candidates.and(trigramComments);
+            }
+        }
+        int[] candidateComments = (candidates != null) ? candidates.getRows(0, comments.length) : null;
+
+        // Check the candidate comments (all the comments if the keywords are too short to be indexed)
+        boolean[] matchingComments = new boolean[comments.length];
+        if (candidateComments != null) {
+            for (int ordinal : candidateComments) {
+                matchingComments[ordinal] = containsAll(comments[ordinal], words);
+            }
+        } else {
+            for (int ordinal = 0; ordinal < comments.length; ordinal++) {
+                matchingComments[ordinal] = containsAll(comments[ordinal], words);
+            }
+        }
+
+        int[] matchingRows = new int[rows.length];
+        int count = 0;
+        for (int row : rows) {
+            if (matchingComments[commentOrdinals[row]]) {
+                matchingRows[count++] = row;
+            }
+        }
+        return Arrays.copyOf(matchingRows, count);
+    }
+
+    /**
+     * Normalizes a text: the accents are removed and the letters are converted to upper case
+     * @param text Text
+     * @return Normalized text
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String decomposedText = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return DIACRITICAL_MARKS.matcher(decomposedText).replaceAll("").toUpperCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Does a comment contain all the words?
+     * @param comment Normalized comment
+     * @param words Normalized words
+     * @return true if the comment contains each word
+     */
+    private static boolean containsAll(String comment, List<String> words) {
+        for (String word : words) {
+            if (!comment.contains(word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the distinct trigrams of a text
+     * @param text Normalized text
+     * @return Trigrams (three characters packed in a long), sorted
+     */
+    private static long[] getTrigrams(String text) {
+        int numberOfTrigrams = Math.max(0, text.length() - GRAM_LENGTH + 1);
+        long[] textTrigrams = new long[numberOfTrigrams];
+        for (int i = 0; i < numberOfTrigrams; i++) {
+            textTrigrams[i] = ((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2);
+        }
+        Arrays.sort(textTrigrams);
+
+        int count = 0;
+        for (int i = 0; i < numberOfTrigrams; i++) {
+            if (i == 0 || textTrigrams[i] != textTrigrams[i - 1]) {
+                textTrigrams[count++] = textTrigrams[i];
+            }
+        }
+        return Arrays.copyOf(textTrigrams, count);
+    }
+
+    /** Growing list of comment ordinals */
+    private static class Postings {
+
+        /** Comment ordinals */
+        private int[] ordinals = new int[4];
+        /** Number of comment ordinals */
+        private int size = 0;
+
+        /**
+         * Adds a comment ordinal
+         * @param ordinal Comment ordinal
+         */
+        public void add(int ordinal) {
+            if (size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+            }
+            ordinals[size++] = ordinal;
+        }
+    }
+}
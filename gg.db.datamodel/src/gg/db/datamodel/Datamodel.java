@@ -21,22 +21,34 @@
  */
 package gg.db.datamodel;
 
+import gg.application.Constants;
 import gg.db.entities.Account;
 import gg.db.entities.Category;
 import gg.db.entities.Currency;
+import gg.db.entities.DailyBalance;
 import gg.db.entities.FileImport;
 import gg.db.entities.GrisbiCategory;
 import gg.db.entities.Payee;
+import java.io.File;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.hibernate.Query;
 import org.hibernate.Session;
+import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
+import org.hibernate.stat.Statistics;
+import org.joda.time.LocalDate;
 
 /**
  * Enable GrisbiGraphs to communicate with the embedded Derby database
@@ -48,6 +60,55 @@ public class Datamodel {
     private static final String CLASS_NAME = "gg.db.datamodel.Datamodel";
     /** Logger */
     private static Logger log = Logger.getLogger(CLASS_NAME);
+    /** System property: if 'false', the aggregates and the searches of transactions use the database instead of the in-memory columns of the transactions */
+    public static final String COLUMNS_PROPERTY = "gg.db.columns";
+    /** Name of the snapshot file of the columns of the transactions (in the database folder) */
+    private static final String SNAPSHOT_FILE_NAME = "transactions.columns";
+    /** The transactions are loaded by ID if they are at most 1/TRANSACTIONS_SELECTIVITY of the transactions of the period */
+    private static final int TRANSACTIONS_SELECTIVITY = 25;
+    /** Above this number of selected categories or payees, the loaded transactions are filtered instead of the IN lists of the query */
+    private static final int LARGE_LIST_SIZE = 32;
+    /**
+     * Number of IDs bound to each query which loads transactions by ID: without index statistics, Derby probes the primary key
+     * for IN lists of at most 3 values, and scans the whole table for longer lists
+     */
+    private static final int TRANSACTIONS_CHUNK_SIZE = 3;
+    /** Are the daily balances up to date? (null if unknown) */
+    private static volatile Boolean dailyBalancesAvailable;
+    /** Cumulative balances of the accounts (null if they have to be built) */
+    private static volatile AccountBalancesIndex accountBalancesIndex;
+    /** ID of the transfer category (null if it has to be read) */
+    private static volatile Long transferCategoryId;
+    /** In-memory columns of the transactions (null if they have to be loaded) */
+    private static volatile TransactionColumns transactionColumns;
+    /** Can the transactions be loaded into columns? (null if unknown) */
+    private static volatile Boolean transactionColumnsAvailable;
+    /** Index of the comments of the transactions (null if it has to be built) */
+    private static volatile CommentIndex commentIndex;
+    /** Columns of the transactions for which the index of the comments has been built */
+    private static volatile TransactionColumns commentIndexColumns;
+    /** Is an import running? (the snapshot of the transactions is not mapped until the import is logged) */
+    private static volatile boolean importRunning;
+    /** HQL statements of the queries by shape (filters applied, select, where and group by statements) */
+    private static final Map<String, String> queryTemplates = new ConcurrentHashMap<String, String>();
+    /** Query shape: filter on accounts */
+    private static final int QUERY_FILTER_ACCOUNTS = 1;
+    /** Query shape: filter on currency */
+    private static final int QUERY_FILTER_CURRENCY = 1 << 1;
+    /** Query shape: filter on start date */
+    private static final int QUERY_FILTER_START = 1 << 2;
+    /** Query shape: filter on end date */
+    private static final int QUERY_FILTER_END = 1 << 3;
+    /** Query shape: filter on categories */
+    private static final int QUERY_FILTER_CATEGORIES = 1 << 4;
+    /** Query shape: filter on payees */
+    private static final int QUERY_FILTER_PAYEES = 1 << 5;
+    /** Query shape: filter on keywords */
+    private static final int QUERY_FILTER_KEYWORDS = 1 << 6;
+    /** Query shape: transfers excluded */
+    private static final int QUERY_EXCLUDE_TRANSFERS = 1 << 7;
+    /** Query shape: daily balances queried instead of the transactions */
+    private static final int QUERY_FROM_DAILY_BALANCES = 1 << 8;
 
     /**
      * Gets the file imports log
@@ -76,7 +137,7 @@ public class Datamodel {
         Session s = Installer.currentSession();
         Transaction t = s.beginTransaction();
         @SuppressWarnings("unchecked")
-        List<Currency> currencies = (List<Currency>) s.createQuery("from Currency order by name").list();
+        List<Currency> currencies = (List<Currency>) s.createQuery("from Currency order by name").setCacheable(true).list();
         t.commit();
 
         log.exiting(CLASS_NAME, "getCurrencies", currencies);
@@ -111,7 +172,7 @@ public class Datamodel {
         Session s = Installer.currentSession();
         Transaction t = s.beginTransaction();
         @SuppressWarnings("unchecked")
-        List<Currency> activeCurrencies = (List<Currency>) s.createQuery("from Currency where active=true order by name").list();
+        List<Currency> activeCurrencies = (List<Currency>) s.createQuery("from Currency where active=true order by name").setCacheable(true).list();
         t.commit();
 
         log.exiting(CLASS_NAME, "getCurrencies", activeCurrencies);
@@ -128,7 +189,7 @@ public class Datamodel {
         Session s = Installer.currentSession();
         Transaction t = s.beginTransaction();
         @SuppressWarnings("unchecked")
-        List<Payee> payees = (List<Payee>) s.createQuery("from Payee order by name").list();
+        List<Payee> payees = (List<Payee>) s.createQuery("from Payee order by name").setCacheable(true).list();
         t.commit();
 
         log.exiting(CLASS_NAME, "getPayees", payees);
@@ -163,7 +224,7 @@ public class Datamodel {
         Session s = Installer.currentSession();
         Transaction t = s.beginTransaction();
         @SuppressWarnings("unchecked")
-        List<Account> accounts = (List<Account>) s.createQuery("from Account order by name").list();
+        List<Account> accounts = (List<Account>) s.createQuery("from Account order by name").setCacheable(true).list();
         t.commit();
 
         log.exiting(CLASS_NAME, "getAccounts", accounts);
@@ -180,7 +241,7 @@ public class Datamodel {
         Session s = Installer.currentSession();
         Transaction t = s.beginTransaction();
         @SuppressWarnings("unchecked")
-        List<Account> activeAccounts = (List<Account>) s.createQuery("from Account where active=true order by name").list();
+        List<Account> activeAccounts = (List<Account>) s.createQuery("from Account where active=true order by name").setCacheable(true).list();
         t.commit();
 
         log.exiting(CLASS_NAME, "getActiveAccounts", activeAccounts);
@@ -215,7 +276,7 @@ public class Datamodel {
         Session s = Installer.currentSession();
         Transaction t = s.beginTransaction();
         @SuppressWarnings("unchecked")
-        List<Category> categories = (List<Category>) s.createQuery("from Category order by name").list();
+        List<Category> categories = (List<Category>) s.createQuery("from Category order by name").setCacheable(true).list();
         t.commit();
 
         log.exiting(CLASS_NAME, "getCategories", categories);
@@ -237,7 +298,7 @@ public class Datamodel {
         Transaction t = s.beginTransaction();
         @SuppressWarnings("unchecked")
         List<Category> subCategories = (List<Category>) s.createQuery("from Category where parentCategory=:category").
-                setEntity("category", category).list();
+                setEntity("category", category).setCacheable(true).list();
         t.commit();
 
         log.exiting(CLASS_NAME, "getSubCategories", subCategories);
@@ -259,7 +320,7 @@ public class Datamodel {
         Transaction t = s.beginTransaction();
         @SuppressWarnings("unchecked")
         List<Account> activeAccounts = (List<Account>) s.createQuery("from Account where active=true and currency=:currency").
-                setEntity("currency", currency).list();
+                setEntity("currency", currency).setCacheable(true).list();
         t.commit();
 
         log.exiting(CLASS_NAME, "getActiveAccounts", activeAccounts);
@@ -278,7 +339,7 @@ public class Datamodel {
         @SuppressWarnings("unchecked")
         List<Category> topCategories = (List<Category>) s.createQuery("from Category " +
                 "where parentCategory is null " +
-                "order by name").list();
+                "order by name").setCacheable(true).list();
         t.commit();
 
         log.exiting(CLASS_NAME, "getTopCategories", topCategories);
@@ -345,6 +406,47 @@ public class Datamodel {
         return transactions;
     }
 
+    /**
+     * Gets the state of the transactions and sub-transactions of an account, as imported from the Grisbi file<BR/>
+     * Used by the delta imports to compare the database with the Grisbi file
+     * @param accountId ID of the account for which the transactions are wanted
+     * @return List of <CODE>Object[]</CODE>: {ID, Grisbi transaction ID, date, amount, category ID, payee ID, comment, parent transaction ID (can be null)}
+     */
+    public static List getImportedTransactions(Long accountId) {
+        log.entering(CLASS_NAME, "getImportedTransactions", accountId);
+        if (accountId == null) {
+            throw new IllegalArgumentException("The parameter 'accountId' is null");
+        }
+        Session s = Installer.currentSession();
+        Transaction t = s.beginTransaction();
+        List importedTransactions = s.createQuery("select t.id, t.grisbiTransactionId, t.date, t.amount, " +
+                "t.category.id, t.payee.id, t.comment, t.parentTransaction.id " +
+                "from Transaction t " +
+                "where t.account.id=:accountId").setLong("accountId", accountId).list();
+        t.commit();
+
+        log.exiting(CLASS_NAME, "getImportedTransactions", importedTransactions.size());
+        return importedTransactions;
+    }
+
+    /**
+     * Gets the number of transactions for which the ID of the transaction in the Grisbi file is unknown
+     * (transactions imported by an older version)
+     * @return Number of transactions without Grisbi transaction ID
+     */
+    public static long getNumberOfTransactionsWithoutGrisbiId() {
+        log.entering(CLASS_NAME, "getNumberOfTransactionsWithoutGrisbiId");
+        Session s = Installer.currentSession();
+        Transaction t = s.beginTransaction();
+        Long numberOfTransactions = (Long) s.createQuery("select count(*) " +
+                "from Transaction " +
+                "where grisbiTransactionId is null").uniqueResult();
+        t.commit();
+
+        log.exiting(CLASS_NAME, "getNumberOfTransactionsWithoutGrisbiId", numberOfTransactions);
+        return numberOfTransactions;
+    }
+
     /**
      * Gets the total balance of an account<BR/>
      * The amounts of all transactions are summed<BR/>
@@ -372,6 +474,33 @@ public class Datamodel {
         return totalBalance;
     }
 
+    /**
+     * Gets the total balances of all the accounts with one grouped query<BR/>
+     * The amounts of the transactions of each account are summed (no sub-transaction)<BR/>
+     * To have the current balance of an account, the initial amount must be added to its total balance
+     * @return Map containing the total balance of each account - the key of the map is the account's ID
+     * (the accounts without transaction are not in the map)
+     */
+    public static Map<Long, BigDecimal> getAccountsTotalBalances() {
+        log.entering(CLASS_NAME, "getAccountsTotalBalances");
+        Session s = Installer.currentSession();
+        Transaction t = s.beginTransaction();
+        List totalBalances = s.createQuery("select t.account.id, sum(t.amount) " +
+                "from Transaction t " +
+                "where t.parentTransaction is null " +
+                "group by t.account.id").list();
+        t.commit();
+
+        Map<Long, BigDecimal> accountsTotalBalances = new HashMap<Long, BigDecimal>();
+        for (Object totalBalance : totalBalances) {
+            Object[] row = (Object[]) totalBalance;
+            accountsTotalBalances.put((Long) row[0], (BigDecimal) row[1]);
+        }
+
+        log.exiting(CLASS_NAME, "getAccountsTotalBalances", accountsTotalBalances);
+        return accountsTotalBalances;
+    }
+
     /**
      * Gets the list of transactions that belong to a currency<BR/>
      * The list contains only transactions (no sub-transaction)
@@ -400,7 +529,14 @@ public class Datamodel {
     }
 
     /**
-     * Gets the list of transactions that meet a search criteria
+     * Gets the list of transactions that meet a search criteria<BR/>
+     * If the columns of the transactions are loaded, the filters on accounts, categories, payees and period are resolved
+     * by the bitmaps of the columns, and the filter on keywords by the index of the comments: if the filters are selective,
+     * only the matching transactions are loaded (by ID), otherwise the transactions are fetched by one query on the filters
+     * (if many categories or payees are selected, they are not bound as IN lists, which Derby compiles for each number of items
+     * and scans slowly: the loaded transactions are filtered on their category and payee instead)<BR/>
+     * If the index of the comments is loaded, the keywords are always resolved by this index (which ignores the case and the accents),
+     * even when the transactions are fetched by one query: the result does not depend on the selectivity of the filters
      * @param searchCriteria Search criteria
      * @return List of transactions
      */
@@ -410,31 +546,135 @@ public class Datamodel {
             throw new IllegalArgumentException("The parameter 'searchCriteria' is null");
         }
 
-        Session session = Installer.createSession();
-        Transaction tx = session.beginTransaction();
-
-        Query query = getQuery(session,
-                searchCriteria,
-                true, // Search from start
-                true, // Search until end
-                true, // Filter on categories
-                true,
-                true,
-                "select t",
-                null,
-                ""); // No group by
-        // Execute the query
-        @SuppressWarnings("unchecked")
-        List<gg.db.entities.Transaction> transactions = (List<gg.db.entities.Transaction>) query.list();
+        TransactionColumns columns = getTransactionColumns();
+        CommentIndex comments = (columns != null && searchCriteria.hasKeywordsFilter()) ? getCommentIndex(columns) : null;
+        Set<Long> matchingTransactionIds = null; // IDs of the transactions whose comment contains the keywords
+        if (columns != null && (!searchCriteria.hasKeywordsFilter() || comments != null)) {
+            int[] rows = columns.getRows(searchCriteria);
+            if (comments != null) {
+                rows = comments.filter(rows, searchCriteria.getKeywordsList());
+            }
+            if ((long) rows.length * TRANSACTIONS_SELECTIVITY <= columns.getNumberOfTransactions(searchCriteria)) {
+                List<gg.db.entities.Transaction> transactions = getTransactions(columns.getTransactionIds(rows));
+                log.exiting(CLASS_NAME, "getTransactions", transactions);
+                return transactions;
+            }
+            if (comments != null) {
+                // The keywords are not searched by the query (LIKE is sensitive to the accents): the rows of the index are kept
+                matchingTransactionIds = new HashSet<Long>(columns.getTransactionIds(rows));
+            }
+        }
+        // Large lists of categories or payees are not bound as IN lists: the transactions are filtered once loaded
+        boolean filterOnLists = searchCriteria.getCategories().size() <= LARGE_LIST_SIZE &&
+                searchCriteria.getPayees().size() <= LARGE_LIST_SIZE;
+        List<gg.db.entities.Transaction> transactions;
+        Session session = Installer.openReadOnlySession();
+        try {
+            Transaction tx = session.beginTransaction();
+
+            Query query = getQuery(session,
+                    searchCriteria,
+                    true, // Search from start
+                    true, // Search until end
+                    filterOnLists, // Filter on categories (small lists only)
+                    filterOnLists, // Filter on payees (small lists only)
+                    matchingTransactionIds == null, // Filter on keywords (if they are not resolved by the index of the comments)
+                    false, // Transactions expected
+                    "select t",
+                    null,
+                    ""); // No group by
+            // Execute the query
+            @SuppressWarnings("unchecked")
+            List<gg.db.entities.Transaction> queryTransactions = (List<gg.db.entities.Transaction>) query.list();
+            transactions = filterOnLists ? queryTransactions : filterTransactions(queryTransactions, searchCriteria);
+            if (matchingTransactionIds != null) {
+                List<gg.db.entities.Transaction> matchingTransactions = new ArrayList<gg.db.entities.Transaction>(matchingTransactionIds.size());
+                for (gg.db.entities.Transaction transaction : transactions) {
+                    if (matchingTransactionIds.contains(transaction.getId())) {
+                        matchingTransactions.add(transaction);
+                    }
+                }
+                transactions = matchingTransactions;
+            }
 
-        session.flush();
-        tx.commit();
-        session.close();
+            tx.commit();
+        } finally {
+            Installer.closeReadOnlySession(session);
+        }
 
         log.exiting(CLASS_NAME, "getTransactions", transactions);
         return transactions;
     }
 
+    /**
+     * Keeps the transactions whose category and payee are selected by a search criteria
+     * @param transactions Transactions
+     * @param searchCriteria Search criteria
+     * @return Transactions which match the filters on categories and payees
+     */
+    private static List<gg.db.entities.Transaction> filterTransactions(List<gg.db.entities.Transaction> transactions, SearchCriteria searchCriteria) {
+        Set<Long> categoryIds = new HashSet<Long>();
+        for (Category category : searchCriteria.getCategories()) {
+            categoryIds.add(category.getId());
+        }
+        Set<Long> payeeIds = new HashSet<Long>();
+        for (Payee payee : searchCriteria.getPayees()) {
+            payeeIds.add(payee.getId());
+        }
+
+        List<gg.db.entities.Transaction> filteredTransactions = new ArrayList<gg.db.entities.Transaction>();
+        for (gg.db.entities.Transaction transaction : transactions) {
+            if ((categoryIds.isEmpty() || categoryIds.contains(transaction.getCategory().getId())) &&
+                    (payeeIds.isEmpty() || payeeIds.contains(transaction.getPayee().getId()))) {
+                filteredTransactions.add(transaction);
+            }
+        }
+        return filteredTransactions;
+    }
+
+    /**
+     * Loads transactions by ID<BR/>
+     * The IDs are bound by chunks of <CODE>TRANSACTIONS_CHUNK_SIZE</CODE> to one query each,
+     * and the loaded transactions are put back in the order of the IDs<BR/>
+     * The IDs which are not found in the database (the columns of the transactions are stale) are skipped
+     * @param transactionIds IDs of the transactions
+     * @return List of transactions, in the order of the IDs
+     */
+    private static List<gg.db.entities.Transaction> getTransactions(List<Long> transactionIds) {
+        List<gg.db.entities.Transaction> transactions = new ArrayList<gg.db.entities.Transaction>(transactionIds.size());
+        if (transactionIds.isEmpty()) {
+            return transactions;
+        }
+
+        Map<Long, gg.db.entities.Transaction> transactionsWithId = new HashMap<Long, gg.db.entities.Transaction>(transactionIds.size() * 2);
+        Session session = Installer.openReadOnlySession();
+        try {
+            Transaction tx = session.beginTransaction();
+            Query query = session.createQuery("from Transaction t where t.id in (:ids)");
+            for (int start = 0; start < transactionIds.size(); start += TRANSACTIONS_CHUNK_SIZE) {
+                List<Long> chunk = transactionIds.subList(start, Math.min(start + TRANSACTIONS_CHUNK_SIZE, transactionIds.size()));
+                query.setParameterList("ids", chunk);
+                for (Object transaction : query.list()) {
+                    transactionsWithId.put(((gg.db.entities.Transaction) transaction).getId(), (gg.db.entities.Transaction) transaction);
+                }
+            }
+            tx.commit();
+        } finally {
+            Installer.closeReadOnlySession(session);
+        }
+
+        for (Long transactionId : transactionIds) {
+            gg.db.entities.Transaction transaction = transactionsWithId.get(transactionId);
+            if (transaction != null) {
+                transactions.add(transaction);
+            }
+        }
+        if (transactions.size() < transactionIds.size()) {
+            log.warning((transactionIds.size() - transactions.size()) + " transactions of the columns are not in the database: they are skipped");
+        }
+        return transactions;
+    }
+
     /**
      * Gets the total balance of a currency (sum of balances of the active accounts that belong to the currency)
      * @param currency Currency for which the total balance must be computed
@@ -481,7 +721,8 @@ public class Datamodel {
                 "where grisbiCategoryId=:grisbiCategoryId and " +
                 "grisbiSubCategoryId=:grisbiSubCategoryId").
                 setParameter("grisbiCategoryId", grisbiCategoryId).
-                setParameter("grisbiSubCategoryId", grisbiSubCategoryId);
+                setParameter("grisbiSubCategoryId", grisbiSubCategoryId).
+                setCacheable(true);
         Category category = (Category) query.uniqueResult();
         t.commit();
 
@@ -490,119 +731,226 @@ public class Datamodel {
     }
 
     /**
-     * Gets a query object
+     * Gets a query object<BR/>
+     * The HQL statement is taken from a cache of query templates, keyed by the shape of the query (the filters which are applied,
+     * the select, where and group by statements), so that Hibernate finds the statement already translated in its query plan cache;
+     * only the parameters are bound for each call<BR/>
+     * The number of shapes is bounded (a few select statements and a few filters), so the cache is never emptied<BR/>
+     * The lists of accounts, categories and payees are padded (see <CODE>getPaddedList()</CODE>), so that the SQL statements are reused
+     * whatever the number of selected items
      * @param session Database session
      * @param searchCriteria Search criteria
      * @param searchFromStartDate Search from start? (if false, no filter on start date)
      * @param searchUntilEndDate Search until end? (if false, no filter on end date)
      * @param filterOnCategories Filter on categories?
+     * @param filterOnPayees Filter on payees?
+     * @param filterOnKeywords Filter on keywords?
+     * @param fromDailyBalances Query the daily balances instead of the transactions?
+     * (the daily balances have no payee and no comment: the filters on payees and keywords are not possible)
      * @param select Select statement
      * @param where Where statement
      * @param groupBy Group by statement
      * @return Query object
      */
-    private static Query getQuery(Session session, SearchCriteria searchCriteria, boolean searchFromStartDate,
+    static Query getQuery(Session session, SearchCriteria searchCriteria, boolean searchFromStartDate,
             boolean searchUntilEndDate, boolean filterOnCategories, boolean filterOnPayees,
-            boolean filterOnKeywords, String select, String where, String groupBy) {
-        log.entering(CLASS_NAME, "getQuery", new Object[]{searchCriteria, searchFromStartDate, searchUntilEndDate, filterOnCategories, filterOnPayees, filterOnKeywords, select, where, groupBy});
+            boolean filterOnKeywords, boolean fromDailyBalances, String select, String where, String groupBy) {
+        log.entering(CLASS_NAME, "getQuery", new Object[]{searchCriteria, searchFromStartDate, searchUntilEndDate, filterOnCategories, filterOnPayees, filterOnKeywords, fromDailyBalances, select, where, groupBy});
         if (searchCriteria == null) {
             throw new IllegalArgumentException("The parameter 'searchCriteria' is null");
         }
+        if (fromDailyBalances && ((searchCriteria.hasPayeesFilter() && filterOnPayees) || (searchCriteria.hasKeywordsFilter() && filterOnKeywords))) {
+            throw new IllegalArgumentException("The daily balances cannot be filtered on payees or keywords");
+        }
+
+        // Shape of the query: filters which are applied
+        int shape = 0;
+        if (searchCriteria.hasAccountsFilter()) {
+            shape |= QUERY_FILTER_ACCOUNTS;
+        } else if (searchCriteria.hasCurrencyFilter()) {
+            shape |= QUERY_FILTER_CURRENCY;
+        }
+        if (searchCriteria.hasPeriodFilter() && searchFromStartDate) {
+            shape |= QUERY_FILTER_START;
+        }
+        if (searchCriteria.hasPeriodFilter() && searchUntilEndDate) {
+            shape |= QUERY_FILTER_END;
+        }
+        if (searchCriteria.hasCategoriesFilter() && filterOnCategories) {
+            shape |= QUERY_FILTER_CATEGORIES;
+        }
+        if (searchCriteria.hasPayeesFilter() && filterOnPayees) {
+            shape |= QUERY_FILTER_PAYEES;
+        }
+        if (!searchCriteria.isIncludeTransferTransactions()) {
+            shape |= QUERY_EXCLUDE_TRANSFERS;
+        }
+        if (searchCriteria.hasKeywordsFilter() && filterOnKeywords) {
+            shape |= QUERY_FILTER_KEYWORDS;
+        }
+        if (fromDailyBalances) {
+            shape |= QUERY_FROM_DAILY_BALANCES;
+        }
 
-        Category transferCategory = getCategory(
-                Category.TRANSFER.getGrisbiCategoryId(),
-                Category.TRANSFER.getGrisbiSubCategoryId());
-        String queryString = "";
+        // Get the HQL statement of this shape (built the first time)
+        List<String> keywords = searchCriteria.getKeywordsList();
+        int numberOfKeywords = ((shape & QUERY_FILTER_KEYWORDS) != 0) ? keywords.size() : 0;
+        String queryTemplateKey = shape + "|" + numberOfKeywords + "|" + select + "|" + where + "|" + groupBy;
+        String queryString = queryTemplates.get(queryTemplateKey);
+        if (queryString == null) {
+            queryString = getQueryString(shape, numberOfKeywords, select, where, groupBy);
+            queryTemplates.put(queryTemplateKey, queryString);
+        }
+
+        // Create query
+        Query query = session.createQuery(queryString);
+
+        // Bind the parameters
+        if ((shape & QUERY_FILTER_ACCOUNTS) != 0) {
+            query.setParameterList("accounts", getPaddedList(searchCriteria.getAccounts()));
+        }
+        if ((shape & QUERY_FILTER_CURRENCY) != 0) {
+            query.setParameter("currency", searchCriteria.getCurrency());
+        }
+        if ((shape & QUERY_FILTER_START) != 0) {
+            query.setParameter("start", searchCriteria.getPeriod().getStart());
+        }
+        if ((shape & QUERY_FILTER_END) != 0) {
+            query.setParameter("end", searchCriteria.getPeriod().getEnd());
+        }
+        if ((shape & QUERY_FILTER_CATEGORIES) != 0) {
+            query.setParameterList("categories", getPaddedList(searchCriteria.getCategories()));
+        }
+        if ((shape & QUERY_FILTER_PAYEES) != 0) {
+            query.setParameterList("payees", getPaddedList(searchCriteria.getPayees()));
+        }
+        if ((shape & QUERY_EXCLUDE_TRANSFERS) != 0) {
+            query.setParameter("categoryTransferId", getTransferCategoryId());
+        }
+        for (int i = 0; i < numberOfKeywords; i++) {
+            query.setParameter("keyword" + i, "%" + keywords.get(i).toUpperCase() + "%");
+        }
+
+        log.exiting(CLASS_NAME, "getQuery", query.getQueryString());
+        return query;
+    }
+
+    /**
+     * Pads a list of parameters to the next size of the series 1, 2, 3, 4, 6, 8, 12, 16, 24... (powers of two and halfway sizes)
+     * by repeating its last item<BR/>
+     * Each size of list produces a different SQL statement: once padded, the lists produce a few statements only,
+     * which are found in the statement caches instead of being compiled for each number of selected items
+     * @param list List of parameters (not empty)
+     * @return Padded list
+     */
+    private static <T> List<T> getPaddedList(List<T> list) {
+        int paddedSize = Integer.highestOneBit(list.size());
+        if (list.size() > paddedSize + paddedSize / 2) {
+            paddedSize <<= 1;
+        } else if (list.size() > paddedSize) {
+            paddedSize += paddedSize / 2;
+        }
+        if (paddedSize == list.size()) {
+            return list;
+        }
+        List<T> paddedList = new ArrayList<T>(paddedSize);
+        paddedList.addAll(list);
+        T lastItem = list.get(list.size() - 1);
+        while (paddedList.size() < paddedSize) {
+            paddedList.add(lastItem);
+        }
+        return paddedList;
+    }
+
+    /**
+     * Builds the HQL statement of a query template
+     * @param shape Shape of the query (combination of the <CODE>QUERY_XXX</CODE> flags)
+     * @param numberOfKeywords Number of words of the filter on keywords (the comment must contain each word)
+     * @param select Select statement
+     * @param where Where statement
+     * @param groupBy Group by statement
+     * @return HQL statement
+     */
+    private static String getQueryString(int shape, int numberOfKeywords, String select, String where, String groupBy) {
+        StringBuilder queryString = new StringBuilder();
 
         // SELECT clause
         if (select != null) {
-            queryString = select + " ";
+            queryString.append(select).append(" ");
         }
 
         // FROM clause
-        String fromClause = "from Transaction t inner join t.account as a";
+        if ((shape & QUERY_FROM_DAILY_BALANCES) != 0) {
+            queryString.append("from DailyBalance t inner join t.account as a");
+        } else {
+            queryString.append("from Transaction t inner join t.account as a");
+        }
 
         // WHERE clause
         List<String> whereClause = new ArrayList<String>();
         whereClause.add("a.active=true");
-        if (searchCriteria.hasAccountsFilter()) {
+        if ((shape & QUERY_FILTER_ACCOUNTS) != 0) {
             whereClause.add("t.account in (:accounts)");
-        } else if (searchCriteria.hasCurrencyFilter()) {
+        }
+        if ((shape & QUERY_FILTER_CURRENCY) != 0) {
             whereClause.add("a.currency=:currency");
         }
-
-        whereClause.add("t.parentTransaction is null");
+        if ((shape & QUERY_FROM_DAILY_BALANCES) == 0) { // The daily balances contain only the transactions without parent transaction
+            whereClause.add("t.parentTransaction is null");
+        }
         if (where != null) {
             whereClause.add(where);
         }
-        if (searchCriteria.hasPeriodFilter() && searchFromStartDate) {
+        if ((shape & QUERY_FILTER_START) != 0) {
             whereClause.add("t.date>=:start");
         }
-        if (searchCriteria.hasPeriodFilter() && searchUntilEndDate) {
+        if ((shape & QUERY_FILTER_END) != 0) {
             whereClause.add("t.date<=:end");
         }
-        if (searchCriteria.hasCategoriesFilter() && filterOnCategories) {
+        if ((shape & QUERY_FILTER_CATEGORIES) != 0) {
             whereClause.add("t.category in (:categories)");
         }
-        if (searchCriteria.hasPayeesFilter() && filterOnPayees) {
+        if ((shape & QUERY_FILTER_PAYEES) != 0) {
             whereClause.add("t.payee in (:payees)");
         }
-        if (!searchCriteria.isIncludeTransferTransactions()) {
-            whereClause.add("t.category<>:categoryTransfer");
+        if ((shape & QUERY_EXCLUDE_TRANSFERS) != 0) {
+            whereClause.add("t.category.id<>:categoryTransferId");
         }
-        if (searchCriteria.hasKeywordsFilter() && filterOnKeywords) {
-            whereClause.add("upper(t.comment) like :keyword");
+        for (int i = 0; i < numberOfKeywords; i++) {
+            whereClause.add("upper(t.comment) like :keyword" + i);
         }
 
         // Compute the WHERE statement
-        queryString += fromClause;
-        if (whereClause.size() > 0) {
-            queryString += " where ";
-        }
+        queryString.append(" where ");
         Iterator<String> it = whereClause.iterator();
-        String whereItem;
         while (it.hasNext()) {
-            whereItem = it.next();
-            queryString += whereItem;
-
+            queryString.append(it.next());
             if (it.hasNext()) {
-                queryString += " and ";
+                queryString.append(" and ");
             }
         }
 
         // Group by statement
-        queryString += " " + groupBy;
+        queryString.append(" ").append(groupBy);
 
-        // Create query
-        Query query = session.createQuery(queryString);
+        return queryString.toString();
+    }
 
-        // Add the entities to the query
-        if (searchCriteria.hasAccountsFilter()) {
-            query.setParameterList("accounts", searchCriteria.getAccounts());
-        } else if (searchCriteria.hasCurrencyFilter()) {
-            query.setParameter("currency", searchCriteria.getCurrency());
-        }
-        if (searchCriteria.hasPeriodFilter() && searchFromStartDate) {
-            query.setParameter("start", searchCriteria.getPeriod().getStart());
-        }
-        if (searchCriteria.hasPeriodFilter() && searchUntilEndDate) {
-            query.setParameter("end", searchCriteria.getPeriod().getEnd());
-        }
-        if (searchCriteria.hasCategoriesFilter() && filterOnCategories) {
-            query.setParameterList("categories", searchCriteria.getCategories());
-        }
-        if (searchCriteria.hasPayeesFilter() && filterOnPayees) {
-            query.setParameterList("payees", searchCriteria.getPayees());
-        }
-        if (!searchCriteria.isIncludeTransferTransactions()) {
-            query.setParameter("categoryTransfer", transferCategory);
-        }
-        if (searchCriteria.hasKeywordsFilter() && filterOnKeywords) {
-            query.setParameter("keyword", "%" + searchCriteria.getKeywords().toUpperCase() + "%");
+    /**
+     * Gets the ID of the system category used for the transfers<BR/>
+     * The ID is read once after each import
+     * @return ID of the transfer category (-1 if the category does not exist)
+     */
+    private static Long getTransferCategoryId() {
+        Long categoryId = transferCategoryId;
+        if (categoryId == null) {
+            Category transferCategory = getCategory(
+                    Category.TRANSFER.getGrisbiCategoryId(),
+                    Category.TRANSFER.getGrisbiSubCategoryId());
+            categoryId = (transferCategory != null) ? transferCategory.getId() : -1L;
+            transferCategoryId = categoryId;
         }
-
-        log.exiting(CLASS_NAME, "getQuery", query.getQueryString());
-        return query;
+        return categoryId;
     }
 
     /**
@@ -616,29 +964,43 @@ public class Datamodel {
             throw new IllegalArgumentException("The parameter 'searchCriteria' is null");
         }
 
-        Session session = Installer.createSession();
-        Transaction tx = session.beginTransaction();
-
-        Query query = getQuery(session,
-                searchCriteria,
-                true, // Search from start
-                true, // Search until end
-                false, // No filter on categories
-                false, // No filter on payees
-                false, // No filter on keywords
-                "select sum(t.amount)",
-                "t.amount>0", // Search only incomes
-                ""); // No group by
-
-        // Execute the query
-        BigDecimal income = (BigDecimal) query.uniqueResult();
-        if (income == null) {
-            income = new BigDecimal(0);
+        TransactionColumns columns = getTransactionColumns();
+        if (columns != null) {
+            BigDecimal income = columns.sum(searchCriteria, true, 1);
+            if (income == null) {
+                income = new BigDecimal(0);
+            }
+            log.exiting(CLASS_NAME, "getIncome", income);
+            return income;
         }
+        boolean useDailyBalances = isDailyBalancesQuery(searchCriteria);
+        BigDecimal income;
+        Session session = Installer.openReadOnlySession();
+        try {
+            Transaction tx = session.beginTransaction();
+
+            Query query = getQuery(session,
+                    searchCriteria,
+                    true, // Search from start
+                    true, // Search until end
+                    false, // No filter on categories
+                    false, // No filter on payees
+                    false, // No filter on keywords
+                    useDailyBalances,
+                    useDailyBalances ? "select sum(t.income)" : "select sum(t.amount)",
+                    useDailyBalances ? null : "t.amount>0", // Search only incomes
+                    ""); // No group by
+
+            // Execute the query
+            income = (BigDecimal) query.uniqueResult();
+            if (income == null) {
+                income = new BigDecimal(0);
+            }
 
-        session.flush();
-        tx.commit();
-        session.close();
+            tx.commit();
+        } finally {
+            Installer.closeReadOnlySession(session);
+        }
 
         log.exiting(CLASS_NAME, "getIncome", income);
         return income;
@@ -654,29 +1016,43 @@ public class Datamodel {
         if (searchCriteria == null) {
             throw new IllegalArgumentException("The parameter 'searchCriteria' is null");
         }
-        Session session = Installer.createSession();
-        Transaction tx = session.beginTransaction();
-
-        Query query = getQuery(session,
-                searchCriteria,
-                true, // Search from start
-                true, // Search until end
-                false, // No filter on categories
-                false, // No filter on payees
-                false, // No filter on keywords
-                "select sum(t.amount)",
-                "t.amount<0", // Search only expenses
-                ""); // No group by
-
-        // Execute the query
-        BigDecimal expenses = (BigDecimal) query.uniqueResult();
-        if (expenses == null) {
-            expenses = new BigDecimal(0);
+        TransactionColumns columns = getTransactionColumns();
+        if (columns != null) {
+            BigDecimal expenses = columns.sum(searchCriteria, true, -1);
+            if (expenses == null) {
+                expenses = new BigDecimal(0);
+            }
+            log.exiting(CLASS_NAME, "getExpenses", expenses);
+            return expenses;
         }
+        boolean useDailyBalances = isDailyBalancesQuery(searchCriteria);
+        BigDecimal expenses;
+        Session session = Installer.openReadOnlySession();
+        try {
+            Transaction tx = session.beginTransaction();
+
+            Query query = getQuery(session,
+                    searchCriteria,
+                    true, // Search from start
+                    true, // Search until end
+                    false, // No filter on categories
+                    false, // No filter on payees
+                    false, // No filter on keywords
+                    useDailyBalances,
+                    useDailyBalances ? "select sum(t.expenses)" : "select sum(t.amount)",
+                    useDailyBalances ? null : "t.amount<0", // Search only expenses
+                    ""); // No group by
+
+            // Execute the query
+            expenses = (BigDecimal) query.uniqueResult();
+            if (expenses == null) {
+                expenses = new BigDecimal(0);
+            }
 
-        session.flush();
-        tx.commit();
-        session.close();
+            tx.commit();
+        } finally {
+            Installer.closeReadOnlySession(session);
+        }
 
         log.exiting(CLASS_NAME, "getExpenses", expenses);
         return expenses;
@@ -692,35 +1068,51 @@ public class Datamodel {
         if (searchCriteria == null) {
             throw new IllegalArgumentException("The parameter 'searchCriteria' is null");
         }
-        Session session = Installer.createSession();
-        Transaction tx = session.beginTransaction();
-
-        Query query = getQuery(session,
-                searchCriteria,
-                true, // Search from start
-                true, // Search until end
-                false, // No filter on categories
-                false, // No filter on payees
-                false, // No filter on keywords
-                "select sum(t.amount)",
-                null, // No specific where clause
-                ""); // No group by
-
-        // Execute the query
-        BigDecimal balance = (BigDecimal) query.uniqueResult();
-        if (balance == null) {
-            balance = new BigDecimal(0);
+        TransactionColumns columns = getTransactionColumns();
+        if (columns != null) {
+            BigDecimal balance = columns.sum(searchCriteria, true, 0);
+            if (balance == null) {
+                balance = new BigDecimal(0);
+            }
+            log.exiting(CLASS_NAME, "getBalance", balance);
+            return balance;
+        }
+        boolean useDailyBalances = isDailyBalancesQuery(searchCriteria);
+        BigDecimal balance;
+        Session session = Installer.openReadOnlySession();
+        try {
+            Transaction tx = session.beginTransaction();
+
+            Query query = getQuery(session,
+                    searchCriteria,
+                    true, // Search from start
+                    true, // Search until end
+                    false, // No filter on categories
+                    false, // No filter on payees
+                    false, // No filter on keywords
+                    useDailyBalances,
+                    "select sum(t.amount)",
+                    null, // No specific where clause
+                    ""); // No group by
+
+            // Execute the query
+            balance = (BigDecimal) query.uniqueResult();
+            if (balance == null) {
+                balance = new BigDecimal(0);
+            }
+            tx.commit();
+        } finally {
+            Installer.closeReadOnlySession(session);
         }
-        session.flush();
-        tx.commit();
-        session.close();
 
         log.exiting(CLASS_NAME, "getBalance", balance);
         return balance;
     }
 
     /**
-     * Gets the balance corresponding to a search criteria (until a certain date)
+     * Gets the balance corresponding to a search criteria (until a certain date)<BR/>
+     * If there is no filter on payees or keywords, the balance is read from the cumulative balances of the accounts,
+     * otherwise from the columns of the transactions if they are loaded
      * @param searchCriteria Search criteria
      * @return Balance
      */
@@ -729,33 +1121,220 @@ public class Datamodel {
         if (searchCriteria == null) {
             throw new IllegalArgumentException("The parameter 'searchCriteria' is null");
         }
-        Session session = Installer.createSession();
-        Transaction tx = session.beginTransaction();
-
-        Query query = getQuery(session,
-                searchCriteria,
-                false, // From date is not taken into account
-                true, // Search until end
-                false, // No filter on categories
-                false, // No filter on payees
-                false, // No filter on keywords
-                "select sum(t.amount)",
-                null, // No specific where clause
-                ""); // No group by
-
-        // Execute the query
-        BigDecimal balance = (BigDecimal) query.uniqueResult();
-        if (balance == null) {
-            balance = new BigDecimal(0);
+        if (!searchCriteria.hasPayeesFilter() && !searchCriteria.hasKeywordsFilter()) {
+            BigDecimal balance = getAccountBalancesIndex().getBalanceUntil(searchCriteria);
+            log.exiting(CLASS_NAME, "getBalance", balance);
+            return balance;
+        }
+        TransactionColumns columns = getTransactionColumns();
+        if (columns != null) {
+            BigDecimal balance = columns.sum(searchCriteria, false, 0);
+            if (balance == null) {
+                balance = new BigDecimal(0);
+            }
+            log.exiting(CLASS_NAME, "getBalance", balance);
+            return balance;
+        }
+        boolean useDailyBalances = isDailyBalancesQuery(searchCriteria);
+        BigDecimal balance;
+        Session session = Installer.openReadOnlySession();
+        try {
+            Transaction tx = session.beginTransaction();
+
+            Query query = getQuery(session,
+                    searchCriteria,
+                    false, // From date is not taken into account
+                    true, // Search until end
+                    false, // No filter on categories
+                    false, // No filter on payees
+                    false, // No filter on keywords
+                    useDailyBalances,
+                    "select sum(t.amount)",
+                    null, // No specific where clause
+                    ""); // No group by
+
+            // Execute the query
+            balance = (BigDecimal) query.uniqueResult();
+            if (balance == null) {
+                balance = new BigDecimal(0);
+            }
+            tx.commit();
+        } finally {
+            Installer.closeReadOnlySession(session);
         }
-        session.flush();
-        tx.commit();
-        session.close();
 
         log.exiting(CLASS_NAME, "getBalance", balance);
         return balance;
     }
 
+    /**
+     * Gets the movements of accounts during each period<BR/>
+     * The movements are computed with one grouped query on the range of dates covered by the periods,
+     * instead of one <CODE>getBalance()</CODE> call per account and per period
+     * @param accounts Accounts for which the movements are wanted
+     * @param periods Periods for which the movements are wanted
+     * @return Map containing the movements of each account during each period (in the order of <CODE>periods.getPeriods()</CODE>)
+     * - the key of the map is the account's ID
+     */
+    public static Map<Long, BigDecimal[]> getAccountsMovements(List<Account> accounts, Periods periods) {
+        log.entering(CLASS_NAME, "getAccountsMovements", new Object[]{accounts, periods});
+        if (accounts == null) {
+            throw new IllegalArgumentException("The parameter 'accounts' is null");
+        }
+        if (periods == null) {
+            throw new IllegalArgumentException("The parameter 'periods' is null");
+        }
+
+        Map<Long, BigDecimal[]> accountsMovements = createAccountsMatrix(accounts, periods);
+        TransactionColumns columns = getTransactionColumns();
+        if (!accounts.isEmpty() && columns != null) {
+            SearchCriteria accountsSearchCriteria = new SearchCriteria();
+            accountsSearchCriteria.setAccounts(accounts);
+            long[][] movements = columns.sumByPeriod(accountsSearchCriteria, false, periods, false);
+            for (int i = 0; i < movements.length; i++) {
+                if (movements[i] != null) {
+                    addAmounts(accountsMovements.get(columns.getAccountId(i)), movements[i]);
+                }
+            }
+        } else if (!accounts.isEmpty()) {
+            boolean useDailyBalances = isDailyBalancesAvailable();
+            Session session = Installer.openReadOnlySession();
+            try {
+                Transaction tx = session.beginTransaction();
+
+                addAccountsMovements(session, useDailyBalances, accounts, periods, accountsMovements);
+
+                tx.commit();
+            } finally {
+                Installer.closeReadOnlySession(session);
+            }
+        }
+
+        log.exiting(CLASS_NAME, "getAccountsMovements", accountsMovements);
+        return accountsMovements;
+    }
+
+    /**
+     * Gets the balances of accounts at the end of each period<BR/>
+     * The balances are read from the cumulative balances of the accounts (one binary search per account and per period),
+     * so the cost does not depend on the number of transactions<BR/>
+     * To have the current balance of an account, the initial amount must be added to its balances
+     * @param accounts Accounts for which the balances are wanted
+     * @param periods Periods for which the balances are wanted
+     * @return Map containing the balances of each account at the end of each period (in the order of <CODE>periods.getPeriods()</CODE>)
+     * - the key of the map is the account's ID
+     */
+    public static Map<Long, BigDecimal[]> getAccountsBalancesUntil(List<Account> accounts, Periods periods) {
+        log.entering(CLASS_NAME, "getAccountsBalancesUntil", new Object[]{accounts, periods});
+        if (accounts == null) {
+            throw new IllegalArgumentException("The parameter 'accounts' is null");
+        }
+        if (periods == null) {
+            throw new IllegalArgumentException("The parameter 'periods' is null");
+        }
+
+        Map<Long, BigDecimal[]> accountsBalances = createAccountsMatrix(accounts, periods);
+        if (!accounts.isEmpty()) {
+            AccountBalancesIndex accountBalancesIndex = getAccountBalancesIndex();
+            List<Period> listOfPeriods = periods.getPeriods();
+            for (Account account : accounts) {
+                BigDecimal[] accountBalances = accountsBalances.get(account.getId());
+                for (int i = 0; i < accountBalances.length; i++) {
+                    accountBalances[i] = accountBalancesIndex.getBalanceUntil(account.getId(), listOfPeriods.get(i).getEnd(), true);
+                }
+            }
+        }
+
+        log.exiting(CLASS_NAME, "getAccountsBalancesUntil", accountsBalances);
+        return accountsBalances;
+    }
+
+    /**
+     * Creates a matrix of amounts by account and by period
+     * @param accounts Accounts (one row per account)
+     * @param periods Periods (one column per period)
+     * @return Map containing the amounts of each account, initialized to 0 - the key of the map is the account's ID
+     */
+    private static Map<Long, BigDecimal[]> createAccountsMatrix(List<Account> accounts, Periods periods) {
+        Map<Long, BigDecimal[]> accountsMatrix = new HashMap<Long, BigDecimal[]>();
+        for (Account account : accounts) {
+            BigDecimal[] accountAmounts = new BigDecimal[periods.getPeriods().size()];
+            Arrays.fill(accountAmounts, BigDecimal.ZERO);
+            accountsMatrix.put(account.getId(), accountAmounts);
+        }
+        return accountsMatrix;
+    }
+
+    /**
+     * Adds amounts in cents to amounts by period
+     * @param amounts Amounts by period position
+     * @param cents Amounts in cents to add by period position (the null amounts are not added)
+     */
+    private static void addAmounts(BigDecimal[] amounts, long[] cents) {
+        assert (amounts != null && cents != null && amounts.length == cents.length);
+        for (int i = 0; i < cents.length; i++) {
+            if (cents[i] != 0) {
+                amounts[i] = amounts[i].add(TransactionColumns.getAmount(cents[i]));
+            }
+        }
+    }
+
+    /**
+     * Adds the movements of accounts during each period to a matrix<BR/>
+     * The transactions are summed by account and by day in one query (range scan on the dates covered by the periods),
+     * then each day is added to the period which contains it
+     * @param session Database session
+     * @param useDailyBalances Query the daily balances instead of the transactions?
+     * @param accounts Accounts for which the movements are wanted (not empty)
+     * @param periods Periods for which the movements are wanted
+     * @param accountsMatrix Matrix to which the movements are added - the key of the map is the account's ID
+     */
+    private static void addAccountsMovements(Session session, boolean useDailyBalances, List<Account> accounts, Periods periods, Map<Long, BigDecimal[]> accountsMatrix) {
+        assert (session != null && accounts != null && !accounts.isEmpty() && periods != null && accountsMatrix != null);
+
+        List<Period> listOfPeriods = periods.getPeriods();
+        List dailyMovements = session.createQuery("select t.account.id, t.date, sum(t.amount) " +
+                getAccountsFromClause(useDailyBalances) +
+                "t.account in (:accounts) and " +
+                "t.date>=:start and " +
+                "t.date<=:end " +
+                "group by t.date, t.account.id " +
+                "order by t.date").
+                setParameterList("accounts", accounts).
+                setParameter("start", listOfPeriods.get(0).getStart()).
+                setParameter("end", listOfPeriods.get(listOfPeriods.size() - 1).getEnd()).list();
+
+        // The days are sorted: the period of the previous day is checked before searching the period
+        int periodIndex = 0;
+        for (Object dailyMovement : dailyMovements) {
+            Object[] row = (Object[]) dailyMovement;
+            LocalDate date = (LocalDate) row[1];
+            Period period = listOfPeriods.get(periodIndex);
+            if (date.compareTo(period.getStart()) < 0 || date.compareTo(period.getEnd()) > 0) {
+                periodIndex = periods.getPeriodIndex(date);
+                if (periodIndex < 0) {
+                    periodIndex = 0;
+                    continue; // Day not covered by the periods
+                }
+            }
+            BigDecimal[] accountAmounts = accountsMatrix.get((Long) row[0]);
+            accountAmounts[periodIndex] = accountAmounts[periodIndex].add((BigDecimal) row[2]);
+        }
+    }
+
+    /**
+     * Gets the beginning of the queries on the accounts' movements (FROM clause and beginning of the WHERE clause)
+     * @param useDailyBalances Query the daily balances instead of the transactions?
+     * @return FROM clause followed by "where" (and by the filter on the parent transactions if the transactions are queried)
+     */
+    private static String getAccountsFromClause(boolean useDailyBalances) {
+        if (useDailyBalances) {
+            return "from DailyBalance t where ";
+        } else {
+            return "from Transaction t where t.parentTransaction is null and ";
+        }
+    }
+
     /**
      * Gets the balances for categories and sub-categories
      * @param searchCriteria Search criteria
@@ -768,29 +1347,188 @@ public class Datamodel {
         if (searchCriteria == null) {
             throw new IllegalArgumentException("The parameter 'searchCriteria' is null");
         }
-        Session session = Installer.createSession();
-        Transaction tx = session.beginTransaction();
+        TransactionColumns columns = getTransactionColumns();
+        if (columns != null) {
+            List categoriesBalances = columns.sumByCategory(searchCriteria);
+            log.exiting(CLASS_NAME, "getCategoriesBalances", categoriesBalances);
+            return categoriesBalances;
+        }
+        boolean useDailyBalances = isDailyBalancesQuery(searchCriteria);
+        List categoriesBalances;
+        Session session = Installer.openReadOnlySession();
+        try {
+            Transaction tx = session.beginTransaction();
+
+            Query query = getQuery(session,
+                    searchCriteria,
+                    true, // Search from start
+                    true, // Search until end
+                    false, // No filter on categories (all categories are expected)
+                    false, // No filter on payees
+                    false, // No filter on keywords
+                    useDailyBalances,
+                    "select t.category.id, sum(t.amount)",
+                    null, // No specific where clause
+                    "group by t.category.id");
+
+            // Execute the query
+            categoriesBalances = query.list();
+
+            tx.commit();
+        } finally {
+            Installer.closeReadOnlySession(session);
+        }
 
-        Query query = getQuery(session,
-                searchCriteria,
-                true, // Search from start
-                true, // Search until end
-                false, // No filter on categories (all categories are expected)
-                false, // No filter on payees
-                false, // No filter on keywords
-                "select t.category.id, sum(t.amount)",
-                null, // No specific where clause
-                "group by t.category.id");
+        log.exiting(CLASS_NAME, "getCategoriesBalances", categoriesBalances);
+        return categoriesBalances;
+    }
 
-        // Execute the query
-        List categoriesBalances = query.list();
+    /**
+     * Gets the balances of categories and sub-categories during each period<BR/>
+     * The transactions are summed by category and by period from the columns of the transactions if they are loaded,
+     * by one query on the range of dates covered by the periods otherwise<BR/>
+     * The balance of a top-category is the sum of the balances of its sub-categories which match the categories filter
+     * (the sub-category or its parent category has been selected)
+     * @param searchCriteria Search criteria (currency, accounts, categories filter and transfers - the period is ignored)
+     * @param periods Periods for which the balances are wanted
+     * @param categories Categories and sub-categories of the cube (one row per category, in this order)
+     * @return Immutable cube of the categories' balances by period
+     */
+    public static CategoriesCube getCategoriesCube(SearchCriteria searchCriteria, Periods periods, List<Category> categories) {
+        log.entering(CLASS_NAME, "getCategoriesCube", new Object[]{searchCriteria, periods, categories});
+        if (searchCriteria == null) {
+            throw new IllegalArgumentException("The parameter 'searchCriteria' is null");
+        }
+        if (periods == null) {
+            throw new IllegalArgumentException("The parameter 'periods' is null");
+        }
+        if (categories == null) {
+            throw new IllegalArgumentException("The parameter 'categories' is null");
+        }
 
-        session.flush();
-        tx.commit();
-        session.close();
+        // Ordinal of each category, and ordinal of the parent category of each sub-category (-1 for top-categories)
+        List<Period> listOfPeriods = periods.getPeriods();
+        Map<Long, Integer> ordinals = new HashMap<Long, Integer>();
+        for (int i = 0; i < categories.size(); i++) {
+            ordinals.put(categories.get(i).getId(), i);
+        }
+        int[] parentOrdinals = new int[categories.size()];
+        boolean[] summedSubCategories = new boolean[categories.size()];
+        for (int i = 0; i < categories.size(); i++) {
+            Category category = categories.get(i);
+            Integer parentOrdinal = null;
+            if (!category.isTopCategory()) {
+                parentOrdinal = ordinals.get(category.getParentCategory().getId());
+            }
+            parentOrdinals[i] = (parentOrdinal != null) ? parentOrdinal : -1;
+            summedSubCategories[i] = parentOrdinals[i] >= 0 && (!searchCriteria.hasCategoriesFilter() ||
+                    searchCriteria.getCategories().contains(category) ||
+                    searchCriteria.getCategories().contains(categories.get(parentOrdinals[i])));
+        }
 
-        log.exiting(CLASS_NAME, "getCategoriesBalances", categoriesBalances);
-        return categoriesBalances;
+        BigDecimal[][] balances = new BigDecimal[categories.size()][listOfPeriods.size()];
+        for (BigDecimal[] categoryBalances : balances) {
+            Arrays.fill(categoryBalances, BigDecimal.ZERO);
+        }
+
+        // Search on the whole range of dates covered by the periods
+        SearchCriteria rangeSearchCriteria = new SearchCriteria(
+                searchCriteria.getCurrency(),
+                searchCriteria.getAccounts(),
+                new Period(listOfPeriods.get(0).getStart(),
+                listOfPeriods.get(listOfPeriods.size() - 1).getEnd(),
+                PeriodType.FREE),
+                searchCriteria.getCategories(),
+                null, // No filter on payees
+                null, // No filter on keywords
+                searchCriteria.isIncludeTransferTransactions());
+
+        TransactionColumns columns = getTransactionColumns();
+        if (columns != null) {
+            long[][] categoriesMovements = columns.sumByPeriod(rangeSearchCriteria, true, periods, true);
+            for (int i = 0; i < categoriesMovements.length; i++) {
+                Integer ordinal = ordinals.get(columns.getCategoryId(i));
+                if (categoriesMovements[i] != null && ordinal != null && parentOrdinals[ordinal] >= 0) {
+                    addAmounts(balances[ordinal], categoriesMovements[i]);
+                }
+            }
+        } else {
+            addCategoriesMovements(rangeSearchCriteria, periods, ordinals, parentOrdinals, balances);
+        }
+
+        // Roll the sub-categories up into their top-categories
+        for (int i = 0; i < categories.size(); i++) {
+            if (summedSubCategories[i]) {
+                BigDecimal[] subCategoryBalances = balances[i];
+                BigDecimal[] topCategoryBalances = balances[parentOrdinals[i]];
+                for (int j = 0; j < subCategoryBalances.length; j++) {
+                    topCategoryBalances[j] = topCategoryBalances[j].add(subCategoryBalances[j]);
+                }
+            }
+        }
+
+        CategoriesCube categoriesCube = new CategoriesCube(periods, categories, searchCriteria.getCategories(), balances);
+
+        log.exiting(CLASS_NAME, "getCategoriesCube", categoriesCube);
+        return categoriesCube;
+    }
+
+    /**
+     * Adds the balances of the sub-categories during each period to the balances of a cube (queried from the database)<BR/>
+     * The transactions are summed by category and by day in one query on the range of dates covered by the periods,
+     * then each day is added to the period which contains it
+     * @param rangeSearchCriteria Search criteria on the range of dates covered by the periods
+     * @param periods Periods for which the balances are wanted
+     * @param ordinals Ordinal of each category of the cube by category ID
+     * @param parentOrdinals Ordinal of the parent category of each category of the cube (-1 for top-categories)
+     * @param balances Balances by category ordinal and by period position, to which the balances are added
+     */
+    private static void addCategoriesMovements(SearchCriteria rangeSearchCriteria, Periods periods, Map<Long, Integer> ordinals,
+            int[] parentOrdinals, BigDecimal[][] balances) {
+        List<Period> listOfPeriods = periods.getPeriods();
+        boolean useDailyBalances = isDailyBalancesQuery(rangeSearchCriteria);
+        List dailyBalances;
+        Session session = Installer.openReadOnlySession();
+        try {
+            Transaction tx = session.beginTransaction();
+
+            Query query = getQuery(session,
+                    rangeSearchCriteria,
+                    true, // Search from start
+                    true, // Search until end
+                    false, // No filter on categories (all categories are expected)
+                    false, // No filter on payees
+                    false, // No filter on keywords
+                    useDailyBalances,
+                    "select t.category.id, t.date, sum(t.amount)",
+                    null, // No specific where clause
+                    "group by t.date, t.category.id order by t.date");
+            dailyBalances = query.list();
+
+            tx.commit();
+        } finally {
+            Installer.closeReadOnlySession(session);
+        }
+
+        // The days are sorted: the period of the previous day is checked before searching the period
+        int periodIndex = 0;
+        for (Object dailyBalance : dailyBalances) {
+            Object[] row = (Object[]) dailyBalance;
+            Integer ordinal = ordinals.get((Long) row[0]);
+            if (ordinal == null || parentOrdinals[ordinal] < 0) {
+                continue; // Category not in the cube, or top-category (computed from its sub-categories)
+            }
+            LocalDate date = (LocalDate) row[1];
+            Period period = listOfPeriods.get(periodIndex);
+            if (date.compareTo(period.getStart()) < 0 || date.compareTo(period.getEnd()) > 0) {
+                periodIndex = periods.getPeriodIndex(date);
+                if (periodIndex < 0) {
+                    periodIndex = 0;
+                    continue; // Day not covered by the periods
+                }
+            }
+            balances[ordinal][periodIndex] = balances[ordinal][periodIndex].add((BigDecimal) row[2]);
+        }
     }
 
     /**
@@ -853,7 +1591,7 @@ public class Datamodel {
         }
         Session s = Installer.currentSession();
         Transaction t = s.beginTransaction();
-        s.saveOrUpdate(currency);
+        s.merge(currency); // The ID of a currency is assigned: merge() inserts the currency if it is not in the database yet
         t.commit();
         log.exiting(CLASS_NAME, "saveCurrency");
     }
@@ -875,7 +1613,8 @@ public class Datamodel {
     }
 
     /**
-     * Saves a transaction
+     * Saves a transaction<BR/>
+     * The caches are not invalidated: <CODE>invalidateCaches()</CODE> has to be called once all the transactions are saved
      * @param transaction Transaction to save
      */
     public static void saveTransaction(gg.db.entities.Transaction transaction) {
@@ -895,12 +1634,476 @@ public class Datamodel {
         log.entering(CLASS_NAME, "emptyDatabase");
         Session s = Installer.currentSession();
         Transaction t = s.beginTransaction();
+        s.createQuery("delete DailyBalance").executeUpdate();
         s.createQuery("delete Transaction").executeUpdate();
         s.createQuery("delete Category").executeUpdate();
         s.createQuery("delete Account").executeUpdate();
         s.createQuery("delete Currency").executeUpdate();
         s.createQuery("delete Payee").executeUpdate();
         t.commit();
+        invalidateCaches();
         log.exiting(CLASS_NAME, "emptyDatabase");
     }
+
+    /**
+     * Deletes the daily balances<BR/>
+     * Must be called before modifying the transactions, the accounts or the categories (the daily balances reference them):
+     * the balance queries use the transactions until <CODE>updateDailyBalances()</CODE> is called
+     */
+    public static void deleteDailyBalances() {
+        log.entering(CLASS_NAME, "deleteDailyBalances");
+        Session s = Installer.currentSession();
+        Transaction t = s.beginTransaction();
+        s.createQuery("delete DailyBalance").executeUpdate();
+        t.commit();
+        invalidateCaches();
+        log.exiting(CLASS_NAME, "deleteDailyBalances");
+    }
+
+    /**
+     * Rebuilds the daily balances from the transactions<BR/>
+     * The daily balances must have been deleted by <CODE>deleteDailyBalances()</CODE> before the transactions were modified<BR/>
+     * The transactions without parent transaction are summed by account, category and day in one query,
+     * and the daily balances are inserted by JDBC batches<BR/>
+     * The caches are invalidated: the cumulative balances of the accounts, the columns of the transactions and the index of the comments
+     * are built once the import is logged (see <CODE>buildCaches()</CODE>)
+     * @return Number of daily balances inserted
+     */
+    public static long updateDailyBalances() {
+        log.entering(CLASS_NAME, "updateDailyBalances");
+        long startUpdatingTime = System.currentTimeMillis();
+
+        Map<Long, Account> accounts = getAccountsWithId();
+        Map<Long, Category> categories = getCategoriesWithId();
+
+        Session session = Installer.createSession();
+        Transaction tx = session.beginTransaction();
+        List dailyBalances = session.createQuery("select t.account.id, t.category.id, t.date, sum(t.amount), " +
+                "sum(case when t.amount>0 then t.amount else 0 end), " +
+                "sum(case when t.amount<0 then t.amount else 0 end), " +
+                "count(t.id) " +
+                "from Transaction t " +
+                "where t.parentTransaction is null " +
+                "group by t.account.id, t.category.id, t.date " +
+                "order by t.account.id, t.category.id, t.date").list();
+        session.flush();
+        tx.commit();
+        session.close();
+
+        // The rows are sorted by account, category and day: the running balance is reset when the account or the category changes
+        BulkLoader loader = new BulkLoader();
+        try {
+            Long previousAccountId = null;
+            Long previousCategoryId = null;
+            BigDecimal runningBalance = BigDecimal.ZERO;
+            for (Object dailyBalance : dailyBalances) {
+                Object[] row = (Object[]) dailyBalance;
+                Long accountId = (Long) row[0];
+                Long categoryId = (Long) row[1];
+                if (!accountId.equals(previousAccountId) || !categoryId.equals(previousCategoryId)) {
+                    runningBalance = BigDecimal.ZERO;
+                    previousAccountId = accountId;
+                    previousCategoryId = categoryId;
+                }
+                BigDecimal amount = (BigDecimal) row[3];
+                runningBalance = runningBalance.add(amount);
+
+                loader.insert(new DailyBalance(
+                        (LocalDate) row[2],
+                        accounts.get(accountId),
+                        categories.get(categoryId),
+                        amount,
+                        (BigDecimal) row[4],
+                        (BigDecimal) row[5],
+                        (Long) row[6],
+                        runningBalance));
+            }
+            loader.commit();
+        } finally {
+            loader.close();
+        }
+        invalidateCaches();
+
+        log.info(dailyBalances.size() + " daily balances have been successfully imported in " + (System.currentTimeMillis() - startUpdatingTime) + " ms");
+        log.exiting(CLASS_NAME, "updateDailyBalances", dailyBalances.size());
+        return dailyBalances.size();
+    }
+
+    /**
+     * Are the daily balances up to date?<BR/>
+     * The daily balances are up to date if they contain all the transactions without parent transaction
+     * (they are not up to date if the database has been created by an older version, or during an import)<BR/>
+     * The result is kept until the daily balances or the transactions are modified
+     * @return true if the balance queries can use the daily balances
+     */
+    public static synchronized boolean isDailyBalancesAvailable() {
+        if (dailyBalancesAvailable == null) {
+            Long numberOfTransactions;
+            Long numberOfSummedTransactions;
+            Session session = Installer.openReadOnlySession();
+            try {
+                Transaction tx = session.beginTransaction();
+                numberOfTransactions = (Long) session.createQuery("select count(t.id) from Transaction t " +
+                        "where t.parentTransaction is null").uniqueResult();
+                numberOfSummedTransactions = (Long) session.createQuery("select sum(d.numberOfTransactions) " +
+                        "from DailyBalance d").uniqueResult();
+                tx.commit();
+            } finally {
+                Installer.closeReadOnlySession(session);
+            }
+
+            if (numberOfSummedTransactions == null) {
+                numberOfSummedTransactions = 0L;
+            }
+            dailyBalancesAvailable = numberOfTransactions.equals(numberOfSummedTransactions);
+            log.info("Daily balances available: " + dailyBalancesAvailable);
+        }
+        return dailyBalancesAvailable;
+    }
+
+    /**
+     * Empties the caches which depend on the content of the database (called when an import starts and ends):
+     * <UL>
+     * <LI>Second-level cache of the reference data (accounts, currencies, categories and payees) and query cache</LI>
+     * <LI>State of the daily balances, cumulative balances of the accounts, columns of the transactions and ID of the transfer category</LI>
+     * </UL>
+     * The imports write through stateless sessions, which bypass the second-level cache: the cached entities are stale after an import
+     */
+    public static synchronized void invalidateCaches() {
+        log.entering(CLASS_NAME, "invalidateCaches");
+        SessionFactory sessionFactory = Installer.getSessionFactory();
+        Statistics statistics = sessionFactory.getStatistics();
+        log.info("Second-level cache: " + statistics.getSecondLevelCacheHitCount() + " hits, " + statistics.getSecondLevelCacheMissCount() + " misses - " +
+                "Query cache: " + statistics.getQueryCacheHitCount() + " hits, " + statistics.getQueryCacheMissCount() + " misses");
+
+        evictReferenceData();
+
+        dailyBalancesAvailable = null;
+        accountBalancesIndex = null;
+        transferCategoryId = null;
+        transactionColumns = null;
+        transactionColumnsAvailable = null;
+        commentIndex = null;
+        commentIndexColumns = null;
+        log.exiting(CLASS_NAME, "invalidateCaches");
+    }
+
+    /**
+     * Empties the second-level cache of the reference data (accounts, currencies, categories and payees) and the query cache<BR/>
+     * Called by <CODE>BulkLoader</CODE> after each commit, so that an import phase reads the reference data written by the previous phases
+     */
+    static void evictReferenceData() {
+        SessionFactory sessionFactory = Installer.getSessionFactory();
+        sessionFactory.evict(Account.class);
+        sessionFactory.evict(Currency.class);
+        sessionFactory.evict(Category.class);
+        sessionFactory.evict(Payee.class);
+        sessionFactory.evictQueries();
+    }
+
+    /**
+     * Gets the number of entities found in the second-level cache
+     * @return Number of hits of the second-level cache since the start of the application
+     */
+    public static long getCacheHitCount() {
+        return Installer.getSessionFactory().getStatistics().getSecondLevelCacheHitCount();
+    }
+
+    /**
+     * Gets the number of entities not found in the second-level cache
+     * @return Number of misses of the second-level cache since the start of the application
+     */
+    public static long getCacheMissCount() {
+        return Installer.getSessionFactory().getStatistics().getSecondLevelCacheMissCount();
+    }
+
+    /**
+     * Gets the number of query results found in the query cache
+     * @return Number of hits of the query cache since the start of the application
+     */
+    public static long getQueryCacheHitCount() {
+        return Installer.getSessionFactory().getStatistics().getQueryCacheHitCount();
+    }
+
+    /**
+     * Gets the number of query results not found in the query cache
+     * @return Number of misses of the query cache since the start of the application
+     */
+    public static long getQueryCacheMissCount() {
+        return Installer.getSessionFactory().getStatistics().getQueryCacheMissCount();
+    }
+
+    /**
+     * Gets the cumulative balances of the accounts<BR/>
+     * The index is built the first time it is needed (after each import), from the daily balances if they are up to date,
+     * from the transactions otherwise
+     * @return Cumulative balances of the accounts
+     */
+    private static synchronized AccountBalancesIndex getAccountBalancesIndex() {
+        AccountBalancesIndex index = accountBalancesIndex;
+        if (index == null) {
+            long startBuildingTime = System.currentTimeMillis();
+            boolean useDailyBalances = isDailyBalancesAvailable();
+            Long transferId = getTransferCategoryId();
+            List<Account> activeAccounts = getActiveAccounts();
+
+            List dailyBalances;
+            Session session = Installer.openReadOnlySession();
+            try {
+                Transaction tx = session.beginTransaction();
+                dailyBalances = session.createQuery("select t.account.id, t.date, sum(t.amount), " +
+                        "sum(case when t.category.id=:transferCategoryId then t.amount else 0 end) " +
+                        (useDailyBalances ? "from DailyBalance t " : "from Transaction t where t.parentTransaction is null ") +
+                        "group by t.account.id, t.date " +
+                        "order by t.account.id, t.date").
+                        setParameter("transferCategoryId", transferId).list();
+                tx.commit();
+            } finally {
+                Installer.closeReadOnlySession(session);
+            }
+
+            index = new AccountBalancesIndex(dailyBalances, activeAccounts);
+            accountBalancesIndex = index;
+            log.info("Cumulative balances of the accounts built from " + dailyBalances.size() + " days in " + (System.currentTimeMillis() - startBuildingTime) + " ms");
+        }
+        return index;
+    }
+
+    /**
+     * Gets the in-memory columns of the transactions, used by the aggregates and the searches of transactions instead of the database<BR/>
+     * The columns are loaded the first time they are needed (after each import). They are not used if the system property
+     * <CODE>COLUMNS_PROPERTY</CODE> is 'false', or if an amount cannot be stored in cents
+     * @return Columns of the transactions (null if the aggregates must be computed by the database)
+     */
+    private static TransactionColumns getTransactionColumns() {
+        TransactionColumns columns = transactionColumns;
+        if (columns == null && !Boolean.FALSE.equals(transactionColumnsAvailable) &&
+                !"false".equals(System.getProperty(COLUMNS_PROPERTY))) {
+            columns = loadTransactionColumns();
+        }
+        return columns;
+    }
+
+    /**
+     * Loads the transactions without parent transaction into columns<BR/>
+     * The snapshot file is mapped in memory if it has been written for the last import,
+     * otherwise the transactions are read from the database (one query sorted by day)
+     * @return Columns of the transactions (null if an amount cannot be stored in cents)
+     */
+    private static synchronized TransactionColumns loadTransactionColumns() {
+        TransactionColumns columns = transactionColumns;
+        if (columns == null && transactionColumnsAvailable == null) {
+            long startLoadingTime = System.currentTimeMillis();
+            columns = mapTransactionsSnapshot();
+            if (columns != null) {
+                transactionColumns = columns;
+                transactionColumnsAvailable = true;
+                log.info(columns.size() + " transactions mapped from the snapshot in " + (System.currentTimeMillis() - startLoadingTime) + " ms");
+                return columns;
+            }
+
+            Long transferId = getTransferCategoryId();
+            List<Account> accounts = getAccounts();
+
+            List transactions;
+            Session session = Installer.openReadOnlySession();
+            try {
+                Transaction tx = session.beginTransaction();
+                transactions = session.createQuery("select t.date, t.account.id, t.category.id, t.amount, t.id, t.payee.id " +
+                        "from Transaction t where t.parentTransaction is null " +
+                        "order by t.date, t.id").list();
+                tx.commit();
+            } finally {
+                Installer.closeReadOnlySession(session);
+            }
+
+            try {
+                columns = TransactionColumns.create(transactions, accounts, transferId);
+            } catch (ArithmeticException ex) {
+                log.warning("The transactions cannot be loaded into columns (" + ex.getMessage() + "): the aggregates are computed by the database");
+                transactionColumnsAvailable = false;
+                return null;
+            }
+            transactionColumns = columns;
+            transactionColumnsAvailable = true;
+            log.info(columns.size() + " transactions loaded into columns in " + (System.currentTimeMillis() - startLoadingTime) + " ms");
+        }
+        return columns;
+    }
+
+    /**
+     * Gets the index of the comments of the transactions, used by the filter on keywords<BR/>
+     * The index is built the first time it is needed for the columns of the transactions (after each import)
+     * @param columns Columns of the transactions
+     * @return Index of the comments (null if the comments cannot be matched with the rows of the columns)
+     */
+    private static synchronized CommentIndex getCommentIndex(TransactionColumns columns) {
+        if (commentIndexColumns != columns) {
+            long startBuildingTime = System.currentTimeMillis();
+            List transactions;
+            Session session = Installer.openReadOnlySession();
+            try {
+                Transaction tx = session.beginTransaction();
+                transactions = session.createQuery("select t.id, t.comment " +
+                        "from Transaction t where t.parentTransaction is null " +
+                        "order by t.date, t.id").list();
+                tx.commit();
+            } finally {
+                Installer.closeReadOnlySession(session);
+            }
+
+            commentIndex = CommentIndex.create(transactions, columns);
+            commentIndexColumns = columns;
+            if (commentIndex != null) {
+                log.info("Index of " + commentIndex.getNumberOfComments() + " comments built from " + transactions.size() + " transactions in " + (System.currentTimeMillis() - startBuildingTime) + " ms");
+            } else {
+                log.warning("The comments do not match the columns of the transactions: the keywords are searched by the database");
+            }
+        }
+        return commentIndex;
+    }
+
+    /**
+     * Saves the columns of the transactions in the snapshot file, which is mapped in memory at the next start
+     * instead of loading the transactions from the database (called at the end of an import)<BR/>
+     * If the import has failed, the snapshot file is deleted. The snapshot file is not replaced if it is still mapped
+     * by a platform which cannot delete a mapped file: the transactions are then loaded from the database at the next start
+     * @param fileImport Log of the import (must be saved before: the snapshot is used only if it is the last import)
+     */
+    public static synchronized void saveTransactionsSnapshot(FileImport fileImport) {
+        log.entering(CLASS_NAME, "saveTransactionsSnapshot", fileImport);
+        if (fileImport == null) {
+            throw new IllegalArgumentException("The parameter 'fileImport' is null");
+        }
+
+        long startSavingTime = System.currentTimeMillis();
+        File snapshotFile = getSnapshotFile();
+        String fingerprint = getSnapshotFingerprint(fileImport);
+        TransactionColumns columns = (fingerprint != null) ? getTransactionColumns() : null;
+        try {
+            if (columns != null) {
+                columns.write(snapshotFile, fingerprint);
+                log.info("Snapshot of " + columns.size() + " transactions saved in " + (System.currentTimeMillis() - startSavingTime) + " ms");
+            } else if (snapshotFile.exists() && !snapshotFile.delete()) {
+                log.warning("The snapshot '" + snapshotFile + "' cannot be deleted");
+            }
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "The snapshot of the transactions cannot be saved", ex);
+        }
+
+        log.exiting(CLASS_NAME, "saveTransactionsSnapshot");
+    }
+
+    /**
+     * Builds the cumulative balances of the accounts, the columns of the transactions and the index of the comments,
+     * so that the first views do not wait for them<BR/>
+     * Called once at the end of an import, after the import is logged and the snapshot of the transactions is saved
+     * (the columns of the snapshot are reused)
+     */
+    public static void buildCaches() {
+        log.entering(CLASS_NAME, "buildCaches");
+        getAccountBalancesIndex();
+        TransactionColumns columns = getTransactionColumns();
+        if (columns != null) {
+            getCommentIndex(columns);
+        }
+        log.exiting(CLASS_NAME, "buildCaches");
+    }
+
+    /**
+     * Maps the snapshot file of the columns of the transactions in memory
+     * @return Columns of the transactions (null if there is no snapshot, if an import is running,
+     * or if it has not been written for the last import and the current transactions)
+     */
+    private static TransactionColumns mapTransactionsSnapshot() {
+        File snapshotFile = getSnapshotFile();
+        if (!snapshotFile.exists()) {
+            return null;
+        }
+        if (importRunning) {
+            log.info("Snapshot '" + snapshotFile + "' ignored: an import is running");
+            return null;
+        }
+
+        // The last import is the first one: the skipped imports did not modify the database
+        FileImport lastFileImport = null;
+        for (FileImport fileImport : getFileImports()) {
+            if (!Boolean.TRUE.equals(fileImport.getSkipped())) {
+                lastFileImport = fileImport;
+                break;
+            }
+        }
+        String fingerprint = (lastFileImport == null) ? null : getSnapshotFingerprint(lastFileImport);
+        if (fingerprint == null) {
+            log.info("Snapshot '" + snapshotFile + "' ignored: the last import has failed");
+            return null;
+        }
+        try {
+            return TransactionColumns.map(snapshotFile, fingerprint);
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "The snapshot '" + snapshotFile + "' cannot be read", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Gets the snapshot file of the columns of the transactions
+     * @return Snapshot file (in the database folder)
+     */
+    private static File getSnapshotFile() {
+        return new File(Constants.DATABASE_FOLDER_PATH, SNAPSHOT_FILE_NAME);
+    }
+
+    /**
+     * Gets the fingerprint of the content of the database after an import:
+     * <UL>
+     * <LI>Importer version and hash of the imported Grisbi file</LI>
+     * <LI>ID of the import log</LI>
+     * <LI>Number, smallest ID and greatest ID of the transactions without parent transaction (read from the database)</LI>
+     * </UL>
+     * The fingerprint is computed when the snapshot is written and when it is mapped: a snapshot which does not match the transactions
+     * currently saved in the database is ignored
+     * @param fileImport Log of the import
+     * @return Fingerprint (null if the import has failed or has not been saved)
+     */
+    private static String getSnapshotFingerprint(FileImport fileImport) {
+        if (!Boolean.TRUE.equals(fileImport.getSuccess()) || fileImport.getId() == null ||
+                fileImport.getImporterVersion() == null || fileImport.getContentHash() == null) {
+            return null;
+        }
+
+        Object[] transactionIds;
+        Session session = Installer.openReadOnlySession();
+        try {
+            Transaction tx = session.beginTransaction();
+            transactionIds = (Object[]) session.createQuery("select count(t.id), min(t.id), max(t.id) " +
+                    "from Transaction t where t.parentTransaction is null").uniqueResult();
+            tx.commit();
+        } finally {
+            Installer.closeReadOnlySession(session);
+        }
+        return fileImport.getImporterVersion() + "/" + fileImport.getContentHash() + "/" + fileImport.getId() + "/" +
+                transactionIds[0] + "/" + transactionIds[1] + "/" + transactionIds[2];
+    }
+
+    /**
+     * Declares that an import starts or ends<BR/>
+     * While an import is running, the snapshot of the transactions is never mapped: it has been written for the previous import
+     * @param running true when an import starts (before the database is modified),
+     * false once the import is logged and its snapshot is saved
+     */
+    public static void setImportRunning(boolean running) {
+        log.entering(CLASS_NAME, "setImportRunning", running);
+        importRunning = running;
+        log.exiting(CLASS_NAME, "setImportRunning");
+    }
+
+    /**
+     * Can a balance query use the daily balances?
+     * @param searchCriteria Search criteria of the query
+     * @return true if the daily balances are up to date and if the search criteria does not filter on payees or keywords
+     */
+    private static boolean isDailyBalancesQuery(SearchCriteria searchCriteria) {
+        return !searchCriteria.hasPayeesFilter() && !searchCriteria.hasKeywordsFilter() && isDailyBalancesAvailable();
+    }
 }
@@ -23,10 +23,21 @@ package gg.db.datamodel;
 
 import gg.application.Constants;
 import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.hibernate.HibernateException;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.connection.ConnectionProvider;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.exception.JDBCExceptionHelper;
 import org.openide.modules.ModuleInstall;
 
 /**
@@ -42,6 +53,10 @@ public class Installer extends ModuleInstall {
 
     /** Session factory */
     private static final SessionFactory sessionFactory;
+    /** Pools of connections (null if another connection provider is configured: the read-only sessions use the connections of Hibernate) */
+    private static final PooledConnectionProvider connectionPool;
+    /** Opened read-only sessions by thread (used to cancel the query which is running in a thread) */
+    private static final ConcurrentMap<Thread, Session> readOnlySessions = new ConcurrentHashMap<Thread, Session>();
 
     /** Set the database folder and initializes the connection with the DB */
     static {
@@ -58,7 +73,18 @@ public class Installer extends ModuleInstall {
             }
 
             // Create the SessionFactory from hibernate.cfg.xml (create the DB is it does not already exist)
-            sessionFactory = new Configuration().configure().buildSessionFactory();
+            Configuration configuration = new Configuration().configure();
+            String batchSize = System.getProperty(BulkLoader.BATCH_SIZE_PROPERTY);
+            if (batchSize != null) {
+                configuration.setProperty(Environment.STATEMENT_BATCH_SIZE, batchSize);
+            }
+            sessionFactory = configuration.buildSessionFactory();
+            ConnectionProvider connectionProvider = ((SessionFactoryImplementor) sessionFactory).getConnectionProvider();
+            if (connectionProvider instanceof PooledConnectionProvider) {
+                connectionPool = (PooledConnectionProvider) connectionProvider;
+            } else {
+                connectionPool = null;
+            }
 
             log.exiting(CLASS_NAME, "restored");
         } catch (Throwable ex) {
@@ -74,6 +100,68 @@ public class Installer extends ModuleInstall {
         return sessionFactory.openSession();
     }
 
+    /**
+     * Opens a session on a read-only connection (used by the analytic queries, which can run concurrently)<BR/>
+     * The session must be closed with <CODE>closeReadOnlySession()</CODE>, which gives the connection back to the pool
+     * @return Read-only session
+     */
+    public static Session openReadOnlySession() {
+        Session session;
+        if (connectionPool == null) {
+            session = sessionFactory.openSession();
+        } else {
+            try {
+                session = sessionFactory.openSession(connectionPool.getReadOnlyConnection());
+            } catch (SQLException ex) {
+                throw JDBCExceptionHelper.convert(((SessionFactoryImplementor) sessionFactory).getSQLExceptionConverter(),
+                        ex, "Cannot open a read-only connection");
+            }
+        }
+        readOnlySessions.put(Thread.currentThread(), session);
+
+        return session;
+    }
+
+    /**
+     * Closes a session opened by <CODE>openReadOnlySession()</CODE>
+     * @param session Read-only session to close
+     */
+    public static void closeReadOnlySession(Session session) {
+        if (session == null) {
+            throw new IllegalArgumentException("The parameter 'session' is null");
+        }
+        readOnlySessions.remove(Thread.currentThread(), session);
+        Connection connection = session.close();
+        if (connectionPool != null && connection != null) {
+            try {
+                connectionPool.closeReadOnlyConnection(connection);
+            } catch (SQLException ex) {
+                throw JDBCExceptionHelper.convert(((SessionFactoryImplementor) sessionFactory).getSQLExceptionConverter(),
+                        ex, "Cannot close a read-only connection");
+            }
+        }
+    }
+
+    /**
+     * Cancels the query which is running in a read-only session (<CODE>Statement.cancel()</CODE>)<BR/>
+     * Does nothing if the thread has no read-only session; if the JDBC driver does not support the cancellation,
+     * the query runs until its end
+     * @param thread Thread which runs the query
+     */
+    static void cancelQuery(Thread thread) {
+        if (thread == null) {
+            throw new IllegalArgumentException("The parameter 'thread' is null");
+        }
+        Session session = readOnlySessions.get(thread);
+        if (session != null) {
+            try {
+                session.cancelQuery();
+            } catch (HibernateException ex) {
+                log.log(Level.FINE, "The running query cannot be cancelled", ex);
+            }
+        }
+    }
+
     /**
      * Gets the current session
      * @return Current session
@@ -82,6 +170,22 @@ public class Installer extends ModuleInstall {
         return sessionFactory.getCurrentSession();
     }
 
+    /**
+     * Gets the session factory (used to empty the second-level and query caches, and to read the statistics)
+     * @return Session factory
+     */
+    static SessionFactory getSessionFactory() {
+        return sessionFactory;
+    }
+
+    /**
+     * Opens a stateless session (used to write large number of entities)
+     * @return Stateless session
+     */
+    public static StatelessSession openStatelessSession() {
+        return sessionFactory.openStatelessSession();
+    }
+
     /** Closes the session */
     @Override
     public void close() {
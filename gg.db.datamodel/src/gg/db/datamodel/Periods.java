@@ -358,6 +358,33 @@ public class Periods {
         this.periods = periods;
     }
 
+    /**
+     * Gets the position of the period which contains a date<BR/>
+     * The periods are sorted and do not overlap: the period is found by a binary search
+     * @param date Date
+     * @return Position of the period in <CODE>getPeriods()</CODE>, -1 if no period contains the date
+     */
+    public int getPeriodIndex(LocalDate date) {
+        if (date == null) {
+            throw new IllegalArgumentException("The parameter 'date' is null");
+        }
+
+        int low = 0;
+        int high = periods.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            Period period = periods.get(middle);
+            if (date.compareTo(period.getStart()) < 0) {
+                high = middle - 1;
+            } else if (date.compareTo(period.getEnd()) > 0) {
+                low = middle + 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
     @Override
     public String toString() {
         String description = "start=" + start + " - end=" + end + " - period type=" + periodType + "\n";
@@ -0,0 +1,293 @@
+/*
+ * PooledConnectionProvider.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.db.datamodel;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.LinkedList;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.Environment;
+import org.hibernate.connection.ConnectionProvider;
+import org.hibernate.connection.ConnectionProviderFactory;
+import org.hibernate.util.PropertiesHelper;
+import org.hibernate.util.ReflectHelper;
+
+/**
+ * <B>PooledConnectionProvider</B>
+ * <UL>
+ * <LI>Bounded pools of JDBC connections to the embedded database</LI>
+ * <LI>Write pool: connections given to Hibernate (sessions and stateless sessions of the imports and of the save methods),
+ * at most <CODE>connection.pool_size</CODE> connections</LI>
+ * <LI>Read-only pool: connections of the analytic queries (see <CODE>Installer.openReadOnlySession()</CODE>),
+ * at most <CODE>connection.read_only_pool_size</CODE> connections (number of processors by default),
+ * so that the views can query the database concurrently</LI>
+ * <LI>When all the connections of a pool are used, a thread waits until a connection is released
+ * (at most <CODE>CONNECTION_TIMEOUT</CODE> seconds)</LI>
+ * </UL>
+ * Set as <CODE>connection.provider_class</CODE> in hibernate.cfg.xml
+ * @author Francois Duchemin
+ */
+public class PooledConnectionProvider implements ConnectionProvider {
+
+    /** Class name */
+    private static final String CLASS_NAME = "gg.db.datamodel.PooledConnectionProvider";
+    /** Logger */
+    private static Logger log = Logger.getLogger(CLASS_NAME);
+    /** Property containing the maximum number of read-only connections */
+    public static final String READ_ONLY_POOL_SIZE = "hibernate.connection.read_only_pool_size";
+    /** Default maximum number of connections of the write pool */
+    private static final int DEFAULT_POOL_SIZE = 3;
+    /** Maximum time to wait for a connection (in seconds) */
+    private static final long CONNECTION_TIMEOUT = 60;
+    /** JDBC URL of the database */
+    private String url;
+    /** Properties given to the JDBC driver (user, password...) */
+    private Properties connectionProperties;
+    /** Transaction isolation level of the connections (null to keep the default level of the driver) */
+    private Integer isolation;
+    /** Connections used by Hibernate */
+    private Pool writePool;
+    /** Connections used by the analytic queries */
+    private Pool readOnlyPool;
+
+    /**
+     * Configures the pools
+     * @param props Hibernate properties
+     * @throws org.hibernate.HibernateException If the JDBC driver or URL is not valid
+     */
+    @Override
+    public void configure(Properties props) throws HibernateException {
+        log.entering(CLASS_NAME, "configure");
+
+        String driverClass = props.getProperty(Environment.DRIVER);
+        if (driverClass != null) {
+            try {
+                ReflectHelper.classForName(driverClass);
+            } catch (ClassNotFoundException ex) {
+                throw new HibernateException("JDBC driver class not found: " + driverClass, ex);
+            }
+        }
+        url = props.getProperty(Environment.URL);
+        if (url == null) {
+            throw new HibernateException("JDBC URL was not specified by property " + Environment.URL);
+        }
+        connectionProperties = ConnectionProviderFactory.getConnectionProperties(props);
+        isolation = PropertiesHelper.getInteger(Environment.ISOLATION, props);
+
+        int poolSize = PropertiesHelper.getInt(Environment.POOL_SIZE, props, DEFAULT_POOL_SIZE);
+        int readOnlyPoolSize = PropertiesHelper.getInt(READ_ONLY_POOL_SIZE, props, Runtime.getRuntime().availableProcessors());
+        writePool = new Pool(Math.max(1, poolSize), false);
+        readOnlyPool = new Pool(Math.max(1, readOnlyPoolSize), true);
+        log.info("Connection pools: " + writePool.size + " connections, " + readOnlyPool.size + " read-only connections");
+
+        log.exiting(CLASS_NAME, "configure");
+    }
+
+    /**
+     * Gets a connection of the write pool (used by Hibernate)
+     * @return Connection
+     * @throws java.sql.SQLException If no connection is available
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        return writePool.acquire();
+    }
+
+    /**
+     * Releases a connection of the write pool (used by Hibernate)
+     * @param connection Connection to release
+     * @throws java.sql.SQLException If the connection cannot be closed
+     */
+    @Override
+    public void closeConnection(Connection connection) throws SQLException {
+        writePool.release(connection);
+    }
+
+    /**
+     * Gets a connection of the read-only pool
+     * @return Read-only connection
+     * @throws java.sql.SQLException If no connection is available
+     */
+    public Connection getReadOnlyConnection() throws SQLException {
+        return readOnlyPool.acquire();
+    }
+
+    /**
+     * Releases a connection of the read-only pool
+     * @param connection Read-only connection to release
+     * @throws java.sql.SQLException If the connection cannot be closed
+     */
+    public void closeReadOnlyConnection(Connection connection) throws SQLException {
+        readOnlyPool.release(connection);
+    }
+
+    /** Closes the idle connections of the pools (the connections in use are closed when they are released) */
+    @Override
+    public void close() throws HibernateException {
+        log.entering(CLASS_NAME, "close");
+
+        writePool.close();
+        readOnlyPool.close();
+
+        log.exiting(CLASS_NAME, "close");
+    }
+
+    /**
+     * The connections are kept until the end of the transactions
+     * @return false
+     */
+    @Override
+    public boolean supportsAggressiveRelease() {
+        return false;
+    }
+
+    /** Bounded pool of connections */
+    private class Pool {
+
+        /** Maximum number of connections */
+        private final int size;
+        /** Are the connections read-only? */
+        private final boolean readOnly;
+        /** Permits to use a connection (one per connection which can be used) */
+        private final Semaphore permits;
+        /** Opened connections which are not used */
+        private final LinkedList<Connection> idleConnections = new LinkedList<Connection>();
+        /** Has the pool been closed? */
+        private boolean closed = false;
+
+        /**
+         * Creates a new instance of Pool
+         * @param size Maximum number of connections
+         * @param readOnly Are the connections read-only?
+         */
+        public Pool(int size, boolean readOnly) {
+            this.size = size;
+            this.readOnly = readOnly;
+            this.permits = new Semaphore(size, true);
+        }
+
+        /**
+         * Gets an idle connection, or opens a new one if there is no idle connection<BR/>
+         * Waits until a connection is released if all the connections are used
+         * @return Connection
+         * @throws java.sql.SQLException If no connection has been released before the timeout, or if the connection cannot be opened
+         */
+        public Connection acquire() throws SQLException {
+            try {
+                if (!permits.tryAcquire(CONNECTION_TIMEOUT, TimeUnit.SECONDS)) {
+                    throw new SQLException("No database connection available after " + CONNECTION_TIMEOUT + " seconds (" + size + " connections used)");
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a database connection");
+            }
+
+            boolean acquired = false;
+            try {
+                Connection connection;
+                synchronized (this) {
+                    if (closed) {
+                        throw new SQLException("The connection pool is closed");
+                    }
+                    connection = idleConnections.poll();
+                }
+                if (connection == null) {
+                    connection = openConnection();
+                }
+                acquired = true;
+                return connection;
+            } finally {
+                if (!acquired) {
+                    permits.release();
+                }
+            }
+        }
+
+        /**
+         * Gives a connection back to the pool
+         * @param connection Connection to release
+         * @throws java.sql.SQLException If the connection cannot be closed
+         */
+        public void release(Connection connection) throws SQLException {
+            try {
+                boolean reused = false;
+                if (!connection.isClosed()) {
+                    if (readOnly && !connection.getAutoCommit()) {
+                        // Transaction not completed (the query failed): ends it before the connection is reused
+                        connection.rollback();
+                        connection.setAutoCommit(true);
+                    }
+                    synchronized (this) {
+                        if (!closed) {
+                            idleConnections.add(connection);
+                            reused = true;
+                        }
+                    }
+                }
+                if (!reused) {
+                    connection.close();
+                }
+            } finally {
+                permits.release();
+            }
+        }
+
+        /** Closes the idle connections */
+        public void close() {
+            LinkedList<Connection> connections;
+            synchronized (this) {
+                closed = true;
+                connections = new LinkedList<Connection>(idleConnections);
+                idleConnections.clear();
+            }
+            for (Connection connection : connections) {
+                try {
+                    connection.close();
+                } catch (SQLException ex) {
+                    log.log(Level.WARNING, "The connection cannot be closed", ex);
+                }
+            }
+        }
+
+        /**
+         * Opens a new connection
+         * @return New connection
+         * @throws java.sql.SQLException If the connection cannot be opened
+         */
+        private Connection openConnection() throws SQLException {
+            Connection connection = DriverManager.getConnection(url, connectionProperties);
+            if (isolation != null) {
+                connection.setTransactionIsolation(isolation);
+            }
+            if (readOnly) {
+                connection.setReadOnly(true);
+            }
+            return connection;
+        }
+    }
+}
@@ -0,0 +1,447 @@
+/*
+ * RowBitmap.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.db.datamodel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <B>RowBitmap</B>
+ * <UL>
+ * <LI>Compressed set of row numbers of the transaction columns (see <CODE>TransactionColumns</CODE>),
+ * or of ordinals of comments (see <CODE>CommentIndex</CODE>)</LI>
+ * <LI>The rows are split into chunks of 65536 rows: the rows of a sparse chunk are stored as a sorted array of 16-bit values,
+ * the rows of a dense chunk (more than 4096 rows) as a bitmap of 65536 bits; the empty chunks are not stored</LI>
+ * <LI>The filters are combined chunk by chunk with <CODE>and()</CODE>, <CODE>or()</CODE> and <CODE>andNot()</CODE></LI>
+ * <LI>The bitmaps are immutable: the operations return new bitmaps (which can share chunks with their operands)</LI>
+ * </UL>
+ * @author Francois Duchemin
+ */
+final class RowBitmap {
+
+    /** Empty bitmap */
+    static final RowBitmap EMPTY = new RowBitmap(new int[0], new char[0][], new long[0][], 0);
+    /** Number of bits of the row number inside a chunk */
+    private static final int CHUNK_BITS = 16;
+    /** Mask of the row number inside a chunk */
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+    /** Number of words of a dense chunk */
+    private static final int DENSE_WORDS = (1 << CHUNK_BITS) / 64;
+    /** Maximum number of rows of a sparse chunk */
+    private static final int MAX_SPARSE_CARDINALITY = 4096;
+    /** Operations */
+    private static final int AND = 0;
+    private static final int OR = 1;
+    private static final int AND_NOT = 2;
+    /** Key of each chunk (row number divided by the size of the chunks), sorted */
+    private final int[] keys;
+    /** Rows of each sparse chunk (null for the dense chunks) */
+    private final char[][] sparseChunks;
+    /** Bits of each dense chunk (null for the sparse chunks) */
+    private final long[][] denseChunks;
+    /** Number of rows */
+    private final int cardinality;
+
+    /**
+     * Creates a new instance of RowBitmap
+     * @param keys Key of each chunk, sorted
+     * @param sparseChunks Rows of each sparse chunk
+     * @param denseChunks Bits of each dense chunk
+     * @param cardinality Number of rows
+     */
+    private RowBitmap(int[] keys, char[][] sparseChunks, long[][] denseChunks, int cardinality) {
+        this.keys = keys;
+        this.sparseChunks = sparseChunks;
+        this.denseChunks = denseChunks;
+        this.cardinality = cardinality;
+    }
+
+    /**
+     * Creates a bitmap from rows
+     * @param rows Row numbers, sorted in ascending order, without duplicate
+     * @param from Position of the first row to take from the array (included)
+     * @param to Position of the last row to take from the array (excluded)
+     * @return Bitmap of the rows
+     */
+    static RowBitmap of(int[] rows, int from, int to) {
+        if (rows == null) {
+            throw new IllegalArgumentException("The parameter 'rows' is null");
+        }
+
+        Builder builder = new Builder();
+        int start = from;
+        while (start < to) {
+            int key = rows[start] >>> CHUNK_BITS;
+            int end = start;
+            while (end < to && (rows[end] >>> CHUNK_BITS) == key) {
+                end++;
+            }
+            if (end - start <= MAX_SPARSE_CARDINALITY) {
+                char[] chunk = new char[end - start];
+                for (int i = start; i < end; i++) {
+                    chunk[i - start] = (char) (rows[i] & CHUNK_MASK);
+                }
+                builder.addSparse(key, chunk);
+            } else {
+                long[] chunk = new long[DENSE_WORDS];
+                for (int i = start; i < end; i++) {
+                    int row = rows[i] & CHUNK_MASK;
+                    chunk[row >>> 6] |= 1L << row;
+                }
+                builder.addDense(key, chunk);
+            }
+            start = end;
+        }
+        return builder.build();
+    }
+
+    /**
+     * Gets the union of bitmaps
+     * @param bitmaps Bitmaps
+     * @return Rows which are in at least one of the bitmaps
+     */
+    static RowBitmap or(List<RowBitmap> bitmaps) {
+        if (bitmaps == null) {
+            throw new IllegalArgumentException("The parameter 'bitmaps' is null");
+        }
+        RowBitmap union = EMPTY;
+        for (RowBitmap bitmap : bitmaps) {
+            union = union.or(bitmap);
+        }
+        return union;
+    }
+
+    /**
+     * Gets the intersection with another bitmap
+     * @param other Other bitmap
+     * @return Rows which are in both bitmaps
+     */
+    RowBitmap and(RowBitmap other) {
+        return combine(other, AND);
+    }
+
+    /**
+     * Gets the union with another bitmap
+     * @param other Other bitmap
+     * @return Rows which are in at least one of the bitmaps
+     */
+    RowBitmap or(RowBitmap other) {
+        return combine(other, OR);
+    }
+
+    /**
+     * Gets the difference with another bitmap
+     * @param other Other bitmap
+     * @return Rows which are in this bitmap but not in the other bitmap
+     */
+    RowBitmap andNot(RowBitmap other) {
+        return combine(other, AND_NOT);
+    }
+
+    /**
+     * Gets the rows in a range
+     * @param first First row of the range (included)
+     * @param last Last row of the range (excluded)
+     * @return Rows of the bitmap in the range, sorted
+     */
+    int[] getRows(int first, int last) {
+        int[] rows = new int[Math.max(0, Math.min(cardinality, last - first))];
+        int count = 0;
+        for (int i = 0; i < keys.length && count < rows.length; i++) {
+            int base = keys[i] << CHUNK_BITS;
+            if (base + CHUNK_MASK < first) {
+                continue;
+            }
+            if (base >= last) {
+                break;
+            }
+            if (sparseChunks[i] != null) {
+                for (char row : sparseChunks[i]) {
+                    int value = base + row;
+                    if (value >= first && value < last) {
+                        rows[count++] = value;
+                    }
+                }
+            } else {
+                long[] chunk = denseChunks[i];
+                for (int j = 0; j < chunk.length; j++) {
+                    long word = chunk[j];
+                    while (word != 0) {
+                        int value = base + (j << 6) + Long.numberOfTrailingZeros(word);
+                        if (value >= first && value < last) {
+                            rows[count++] = value;
+                        }
+                        word &= word - 1;
+                    }
+                }
+            }
+        }
+        return (count == rows.length) ? rows : Arrays.copyOf(rows, count);
+    }
+
+    /**
+     * Combines the bitmap with another bitmap, chunk by chunk
+     * @param other Other bitmap
+     * @param operation Operation (<CODE>AND</CODE>, <CODE>OR</CODE> or <CODE>AND_NOT</CODE>)
+     * @return Result of the operation
+     */
+    private RowBitmap combine(RowBitmap other, int operation) {
+        if (other == null) {
+            throw new IllegalArgumentException("The parameter 'other' is null");
+        }
+
+        Builder builder = new Builder();
+        int i = 0;
+        int j = 0;
+        while (i < keys.length || j < other.keys.length) {
+            int key = (i < keys.length) ? keys[i] : Integer.MAX_VALUE;
+            int otherKey = (j < other.keys.length) ? other.keys[j] : Integer.MAX_VALUE;
+            if (key < otherKey) {
+                if (operation != AND) {
+                    builder.add(key, sparseChunks[i], denseChunks[i]);
+                }
+                i++;
+            } else if (otherKey < key) {
+                if (operation == OR) {
+                    builder.add(otherKey, other.sparseChunks[j], other.denseChunks[j]);
+                }
+                j++;
+            } else {
+                combineChunks(builder, key, sparseChunks[i], denseChunks[i], other.sparseChunks[j], other.denseChunks[j], operation);
+                i++;
+                j++;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Combines two chunks which have the same key
+     * @param builder Builder of the result, to which the combined chunk is added
+     * @param key Key of the chunks
+     * @param sparse Rows of the first chunk (null if it is dense)
+     * @param dense Bits of the first chunk (null if it is sparse)
+     * @param otherSparse Rows of the second chunk (null if it is dense)
+     * @param otherDense Bits of the second chunk (null if it is sparse)
+     * @param operation Operation
+     */
+    private static void combineChunks(Builder builder, int key, char[] sparse, long[] dense,
+            char[] otherSparse, long[] otherDense, int operation) {
+        switch (operation) {
+            case AND:
+                if (sparse != null) {
+                    builder.addSparse(key, filter(sparse, otherSparse, otherDense, true));
+                } else if (otherSparse != null) {
+                    builder.addSparse(key, filter(otherSparse, sparse, dense, true));
+                } else {
+                    long[] words = new long[DENSE_WORDS];
+                    for (int k = 0; k < DENSE_WORDS; k++) {
+                        words[k] = dense[k] & otherDense[k];
+                    }
+                    builder.addDense(key, words);
+                }
+                break;
+            case OR:
+                if (sparse != null && otherSparse != null && sparse.length + otherSparse.length <= MAX_SPARSE_CARDINALITY) {
+                    builder.addSparse(key, merge(sparse, otherSparse));
+                } else {
+                    long[] words = toDense(sparse, dense);
+                    if (otherSparse != null) {
+                        for (char row : otherSparse) {
+                            words[row >>> 6] |= 1L << row;
+                        }
+                    } else {
+                        for (int k = 0; k < DENSE_WORDS; k++) {
+                            words[k] |= otherDense[k];
+                        }
+                    }
+                    builder.addDense(key, words);
+                }
+                break;
+            default: // AND_NOT
+                if (sparse != null) {
+                    builder.addSparse(key, filter(sparse, otherSparse, otherDense, false));
+                } else {
+                    long[] words = toDense(sparse, dense);
+                    if (otherSparse != null) {
+                        for (char row : otherSparse) {
+                            words[row >>> 6] &= ~(1L << row);
+                        }
+                    } else {
+                        for (int k = 0; k < DENSE_WORDS; k++) {
+                            words[k] &= ~otherDense[k];
+                        }
+                    }
+                    builder.addDense(key, words);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Filters the rows of a sparse chunk
+     * @param rows Rows of the sparse chunk
+     * @param otherSparse Rows of the other chunk (null if it is dense)
+     * @param otherDense Bits of the other chunk (null if it is sparse)
+     * @param keep Keep the rows which are in the other chunk? (if false, keep the rows which are not in the other chunk)
+     * @return Rows which are kept
+     */
+    private static char[] filter(char[] rows, char[] otherSparse, long[] otherDense, boolean keep) {
+        char[] filteredRows = new char[rows.length];
+        int count = 0;
+        for (char row : rows) {
+            boolean found = (otherSparse != null) ? Arrays.binarySearch(otherSparse, row) >= 0 :
+                (otherDense[row >>> 6] & (1L << row)) != 0;
+            if (found == keep) {
+                filteredRows[count++] = row;
+            }
+        }
+        return Arrays.copyOf(filteredRows, count);
+    }
+
+    /**
+     * Merges the rows of two sparse chunks
+     * @param rows Rows of the first chunk
+     * @param otherRows Rows of the second chunk
+     * @return Rows which are in at least one of the chunks, sorted
+     */
+    private static char[] merge(char[] rows, char[] otherRows) {
+        char[] mergedRows = new char[rows.length + otherRows.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < rows.length || j < otherRows.length) {
+            if (j == otherRows.length || (i < rows.length && rows[i] < otherRows[j])) {
+                mergedRows[count++] = rows[i++];
+            } else if (i == rows.length || otherRows[j] < rows[i]) {
+                mergedRows[count++] = otherRows[j++];
+            } else {
+                mergedRows[count++] = rows[i++];
+                j++;
+            }
+        }
+        return Arrays.copyOf(mergedRows, count);
+    }
+
+    /**
+     * Copies a chunk into a new dense chunk
+     * @param sparse Rows of the chunk (null if it is dense)
+     * @param dense Bits of the chunk (null if it is sparse)
+     * @return Bits of the chunk (new array)
+     */
+    private static long[] toDense(char[] sparse, long[] dense) {
+        if (dense != null) {
+            return dense.clone();
+        }
+        long[] words = new long[DENSE_WORDS];
+        for (char row : sparse) {
+            words[row >>> 6] |= 1L << row;
+        }
+        return words;
+    }
+
+    /** Builder of a bitmap: the chunks are added in the order of their keys */
+    private static class Builder {
+
+        /** Keys of the chunks */
+        private final List<Integer> keys = new ArrayList<Integer>();
+        /** Rows of the sparse chunks */
+        private final List<char[]> sparseChunks = new ArrayList<char[]>();
+        /** Bits of the dense chunks */
+        private final List<long[]> denseChunks = new ArrayList<long[]>();
+        /** Number of rows */
+        private int cardinality = 0;
+
+        /**
+         * Adds an existing chunk
+         * @param key Key of the chunk
+         * @param sparse Rows of the chunk (null if it is dense)
+         * @param dense Bits of the chunk (null if it is sparse)
+         */
+        public void add(int key, char[] sparse, long[] dense) {
+            if (sparse != null) {
+                addSparse(key, sparse);
+            } else {
+                addDense(key, dense);
+            }
+        }
+
+        /**
+         * Adds a sparse chunk (ignored if it is empty)
+         * @param key Key of the chunk
+         * @param rows Rows of the chunk
+         */
+        public void addSparse(int key, char[] rows) {
+            if (rows.length > 0) {
+                keys.add(key);
+                sparseChunks.add(rows);
+                denseChunks.add(null);
+                cardinality += rows.length;
+            }
+        }
+
+        /**
+         * Adds a dense chunk (ignored if it is empty, converted into a sparse chunk if it has few rows)
+         * @param key Key of the chunk
+         * @param words Bits of the chunk
+         */
+        public void addDense(int key, long[] words) {
+            int count = 0;
+            for (long word : words) {
+                count += Long.bitCount(word);
+            }
+            if (count > MAX_SPARSE_CARDINALITY) {
+                keys.add(key);
+                sparseChunks.add(null);
+                denseChunks.add(words);
+                cardinality += count;
+            } else if (count > 0) {
+                char[] rows = new char[count];
+                int i = 0;
+                for (int j = 0; j < words.length; j++) {
+                    long word = words[j];
+                    while (word != 0) {
+                        rows[i++] = (char) ((j << 6) + Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+                addSparse(key, rows);
+            }
+        }
+
+        /**
+         * Builds the bitmap
+         * @return Bitmap of the added chunks
+         */
+        public RowBitmap build() {
+            int[] keysArray = new int[keys.size()];
+            for (int i = 0; i < keysArray.length; i++) {
+                keysArray[i] = keys.get(i);
+            }
+            return new RowBitmap(keysArray,
+                    sparseChunks.toArray(new char[keysArray.length][]),
+                    denseChunks.toArray(new long[keysArray.length][]),
+                    cardinality);
+        }
+    }
+}
@@ -32,8 +32,10 @@ import java.util.List;
  * <B>SearchCriteria</B>
  * <UL>
  * <LI>Criterion (Period of time, keywords, categories...), that permit to look for transactions</LI>
- * <LI>The boolean operator is 'or': if the search criteria contains a list of two keywords, and if a transaction contains one of them,
+ * <LI>The boolean operator of the lists is 'or': if the search criteria contains a list of two payees, and if a transaction has one of them,
  * then the transaction matches the filter</LI>
+ * <LI>The boolean operator of the keywords is 'and': if the keywords contain two words, a transaction matches the filter
+ * if its comment contains both words</LI>
  * </UL>
  * @author Francois Duchemin
  */
@@ -188,6 +190,22 @@ public class SearchCriteria implements Comparable<SearchCriteria> {
         return keywords;
     }
 
+    /**
+     * Gets the words of the filtered keywords
+     * @return Words of the keywords, separated by spaces (empty if there is no filter on the keywords)
+     */
+    public List<String> getKeywordsList() {
+        List<String> words = new ArrayList<String>();
+        if (keywords != null) {
+            for (String word : keywords.trim().split("\\s+")) {
+                if (word.length() > 0) {
+                    words.add(word);
+                }
+            }
+        }
+        return words;
+    }
+
     /**
      * Sets a filter on the keywords
      * @param keywords Keywords (null if there shall be no filter on the keywords)
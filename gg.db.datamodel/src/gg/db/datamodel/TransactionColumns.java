@@ -0,0 +1,817 @@
+/*
+ * TransactionColumns.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.db.datamodel;
+
+import gg.db.entities.Account;
+import gg.db.entities.Category;
+import gg.db.entities.Payee;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+
+/**
+ * <B>TransactionColumns</B>
+ * <UL>
+ * <LI>In-memory copy of the transactions without parent transaction, stored by columns of primitive values:
+ * transaction ID, day (number of days since 1970-01-01), amount (in cents), account, category and payee (dense ordinals)</LI>
+ * <LI>The transactions are sorted by day and by ID: the transactions of a period are found by two binary searches,
+ * and the aggregates are computed by loops over the columns, without query and without <CODE>BigDecimal</CODE></LI>
+ * <LI>The rows of each account, each category and each payee are indexed by bitmaps (see <CODE>RowBitmap</CODE>):
+ * the filters of a search criteria are combined by bitmap operations, and only the matching rows are read</LI>
+ * <LI>The columns are immutable: they are loaded by <CODE>Datamodel</CODE> after each import, and replaced when the transactions change</LI>
+ * <LI>The columns can be saved in a snapshot file (<CODE>write()</CODE>), which is mapped in memory at the next start
+ * (<CODE>map()</CODE>): the columns are then read from the file, outside of the heap</LI>
+ * </UL>
+ * The aggregates match the queries of <CODE>Datamodel</CODE>: only the transactions of the active accounts are summed
+ * (except by <CODE>sumByPeriod()</CODE> when it is asked for), and the filters on categories, payees and keywords are not applied
+ * (the filters on categories and payees are applied by <CODE>getRows()</CODE>)
+ * @author Francois Duchemin
+ */
+final class TransactionColumns {
+
+    /** Class name */
+    private static final String CLASS_NAME = "gg.db.datamodel.TransactionColumns";
+    /** Logger */
+    private static Logger log = Logger.getLogger(CLASS_NAME);
+    /** Number of decimals of the amounts */
+    private static final int AMOUNT_SCALE = 2;
+    /** First day of the day numbers */
+    private static final LocalDate EPOCH = new LocalDate(1970, 1, 1);
+    /** First bytes of a snapshot file ("GGTC") */
+    private static final int SNAPSHOT_MAGIC = 0x47475443;
+    /** Version of the format of the snapshot files (to increment when the format changes) */
+    private static final int SNAPSHOT_VERSION = 3;
+    /** Encoding of the fingerprint in the snapshot files */
+    private static final String FINGERPRINT_ENCODING = "UTF-8";
+    /** Size of the buffer used to compute the checksum of a snapshot file */
+    private static final int CHECKSUM_BUFFER_SIZE = 64 * 1024;
+    /** ID of each transaction */
+    private final LongBuffer ids;
+    /** Day of each transaction (sorted) */
+    private final IntBuffer days;
+    /** Amount of each transaction (in cents) */
+    private final LongBuffer amounts;
+    /** Account ordinal of each transaction */
+    private final IntBuffer accounts;
+    /** Category ordinal of each transaction */
+    private final IntBuffer categories;
+    /** Payee ordinal of each transaction */
+    private final IntBuffer payees;
+    /** Account ID by account ordinal */
+    private final long[] accountIds;
+    /** Is the account active? (by account ordinal) */
+    private final boolean[] activeAccounts;
+    /** Currency ID of the account by account ordinal */
+    private final long[] accountsCurrencies;
+    /** Account ordinal by account ID */
+    private final Map<Long, Integer> accountOrdinals = new HashMap<Long, Integer>();
+    /** Category ID by category ordinal */
+    private final long[] categoryIds;
+    /** Category ordinal by category ID */
+    private final Map<Long, Integer> categoryOrdinals = new HashMap<Long, Integer>();
+    /** Payee ID by payee ordinal */
+    private final long[] payeeIds;
+    /** Payee ordinal by payee ID */
+    private final Map<Long, Integer> payeeOrdinals = new HashMap<Long, Integer>();
+    /** Ordinal of the transfer category (-1 if there is no transfer) */
+    private final int transferCategory;
+    /** Rows of each account (by account ordinal) */
+    private final RowBitmap[] accountRows;
+    /** Rows of each category (by category ordinal) */
+    private final RowBitmap[] categoryRows;
+    /** Rows of each payee (by payee ordinal) */
+    private final RowBitmap[] payeeRows;
+
+    /**
+     * Creates a new instance of TransactionColumns<BR/>
+     * The bitmaps of the accounts, categories and payees are built from the columns
+     * @param ids ID of each transaction
+     * @param days Day of each transaction (sorted)
+     * @param amounts Amount of each transaction (in cents)
+     * @param accounts Account ordinal of each transaction
+     * @param categories Category ordinal of each transaction
+     * @param payees Payee ordinal of each transaction
+     * @param accountIds Account ID by account ordinal
+     * @param activeAccounts Is the account active? (by account ordinal)
+     * @param accountsCurrencies Currency ID of the account by account ordinal
+     * @param categoryIds Category ID by category ordinal
+     * @param payeeIds Payee ID by payee ordinal
+     * @param transferCategory Ordinal of the transfer category (-1 if there is no transfer)
+     */
+    private TransactionColumns(LongBuffer ids, IntBuffer days, LongBuffer amounts, IntBuffer accounts, IntBuffer categories, IntBuffer payees,
+            long[] accountIds, boolean[] activeAccounts, long[] accountsCurrencies, long[] categoryIds, long[] payeeIds, int transferCategory) {
+        this.ids = ids;
+        this.days = days;
+        this.amounts = amounts;
+        this.accounts = accounts;
+        this.categories = categories;
+        this.payees = payees;
+        this.accountIds = accountIds;
+        this.activeAccounts = activeAccounts;
+        this.accountsCurrencies = accountsCurrencies;
+        this.categoryIds = categoryIds;
+        this.payeeIds = payeeIds;
+        this.transferCategory = transferCategory;
+        for (int i = 0; i < accountIds.length; i++) {
+            accountOrdinals.put(accountIds[i], i);
+        }
+        for (int i = 0; i < categoryIds.length; i++) {
+            categoryOrdinals.put(categoryIds[i], i);
+        }
+        for (int i = 0; i < payeeIds.length; i++) {
+            payeeOrdinals.put(payeeIds[i], i);
+        }
+        accountRows = getBitmaps(accounts, accountIds.length);
+        categoryRows = getBitmaps(categories, categoryIds.length);
+        payeeRows = getBitmaps(payees, payeeIds.length);
+    }
+
+    /**
+     * Creates the columns of transactions read from the database
+     * @param transactions Transactions without parent transaction, sorted by day and by ID: each item is an array which contains
+     * the day, the account ID, the category ID, the amount, the ID and the payee ID of the transaction
+     * @param allAccounts All the accounts (active or not)
+     * @param transferCategoryId ID of the transfer category
+     * @return Columns of the transactions (in the heap)
+     * @throws java.lang.ArithmeticException If an amount has more than <CODE>AMOUNT_SCALE</CODE> decimals
+     */
+    static TransactionColumns create(List transactions, List<Account> allAccounts, Long transferCategoryId) {
+        if (transactions == null) {
+            throw new IllegalArgumentException("The parameter 'transactions' is null");
+        }
+        if (allAccounts == null) {
+            throw new IllegalArgumentException("The parameter 'allAccounts' is null");
+        }
+        if (transferCategoryId == null) {
+            throw new IllegalArgumentException("The parameter 'transferCategoryId' is null");
+        }
+
+        // Dense ordinals of the accounts
+        long[] accountIds = new long[allAccounts.size()];
+        boolean[] activeAccounts = new boolean[allAccounts.size()];
+        long[] accountsCurrencies = new long[allAccounts.size()];
+        Map<Long, Integer> accountOrdinals = new HashMap<Long, Integer>();
+        for (int i = 0; i < allAccounts.size(); i++) {
+            Account account = allAccounts.get(i);
+            accountIds[i] = account.getId();
+            activeAccounts[i] = Boolean.TRUE.equals(account.getActive());
+            accountsCurrencies[i] = account.getCurrency().getId();
+            accountOrdinals.put(account.getId(), i);
+        }
+
+        // Fill the columns (the ordinals of the categories and of the payees are given in the order of appearance)
+        int size = transactions.size();
+        long[] ids = new long[size];
+        int[] days = new int[size];
+        long[] amounts = new long[size];
+        int[] accounts = new int[size];
+        int[] categories = new int[size];
+        int[] payees = new int[size];
+        List<Long> categoryIds = new ArrayList<Long>();
+        Map<Long, Integer> categoryOrdinals = new HashMap<Long, Integer>();
+        List<Long> payeeIds = new ArrayList<Long>();
+        Map<Long, Integer> payeeOrdinals = new HashMap<Long, Integer>();
+        for (int i = 0; i < size; i++) {
+            Object[] row = (Object[]) transactions.get(i);
+            Integer accountOrdinal = accountOrdinals.get((Long) row[1]);
+            assert (accountOrdinal != null);
+
+            ids[i] = (Long) row[4];
+            days[i] = getDay((LocalDate) row[0]);
+            amounts[i] = ((BigDecimal) row[3]).movePointRight(AMOUNT_SCALE).longValueExact();
+            accounts[i] = accountOrdinal;
+            categories[i] = getOrdinal((Long) row[2], categoryIds, categoryOrdinals);
+            payees[i] = getOrdinal((Long) row[5], payeeIds, payeeOrdinals);
+            assert (i == 0 || days[i - 1] <= days[i]);
+        }
+
+        Integer transferOrdinal = categoryOrdinals.get(transferCategoryId);
+
+        return new TransactionColumns(LongBuffer.wrap(ids), IntBuffer.wrap(days), LongBuffer.wrap(amounts),
+                IntBuffer.wrap(accounts), IntBuffer.wrap(categories), IntBuffer.wrap(payees),
+                accountIds, activeAccounts, accountsCurrencies, toArray(categoryIds), toArray(payeeIds),
+                (transferOrdinal != null) ? transferOrdinal : -1);
+    }
+
+    /**
+     * Maps a snapshot file in memory (read-only)<BR/>
+     * The snapshot is used only if it has been written in the current format, if its checksum is valid,
+     * and if it has been written for the expected fingerprint
+     * @param file Snapshot file
+     * @param fingerprint Fingerprint of the content of the database
+     * @return Columns of the transactions read from the file (null if the snapshot cannot be used)
+     * @throws java.io.IOException If the file cannot be read
+     */
+    static TransactionColumns map(File file, String fingerprint) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("The parameter 'file' is null");
+        }
+        if (fingerprint == null) {
+            throw new IllegalArgumentException("The parameter 'fingerprint' is null");
+        }
+
+        RandomAccessFile snapshotFile = new RandomAccessFile(file, "r");
+        try {
+            MappedByteBuffer buffer = snapshotFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, snapshotFile.length());
+
+            // Header: format, fingerprint, checksum and sizes
+            if (buffer.remaining() < 12 || buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != SNAPSHOT_VERSION) {
+                log.info("Snapshot '" + file + "' ignored: unknown format");
+                return null;
+            }
+            int fingerprintLength = buffer.getInt();
+            if (fingerprintLength < 0 || fingerprintLength > buffer.remaining()) {
+                log.info("Snapshot '" + file + "' ignored: corrupted header");
+                return null;
+            }
+            byte[] fingerprintBytes = new byte[fingerprintLength];
+            buffer.get(fingerprintBytes);
+            if (!fingerprint.equals(new String(fingerprintBytes, FINGERPRINT_ENCODING))) {
+                log.info("Snapshot '" + file + "' ignored: written for another import");
+                return null;
+            }
+            if (buffer.remaining() < 28) {
+                log.info("Snapshot '" + file + "' ignored: corrupted header");
+                return null;
+            }
+            long checksum = buffer.getLong();
+            int size = buffer.getInt();
+            int numberOfAccounts = buffer.getInt();
+            int numberOfCategories = buffer.getInt();
+            int numberOfPayees = buffer.getInt();
+            int transferCategory = buffer.getInt();
+            if (size < 0 || numberOfAccounts < 0 || numberOfCategories < 0 || numberOfPayees < 0 ||
+                    buffer.remaining() != getDataSize(size, numberOfAccounts, numberOfCategories, numberOfPayees)) {
+                log.info("Snapshot '" + file + "' ignored: corrupted header");
+                return null;
+            }
+
+            // Data: the checksum is checked before the data are used
+            ByteBuffer data = buffer.slice();
+            if (getChecksum(data.duplicate()) != checksum) {
+                log.info("Snapshot '" + file + "' ignored: invalid checksum");
+                return null;
+            }
+            long[] accountIds = new long[numberOfAccounts];
+            long[] accountsCurrencies = new long[numberOfAccounts];
+            boolean[] activeAccounts = new boolean[numberOfAccounts];
+            long[] categoryIds = new long[numberOfCategories];
+            long[] payeeIds = new long[numberOfPayees];
+            for (int i = 0; i < numberOfAccounts; i++) {
+                accountIds[i] = data.getLong();
+                accountsCurrencies[i] = data.getLong();
+                activeAccounts[i] = (data.get() != 0);
+            }
+            for (int i = 0; i < numberOfCategories; i++) {
+                categoryIds[i] = data.getLong();
+            }
+            for (int i = 0; i < numberOfPayees; i++) {
+                payeeIds[i] = data.getLong();
+            }
+            LongBuffer ids = getColumn(data, 8 * size).asLongBuffer();
+            LongBuffer amounts = getColumn(data, 8 * size).asLongBuffer();
+            IntBuffer days = getColumn(data, 4 * size).asIntBuffer();
+            IntBuffer accounts = getColumn(data, 4 * size).asIntBuffer();
+            IntBuffer categories = getColumn(data, 4 * size).asIntBuffer();
+            IntBuffer payees = getColumn(data, 4 * size).asIntBuffer();
+
+            return new TransactionColumns(ids, days, amounts, accounts, categories, payees,
+                    accountIds, activeAccounts, accountsCurrencies, categoryIds, payeeIds, transferCategory);
+        } finally {
+            snapshotFile.close(); // The mapping remains valid after the file is closed
+        }
+    }
+
+    /**
+     * Writes the columns in a snapshot file<BR/>
+     * The snapshot is written in a temporary file, which then replaces the snapshot file
+     * @param file Snapshot file
+     * @param fingerprint Fingerprint of the content of the database
+     * @throws java.io.IOException If the file cannot be written
+     */
+    void write(File file, String fingerprint) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("The parameter 'file' is null");
+        }
+        if (fingerprint == null) {
+            throw new IllegalArgumentException("The parameter 'fingerprint' is null");
+        }
+
+        // Data: accounts, categories, payees, then the columns
+        int size = size();
+        ByteBuffer data = ByteBuffer.allocate((int) getDataSize(size, accountIds.length, categoryIds.length, payeeIds.length));
+        for (int i = 0; i < accountIds.length; i++) {
+            data.putLong(accountIds[i]);
+            data.putLong(accountsCurrencies[i]);
+            data.put(activeAccounts[i] ? (byte) 1 : (byte) 0);
+        }
+        for (int i = 0; i < categoryIds.length; i++) {
+            data.putLong(categoryIds[i]);
+        }
+        for (int i = 0; i < payeeIds.length; i++) {
+            data.putLong(payeeIds[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            data.putLong(ids.get(i));
+        }
+        for (int i = 0; i < size; i++) {
+            data.putLong(amounts.get(i));
+        }
+        for (int i = 0; i < size; i++) {
+            data.putInt(days.get(i));
+        }
+        for (int i = 0; i < size; i++) {
+            data.putInt(accounts.get(i));
+        }
+        for (int i = 0; i < size; i++) {
+            data.putInt(categories.get(i));
+        }
+        for (int i = 0; i < size; i++) {
+            data.putInt(payees.get(i));
+        }
+        data.flip();
+
+        // Header: format, fingerprint, checksum and sizes
+        byte[] fingerprintBytes = fingerprint.getBytes(FINGERPRINT_ENCODING);
+        ByteBuffer header = ByteBuffer.allocate(40 + fingerprintBytes.length);
+        header.putInt(SNAPSHOT_MAGIC);
+        header.putInt(SNAPSHOT_VERSION);
+        header.putInt(fingerprintBytes.length);
+        header.put(fingerprintBytes);
+        header.putLong(getChecksum(data.duplicate()));
+        header.putInt(size);
+        header.putInt(accountIds.length);
+        header.putInt(categoryIds.length);
+        header.putInt(payeeIds.length);
+        header.putInt(transferCategory);
+        header.flip();
+
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temporaryFile);
+        try {
+            FileChannel channel = out.getChannel();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(true);
+        } finally {
+            out.close();
+        }
+        if ((file.exists() && !file.delete()) || !temporaryFile.renameTo(file)) {
+            temporaryFile.delete();
+            throw new IOException("The snapshot '" + file + "' cannot be replaced");
+        }
+    }
+
+    /**
+     * Gets the number of transactions
+     * @return Number of transactions in the columns
+     */
+    int size() {
+        return days.limit();
+    }
+
+    /**
+     * Gets the sum of the transactions that match a search criteria
+     * @param searchCriteria Search criteria (currency, accounts, period and transfers)
+     * @param searchFromStartDate Search from the start of the period? (if false, from the first transaction)
+     * @param sign Transactions to sum: 1 for the incomes only, -1 for the expenses only, 0 for all the transactions
+     * @return Sum of the transactions (null if no transaction of the accounts matches the period)
+     */
+    BigDecimal sum(SearchCriteria searchCriteria, boolean searchFromStartDate, int sign) {
+        if (searchCriteria == null) {
+            throw new IllegalArgumentException("The parameter 'searchCriteria' is null");
+        }
+
+        int first = 0;
+        int last = days.limit();
+        if (searchCriteria.hasPeriodFilter()) {
+            if (searchFromStartDate) {
+                first = getFirstIndex(getDay(searchCriteria.getPeriod().getStart()));
+            }
+            last = getFirstIndex(getDay(searchCriteria.getPeriod().getEnd()) + 1);
+        }
+        int[] rows = getSelectedRows(searchCriteria, true, false).getRows(first, last);
+
+        long sum = 0;
+        for (int row : rows) {
+            long amount = amounts.get(row);
+            if (sign == 0 || (sign > 0 && amount > 0) || (sign < 0 && amount < 0)) {
+                sum += amount;
+            }
+        }
+
+        return (rows.length > 0) ? getAmount(sum) : null;
+    }
+
+    /**
+     * Gets the balances of the categories that match a search criteria
+     * @param searchCriteria Search criteria (currency, accounts, period and transfers)
+     * @return List of category balances: each item of the list is an array which contains the category ID and the category balance
+     * (only the categories which have transactions)
+     */
+    List<Object[]> sumByCategory(SearchCriteria searchCriteria) {
+        if (searchCriteria == null) {
+            throw new IllegalArgumentException("The parameter 'searchCriteria' is null");
+        }
+
+        int first = 0;
+        int last = days.limit();
+        if (searchCriteria.hasPeriodFilter()) {
+            first = getFirstIndex(getDay(searchCriteria.getPeriod().getStart()));
+            last = getFirstIndex(getDay(searchCriteria.getPeriod().getEnd()) + 1);
+        }
+
+        long[] sums = new long[categoryIds.length];
+        boolean[] found = new boolean[categoryIds.length];
+        for (int row : getSelectedRows(searchCriteria, true, false).getRows(first, last)) {
+            int category = categories.get(row);
+            sums[category] += amounts.get(row);
+            found[category] = true;
+        }
+
+        List<Object[]> categoriesBalances = new ArrayList<Object[]>();
+        for (int i = 0; i < sums.length; i++) {
+            if (found[i]) {
+                categoriesBalances.add(new Object[]{categoryIds[i], getAmount(sums[i])});
+            }
+        }
+        return categoriesBalances;
+    }
+
+    /**
+     * Gets the sums of the transactions by account or by category, and by period
+     * @param searchCriteria Search criteria (currency, accounts and transfers - the period is ignored)
+     * @param activeAccountsOnly Sum only the transactions of the active accounts?
+     * @param periods Periods (the transactions out of the periods are ignored)
+     * @param byCategory Group the transactions by category? (if false, by account)
+     * @return Sums in cents by account ordinal or by category ordinal, and by period position
+     * (null for the accounts or categories without transaction in the periods)
+     */
+    long[][] sumByPeriod(SearchCriteria searchCriteria, boolean activeAccountsOnly, Periods periods, boolean byCategory) {
+        if (searchCriteria == null) {
+            throw new IllegalArgumentException("The parameter 'searchCriteria' is null");
+        }
+        if (periods == null) {
+            throw new IllegalArgumentException("The parameter 'periods' is null");
+        }
+
+        // Bounds of the periods
+        List<Period> listOfPeriods = periods.getPeriods();
+        int[] periodStarts = new int[listOfPeriods.size()];
+        int[] periodEnds = new int[listOfPeriods.size()];
+        for (int i = 0; i < periodStarts.length; i++) {
+            periodStarts[i] = getDay(listOfPeriods.get(i).getStart());
+            periodEnds[i] = getDay(listOfPeriods.get(i).getEnd());
+        }
+
+        int first = getFirstIndex(periodStarts[0]);
+        int last = getFirstIndex(periodEnds[periodEnds.length - 1] + 1);
+        int[] rows = getSelectedRows(searchCriteria, activeAccountsOnly, false).getRows(first, last);
+
+        // The transactions are sorted by day: the periods are walked in the same order
+        long[][] sums = new long[byCategory ? categoryIds.length : accountIds.length][];
+        int period = 0;
+        for (int row : rows) {
+            int day = days.get(row);
+            while (day > periodEnds[period]) {
+                period++;
+            }
+            if (day < periodStarts[period]) {
+                continue;
+            }
+            int ordinal = byCategory ? categories.get(row) : accounts.get(row);
+            if (sums[ordinal] == null) {
+                sums[ordinal] = new long[periodStarts.length];
+            }
+            sums[ordinal][period] += amounts.get(row);
+        }
+
+        return sums;
+    }
+
+    /**
+     * Gets the rows of the transactions that match a search criteria<BR/>
+     * The filters on accounts, currency, categories, payees and transfers are resolved by the bitmaps,
+     * and the filter on the period by two binary searches: only the matching rows are read
+     * @param searchCriteria Search criteria (the filter on keywords is not applied, see <CODE>CommentIndex</CODE>)
+     * @return Rows of the matching transactions of the active accounts, sorted
+     */
+    int[] getRows(SearchCriteria searchCriteria) {
+        if (searchCriteria == null) {
+            throw new IllegalArgumentException("The parameter 'searchCriteria' is null");
+        }
+
+        int first = 0;
+        int last = days.limit();
+        if (searchCriteria.hasPeriodFilter()) {
+            first = getFirstIndex(getDay(searchCriteria.getPeriod().getStart()));
+            last = getFirstIndex(getDay(searchCriteria.getPeriod().getEnd()) + 1);
+        }
+        return getSelectedRows(searchCriteria, true, true).getRows(first, last);
+    }
+
+    /**
+     * Gets the IDs of the transactions of rows
+     * @param rows Rows
+     * @return ID of the transaction of each row
+     */
+    List<Long> getTransactionIds(int[] rows) {
+        if (rows == null) {
+            throw new IllegalArgumentException("The parameter 'rows' is null");
+        }
+        List<Long> transactionIds = new ArrayList<Long>(rows.length);
+        for (int row : rows) {
+            transactionIds.add(ids.get(row));
+        }
+        return transactionIds;
+    }
+
+    /**
+     * Gets the ID of the transaction of a row
+     * @param row Row
+     * @return Transaction ID
+     */
+    long getTransactionId(int row) {
+        return ids.get(row);
+    }
+
+    /**
+     * Gets the number of transactions in the period of a search criteria
+     * @param searchCriteria Search criteria (only the period is taken into account)
+     * @return Number of transactions of all the accounts in the period
+     */
+    int getNumberOfTransactions(SearchCriteria searchCriteria) {
+        if (searchCriteria == null) {
+            throw new IllegalArgumentException("The parameter 'searchCriteria' is null");
+        }
+        if (!searchCriteria.hasPeriodFilter()) {
+            return days.limit();
+        }
+        return getFirstIndex(getDay(searchCriteria.getPeriod().getEnd()) + 1) - getFirstIndex(getDay(searchCriteria.getPeriod().getStart()));
+    }
+
+    /**
+     * Gets the ID of an account
+     * @param ordinal Account ordinal
+     * @return Account ID
+     */
+    Long getAccountId(int ordinal) {
+        return accountIds[ordinal];
+    }
+
+    /**
+     * Gets the ID of a category
+     * @param ordinal Category ordinal
+     * @return Category ID
+     */
+    Long getCategoryId(int ordinal) {
+        return categoryIds[ordinal];
+    }
+
+    /**
+     * Converts an amount in cents
+     * @param cents Amount in cents
+     * @return Amount
+     */
+    static BigDecimal getAmount(long cents) {
+        return BigDecimal.valueOf(cents, AMOUNT_SCALE);
+    }
+
+    /**
+     * Gets the accounts that match a search criteria
+     * @param searchCriteria Search criteria (accounts filter, or currency filter if there is no accounts filter)
+     * @param activeAccountsOnly Select only the active accounts?
+     * @return Is the account selected? (by account ordinal)
+     */
+    private boolean[] getSelectedAccounts(SearchCriteria searchCriteria, boolean activeAccountsOnly) {
+        boolean[] selectedAccounts = new boolean[accountIds.length];
+        if (searchCriteria.hasAccountsFilter()) {
+            for (Account account : searchCriteria.getAccounts()) {
+                Integer ordinal = accountOrdinals.get(account.getId());
+                if (ordinal != null) {
+                    selectedAccounts[ordinal] = true;
+                }
+            }
+        } else {
+            for (int i = 0; i < selectedAccounts.length; i++) {
+                selectedAccounts[i] = !searchCriteria.hasCurrencyFilter() ||
+                        accountsCurrencies[i] == searchCriteria.getCurrency().getId();
+            }
+        }
+        if (activeAccountsOnly) {
+            for (int i = 0; i < selectedAccounts.length; i++) {
+                selectedAccounts[i] &= activeAccounts[i];
+            }
+        }
+        return selectedAccounts;
+    }
+
+    /**
+     * Gets the rows that match the filters of a search criteria (the period is not taken into account)
+     * @param searchCriteria Search criteria (accounts, currency and transfers, and optionally categories and payees)
+     * @param activeAccountsOnly Select only the rows of the active accounts?
+     * @param filterOnCategoriesAndPayees Apply the filters on categories and payees?
+     * @return Matching rows
+     */
+    private RowBitmap getSelectedRows(SearchCriteria searchCriteria, boolean activeAccountsOnly, boolean filterOnCategoriesAndPayees) {
+        boolean[] selectedAccounts = getSelectedAccounts(searchCriteria, activeAccountsOnly);
+        List<RowBitmap> bitmaps = new ArrayList<RowBitmap>();
+        for (int i = 0; i < selectedAccounts.length; i++) {
+            if (selectedAccounts[i]) {
+                bitmaps.add(accountRows[i]);
+            }
+        }
+        RowBitmap rows = RowBitmap.or(bitmaps);
+
+        if (!searchCriteria.isIncludeTransferTransactions() && transferCategory >= 0) {
+            rows = rows.andNot(categoryRows[transferCategory]);
+        }
+        if (filterOnCategoriesAndPayees && searchCriteria.hasCategoriesFilter()) {
+            bitmaps.clear();
+            for (Category category : searchCriteria.getCategories()) {
+                Integer ordinal = categoryOrdinals.get(category.getId());
+                if (ordinal != null) {
+                    bitmaps.add(categoryRows[ordinal]);
+                }
+            }
+            rows = rows.and(RowBitmap.or(bitmaps));
+        }
+        if (filterOnCategoriesAndPayees && searchCriteria.hasPayeesFilter()) {
+            bitmaps.clear();
+            for (Payee payee : searchCriteria.getPayees()) {
+                Integer ordinal = payeeOrdinals.get(payee.getId());
+                if (ordinal != null) {
+                    bitmaps.add(payeeRows[ordinal]);
+                }
+            }
+            rows = rows.and(RowBitmap.or(bitmaps));
+        }
+        return rows;
+    }
+
+    /**
+     * Builds the bitmaps of the rows of each ordinal of a column
+     * @param column Column of ordinals
+     * @param numberOfOrdinals Number of ordinals
+     * @return Rows of each ordinal (by ordinal)
+     */
+    private static RowBitmap[] getBitmaps(IntBuffer column, int numberOfOrdinals) {
+        // Sort the rows by ordinal (counting sort: the rows of each ordinal remain sorted)
+        int size = column.limit();
+        int[] starts = new int[numberOfOrdinals + 1];
+        for (int i = 0; i < size; i++) {
+            starts[column.get(i) + 1]++;
+        }
+        for (int i = 0; i < numberOfOrdinals; i++) {
+            starts[i + 1] += starts[i];
+        }
+        int[] positions = starts.clone();
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            rows[positions[column.get(i)]++] = i;
+        }
+
+        RowBitmap[] bitmaps = new RowBitmap[numberOfOrdinals];
+        for (int i = 0; i < numberOfOrdinals; i++) {
+            bitmaps[i] = RowBitmap.of(rows, starts[i], starts[i + 1]);
+        }
+        return bitmaps;
+    }
+
+    /**
+     * Gets the ordinal of an ID (a new ordinal is given to an ID seen for the first time)
+     * @param id ID
+     * @param ids IDs by ordinal (the new IDs are added)
+     * @param ordinals Ordinals by ID (the new IDs are added)
+     * @return Ordinal of the ID
+     */
+    private static int getOrdinal(Long id, List<Long> ids, Map<Long, Integer> ordinals) {
+        Integer ordinal = ordinals.get(id);
+        if (ordinal == null) {
+            ordinal = ids.size();
+            ids.add(id);
+            ordinals.put(id, ordinal);
+        }
+        return ordinal;
+    }
+
+    /**
+     * Converts a list of IDs into an array
+     * @param ids IDs
+     * @return Array of the IDs
+     */
+    private static long[] toArray(List<Long> ids) {
+        long[] array = new long[ids.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = ids.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Gets the position of the first transaction on or after a day (binary search)
+     * @param day Day
+     * @return Position of the first transaction whose day is not before the day (number of transactions if there is none)
+     */
+    private int getFirstIndex(int day) {
+        int low = 0;
+        int high = days.limit();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (days.get(middle) < day) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Gets the size of the data of a snapshot file
+     * @param size Number of transactions
+     * @param numberOfAccounts Number of accounts
+     * @param numberOfCategories Number of categories
+     * @param numberOfPayees Number of payees
+     * @return Size of the data (in bytes)
+     */
+    private static long getDataSize(int size, int numberOfAccounts, int numberOfCategories, int numberOfPayees) {
+        return 17L * numberOfAccounts + 8L * numberOfCategories + 8L * numberOfPayees + 32L * size;
+    }
+
+    /**
+     * Gets the next column of the data of a snapshot file
+     * @param data Data of the snapshot file (positioned at the start of the column, moved to the end of the column)
+     * @param length Length of the column (in bytes)
+     * @return Column
+     */
+    private static ByteBuffer getColumn(ByteBuffer data, int length) {
+        ByteBuffer column = data.slice();
+        column.limit(length);
+        data.position(data.position() + length);
+        return column;
+    }
+
+    /**
+     * Computes the checksum of data
+     * @param data Data (read until the end)
+     * @return CRC-32 of the data
+     */
+    private static long getChecksum(ByteBuffer data) {
+        CRC32 checksum = new CRC32();
+        byte[] bytes = new byte[CHECKSUM_BUFFER_SIZE];
+        while (data.hasRemaining()) {
+            int length = Math.min(bytes.length, data.remaining());
+            data.get(bytes, 0, length);
+            checksum.update(bytes, 0, length);
+        }
+        return checksum.getValue();
+    }
+
+    /**
+     * Gets the number of a day
+     * @param date Day
+     * @return Number of days since 1970-01-01
+     */
+    private static int getDay(LocalDate date) {
+        return Days.daysBetween(EPOCH, date).getDays();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * CommentIndexTest.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.db.datamodel;
+
+import gg.db.entities.Account;
+import gg.db.entities.Currency;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.joda.time.LocalDate;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test of CommentIndex
+ * @author Francois Duchemin
+ */
+public class CommentIndexTest {
+
+    /** Comment of each transaction (the transaction of the row i has the ID i + 1) */
+    private static final String[] COMMENTS = {
+        "Café de la gare",
+        "Restaurant à Paris",
+        "restaurant LYON",
+        "Paris - hôtel",
+        "Cafe de la Gare",
+        "",
+        "Crème brûlée"
+    };
+    /** All the rows of the columns */
+    private static final int[] ALL_ROWS = {0, 1, 2, 3, 4, 5, 6};
+    /** Columns of the transactions */
+    private TransactionColumns columns;
+    /** Index of the comments */
+    private CommentIndex index;
+
+    @Before
+    public void setUp() {
+        Currency currency = new Currency(1L, "Euro", "EUR", "EUR", BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ONE, true, false, true);
+        List<Account> accounts = new ArrayList<Account>();
+        accounts.add(new Account(1L, "Account", currency, BigDecimal.ZERO, BigDecimal.ZERO, true));
+
+        List<Object[]> transactions = new ArrayList<Object[]>();
+        for (int i = 0; i < COMMENTS.length; i++) {
+            transactions.add(new Object[]{new LocalDate(2009, 1, 1).plusDays(i), 1L, 1L, BigDecimal.ONE, i + 1L, 1L});
+        }
+        columns = TransactionColumns.create(transactions, accounts, 1L);
+        index = CommentIndex.create(getComments(COMMENTS), columns);
+    }
+
+    /**
+     * Test of create method, of class CommentIndex: the identical comments are stored once
+     */
+    @Test
+    public void testCreate() {
+        assertNotNull(index);
+        assertEquals(COMMENTS.length - 1, index.getNumberOfComments());
+    }
+
+    /**
+     * Test of create method, of class CommentIndex: the transactions must be in the order of the rows of the columns
+     */
+    @Test
+    public void testCreateOtherTransactions() {
+        List<Object[]> transactions = getComments(COMMENTS);
+        transactions.set(2, new Object[]{100L, COMMENTS[2]});
+        assertNull(CommentIndex.create(transactions, columns));
+        assertNull(CommentIndex.create(transactions.subList(0, 3), columns));
+    }
+
+    /**
+     * Test of normalize method, of class CommentIndex
+     */
+    @Test
+    public void testNormalize() {
+        assertEquals("CAFE CREME A NOEL", CommentIndex.normalize("Café crème à Noël"));
+        assertEquals("ELEVE", CommentIndex.normalize("ÉLÈVE"));
+        assertEquals("", CommentIndex.normalize(null));
+    }
+
+    /**
+     * Test of filter method, of class CommentIndex: the case and the accents are ignored
+     */
+    @Test
+    public void testFilterAccents() {
+        assertFilter(new int[]{0, 4}, "cafe");
+        assertFilter(new int[]{0, 4}, "CAFÉ");
+        assertFilter(new int[]{6}, "creme");
+        assertFilter(new int[]{6}, "Brûlée");
+        assertFilter(new int[]{3}, "HOTEL");
+    }
+
+    /**
+     * Test of filter method, of class CommentIndex: the comments must contain all the keywords
+     */
+    @Test
+    public void testFilterWords() {
+        assertFilter(new int[]{1, 2}, "restaurant");
+        assertFilter(new int[]{1, 3}, "paris");
+        assertFilter(new int[]{1}, "restaurant", "paris");
+        assertFilter(new int[]{1}, "paris", "restaurant");
+        assertFilter(new int[]{6}, "creme", "brulee");
+        assertFilter(new int[0], "restaurant", "hotel");
+        assertFilter(new int[0], "xyz");
+        assertFilter(new int[]{0, 4}, "de la gare"); // A keyword can contain spaces
+    }
+
+    /**
+     * Test of filter method, of class CommentIndex: the keywords shorter than a trigram are searched in all the comments
+     */
+    @Test
+    public void testFilterShortWords() {
+        assertFilter(new int[]{0, 1, 2, 3, 4}, "à");
+        assertFilter(new int[]{0, 1, 2, 4, 6}, "RE");
+        assertFilter(new int[]{2}, "re", "lyon");
+        assertFilter(new int[]{1, 3}, "is", "pa");
+        assertFilter(new int[0], "z");
+    }
+
+    /**
+     * Test of filter method, of class CommentIndex: only the given rows are kept
+     */
+    @Test
+    public void testFilterRows() {
+        assertArrayEquals(new int[]{3}, index.filter(new int[]{2, 3, 4}, Arrays.asList("paris")));
+        assertArrayEquals(new int[]{4}, index.filter(new int[]{2, 3, 4}, Arrays.asList("gare")));
+        assertArrayEquals(new int[0], index.filter(new int[0], Arrays.asList("gare")));
+    }
+
+    /**
+     * Gets the rows of the transactions of the columns
+     * @param comments Comment of each transaction
+     * @return Rows: each item is an array which contains the ID and the comment of the transaction
+     */
+    private static List<Object[]> getComments(String[] comments) {
+        List<Object[]> transactions = new ArrayList<Object[]>();
+        for (int i = 0; i < comments.length; i++) {
+            transactions.add(new Object[]{i + 1L, comments[i]});
+        }
+        return transactions;
+    }
+
+    /**
+     * Checks the rows whose comment contains keywords
+     * @param expected Expected rows
+     * @param keywords Keywords
+     */
+    private void assertFilter(int[] expected, String... keywords) {
+        assertArrayEquals(expected, index.filter(ALL_ROWS, Arrays.asList(keywords)));
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * DatamodelQueries.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.db.datamodel;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+
+/**
+ * <B>DatamodelQueries</B>
+ * <UL>
+ * <LI>Gives the tests and the benchmarks of the other modules access to the assembly of the HQL queries of <CODE>Datamodel</CODE>,
+ * which is package-private</LI>
+ * </UL>
+ * @author Francois Duchemin
+ */
+public class DatamodelQueries {
+
+    /** This class is not instantiated */
+    private DatamodelQueries() {
+    }
+
+    /**
+     * Gets the query of the transactions which meet a search criteria, without executing it
+     * (see <CODE>Datamodel.getQuery()</CODE>: all the filters are applied)
+     * @param session Database session
+     * @param searchCriteria Search criteria
+     * @param select Select statement
+     * @return Query object
+     */
+    public static Query getTransactionsQuery(Session session, SearchCriteria searchCriteria, String select) {
+        return Datamodel.getQuery(session, searchCriteria, true, true, true, true, true, false, select, null, "");
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * RowBitmapTest.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.db.datamodel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test of RowBitmap: the results of the operations are compared with the same operations on <CODE>java.util.BitSet</CODE>
+ * @author Francois Duchemin
+ */
+public class RowBitmapTest {
+
+    /** Size of the chunks of the bitmaps */
+    private static final int CHUNK_SIZE = 65536;
+    /** Maximum number of rows of a sparse chunk */
+    private static final int MAX_SPARSE_CARDINALITY = 4096;
+
+    /**
+     * Test of of and getRows methods, of class RowBitmap: the rows are kept across the chunk boundaries,
+     * in sparse chunks and in dense chunks
+     */
+    @Test
+    public void testOf() {
+        Random random = new Random(1);
+        for (BitSet rows : getRowSets(random)) {
+            assertRows(rows, RowBitmap.of(toArray(rows), 0, rows.cardinality()));
+        }
+        assertRows(new BitSet(), RowBitmap.EMPTY);
+    }
+
+    /**
+     * Test of of method, of class RowBitmap: only the rows between the positions are taken
+     */
+    @Test
+    public void testOfRange() {
+        int[] rows = {1, 5, CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE + 3, 3 * CHUNK_SIZE};
+        assertArrayEquals(new int[]{5, CHUNK_SIZE - 1, CHUNK_SIZE}, RowBitmap.of(rows, 1, 4).getRows(0, Integer.MAX_VALUE));
+        assertArrayEquals(new int[0], RowBitmap.of(rows, 2, 2).getRows(0, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Test of getRows method, of class RowBitmap: only the rows in the range are returned
+     */
+    @Test
+    public void testGetRows() {
+        BitSet rows = new BitSet();
+        rows.set(CHUNK_SIZE - 10, CHUNK_SIZE + 10); // Sparse chunks
+        rows.set(2 * CHUNK_SIZE, 2 * CHUNK_SIZE + MAX_SPARSE_CARDINALITY + 100); // Dense chunk
+        RowBitmap bitmap = RowBitmap.of(toArray(rows), 0, rows.cardinality());
+
+        int[][] ranges = {{0, CHUNK_SIZE}, {CHUNK_SIZE - 5, CHUNK_SIZE + 5}, {CHUNK_SIZE + 10, 2 * CHUNK_SIZE},
+            {2 * CHUNK_SIZE + 50, 2 * CHUNK_SIZE + 5000}, {0, Integer.MAX_VALUE}, {5, 5}};
+        for (int[] range : ranges) {
+            BitSet expected = (BitSet) rows.clone();
+            expected.clear(0, range[0]);
+            expected.clear(range[1], Math.max(range[1], rows.length()));
+            assertArrayEquals(toArray(expected), bitmap.getRows(range[0], range[1]));
+        }
+    }
+
+    /**
+     * Test of and, or and andNot methods, of class RowBitmap: all the combinations of sparse, dense and missing chunks
+     */
+    @Test
+    public void testOperations() {
+        Random random = new Random(2);
+        List<BitSet> rowSets = getRowSets(random);
+        for (BitSet rows : rowSets) {
+            RowBitmap bitmap = RowBitmap.of(toArray(rows), 0, rows.cardinality());
+            for (BitSet otherRows : rowSets) {
+                RowBitmap otherBitmap = RowBitmap.of(toArray(otherRows), 0, otherRows.cardinality());
+
+                BitSet expected = (BitSet) rows.clone();
+                expected.and(otherRows);
+                assertRows(expected, bitmap.and(otherBitmap));
+
+                expected = (BitSet) rows.clone();
+                expected.or(otherRows);
+                assertRows(expected, bitmap.or(otherBitmap));
+
+                expected = (BitSet) rows.clone();
+                expected.andNot(otherRows);
+                assertRows(expected, bitmap.andNot(otherBitmap));
+            }
+        }
+    }
+
+    /**
+     * Test of and, or and andNot methods, of class RowBitmap: the chunks which cross the sparse/dense threshold
+     */
+    @Test
+    public void testThreshold() {
+        // Two sparse chunks whose union is dense
+        BitSet even = getRows(0, MAX_SPARSE_CARDINALITY * 2, 2);
+        BitSet odd = getRows(1, MAX_SPARSE_CARDINALITY * 2, 2);
+        RowBitmap evenBitmap = RowBitmap.of(toArray(even), 0, even.cardinality());
+        RowBitmap oddBitmap = RowBitmap.of(toArray(odd), 0, odd.cardinality());
+        BitSet all = getRows(0, MAX_SPARSE_CARDINALITY * 2, 1);
+        RowBitmap allBitmap = evenBitmap.or(oddBitmap);
+        assertRows(all, allBitmap);
+
+        // Two dense chunks whose intersection and difference are sparse
+        RowBitmap firstBitmap = RowBitmap.of(toArray(all), 0, MAX_SPARSE_CARDINALITY + 1);
+        BitSet first = getRows(0, MAX_SPARSE_CARDINALITY + 1, 1);
+        assertRows(first, firstBitmap);
+        assertRows(first, allBitmap.and(firstBitmap));
+        BitSet last = getRows(MAX_SPARSE_CARDINALITY + 1, MAX_SPARSE_CARDINALITY * 2, 1);
+        assertRows(last, allBitmap.andNot(firstBitmap));
+        assertRows(new BitSet(), allBitmap.andNot(allBitmap));
+        assertRows(odd, allBitmap.andNot(evenBitmap));
+
+        // A chunk of exactly MAX_SPARSE_CARDINALITY rows
+        BitSet limit = getRows(CHUNK_SIZE, CHUNK_SIZE + MAX_SPARSE_CARDINALITY, 1);
+        RowBitmap limitBitmap = RowBitmap.of(toArray(limit), 0, limit.cardinality());
+        assertRows(limit, limitBitmap);
+        BitSet expected = (BitSet) limit.clone();
+        expected.or(all);
+        assertRows(expected, limitBitmap.or(allBitmap));
+        assertRows(new BitSet(), limitBitmap.and(allBitmap));
+    }
+
+    /**
+     * Test of or method, of class RowBitmap: union of a list of bitmaps
+     */
+    @Test
+    public void testOrList() {
+        List<RowBitmap> bitmaps = new ArrayList<RowBitmap>();
+        BitSet expected = new BitSet();
+        for (int i = 0; i < 5; i++) {
+            BitSet rows = getRows(i * (CHUNK_SIZE - 1000), i * (CHUNK_SIZE - 1000) + 6000, i + 1);
+            bitmaps.add(RowBitmap.of(toArray(rows), 0, rows.cardinality()));
+            expected.or(rows);
+        }
+        assertRows(expected, RowBitmap.or(bitmaps));
+        assertRows(new BitSet(), RowBitmap.or(new ArrayList<RowBitmap>()));
+    }
+
+    /**
+     * Gets sets of rows which cover the sparse chunks, the dense chunks and the missing chunks
+     * @param random Generator of random numbers
+     * @return Sets of rows
+     */
+    private static List<BitSet> getRowSets(Random random) {
+        List<BitSet> rowSets = new ArrayList<BitSet>();
+        rowSets.add(new BitSet());
+        rowSets.add(getRows(0, 1, 1)); // First row only
+        rowSets.add(getRows(CHUNK_SIZE - 100, CHUNK_SIZE + 100, 1)); // Around the first chunk boundary
+        rowSets.add(getRows(0, 3 * CHUNK_SIZE, 1)); // Three full dense chunks
+        rowSets.add(getRows(0, 3 * CHUNK_SIZE, 16)); // Sparse chunks of exactly MAX_SPARSE_CARDINALITY rows
+        rowSets.add(getRows(0, 3 * CHUNK_SIZE, 15)); // Dense chunks just above MAX_SPARSE_CARDINALITY rows
+        for (double density : new double[]{0.01, 0.05, 0.0625, 0.07, 0.5}) {
+            BitSet rows = new BitSet();
+            for (int row = 0; row < 4 * CHUNK_SIZE; row++) {
+                // The third chunk is empty
+                if (row / CHUNK_SIZE != 2 && random.nextDouble() < density) {
+                    rows.set(row);
+                }
+            }
+            rowSets.add(rows);
+        }
+        return rowSets;
+    }
+
+    /**
+     * Gets the rows of a range which are multiples of a step
+     * @param first First row (included)
+     * @param last Last row (excluded)
+     * @param step Step between two rows
+     * @return Rows
+     */
+    private static BitSet getRows(int first, int last, int step) {
+        BitSet rows = new BitSet();
+        for (int row = first; row < last; row += step) {
+            rows.set(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Converts rows into an array
+     * @param rows Rows
+     * @return Rows, sorted
+     */
+    private static int[] toArray(BitSet rows) {
+        int[] array = new int[rows.cardinality()];
+        int i = 0;
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            array[i++] = row;
+        }
+        return array;
+    }
+
+    /**
+     * Checks the rows of a bitmap
+     * @param expected Expected rows
+     * @param bitmap Bitmap
+     */
+    private static void assertRows(BitSet expected, RowBitmap bitmap) {
+        int[] rows = bitmap.getRows(0, Integer.MAX_VALUE);
+        if (!Arrays.equals(toArray(expected), rows)) {
+            fail("Expected " + expected.cardinality() + " rows, found " + rows.length + " rows");
+        }
+    }
+}
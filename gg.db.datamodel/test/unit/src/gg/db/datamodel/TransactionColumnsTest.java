@@ -0,0 +1,245 @@
+/*
+ * TransactionColumnsTest.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.db.datamodel;
+
+import gg.db.entities.Account;
+import gg.db.entities.Category;
+import gg.db.entities.Currency;
+import gg.db.entities.Payee;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.joda.time.LocalDate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test of TransactionColumns: columns built from transactions, and snapshot files written then mapped
+ * @author Francois Duchemin
+ */
+public class TransactionColumnsTest {
+
+    /** Fingerprint of the snapshots written by the tests */
+    private static final String FINGERPRINT = "3/0123456789abcdef/12/100/1000/1099";
+    /** ID of the transfer category */
+    private static final Long TRANSFER_CATEGORY_ID = 1L;
+    /** Number of transactions */
+    private static final int NUMBER_OF_TRANSACTIONS = 100;
+    /** Currency of the accounts */
+    private Currency currency;
+    /** Accounts (the second account is not active) */
+    private List<Account> accounts;
+    /** Columns built from the transactions */
+    private TransactionColumns columns;
+    /** Snapshot file */
+    private File snapshotFile;
+
+    @Before
+    public void setUp() throws Exception {
+        currency = new Currency(1L, "Euro", "EUR", "EUR", BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ONE, true, false, true);
+        accounts = new ArrayList<Account>();
+        accounts.add(new Account(1L, "Account 1", currency, BigDecimal.ZERO, BigDecimal.ZERO, true));
+        accounts.add(new Account(2L, "Account 2", currency, BigDecimal.ZERO, BigDecimal.ZERO, false));
+        accounts.add(new Account(3L, "Account 3", currency, BigDecimal.ZERO, BigDecimal.ZERO, true));
+
+        // Transactions sorted by day and by ID: [day, account ID, category ID, amount, ID, payee ID]
+        List<Object[]> transactions = new ArrayList<Object[]>();
+        LocalDate day = new LocalDate(2009, 1, 1);
+        for (int i = 0; i < NUMBER_OF_TRANSACTIONS; i++) {
+            transactions.add(new Object[]{
+                        day.plusDays(i / 3),
+                        (long) (i % 3 + 1),
+                        (long) (i % 5 + 1),
+                        new BigDecimal((i % 7 == 0) ? "1234.5" : "-" + (i + 1) + ".25"),
+                        1000L + i,
+                        (long) (i % 4 + 10)});
+        }
+        columns = TransactionColumns.create(transactions, accounts, TRANSFER_CATEGORY_ID);
+
+        snapshotFile = File.createTempFile("transactions", ".columns");
+    }
+
+    @After
+    public void tearDown() {
+        snapshotFile.delete();
+    }
+
+    /**
+     * Test of create method, of class TransactionColumns
+     */
+    @Test
+    public void testCreate() {
+        assertEquals(NUMBER_OF_TRANSACTIONS, columns.size());
+        assertEquals(1000L, columns.getTransactionId(0));
+        assertEquals(1000L + NUMBER_OF_TRANSACTIONS - 1, columns.getTransactionId(NUMBER_OF_TRANSACTIONS - 1));
+
+        // Only the transactions of the active accounts are summed
+        BigDecimal expected = BigDecimal.ZERO;
+        for (int i = 0; i < NUMBER_OF_TRANSACTIONS; i++) {
+            if (i % 3 + 1 != 2) {
+                expected = expected.add(new BigDecimal((i % 7 == 0) ? "1234.5" : "-" + (i + 1) + ".25"));
+            }
+        }
+        assertEquals(0, expected.compareTo(columns.sum(new SearchCriteria(), false, 0)));
+    }
+
+    /**
+     * Test of create method, of class TransactionColumns: an amount which cannot be stored in cents is refused
+     */
+    @Test(expected = ArithmeticException.class)
+    public void testCreateInvalidAmount() {
+        List<Object[]> transactions = new ArrayList<Object[]>();
+        transactions.add(new Object[]{new LocalDate(2009, 1, 1), 1L, 1L, new BigDecimal("1.255"), 1L, 10L});
+        TransactionColumns.create(transactions, accounts, TRANSFER_CATEGORY_ID);
+    }
+
+    /**
+     * Test of write and map methods, of class TransactionColumns: the mapped columns give the same results as the columns
+     */
+    @Test
+    public void testWriteMap() throws Exception {
+        columns.write(snapshotFile, FINGERPRINT);
+        TransactionColumns mappedColumns = TransactionColumns.map(snapshotFile, FINGERPRINT);
+        assertNotNull(mappedColumns);
+        assertEquals(columns.size(), mappedColumns.size());
+
+        int[] allRows = new int[columns.size()];
+        for (int i = 0; i < allRows.length; i++) {
+            allRows[i] = i;
+        }
+        assertEquals(columns.getTransactionIds(allRows), mappedColumns.getTransactionIds(allRows));
+
+        for (SearchCriteria searchCriteria : getSearchCriterias()) {
+            assertArrayEquals(columns.getRows(searchCriteria), mappedColumns.getRows(searchCriteria));
+            assertEquals(columns.sum(searchCriteria, true, 0), mappedColumns.sum(searchCriteria, true, 0));
+            assertEquals(columns.sum(searchCriteria, true, -1), mappedColumns.sum(searchCriteria, true, -1));
+            assertEquals(columns.getNumberOfTransactions(searchCriteria), mappedColumns.getNumberOfTransactions(searchCriteria));
+
+            List<Object[]> categoriesBalances = columns.sumByCategory(searchCriteria);
+            List<Object[]> mappedCategoriesBalances = mappedColumns.sumByCategory(searchCriteria);
+            assertEquals(categoriesBalances.size(), mappedCategoriesBalances.size());
+            for (int i = 0; i < categoriesBalances.size(); i++) {
+                assertArrayEquals(categoriesBalances.get(i), mappedCategoriesBalances.get(i));
+            }
+        }
+
+        // The snapshot can be replaced
+        columns.write(snapshotFile, FINGERPRINT + "/2");
+        assertNotNull(TransactionColumns.map(snapshotFile, FINGERPRINT + "/2"));
+    }
+
+    /**
+     * Test of map method, of class TransactionColumns: a snapshot written for another fingerprint is ignored
+     */
+    @Test
+    public void testMapOtherFingerprint() throws Exception {
+        columns.write(snapshotFile, FINGERPRINT);
+        assertNull(TransactionColumns.map(snapshotFile, FINGERPRINT + "0"));
+        assertNull(TransactionColumns.map(snapshotFile, "3/0123456789abcdef/13/100/1000/1099"));
+    }
+
+    /**
+     * Test of map method, of class TransactionColumns: a snapshot whose data are corrupted is ignored
+     */
+    @Test
+    public void testMapInvalidChecksum() throws Exception {
+        columns.write(snapshotFile, FINGERPRINT);
+        RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw");
+        try {
+            file.seek(file.length() - 1);
+            int lastByte = file.read();
+            file.seek(file.length() - 1);
+            file.write(lastByte ^ 1);
+        } finally {
+            file.close();
+        }
+        assertNull(TransactionColumns.map(snapshotFile, FINGERPRINT));
+    }
+
+    /**
+     * Test of map method, of class TransactionColumns: a snapshot written in another format is ignored
+     */
+    @Test
+    public void testMapOtherVersion() throws Exception {
+        columns.write(snapshotFile, FINGERPRINT);
+        RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw");
+        try {
+            file.seek(4); // The version follows the magic number
+            int version = file.readInt();
+            file.seek(4);
+            file.writeInt(version + 1);
+        } finally {
+            file.close();
+        }
+        assertNull(TransactionColumns.map(snapshotFile, FINGERPRINT));
+    }
+
+    /**
+     * Test of map method, of class TransactionColumns: a truncated snapshot is ignored
+     */
+    @Test
+    public void testMapTruncated() throws Exception {
+        columns.write(snapshotFile, FINGERPRINT);
+        RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw");
+        try {
+            file.setLength(file.length() - 8);
+        } finally {
+            file.close();
+        }
+        assertNull(TransactionColumns.map(snapshotFile, FINGERPRINT));
+
+        file = new RandomAccessFile(snapshotFile, "rw");
+        try {
+            file.setLength(6);
+        } finally {
+            file.close();
+        }
+        assertNull(TransactionColumns.map(snapshotFile, FINGERPRINT));
+    }
+
+    /**
+     * Gets search criterias which filter on each dimension of the columns
+     * @return Search criterias
+     */
+    private List<SearchCriteria> getSearchCriterias() {
+        Category category = new Category(2L, 0L, "Category 2", null, false);
+        category.setId(2L);
+        Category transfer = new Category(-1L, 0L, "Transfer", null, true);
+        transfer.setId(TRANSFER_CATEGORY_ID);
+        Payee payee = new Payee(11L, "Payee 11", false);
+        Period period = new Period(new LocalDate(2009, 1, 5), new LocalDate(2009, 1, 20), PeriodType.FREE);
+
+        List<SearchCriteria> searchCriterias = new ArrayList<SearchCriteria>();
+        searchCriterias.add(new SearchCriteria());
+        searchCriterias.add(new SearchCriteria(currency, null, null, null, null, null, false));
+        searchCriterias.add(new SearchCriteria(null, accounts.subList(1, 3), period, null, null, null, true));
+        searchCriterias.add(new SearchCriteria(null, null, period, Arrays.asList(category, transfer), null, null, true));
+        searchCriterias.add(new SearchCriteria(null, null, null, null, Arrays.asList(payee), null, true));
+        searchCriterias.add(new SearchCriteria(null, accounts.subList(0, 1), period, Arrays.asList(category), Arrays.asList(payee), null, false));
+        return searchCriterias;
+    }
+}
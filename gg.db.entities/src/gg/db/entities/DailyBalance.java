@@ -0,0 +1,260 @@
+/*
+ * DailyBalance.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.db.entities;
+
+import java.math.BigDecimal;
+import org.joda.time.LocalDate;
+
+/**
+ * <B>DailyBalance</B>
+ * <UL>
+ * <LI>A daily balance is the sum of the transactions of an account, with a category, on a day</LI>
+ * <LI>The daily balances are stored in the table DAILY_BALANCES, which is rebuilt from the table TRANSACTIONS after each import</LI>
+ * <LI>Only the transactions without parent transaction are summed (the sub-transactions are included in their parent transactions)</LI>
+ * <LI>The balance queries which do not filter on payees or keywords read the daily balances instead of the transactions</LI>
+ * </UL>
+ * @author Francois Duchemin
+ */
+public class DailyBalance {
+
+    /** Daily balance's ID (generated by Derby) */
+    private Long id;
+    /** Day */
+    private LocalDate date;
+    /** Account of the transactions */
+    private Account account;
+    /** Category of the transactions */
+    private Category category;
+    /** Sum of the transactions */
+    private BigDecimal amount;
+    /** Sum of the positive transactions */
+    private BigDecimal income;
+    /** Sum of the negative transactions */
+    private BigDecimal expenses;
+    /** Number of transactions */
+    private Long numberOfTransactions;
+    /** Sum of the transactions of the account with the category until the day (included) */
+    private BigDecimal runningBalance;
+
+    /** Creates a new instance of DailyBalance */
+    public DailyBalance() {
+    }
+
+    /**
+     * Creates a new instance of DailyBalance
+     * @param date Day
+     * @param account Account of the transactions
+     * @param category Category of the transactions
+     * @param amount Sum of the transactions
+     * @param income Sum of the positive transactions
+     * @param expenses Sum of the negative transactions
+     * @param numberOfTransactions Number of transactions
+     * @param runningBalance Sum of the transactions of the account with the category until the day (included)
+     */
+    public DailyBalance(LocalDate date, Account account, Category category, BigDecimal amount, BigDecimal income,
+            BigDecimal expenses, Long numberOfTransactions, BigDecimal runningBalance) {
+        setDate(date);
+        setAccount(account);
+        setCategory(category);
+        setAmount(amount);
+        setIncome(income);
+        setExpenses(expenses);
+        setNumberOfTransactions(numberOfTransactions);
+        setRunningBalance(runningBalance);
+    }
+
+    /**
+     * Gets the daily balance's ID
+     * @return Daily balance's ID (generated by Derby)
+     */
+    public Long getId() {
+        return id;
+    }
+
+    /**
+     * Sets the daily balance's ID
+     * @param id Daily balance's ID (generated by Derby)
+     */
+    public void setId(Long id) {
+        if (id == null) {
+            throw new IllegalArgumentException("The parameter 'id' is null");
+        }
+        this.id = id;
+    }
+
+    /**
+     * Gets the day
+     * @return Day
+     */
+    public LocalDate getDate() {
+        return date;
+    }
+
+    /**
+     * Sets the day
+     * @param date Day
+     */
+    public void setDate(LocalDate date) {
+        if (date == null) {
+            throw new IllegalArgumentException("The parameter 'date' is null");
+        }
+        this.date = date;
+    }
+
+    /**
+     * Gets the account of the transactions
+     * @return Account of the transactions
+     */
+    public Account getAccount() {
+        return account;
+    }
+
+    /**
+     * Sets the account of the transactions
+     * @param account Account of the transactions
+     */
+    public void setAccount(Account account) {
+        if (account == null) {
+            throw new IllegalArgumentException("The parameter 'account' is null");
+        }
+        this.account = account;
+    }
+
+    /**
+     * Gets the category of the transactions
+     * @return Category of the transactions
+     */
+    public Category getCategory() {
+        return category;
+    }
+
+    /**
+     * Sets the category of the transactions
+     * @param category Category of the transactions
+     */
+    public void setCategory(Category category) {
+        if (category == null) {
+            throw new IllegalArgumentException("The parameter 'category' is null");
+        }
+        this.category = category;
+    }
+
+    /**
+     * Gets the sum of the transactions
+     * @return Sum of the transactions
+     */
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    /**
+     * Sets the sum of the transactions
+     * @param amount Sum of the transactions
+     */
+    public void setAmount(BigDecimal amount) {
+        if (amount == null) {
+            throw new IllegalArgumentException("The parameter 'amount' is null");
+        }
+        this.amount = amount;
+    }
+
+    /**
+     * Gets the sum of the positive transactions
+     * @return Sum of the positive transactions
+     */
+    public BigDecimal getIncome() {
+        return income;
+    }
+
+    /**
+     * Sets the sum of the positive transactions
+     * @param income Sum of the positive transactions
+     */
+    public void setIncome(BigDecimal income) {
+        if (income == null) {
+            throw new IllegalArgumentException("The parameter 'income' is null");
+        }
+        this.income = income;
+    }
+
+    /**
+     * Gets the sum of the negative transactions
+     * @return Sum of the negative transactions
+     */
+    public BigDecimal getExpenses() {
+        return expenses;
+    }
+
+    /**
+     * Sets the sum of the negative transactions
+     * @param expenses Sum of the negative transactions
+     */
+    public void setExpenses(BigDecimal expenses) {
+        if (expenses == null) {
+            throw new IllegalArgumentException("The parameter 'expenses' is null");
+        }
+        this.expenses = expenses;
+    }
+
+    /**
+     * Gets the number of transactions
+     * @return Number of transactions
+     */
+    public Long getNumberOfTransactions() {
+        return numberOfTransactions;
+    }
+
+    /**
+     * Sets the number of transactions
+     * @param numberOfTransactions Number of transactions
+     */
+    public void setNumberOfTransactions(Long numberOfTransactions) {
+        if (numberOfTransactions == null) {
+            throw new IllegalArgumentException("The parameter 'numberOfTransactions' is null");
+        }
+        this.numberOfTransactions = numberOfTransactions;
+    }
+
+    /**
+     * Gets the sum of the transactions of the account with the category until the day (included)
+     * @return Running balance
+     */
+    public BigDecimal getRunningBalance() {
+        return runningBalance;
+    }
+
+    /**
+     * Sets the sum of the transactions of the account with the category until the day (included)
+     * @param runningBalance Running balance
+     */
+    public void setRunningBalance(BigDecimal runningBalance) {
+        if (runningBalance == null) {
+            throw new IllegalArgumentException("The parameter 'runningBalance' is null");
+        }
+        this.runningBalance = runningBalance;
+    }
+
+    @Override
+    public String toString() {
+        return date + " - " + account + " - " + category + " - " + amount;
+    }
+}
@@ -47,6 +47,12 @@ public class FileImport {
     private Long importDuration;
     /** Success */
     private Boolean success;
+    /** Hash of the content of the imported Grisbi file (null for the imports done by older versions) */
+    private String contentHash;
+    /** Version of the importer used to import the Grisbi file (null for the imports done by older versions) */
+    private String importerVersion;
+    /** Skipped flag: the Grisbi file was not imported again because it did not change since the last import */
+    private Boolean skipped;
 
     /** Creates a new instance of FileImport */
     public FileImport() {
@@ -193,6 +199,55 @@ public class FileImport {
         this.lastModifiedOn = lastModifiedOn;
     }
 
+    /**
+     * Gets the hash of the content of the imported Grisbi file
+     * @return Hash of the content of the Grisbi file (null if unknown)
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Sets the hash of the content of the imported Grisbi file
+     * @param contentHash Hash of the content of the Grisbi file (null if unknown)
+     */
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Gets the version of the importer used to import the Grisbi file
+     * @return Version of the importer (null if unknown)
+     */
+    public String getImporterVersion() {
+        return importerVersion;
+    }
+
+    /**
+     * Sets the version of the importer used to import the Grisbi file
+     * @param importerVersion Version of the importer (null if unknown)
+     */
+    public void setImporterVersion(String importerVersion) {
+        this.importerVersion = importerVersion;
+    }
+
+    /**
+     * Gets the skipped flag
+     * @return true if the Grisbi file was not imported again because it did not change since the last import
+     * (null for the imports done by older versions)
+     */
+    public Boolean getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Sets the skipped flag
+     * @param skipped true if the Grisbi file was not imported again because it did not change since the last import
+     */
+    public void setSkipped(Boolean skipped) {
+        this.skipped = skipped;
+    }
+
     /**
      * Gets the success of the Grisbi file import (whether the Grisbi file was correctly imported or not)
      * @return Success
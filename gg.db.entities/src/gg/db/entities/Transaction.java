@@ -59,6 +59,8 @@ public class Transaction {
     private Transaction parentTransaction;
     /** Sub-transactions */
     private Set<Transaction> subTransactions;
+    /** ID of the transaction in the Grisbi file (attribute 'No' of the operation) */
+    private Long grisbiTransactionId;
 
     /** Creates a new instance of Transaction */
     public Transaction() {
@@ -248,6 +250,23 @@ public class Transaction {
         this.subTransactions = subTransactions;
     }
 
+    /**
+     * Gets the ID of the transaction in the Grisbi file
+     * @return ID of the transaction in the Grisbi file (null if the transaction has been imported by an older version)
+     */
+    public Long getGrisbiTransactionId() {
+        return grisbiTransactionId;
+    }
+
+    /**
+     * Sets the ID of the transaction in the Grisbi file<BR/>
+     * The ID is unique in an account: it permits to compare the transactions of the database with the transactions of the Grisbi file
+     * @param grisbiTransactionId ID of the transaction in the Grisbi file (can be null)
+     */
+    public void setGrisbiTransactionId(Long grisbiTransactionId) {
+        this.grisbiTransactionId = grisbiTransactionId;
+    }
+
     /**
      * Compare transactions
      * @param transaction Transaction to compare (cannot be null)
@@ -0,0 +1,99 @@
+/*
+ * DailyBalanceTest.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.db.entities;
+
+import java.math.BigDecimal;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test of DailyBalance
+ * @author Francois Duchemin
+ */
+public class DailyBalanceTest {
+
+    /**
+     * Test of constructor, of class DailyBalance.
+     */
+    @Test
+    public void testDailyBalance() {
+        DailyBalance dailyBalance = new DailyBalance(new LocalDate(2009, 1, 1), new Account(), new Category(),
+                new BigDecimal("-5"), new BigDecimal("10"), new BigDecimal("-15"), 3L, new BigDecimal("20"));
+        assertEquals(0, dailyBalance.getAmount().compareTo(dailyBalance.getIncome().add(dailyBalance.getExpenses())));
+        assertEquals(Long.valueOf(3), dailyBalance.getNumberOfTransactions());
+    }
+
+    /**
+     * Test of setId method, of class DailyBalance.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetId() {
+        DailyBalance dailyBalance = new DailyBalance();
+        dailyBalance.setId(null);
+    }
+
+    /**
+     * Test of setDate method, of class DailyBalance.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetDate() {
+        DailyBalance dailyBalance = new DailyBalance();
+        dailyBalance.setDate(null);
+    }
+
+    /**
+     * Test of setAccount method, of class DailyBalance.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetAccount() {
+        DailyBalance dailyBalance = new DailyBalance();
+        dailyBalance.setAccount(null);
+    }
+
+    /**
+     * Test of setCategory method, of class DailyBalance.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetCategory() {
+        DailyBalance dailyBalance = new DailyBalance();
+        dailyBalance.setCategory(null);
+    }
+
+    /**
+     * Test of setAmount method, of class DailyBalance.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetAmount() {
+        DailyBalance dailyBalance = new DailyBalance();
+        dailyBalance.setAmount(null);
+    }
+
+    /**
+     * Test of setNumberOfTransactions method, of class DailyBalance.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetNumberOfTransactions() {
+        DailyBalance dailyBalance = new DailyBalance();
+        dailyBalance.setNumberOfTransactions(null);
+    }
+}
@@ -33,7 +33,7 @@ import org.junit.runners.Suite;
  */
 @RunWith(Suite.class)
 @Suite.SuiteClasses({gg.db.entities.CategoryTest.class, gg.db.entities.AccountTest.class,
-                    gg.db.entities.CurrencyTest.class, gg.db.entities.FileImportTest.class,
+                    gg.db.entities.CurrencyTest.class, gg.db.entities.DailyBalanceTest.class, gg.db.entities.FileImportTest.class,
                     gg.db.entities.GrisbiCategoryTest.class, gg.db.entities.PayeeTest.class,
                     gg.db.entities.TransactionTest.class})
 public class EntitiesTestSuite {
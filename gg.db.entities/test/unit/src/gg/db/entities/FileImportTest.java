@@ -73,4 +73,13 @@ public class FileImportTest {
         FileImport fileImport = new FileImport();
         fileImport.setSuccess(null);
     }
+
+    /**
+     * Test of setContentHash method, of class FileImport.
+     */
+    @Test
+    public void testSetContentHash() {
+        FileImport fileImport = new FileImport();
+        fileImport.setContentHash(null); // The imports done by older versions have no content hash
+    }
 }
\ No newline at end of file
@@ -119,6 +119,19 @@ public class TransactionTest {
         }
     }
 
+    /**
+     * Test of setGrisbiTransactionId method, of class Transaction.
+     */
+    @Test
+    public void testSetGrisbiTransactionId() {
+        try {
+            Transaction transaction = new Transaction();
+            transaction.setGrisbiTransactionId(null);
+        } catch (IllegalArgumentException ex) {
+            fail("No IllegalArgumentException should be thrown");
+        }
+    }
+
     /**
      * Test of compareTo method, of class Transaction.
      */
@@ -0,0 +1,80 @@
+/*
+ * AccountTotals.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.imports;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <B>AccountTotals</B>
+ * <UL>
+ * <LI>Running totals of the accounts, computed by the importers while the transactions are written</LI>
+ * <LI>Only the amounts of the transactions are summed (the sub-transactions are already included in the amount of their parent)</LI>
+ * <LI>Used by the consistency checks, so that the transactions do not have to be loaded from the database again</LI>
+ * </UL>
+ * @author Francois Duchemin
+ */
+public class AccountTotals {
+
+    /** Sum of the amounts of the transactions read from the Grisbi file - the key is the ID of the account */
+    private Map<Long, BigDecimal> totals = new HashMap<Long, BigDecimal>();
+
+    /**
+     * Adds the amount of a transaction to the total of its account
+     * @param accountId ID of the account
+     * @param amount Amount of the transaction
+     */
+    public void add(Long accountId, BigDecimal amount) {
+        if (accountId == null) {
+            throw new IllegalArgumentException("The parameter 'accountId' is null");
+        }
+        if (amount == null) {
+            throw new IllegalArgumentException("The parameter 'amount' is null");
+        }
+
+        BigDecimal total = totals.get(accountId);
+        totals.put(accountId, (total == null ? amount : total.add(amount)));
+    }
+
+    /**
+     * Declares an account, so that it has a total even if it does not contain any transaction
+     * @param accountId ID of the account
+     */
+    public void addAccount(Long accountId) {
+        if (accountId == null) {
+            throw new IllegalArgumentException("The parameter 'accountId' is null");
+        }
+        if (!totals.containsKey(accountId)) {
+            totals.put(accountId, new BigDecimal(0));
+        }
+    }
+
+    /**
+     * Gets the total of an account
+     * @param accountId ID of the account
+     * @return Sum of the amounts of the transactions of the account, null if the transactions of the account have not been read
+     */
+    public BigDecimal get(Long accountId) {
+        return totals.get(accountId);
+    }
+}
@@ -21,6 +21,7 @@
  */
 package gg.imports;
 
+import gg.db.datamodel.BulkLoader;
 import gg.db.datamodel.DateFormatException;
 import gg.db.entities.GrisbiCategory;
 import gg.db.datamodel.Datamodel;
@@ -29,7 +30,6 @@ import gg.db.entities.Category;
 import gg.db.entities.Currency;
 import gg.db.entities.Payee;
 import gg.db.entities.Transaction;
-import gg.db.datamodel.Period;
 import gg.utilities.Utilities;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
@@ -40,7 +40,6 @@ import java.util.Map;
 import java.util.logging.Logger;
 import org.dom4j.Document;
 import org.dom4j.Node;
-import org.joda.time.LocalDate;
 import org.netbeans.api.progress.ProgressHandle;
 import org.netbeans.api.progress.ProgressHandleFactory;
 import org.openide.util.Cancellable;
@@ -64,6 +63,10 @@ public class GrisbiFile050 implements Importer {
     private boolean importCancelled;
     /** Current work unit (for the progress bar) */
     private int workUnit;
+    /** Loader used to write the entities in the embedded database (one commit per phase) */
+    private BulkLoader loader;
+    /** Running totals of the accounts (sum of the amounts of the transactions read from the Grisbi file) */
+    private AccountTotals accountTotals = new AccountTotals();
     /** Logger */
     private Logger log = Logger.getLogger(GrisbiFile050.class.getName());
 
@@ -197,7 +200,7 @@ public class GrisbiFile050 implements Importer {
         long startImportingPayeesTime = System.currentTimeMillis();
 
         // Save default payee in the database
-        Datamodel.savePayee(Payee.NO_PAYEE); // This constant is used to search the transactions for which no payee is defined
+        loader.insert(Payee.NO_PAYEE); // This constant is used to search the transactions for which no payee is defined
 
         // Import the payees from the Grisbi file into the embedded database
         int numberOfImportedPayees = 0;
@@ -217,7 +220,7 @@ public class GrisbiFile050 implements Importer {
 
             // Create a new payee and save it in the embedded database
             Payee payee = new Payee(payeeId, payeeName, false);
-            Datamodel.savePayee(payee);
+            loader.insert(payee);
 
             numberOfImportedPayees++;
             p.progress(workUnit++);
@@ -228,6 +231,9 @@ public class GrisbiFile050 implements Importer {
             throw new ParsingException("The number of imported payees (" + numberOfImportedPayees + ") is not equal to the expected number of payees (" + expectedNumberOfPayees + ") written in the Grisbi file '" + pathToGrisbiFile + "'");
         }
 
+        // Commit the phase
+        loader.commit();
+
         long endImportingPayeesTime = System.currentTimeMillis();
         log.info(numberOfImportedPayees + " payees have been successfully imported in " + (endImportingPayeesTime - startImportingPayeesTime) + " ms");
         log.exiting(this.getClass().getName(), "importPayees");
@@ -249,9 +255,9 @@ public class GrisbiFile050 implements Importer {
         long startImportingCategoriesTime = System.currentTimeMillis();
 
         // Save system categories in the embedded database
-        Datamodel.saveCategory(Category.TRANSFER);
-        Datamodel.saveCategory(Category.BREAKDOWN_OF_TRANSACTIONS);
-        Datamodel.saveCategory(Category.NO_CATEGORY);
+        loader.insert(Category.TRANSFER);
+        loader.insert(Category.BREAKDOWN_OF_TRANSACTIONS);
+        loader.insert(Category.NO_CATEGORY);
 
         // Import the categories from the Grisbi file into the embedded database
         int numberOfImportedCategories = 0;
@@ -271,7 +277,7 @@ public class GrisbiFile050 implements Importer {
 
             // Create a new category and save it in the embedded database
             Category category = new Category(categoryId, 0L, categoryName, null, false); // There is no sub-category - the field "grisbi_sub_category_id" is set to 0
-            Datamodel.saveCategory(category);
+            loader.insert(category);
 
             // Import the sub-categories into the database
             List listOfSubCategories = categoryNode.selectNodes("Sous-categorie");
@@ -290,12 +296,12 @@ public class GrisbiFile050 implements Importer {
 
                 // Create a new sub-category and save it in the embedded database
                 Category subCategory = new Category(categoryId, subCategoryId, subCategoryName, category, false);
-                Datamodel.saveCategory(subCategory);
+                loader.insert(subCategory);
             }
 
             // For each category, save an empty sub-category
             Category noSubCategory = new Category(categoryId, Category.NO_SUB_CATEGORY_ID, "No sub-category", category, false);
-            Datamodel.saveCategory(noSubCategory);
+            loader.insert(noSubCategory);
 
             numberOfImportedCategories++;
             p.progress(workUnit++);
@@ -306,6 +312,9 @@ public class GrisbiFile050 implements Importer {
             throw new ParsingException("The number of imported categories (" + numberOfImportedCategories + ") is not equal to the expected number of categories (" + expectedNumberOfCategories + ") written in the Grisbi file '" + pathToGrisbiFile + "'");
         }
 
+        // Commit the phase
+        loader.commit();
+
         long endImportingCategoriesTime = System.currentTimeMillis();
         log.info(numberOfImportedCategories + " categories have been successfully imported in " + (endImportingCategoriesTime - startImportingCategoriesTime) + " ms");
         log.exiting(this.getClass().getName(), "importCategories");
@@ -359,7 +368,7 @@ public class GrisbiFile050 implements Importer {
             // By default the currencies are not active
             // When the accounts are imported, the currencies are activated
             Currency currency = new Currency(currencyId, currencyName, currencyCode, currencyIsoCode, new BigDecimal(0), new BigDecimal(0), currencyExchangeRate, currencyMultiply, currencyEuroConversion, false);
-            Datamodel.saveCurrency(currency);
+            loader.insert(currency);
 
             numberOfImportedCurrencies++;
             p.progress(workUnit++);
@@ -370,6 +379,9 @@ public class GrisbiFile050 implements Importer {
             throw new ParsingException("The number of imported currencies (" + numberOfImportedCurrencies + ") is not equal to the expected number of currencies (" + expectedNumberOfCurrencies + ") in the Grisbi file '" + pathToGrisbiFile + "'");
         }
 
+        // Commit the phase
+        loader.commit();
+
         long endImportingCurrenciesTime = System.currentTimeMillis();
         log.info(numberOfImportedCurrencies + " currencies have been successfully imported in " + (endImportingCurrenciesTime - startImportingCurrenciesTime) + " ms");
         log.exiting(this.getClass().getName(), "importCurrencies");
@@ -454,7 +466,7 @@ public class GrisbiFile050 implements Importer {
 
             // Create a new account and save the account in the embedded database
             Account account = new Account(accountId, accountName, accountCurrency, accountInitialAmount, accountBalance, accountActive);
-            Datamodel.saveAccount(account);
+            loader.insert(account);
 
             // Update the currency's balance and the currency's initial amount
             if (accountActive) {
@@ -467,9 +479,12 @@ public class GrisbiFile050 implements Importer {
 
         // Update the currencies (active flag, balance, initial amount)
         for (Currency currency : currencies.values()) {
-            Datamodel.saveCurrency(currency);
+            loader.update(currency);
         }
 
+        // Commit the phase
+        loader.commit();
+
         long endImportingAccountsTime = System.currentTimeMillis();
         log.info(numberOfImportedAccounts + " accounts have been successfully imported in " + (endImportingAccountsTime - startImportingAccountsTime) + " ms");
         log.exiting(this.getClass().getName(), "importAccounts");
@@ -535,169 +550,36 @@ public class GrisbiFile050 implements Importer {
             int expectedNumberOfTransactions = Integer.parseInt(expectedNumberOfTransactionsValue);
 
             // Import the transactions of the account into the embedded database
+            accountTotals.addAccount(accountId);
             int numberOfImportedTransactions = 0;
             Map<Long, Transaction> transactions = new HashMap<Long, Transaction>(); // Map containing all the saved transactions - the key of the map is the transaction's ID
             List listOfTransactions = accountNode.selectNodes("Detail_des_operations/Operation");
             Iterator transactionsIterator = listOfTransactions.iterator();
             while (transactionsIterator.hasNext() && !isImportCancelled()) { // Go through the list of transactions of the account
 
-                // Get the transaction node
+                // Get the transaction node and read its attributes
                 Node transactionNode = (Node) transactionsIterator.next();
+                assert (transactionNode != null);
+                Operation050 operation = Operation050.read(transactionNode);
 
                 // Get the ID of the transaction
-                assert (transactionNode != null);
-                String transactionIdValue = transactionNode.valueOf("@No");
-                assert (transactionIdValue != null);
-                long transactionId = Long.parseLong(transactionIdValue);
-                assert (transactionId > 0);
-
-                // Get the date of the transaction
-                String transactionDateValue = transactionNode.valueOf("@D");
-                assert (transactionDateValue != null && transactionDateValue.compareTo("") != 0);
-                // Get the date from the string
-                LocalDate transactionDate = Period.getDate(transactionDateValue); // Throws a DateFormatException if the format of 'transactionDateValue' is not valid
-                assert (transactionDate != null);
-
-                // Get the exchange rate
-                String exchangeRateValue = transactionNode.valueOf("@Tc");
-                assert (exchangeRateValue != null);
-                BigDecimal exchangeRate = new BigDecimal(exchangeRateValue.replace(',', '.')); // exchangeRate = 0 if there is no echange rate
-
-                // Get the fees
-                String feesValue = transactionNode.valueOf("@Fc");
-                assert (feesValue != null);
-                BigDecimal fees = new BigDecimal(feesValue.replace(',', '.'));
-
-                // Get the amount of the transaction
-                String transactionAmountValue = transactionNode.valueOf("@M");
-                assert (transactionAmountValue != null);
-                BigDecimal transactionAmount = new BigDecimal(transactionAmountValue.replace(',', '.'));
-
-                // Get the currency of the transaction
-                String transactionCurrencyIdValue = transactionNode.valueOf("@De");
-                assert (transactionCurrencyIdValue != null);
-                long transactionCurrencyId = Long.parseLong(transactionCurrencyIdValue); // Get the ID of the currency
-                Currency transactionCurrency = currencies.get(transactionCurrencyId);
-                assert (transactionCurrency != null);
-                Currency accountCurrency = currencies.get(account.getCurrency().getId());
-                assert (accountCurrency != null);
-
-                // Update the amount of the transaction if the currency of the transaction is different from the currency of the account
-                // (Method found in the Grisbi source file: devises.c/calcule_montant_devise_renvoi)
-                if (transactionCurrency.getId().compareTo(accountCurrency.getId()) != 0) {
-                    if (accountCurrency.getEuroConversion()) {
-                        if (transactionCurrency.getName().compareToIgnoreCase("euro") == 0) {
-                            transactionAmount = transactionAmount.multiply(accountCurrency.getExchangeRate());
-                        }
-                    } else if (accountCurrency.getEuroConversion() && transactionCurrency.getName().compareToIgnoreCase("euro") != 0) {
-                        transactionAmount = transactionAmount.divide(transactionCurrency.getExchangeRate(), RoundingMode.HALF_EVEN);
-                    } else {
-                        if (exchangeRate.compareTo(BigDecimal.ZERO) != 0) {
-                            String transactionRdcValue = transactionNode.valueOf("@Rdc");
-                            assert (transactionRdcValue != null);
-                            long transactionRdc = Long.parseLong(transactionRdcValue);
-
-                            if (transactionRdc == 1) {
-                                transactionAmount = (transactionAmount.divide(exchangeRate, RoundingMode.HALF_EVEN)).subtract(fees);
-                            } else {
-                                transactionAmount = (transactionAmount.multiply(exchangeRate)).subtract(fees);
-                            }
-                        } else if (transactionCurrency.getExchangeRate().compareTo(BigDecimal.ZERO) != 0) {
-                            if (transactionCurrency.getMultiply()) {
-                                transactionAmount = (transactionAmount.multiply(transactionCurrency.getExchangeRate())).subtract(fees);
-                            } else {
-                                transactionAmount = (transactionAmount.divide(transactionCurrency.getExchangeRate(), RoundingMode.HALF_EVEN)).subtract(fees);
-                            }
-                        } else {
-                            transactionAmount = new BigDecimal(0);
-                        }
-                    }
-                }
-                transactionAmount = transactionAmount.setScale(2, RoundingMode.HALF_EVEN);
-
-                // If the current transaction is a transfer:
-                String twinTransaction = transactionNode.valueOf("@Ro"); // Twin transaction
-                assert (twinTransaction != null);
-                String accountOfTransfer = transactionNode.valueOf("@Rc"); // Account where the amount has been transfered (account of the twin transaction)
-                assert (accountOfTransfer != null);
-
-                // Is the current transaction a breakdown of transactions?
-                String breakdownOfTransaction = transactionNode.valueOf("@Ov"); // breakdownOfTransaction = 1 if the current trasnsaction is a breakdown of transactions
-                assert (breakdownOfTransaction != null);
-
-                // Get the category and the sub-category of the transaction
-                String transactionGrisbiCategoryIdValue = transactionNode.valueOf("@C"); // Get the category ID ('0' means that the category is not defined)
-                assert (transactionGrisbiCategoryIdValue != null);
-                long transactionGrisbiCategoryId = Long.parseLong(transactionGrisbiCategoryIdValue);
-                assert (transactionGrisbiCategoryId >= 0);
-
-                String transactionGrisbiSubCategoryIdValue = transactionNode.valueOf("@Sc"); // Get the sub-category ID ('0' means that the sub-category is not defined)
-                assert (transactionGrisbiSubCategoryIdValue != null);
-                long transactionGrisbiSubCategoryId = Long.parseLong(transactionGrisbiSubCategoryIdValue);
-                assert (transactionGrisbiSubCategoryId >= 0);
-
-                // Check if the category is "Transfer" or "Breakdown of transactions"
-                Category transactionCategory = null;
-                GrisbiCategory transactionGrisbiCategory = new GrisbiCategory(0, 0);
-                if (transactionGrisbiCategoryId == 0 && (twinTransaction.compareTo("0") != 0 || accountOfTransfer.compareTo("0") != 0)) {
-                    // The current transaction is a transfer
-                    transactionCategory = Category.TRANSFER;
-                } else if (transactionGrisbiCategoryId == 0 && breakdownOfTransaction.compareTo("1") == 0) {
-                    // The current transaction is a breakdown of transactions
-                    transactionCategory = Category.BREAKDOWN_OF_TRANSACTIONS;
-                } else if (transactionGrisbiSubCategoryId != 0) {
-                    transactionGrisbiCategory.setCategoryId(transactionGrisbiCategoryId);
-                    transactionGrisbiCategory.setSubCategoryId(transactionGrisbiSubCategoryId);
-                    transactionCategory = categories.get(transactionGrisbiCategory);
-                    assert (transactionCategory != null);
-                } else if (transactionGrisbiCategoryId != 0) {
-                    // Else, if a category is defined, get the category
-                    transactionGrisbiCategory.setCategoryId(transactionGrisbiCategoryId);
-                    transactionGrisbiCategory.setSubCategoryId(Category.NO_SUB_CATEGORY_ID);
-                    transactionCategory = categories.get(transactionGrisbiCategory);
-                    assert (transactionCategory != null);
-                } else {
-                    // Else, no category is defined
-                    transactionCategory = Category.NO_CATEGORY;
-                }
-                assert (transactionCategory != null);
-
-                // Get the comment of the transaction
-                String transactionComment = transactionNode.valueOf("@N");
-                assert (transactionComment != null);
-
-                // Get the payee of the transaction
-                String transactionPayeeIdValue = transactionNode.valueOf("@T"); // 'transactionPayeeIdValue' contains '0' if no payee is defined
-                assert (transactionPayeeIdValue != null);
-                long transactionPayeeId = Long.parseLong(transactionPayeeIdValue);
-                assert (transactionPayeeId >= 0);
-                Payee transactionPayee = null;
-                if (transactionPayeeId != 0) { // Get the payee if it has been defined
-                    transactionPayee = payees.get(transactionPayeeId);
-                    assert (transactionPayee != null);
-                } else { // No payee has been defined
-                    transactionPayee = Payee.NO_PAYEE;
-                }
+                long transactionId = operation.getId();
 
                 // Get the parent transaction
-                String transactionParentIdValue = transactionNode.valueOf("@Va"); // '0' means that the transaction is a top-transaction ; not '0' means that the transaction is a sub-transaction
-                assert (transactionParentIdValue != null);
-                long transactionParentId = Long.parseLong(transactionParentIdValue);
-                assert (transactionParentId >= 0);
+                long transactionParentId = operation.getParentId(); // '0' means that the transaction is a top-transaction ; not '0' means that the transaction is a sub-transaction
                 Transaction transactionParent = null;
                 if (transactionParentId != 0) {
                     // Get the parent transaction
                     transactionParent = transactions.get(transactionParentId); // 'transactionParentId' is the ID of the parent transaction (in Grisbi files, parent transactions are always BEFORE sub-transactions)
                     assert (transactionParent != null);
-                } else {
-                    // The current transaction has no parent transaction
-                    // The current transaction is a top transaction
-                    transactionParent = null;
                 }
 
                 // Create a new transaction and save the transaction in the embedded database
-                Transaction transaction = new Transaction(transactionDate, account, transactionAmount, transactionCategory, transactionComment, transactionPayee, transactionParent);
-                Datamodel.saveTransaction(transaction);
+                Transaction transaction = operation.toTransaction(account, currencies, categories, payees, transactionParent);
+                loader.insert(transaction);
+                if (transactionParent == null) {
+                    accountTotals.add(accountId, transaction.getAmount());
+                }
                 transactions.put(transactionId, transaction); // Save the transaction in the map, so that parent transactions can be found
 
                 numberOfImportedTransactions++;
@@ -714,6 +596,9 @@ public class GrisbiFile050 implements Importer {
             totalNumberOfImportedTransactions += numberOfImportedTransactions;
         }
 
+        // Commit the phase
+        loader.commit();
+
         long endImportingTotalTransactionsTime = System.currentTimeMillis();
         log.info(totalNumberOfImportedTransactions + " transactions have been successfully imported in " + (endImportingTotalTransactionsTime - startImportingTotalTransactionsTime) + " ms");
         log.exiting(this.getClass().getName(), "importTransactions");
@@ -773,29 +658,35 @@ public class GrisbiFile050 implements Importer {
         Datamodel.emptyDatabase();
 
         // Import the Grisbi file into the embedded database
-        if (!isImportCancelled()) {
-            p.progress(NbBundle.getMessage(GrisbiFile050.class, "GrisbiFile050.ImportingPayees"));
-            importPayees(p, expectedNumberOfPayees);
-        }
+        loader = new BulkLoader();
+        try {
+            if (!isImportCancelled()) {
+                p.progress(NbBundle.getMessage(GrisbiFile050.class, "GrisbiFile050.ImportingPayees"));
+                importPayees(p, expectedNumberOfPayees);
+            }
 
-        if (!isImportCancelled()) {
-            p.progress(NbBundle.getMessage(GrisbiFile050.class, "GrisbiFile050.ImportingCategories"));
-            importCategories(p, expectedNumberOfCategories);
-        }
+            if (!isImportCancelled()) {
+                p.progress(NbBundle.getMessage(GrisbiFile050.class, "GrisbiFile050.ImportingCategories"));
+                importCategories(p, expectedNumberOfCategories);
+            }
 
-        if (!isImportCancelled()) {
-            p.progress(NbBundle.getMessage(GrisbiFile050.class, "GrisbiFile050.ImportingCurrencies"));
-            importCurrencies(p, expectedNumberOfCurrencies);
-        }
+            if (!isImportCancelled()) {
+                p.progress(NbBundle.getMessage(GrisbiFile050.class, "GrisbiFile050.ImportingCurrencies"));
+                importCurrencies(p, expectedNumberOfCurrencies);
+            }
 
-        if (!isImportCancelled()) {
-            p.progress(NbBundle.getMessage(GrisbiFile050.class, "GrisbiFile050.ImportingAccounts"));
-            importAccounts();
-        }
+            if (!isImportCancelled()) {
+                p.progress(NbBundle.getMessage(GrisbiFile050.class, "GrisbiFile050.ImportingAccounts"));
+                importAccounts();
+            }
 
-        if (!isImportCancelled()) {
-            p.progress(NbBundle.getMessage(GrisbiFile050.class, "GrisbiFile050.ImportingTransactions"));
-            importTransactions(p);
+            if (!isImportCancelled()) {
+                p.progress(NbBundle.getMessage(GrisbiFile050.class, "GrisbiFile050.ImportingTransactions"));
+                importTransactions(p);
+            }
+        } finally {
+            loader.close();
+            loader = null;
         }
 
         p.finish();
@@ -810,4 +701,9 @@ public class GrisbiFile050 implements Importer {
     public boolean isImportCancelled() {
         return importCancelled;
     }
+
+    @Override
+    public AccountTotals getAccountTotals() {
+        return accountTotals;
+    }
 }
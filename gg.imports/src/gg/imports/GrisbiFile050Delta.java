@@ -0,0 +1,792 @@
+/*
+ * GrisbiFile050Delta.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.imports;
+
+import gg.db.datamodel.BulkLoader;
+import gg.db.datamodel.DateFormatException;
+import gg.db.datamodel.Datamodel;
+import gg.db.entities.Account;
+import gg.db.entities.Category;
+import gg.db.entities.Currency;
+import gg.db.entities.FileImport;
+import gg.db.entities.GrisbiCategory;
+import gg.db.entities.Payee;
+import gg.db.entities.Transaction;
+import gg.imports.GrisbiFile050Reader.AccountHeader;
+import gg.imports.GrisbiFile050Reader.CategoryHeader;
+import gg.utilities.Utilities;
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import org.joda.time.LocalDate;
+import org.netbeans.api.progress.ProgressHandle;
+import org.netbeans.api.progress.ProgressHandleFactory;
+import org.openide.util.Cancellable;
+import org.openide.util.NbBundle;
+
+/**
+ * <B>GrisbiFile050Delta</B>
+ * <UL>
+ * <LI>Permits to re-import a Grisbi 0.5.x file which has already been imported into the embedded database</LI>
+ * <LI>The database is not emptied: the rows are matched with the Grisbi file by their Grisbi IDs
+ * (<CODE>Tiers/@No</CODE>, category and sub-category numbers, <CODE>Devise/@No</CODE>, <CODE>No_de_compte</CODE>,
+ * <CODE>Operation/@No</CODE> in each account), and only the rows which changed are inserted, updated or deleted</LI>
+ * <LI>The Grisbi file is read with a <CODE>GrisbiFile050Reader</CODE> (StAX), like <CODE>GrisbiFile050Stream</CODE></LI>
+ * <LI><CODE>isDeltaImportPossible()</CODE> has to be checked before: otherwise the file has to be fully imported</LI>
+ * <LI>The transactions of only one account can be re-imported: the reader seeks directly to the transactions of the account,
+ * and the entities which are not in the Grisbi file anymore are not deleted</LI>
+ * </UL>
+ * @author Francois Duchemin
+ */
+public class GrisbiFile050Delta implements Importer {
+
+    /** Reader of the Grisbi file to import */
+    private GrisbiFile050Reader grisbiFileReader;
+    /** Path to the Grisbi file to import*/
+    private String pathToGrisbiFile;
+    /** ID of the account of which transactions are re-imported (null to re-import the transactions of all the accounts) */
+    private Long accountId;
+    /** Is the import task cancelled? */
+    private boolean importCancelled;
+    /** Current work unit (for the progress bar) */
+    private int workUnit;
+    /** Loader used to write the changes in the embedded database (one commit per phase) */
+    private BulkLoader loader;
+    /** Number of inserted rows */
+    private long numberOfInsertedRows;
+    /** Number of updated rows */
+    private long numberOfUpdatedRows;
+    /** Number of deleted rows */
+    private long numberOfDeletedRows;
+    /** Running totals of the accounts (sum of the amounts of the transactions read from the Grisbi file) */
+    private AccountTotals accountTotals = new AccountTotals();
+    /** Logger */
+    private Logger log = Logger.getLogger(GrisbiFile050Delta.class.getName());
+
+    /**
+     * Creates a new instance of GrisbiFile050Delta
+     * @param grisbiFile Grisbi file to re-import into the embedded database
+     */
+    public GrisbiFile050Delta(File grisbiFile) {
+        this(grisbiFile, null);
+    }
+
+    /**
+     * Creates a new instance of GrisbiFile050Delta which re-imports the transactions of one account
+     * @param grisbiFile Grisbi file to re-import into the embedded database
+     * @param accountId ID of the account of which transactions are re-imported (null to re-import the transactions of all the accounts)
+     */
+    public GrisbiFile050Delta(File grisbiFile, Long accountId) {
+        if (grisbiFile == null) {
+            throw new IllegalArgumentException("The parameter 'grisbiFile' is null");
+        }
+        this.grisbiFileReader = new GrisbiFile050Reader(grisbiFile, this);
+        this.pathToGrisbiFile = grisbiFile.getAbsolutePath();
+        this.accountId = accountId;
+        this.importCancelled = false;
+    }
+
+    /**
+     * Can the Grisbi file be re-imported with a delta import?<BR/>
+     * A delta import is possible when:
+     * <UL>
+     * <LI>the last import of the database succeeded and was done from the same Grisbi file</LI>
+     * <LI>the Grisbi ID of each transaction is known (the transactions imported by older versions have no Grisbi ID)</LI>
+     * </UL>
+     * @param grisbiFile Grisbi file to re-import
+     * @return true if the delta import can be used, false if the file has to be fully imported
+     */
+    public static boolean isDeltaImportPossible(File grisbiFile) {
+        if (grisbiFile == null) {
+            throw new IllegalArgumentException("The parameter 'grisbiFile' is null");
+        }
+
+        List<FileImport> fileImports = Datamodel.getFileImports(); // The last import is the first one
+        if (fileImports.isEmpty()) {
+            return false;
+        }
+        FileImport lastFileImport = fileImports.get(0);
+        if (!lastFileImport.getSuccess() ||
+                lastFileImport.getFilePath().compareTo(grisbiFile.getAbsolutePath()) != 0) {
+            return false;
+        }
+
+        return (Datamodel.getNumberOfTransactionsWithoutGrisbiId() == 0);
+    }
+
+    /**
+     * Compares two values which can be null
+     * @param value1 First value
+     * @param value2 Second value
+     * @return true if both values are null or equal
+     */
+    private static boolean isEqual(Object value1, Object value2) {
+        return (value1 == null ? value2 == null : value1.equals(value2));
+    }
+
+    /**
+     * Compares two amounts (the scale is ignored)
+     * @param amount1 First amount
+     * @param amount2 Second amount
+     * @return true if both amounts are null or have the same value
+     */
+    private static boolean isEqual(BigDecimal amount1, BigDecimal amount2) {
+        return (amount1 == null ? amount2 == null : amount2 != null && amount1.compareTo(amount2) == 0);
+    }
+
+    /**
+     * Inserts a new row
+     * @param entity Entity to insert
+     */
+    private void insert(Object entity) {
+        loader.insert(entity);
+        numberOfInsertedRows++;
+    }
+
+    /**
+     * Updates a row which changed
+     * @param entity Entity to update
+     */
+    private void update(Object entity) {
+        loader.update(entity);
+        numberOfUpdatedRows++;
+    }
+
+    /**
+     * Deletes a row which is not in the Grisbi file anymore
+     * @param entity Entity to delete
+     */
+    private void delete(Object entity) {
+        loader.delete(entity);
+        numberOfDeletedRows++;
+    }
+
+    /**
+     * Inserts the new payees and updates the renamed payees<BR/>
+     * The payees which are not in the Grisbi file anymore are deleted by <CODE>deleteStaleEntities()</CODE>
+     * @param p Progress handle for the progress bar
+     * @param savedPayees Payees saved in the database (the payees found in the Grisbi file are removed from the map)
+     * @throws ParsingException If the number of payees is not equal to the number of payees defined in the Grisbi file
+     */
+    private void importPayees(ProgressHandle p, Map<Long, Payee> savedPayees) throws ParsingException {
+        log.entering(this.getClass().getName(), "importPayees");
+        long startImportingPayeesTime = System.currentTimeMillis();
+
+        // Save default payee in the database if needed
+        if (savedPayees.remove(Payee.NO_PAYEE.getId()) == null) {
+            insert(Payee.NO_PAYEE);
+        }
+
+        int numberOfImportedPayees = 0;
+        for (Payee payee : grisbiFileReader.getPayees()) {
+            if (isImportCancelled()) {
+                break;
+            }
+
+            Payee savedPayee = savedPayees.remove(payee.getId());
+            if (savedPayee == null) {
+                insert(payee);
+            } else if (!isEqual(savedPayee.getName(), payee.getName())) {
+                update(payee);
+            }
+
+            numberOfImportedPayees++;
+            p.progress(workUnit++);
+        }
+
+        // Make sure that all payees have been imported
+        int expectedNumberOfPayees = grisbiFileReader.getExpectedNumberOfPayees();
+        if (!isImportCancelled() && numberOfImportedPayees != expectedNumberOfPayees) {
+            throw new ParsingException("The number of imported payees (" + numberOfImportedPayees + ") is not equal to the expected number of payees (" + expectedNumberOfPayees + ") written in the Grisbi file '" + pathToGrisbiFile + "'");
+        }
+
+        // Commit the phase
+        loader.commit();
+
+        long endImportingPayeesTime = System.currentTimeMillis();
+        log.info(numberOfImportedPayees + " payees have been successfully compared in " + (endImportingPayeesTime - startImportingPayeesTime) + " ms");
+        log.exiting(this.getClass().getName(), "importPayees");
+    }
+
+    /**
+     * Saves a category if it is new or if it has been renamed
+     * @param category Category read from the Grisbi file
+     * @param savedCategories Categories saved in the database (the category is removed from the map)
+     * @return Category saved in the database (with its ID)
+     */
+    private Category importCategory(Category category, Map<GrisbiCategory, Category> savedCategories) {
+        Category savedCategory = savedCategories.remove(new GrisbiCategory(category.getGrisbiCategoryId(), category.getGrisbiSubCategoryId()));
+        if (savedCategory == null) {
+            insert(category); // The ID of the category is generated
+        } else {
+            category.setId(savedCategory.getId());
+            if (!isEqual(savedCategory.getName(), category.getName())) {
+                update(category);
+            }
+        }
+        return category;
+    }
+
+    /**
+     * Inserts the new categories and updates the renamed categories<BR/>
+     * The IDs of the system categories (transfer, breakdown, no category) are read from the database<BR/>
+     * The categories which are not in the Grisbi file anymore are deleted by <CODE>deleteStaleEntities()</CODE>
+     * @param p Progress handle for the progress bar
+     * @param savedCategories Categories saved in the database (the categories found in the Grisbi file are removed from the map)
+     * @throws ParsingException If the number of categories is not equal to the number of categories defined in the Grisbi file
+     */
+    private void importCategories(ProgressHandle p, Map<GrisbiCategory, Category> savedCategories) throws ParsingException {
+        log.entering(this.getClass().getName(), "importCategories");
+        long startImportingCategoriesTime = System.currentTimeMillis();
+
+        // Get the system categories from the embedded database (the constants are used by the transactions)
+        importCategory(Category.TRANSFER, savedCategories);
+        importCategory(Category.BREAKDOWN_OF_TRANSACTIONS, savedCategories);
+        importCategory(Category.NO_CATEGORY, savedCategories);
+
+        int numberOfImportedCategories = 0;
+        for (CategoryHeader categoryHeader : grisbiFileReader.getCategories()) {
+            if (isImportCancelled()) {
+                break;
+            }
+
+            // Top category
+            Category category = importCategory(new Category(categoryHeader.getId(), 0L, categoryHeader.getName(), null, false), savedCategories); // There is no sub-category - the field "grisbi_sub_category_id" is set to 0
+
+            // Sub-categories
+            List<Long> subCategoryIds = categoryHeader.getSubCategoryIds();
+            List<String> subCategoryNames = categoryHeader.getSubCategoryNames();
+            for (int i = 0; i < subCategoryIds.size(); i++) {
+                importCategory(new Category(categoryHeader.getId(), subCategoryIds.get(i), subCategoryNames.get(i), category, false), savedCategories);
+            }
+
+            // Empty sub-category
+            importCategory(new Category(categoryHeader.getId(), Category.NO_SUB_CATEGORY_ID, "No sub-category", category, false), savedCategories);
+
+            numberOfImportedCategories++;
+            p.progress(workUnit++);
+        }
+
+        // Make sure that all categories have been imported
+        int expectedNumberOfCategories = grisbiFileReader.getExpectedNumberOfCategories();
+        if (!isImportCancelled() && numberOfImportedCategories != expectedNumberOfCategories) {
+            throw new ParsingException("The number of imported categories (" + numberOfImportedCategories + ") is not equal to the expected number of categories (" + expectedNumberOfCategories + ") written in the Grisbi file '" + pathToGrisbiFile + "'");
+        }
+
+        // Commit the phase
+        loader.commit();
+
+        long endImportingCategoriesTime = System.currentTimeMillis();
+        log.info(numberOfImportedCategories + " categories have been successfully compared in " + (endImportingCategoriesTime - startImportingCategoriesTime) + " ms");
+        log.exiting(this.getClass().getName(), "importCategories");
+    }
+
+    /**
+     * Inserts the new currencies and updates the currencies which changed<BR/>
+     * The active flag, the balance and the initial amount of the currencies are computed from the account headers<BR/>
+     * The currencies which are not in the Grisbi file anymore are deleted by <CODE>deleteStaleEntities()</CODE>
+     * @param p Progress handle for the progress bar
+     * @param savedCurrencies Currencies saved in the database (the currencies found in the Grisbi file are removed from the map)
+     * @throws ParsingException If the number of currencies is not equal to the number of currencies defined in the Grisbi file
+     */
+    private void importCurrencies(ProgressHandle p, Map<Long, Currency> savedCurrencies) throws ParsingException {
+        log.entering(this.getClass().getName(), "importCurrencies");
+        long startImportingCurrenciesTime = System.currentTimeMillis();
+
+        // Currencies of the Grisbi file
+        Map<Long, Currency> currencies = new HashMap<Long, Currency>();
+        for (Currency currency : grisbiFileReader.getCurrencies()) {
+            currencies.put(currency.getId(), currency);
+        }
+
+        // Activate the currencies of the active accounts, and compute the balances and the initial amounts
+        for (AccountHeader accountHeader : grisbiFileReader.getAccountHeaders()) {
+            Currency accountCurrency = currencies.get(accountHeader.getCurrencyId()); // An account has always a currency in Grisbi
+            assert (accountCurrency != null);
+            if (accountHeader.isActive()) {
+                accountCurrency.setActive(true);
+                accountCurrency.setBalance(accountCurrency.getBalance().add(accountHeader.getBalance()));
+                accountCurrency.setInitialAmount(accountCurrency.getInitialAmount().add(accountHeader.getInitialAmount()));
+            }
+        }
+
+        int numberOfImportedCurrencies = 0;
+        for (Currency currency : grisbiFileReader.getCurrencies()) {
+            if (isImportCancelled()) {
+                break;
+            }
+
+            Currency savedCurrency = savedCurrencies.remove(currency.getId());
+            if (savedCurrency == null) {
+                insert(currency);
+            } else if (!isEqual(savedCurrency.getName(), currency.getName()) ||
+                    !isEqual(savedCurrency.getCode(), currency.getCode()) ||
+                    !isEqual(savedCurrency.getIsoCode(), currency.getIsoCode()) ||
+                    !isEqual(savedCurrency.getInitialAmount(), currency.getInitialAmount()) ||
+                    !isEqual(savedCurrency.getBalance(), currency.getBalance()) ||
+                    !isEqual(savedCurrency.getExchangeRate(), currency.getExchangeRate()) ||
+                    !isEqual(savedCurrency.getMultiply(), currency.getMultiply()) ||
+                    !isEqual(savedCurrency.getEuroConversion(), currency.getEuroConversion()) ||
+                    !isEqual(savedCurrency.getActive(), currency.getActive())) {
+                update(currency);
+            }
+
+            numberOfImportedCurrencies++;
+            p.progress(workUnit++);
+        }
+
+        // Make sure that all currencies have been imported
+        int expectedNumberOfCurrencies = grisbiFileReader.getExpectedNumberOfCurrencies();
+        if (!isImportCancelled() && numberOfImportedCurrencies != expectedNumberOfCurrencies) {
+            throw new ParsingException("The number of imported currencies (" + numberOfImportedCurrencies + ") is not equal to the expected number of currencies (" + expectedNumberOfCurrencies + ") in the Grisbi file '" + pathToGrisbiFile + "'");
+        }
+
+        // Commit the phase
+        loader.commit();
+
+        long endImportingCurrenciesTime = System.currentTimeMillis();
+        log.info(numberOfImportedCurrencies + " currencies have been successfully compared in " + (endImportingCurrenciesTime - startImportingCurrenciesTime) + " ms");
+        log.exiting(this.getClass().getName(), "importCurrencies");
+    }
+
+    /**
+     * Inserts the new accounts and updates the accounts which changed<BR/>
+     * The accounts which are not in the Grisbi file anymore are deleted by <CODE>deleteStaleEntities()</CODE>
+     * @param savedAccounts Accounts saved in the database (the accounts found in the Grisbi file are removed from the map)
+     */
+    private void importAccounts(Map<Long, Account> savedAccounts) {
+        log.entering(this.getClass().getName(), "importAccounts");
+        long startImportingAccountsTime = System.currentTimeMillis();
+
+        // Get all the currencies saved in the database (the method importCurrencies() has to be called before)
+        Map<Long, Currency> savedCurrencies = Datamodel.getCurrenciesWithId();
+
+        long numberOfImportedAccounts = 0;
+        for (AccountHeader accountHeader : grisbiFileReader.getAccountHeaders()) {
+            if (isImportCancelled()) {
+                break;
+            }
+
+            Currency accountCurrency = savedCurrencies.get(accountHeader.getCurrencyId());
+            assert (accountCurrency != null);
+            Account account = new Account(accountHeader.getId(), accountHeader.getName(), accountCurrency, accountHeader.getInitialAmount(), accountHeader.getBalance(), accountHeader.isActive());
+
+            Account savedAccount = savedAccounts.remove(account.getId());
+            if (savedAccount == null) {
+                insert(account);
+            } else if (!isEqual(savedAccount.getName(), account.getName()) ||
+                    !isEqual(savedAccount.getCurrency().getId(), account.getCurrency().getId()) ||
+                    !isEqual(savedAccount.getInitialAmount(), account.getInitialAmount()) ||
+                    !isEqual(savedAccount.getBalance(), account.getBalance()) ||
+                    !isEqual(savedAccount.getActive(), account.getActive())) {
+                update(account);
+            }
+
+            numberOfImportedAccounts++;
+        }
+
+        // Commit the phase
+        loader.commit();
+
+        long endImportingAccountsTime = System.currentTimeMillis();
+        log.info(numberOfImportedAccounts + " accounts have been successfully compared in " + (endImportingAccountsTime - startImportingAccountsTime) + " ms");
+        log.exiting(this.getClass().getName(), "importAccounts");
+    }
+
+    /**
+     * Deletes transactions: the sub-transactions are deleted before their parent transactions
+     * @param transactions Transactions to delete (only the IDs and the parent transactions are needed)
+     */
+    private void deleteTransactions(Iterable<Transaction> transactions) {
+        List<Transaction> parentTransactions = new ArrayList<Transaction>();
+        for (Transaction transaction : transactions) {
+            if (transaction.getParentTransaction() != null) {
+                delete(transaction);
+            } else {
+                parentTransactions.add(transaction);
+            }
+        }
+        for (Transaction transaction : parentTransactions) {
+            delete(transaction);
+        }
+    }
+
+    /**
+     * Gets the transactions of an account saved in the database
+     * @param accountId ID of the account
+     * @return Map of the transactions - the key is the Grisbi ID of the transaction<BR/>
+     * The transactions contain the ID, the date, the amount, the comment, and the IDs of the category, of the payee and of the parent transaction
+     */
+    private static Map<Long, Transaction> getSavedTransactions(long accountId) {
+        Map<Long, Transaction> savedTransactions = new HashMap<Long, Transaction>();
+        for (Object importedTransaction : Datamodel.getImportedTransactions(accountId)) {
+            Object[] row = (Object[]) importedTransaction;
+
+            Transaction transaction = new Transaction();
+            transaction.setId((Long) row[0]);
+            transaction.setGrisbiTransactionId((Long) row[1]);
+            transaction.setDate((LocalDate) row[2]);
+            transaction.setAmount((BigDecimal) row[3]);
+            Category category = new Category();
+            category.setId((Long) row[4]);
+            transaction.setCategory(category);
+            Payee payee = new Payee();
+            payee.setId((Long) row[5]);
+            transaction.setPayee(payee);
+            if (row[6] != null) {
+                transaction.setComment((String) row[6]);
+            }
+            if (row[7] != null) {
+                Transaction parentTransaction = new Transaction();
+                parentTransaction.setId((Long) row[7]);
+                transaction.setParentTransaction(parentTransaction);
+            }
+
+            savedTransactions.put(transaction.getGrisbiTransactionId(), transaction);
+        }
+        return savedTransactions;
+    }
+
+    /**
+     * Is a saved transaction different from the transaction read in the Grisbi file?
+     * @param savedTransaction Transaction saved in the database
+     * @param transaction Transaction read in the Grisbi file
+     * @return true if the transaction has to be updated
+     */
+    private static boolean isChanged(Transaction savedTransaction, Transaction transaction) {
+        Long savedParentId = (savedTransaction.getParentTransaction() == null ? null : savedTransaction.getParentTransaction().getId());
+        Long parentId = (transaction.getParentTransaction() == null ? null : transaction.getParentTransaction().getId());
+
+        return (!isEqual(savedTransaction.getDate(), transaction.getDate()) ||
+                !isEqual(savedTransaction.getAmount(), transaction.getAmount()) ||
+                !isEqual(savedTransaction.getCategory().getId(), transaction.getCategory().getId()) ||
+                !isEqual(savedTransaction.getPayee().getId(), transaction.getPayee().getId()) ||
+                !isEqual(savedTransaction.getComment(), transaction.getComment()) ||
+                !isEqual(savedParentId, parentId));
+    }
+
+    /**
+     * Second pass: inserts, updates and deletes the transactions account after account<BR/>
+     * The transactions are read and converted in parallel by a <CODE>TransactionPipeline</CODE>:
+     * only the transactions of the current account are kept in memory
+     * @param p Progress handle for the progress bar
+     * @param accountHeader Account of which transactions are re-imported (null to re-import the transactions of all the accounts)
+     * @throws ParsingException If the Grisbi file cannot be read, or if the number of transactions is not the expected number
+     * @throws NumberFormatException If a string is read when a number is expected
+     * @throws DateFormatException If the date format of a transaction is invalid
+     */
+    private void importTransactions(final ProgressHandle p, AccountHeader accountHeader) throws ParsingException, NumberFormatException, DateFormatException {
+        log.entering(this.getClass().getName(), "importTransactions");
+        long startImportingTotalTransactionsTime = System.currentTimeMillis();
+
+        final Map<Long, Account> savedAccounts = Datamodel.getAccountsWithId();
+        final Map<Long, Payee> savedPayees = Datamodel.getPayeesWithId();
+        final Map<GrisbiCategory, Category> savedCategories = Datamodel.getCategoriesWithGrisbiCategory();
+        final Map<Long, Currency> savedCurrencies = Datamodel.getCurrenciesWithId();
+
+        final long[] totalNumberOfImportedTransactions = new long[1];
+        TransactionPipeline pipeline = new TransactionPipeline(grisbiFileReader, this, accountHeader);
+        pipeline.run(new TransactionPipeline.Converter() {
+
+            @Override
+            public Transaction convert(AccountHeader accountHeader, Operation050 operation) throws NumberFormatException, DateFormatException {
+                // The parent transaction is set by the writer
+                return operation.toTransaction(savedAccounts.get(accountHeader.getId()), savedCurrencies, savedCategories, savedPayees, null);
+            }
+        }, new TransactionPipeline.Writer() {
+
+            /** Transactions of the current account saved in the database - the key of the map is the Grisbi ID of the transaction */
+            private Map<Long, Transaction> savedTransactions;
+            /** Database IDs of the breakdowns of transactions of the current account - the key is the Grisbi ID of the transaction */
+            private GrisbiIdMap parentIds = new GrisbiIdMap();
+            /** Number of transactions read in the current account */
+            private int numberOfImportedTransactions;
+            /** Start time of the import of the current account */
+            private long startImportingTransactionsTime;
+
+            @Override
+            public void startAccount(AccountHeader accountHeader) {
+                assert (savedAccounts.get(accountHeader.getId()) != null);
+                savedTransactions = getSavedTransactions(accountHeader.getId());
+                accountTotals.addAccount(accountHeader.getId());
+                numberOfImportedTransactions = 0;
+                startImportingTransactionsTime = System.currentTimeMillis();
+
+                // Display on the progress bar the account from which transactions are imported
+                p.progress("Importing transactions from " + accountHeader.getName());
+            }
+
+            @Override
+            public void write(AccountHeader accountHeader, Operation050 operation, Transaction transaction) throws ParsingException {
+                // Get the ID of the transaction
+                long transactionId = operation.getId();
+
+                // Set the parent transaction
+                transaction.setParentTransaction(TransactionPipeline.getParentTransaction(operation, parentIds));
+
+                // Insert the transaction if it is new, update it if it changed
+                Transaction savedTransaction = savedTransactions.remove(transactionId);
+                if (savedTransaction == null) {
+                    insert(transaction); // The ID of the transaction is generated
+                } else {
+                    transaction.setId(savedTransaction.getId());
+                    if (isChanged(savedTransaction, transaction)) {
+                        update(transaction);
+                    }
+                }
+                if (transaction.getParentTransaction() == null) {
+                    accountTotals.add(accountHeader.getId(), transaction.getAmount());
+                }
+                if (operation.isBreakdown()) {
+                    parentIds.put(transactionId, transaction.getId()); // Only the IDs of the transactions which can have sub-transactions are kept
+                }
+
+                numberOfImportedTransactions++;
+                p.progress(workUnit++);
+            }
+
+            @Override
+            public void endAccount(AccountHeader accountHeader) {
+                // Delete the transactions which are not in the Grisbi file anymore
+                deleteTransactions(savedTransactions.values());
+
+                long endImportingTransactionsTime = System.currentTimeMillis();
+                log.info(numberOfImportedTransactions + " transactions have been successfully compared in the account '" + accountHeader.getName() + "' in " + (endImportingTransactionsTime - startImportingTransactionsTime) + " ms");
+                totalNumberOfImportedTransactions[0] += numberOfImportedTransactions;
+
+                // Forget the transactions of the account
+                savedTransactions = null;
+                parentIds.clear();
+            }
+        });
+
+        // Commit the phase
+        loader.commit();
+
+        long endImportingTotalTransactionsTime = System.currentTimeMillis();
+        log.info(totalNumberOfImportedTransactions[0] + " transactions have been successfully compared in " + (endImportingTotalTransactionsTime - startImportingTotalTransactionsTime) + " ms");
+        log.exiting(this.getClass().getName(), "importTransactions");
+    }
+
+    /**
+     * Deletes the entities which are not in the Grisbi file anymore<BR/>
+     * The transactions of the deleted accounts are deleted first, so that the foreign keys are respected
+     * @param stalePayees Payees to delete
+     * @param staleCategories Categories to delete
+     * @param staleCurrencies Currencies to delete
+     * @param staleAccounts Accounts to delete
+     */
+    private void deleteStaleEntities(Map<Long, Payee> stalePayees, Map<GrisbiCategory, Category> staleCategories,
+            Map<Long, Currency> staleCurrencies, Map<Long, Account> staleAccounts) {
+        log.entering(this.getClass().getName(), "deleteStaleEntities");
+
+        // Accounts and their transactions
+        for (Account account : staleAccounts.values()) {
+            deleteTransactions(getSavedTransactions(account.getId()).values());
+            delete(account);
+        }
+
+        // Currencies
+        for (Currency currency : staleCurrencies.values()) {
+            delete(currency);
+        }
+
+        // Categories: the sub-categories are deleted before the top categories
+        Set<Category> topCategories = new HashSet<Category>();
+        for (Category category : staleCategories.values()) {
+            if (category.isTopCategory()) {
+                topCategories.add(category);
+            } else {
+                delete(category);
+            }
+        }
+        for (Category category : topCategories) {
+            delete(category);
+        }
+
+        // Payees
+        for (Payee payee : stalePayees.values()) {
+            delete(payee);
+        }
+
+        // Commit the phase
+        loader.commit();
+
+        log.exiting(this.getClass().getName(), "deleteStaleEntities");
+    }
+
+    /**
+     * Re-imports the Grisbi file into the database<BR/>
+     * <UL>
+     * <LI>Read the account headers, the payees, the categories and the currencies (first pass)</LI>
+     * <LI>Insert or update the payees, the categories, the currencies and the accounts</LI>
+     * <LI>Insert, update or delete the transactions and the sub-transactions (second pass)</LI>
+     * <LI>Delete the accounts, currencies, categories and payees which are not in the Grisbi file anymore</LI>
+     * </UL>
+     * @return Number of miliseconds needed to re-import the Grisbi file into the database
+     * @throws ParsingException If there is a problem reading the Grisbi file or finding the needed elements
+     * @throws NumberFormatException If a string is read when a number is expected
+     * @throws DateFormatException If a the format of a date is invalid
+     */
+    @Override
+    public long importFile() throws ParsingException, NumberFormatException, DateFormatException {
+        log.entering(this.getClass().getName(), "importFile");
+        importCancelled = false;
+        workUnit = 0;
+        numberOfInsertedRows = 0;
+        numberOfUpdatedRows = 0;
+        numberOfDeletedRows = 0;
+        ProgressHandle p = ProgressHandleFactory.createHandle(
+                NbBundle.getMessage(GrisbiFile050Delta.class, "GrisbiFile050Delta.UpdatingGrisbiFile"),
+                new Cancellable() {
+
+                    @Override
+                    public boolean cancel() {
+                        Utilities.changeCursorWaitStatus(false);
+                        importCancelled = true;
+                        log.info("Update of '" + pathToGrisbiFile + "' has been cancelled");
+                        return true;
+                    }
+                });
+
+        long startImportingFileTime = System.currentTimeMillis();
+
+        // Start progress bar
+        p.setInitialDelay(0);
+        p.start();
+
+        try {
+            // Read the reference data and get number of expected entities
+            p.progress(NbBundle.getMessage(GrisbiFile050Delta.class, "GrisbiFile050Stream.ReadingGrisbiFile"));
+            grisbiFileReader.readReferenceData();
+
+            // Get the account to re-import
+            AccountHeader accountHeader = null;
+            if (accountId != null && !isImportCancelled()) {
+                accountHeader = grisbiFileReader.getAccountHeader(accountId);
+                if (accountHeader == null) {
+                    throw new ParsingException("The account " + accountId + " has not been found in the Grisbi file '" + pathToGrisbiFile + "'");
+                }
+            }
+
+            int totalEntities = grisbiFileReader.getExpectedNumberOfPayees() + grisbiFileReader.getExpectedNumberOfCategories() +
+                    grisbiFileReader.getExpectedNumberOfCurrencies() +
+                    (accountHeader == null ? grisbiFileReader.getExpectedNumberOfTransactions() : accountHeader.getExpectedNumberOfTransactions());
+            log.info("Expected number of entities (payees, categories, currencies, transactions): " + totalEntities);
+
+            p.switchToDeterminate(totalEntities);
+
+            // Entities saved in the database: the entities found in the Grisbi file are removed from the maps
+            Map<Long, Payee> savedPayees = Datamodel.getPayeesWithId();
+            Map<GrisbiCategory, Category> savedCategories = Datamodel.getCategoriesWithGrisbiCategory();
+            Map<Long, Currency> savedCurrencies = Datamodel.getCurrenciesWithId();
+            Map<Long, Account> savedAccounts = Datamodel.getAccountsWithId();
+
+            // Apply the changes of the Grisbi file to the embedded database
+            loader = new BulkLoader();
+            try {
+                if (!isImportCancelled()) {
+                    p.progress(NbBundle.getMessage(GrisbiFile050Delta.class, "GrisbiFile050.ImportingPayees"));
+                    importPayees(p, savedPayees);
+                }
+
+                if (!isImportCancelled()) {
+                    p.progress(NbBundle.getMessage(GrisbiFile050Delta.class, "GrisbiFile050.ImportingCategories"));
+                    importCategories(p, savedCategories);
+                }
+
+                if (!isImportCancelled()) {
+                    p.progress(NbBundle.getMessage(GrisbiFile050Delta.class, "GrisbiFile050.ImportingCurrencies"));
+                    importCurrencies(p, savedCurrencies);
+                }
+
+                if (!isImportCancelled()) {
+                    p.progress(NbBundle.getMessage(GrisbiFile050Delta.class, "GrisbiFile050.ImportingAccounts"));
+                    importAccounts(savedAccounts);
+                }
+
+                if (!isImportCancelled()) {
+                    p.progress(NbBundle.getMessage(GrisbiFile050Delta.class, "GrisbiFile050.ImportingTransactions"));
+                    importTransactions(p, accountHeader);
+                }
+
+                // The stale entities can be used by the transactions of the other accounts if only one account is re-imported
+                if (!isImportCancelled() && accountHeader == null) {
+                    deleteStaleEntities(savedPayees, savedCategories, savedCurrencies, savedAccounts);
+                }
+            } finally {
+                loader.close();
+                loader = null;
+            }
+        } finally {
+            p.finish();
+        }
+
+        long endImportingFileTime = System.currentTimeMillis();
+        long importDuration = endImportingFileTime - startImportingFileTime;
+        log.info("Grisbi file '" + pathToGrisbiFile + "' updated in " + importDuration + " ms: " +
+                numberOfInsertedRows + " rows inserted, " + numberOfUpdatedRows + " rows updated, " + numberOfDeletedRows + " rows deleted");
+
+        log.exiting(this.getClass().getName(), "importFile", importDuration);
+        return importDuration;
+    }
+
+    /**
+     * Gets the number of rows inserted by the last re-import
+     * @return Number of inserted rows
+     */
+    long getNumberOfInsertedRows() {
+        return numberOfInsertedRows;
+    }
+
+    /**
+     * Gets the number of rows updated by the last re-import
+     * @return Number of updated rows
+     */
+    long getNumberOfUpdatedRows() {
+        return numberOfUpdatedRows;
+    }
+
+    /**
+     * Gets the number of rows deleted by the last re-import
+     * @return Number of deleted rows
+     */
+    long getNumberOfDeletedRows() {
+        return numberOfDeletedRows;
+    }
+
+    @Override
+    public boolean isImportCancelled() {
+        return importCancelled;
+    }
+
+    @Override
+    public AccountTotals getAccountTotals() {
+        return accountTotals;
+    }
+}
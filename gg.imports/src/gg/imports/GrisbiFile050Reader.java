@@ -0,0 +1,911 @@
+/*
+ * GrisbiFile050Reader.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.imports;
+
+import gg.db.datamodel.DateFormatException;
+import gg.db.entities.Currency;
+import gg.db.entities.Payee;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * <B>GrisbiFile050Reader</B>
+ * <UL>
+ * <LI>Reads Grisbi 0.5.x files with a StAX reader: the elements are processed as events</LI>
+ * <LI>In Grisbi 0.5.x files, the accounts are written before the payees, the categories and the currencies,
+ * so the file is read twice:
+ * <UL>
+ * <LI><CODE>readReferenceData()</CODE> builds the manifest of the file in one pass: account headers, payees, categories, currencies,
+ * expected numbers, and byte offset of the transactions of each account (the transactions are skipped)</LI>
+ * <LI><CODE>readOperations()</CODE> reads the transactions account after account and gives them to an <CODE>OperationHandler</CODE>;
+ * the transactions of only one account can be read by seeking directly to the offset of the account</LI>
+ * </UL>
+ * </LI>
+ * <LI>The memory used does not depend on the number of transactions of the file</LI>
+ * </UL>
+ * @author Francois Duchemin
+ */
+class GrisbiFile050Reader {
+
+    /** Element which contains the transactions of an account */
+    private static final String OPERATIONS_ELEMENT = "Detail_des_operations";
+    /** Grisbi file to read */
+    private File grisbiFile;
+    /** Path to the Grisbi file to read */
+    private String pathToGrisbiFile;
+    /** Importer which uses the reader (the reading stops when the import is cancelled) */
+    private Importer importer;
+    /** Account headers */
+    private List<AccountHeader> accountHeaders;
+    /** Payees */
+    private List<Payee> payees;
+    /** Categories (with their sub-categories) */
+    private List<CategoryHeader> categories;
+    /** Currencies */
+    private List<Currency> currencies;
+    /** Expected number of payees (-1 if not found) */
+    private int expectedNumberOfPayees;
+    /** Expected number of categories (-1 if not found) */
+    private int expectedNumberOfCategories;
+    /** Expected number of currencies (-1 if not found) */
+    private int expectedNumberOfCurrencies;
+    /** Encoding of the Grisbi file (used to read the transactions from an offset) */
+    private String encoding;
+    /** Logger */
+    private Logger log = Logger.getLogger(GrisbiFile050Reader.class.getName());
+
+    /**
+     * Creates a new instance of GrisbiFile050Reader
+     * @param grisbiFile Grisbi file to read
+     * @param importer Importer which uses the reader
+     */
+    public GrisbiFile050Reader(File grisbiFile, Importer importer) {
+        if (grisbiFile == null) {
+            throw new IllegalArgumentException("The parameter 'grisbiFile' is null");
+        }
+        if (importer == null) {
+            throw new IllegalArgumentException("The parameter 'importer' is null");
+        }
+        this.grisbiFile = grisbiFile;
+        this.pathToGrisbiFile = grisbiFile.getAbsolutePath();
+        this.importer = importer;
+    }
+
+    /**
+     * Creates a StAX reader on a Grisbi file
+     * @param grisbiFileStream Stream on the Grisbi file to read
+     * @return StAX reader (the reader and the stream are closed by <CODE>close(XMLStreamReader, InputStream)</CODE>)
+     * @throws XMLStreamException If the reader cannot be created
+     */
+    static XMLStreamReader createReader(InputStream grisbiFileStream) throws XMLStreamException {
+        return createFactory().createXMLStreamReader(grisbiFileStream);
+    }
+
+    /**
+     * Creates a StAX reader on a part of a Grisbi file
+     * @param grisbiFileStream Stream on the part of the Grisbi file to read (the stream does not start with the XML declaration)
+     * @param encoding Encoding of the Grisbi file
+     * @return StAX reader (the reader and the stream are closed by <CODE>close(XMLStreamReader, InputStream)</CODE>)
+     * @throws XMLStreamException If the reader cannot be created
+     */
+    private static XMLStreamReader createReader(InputStream grisbiFileStream, String encoding) throws XMLStreamException {
+        return createFactory().createXMLStreamReader(grisbiFileStream, encoding);
+    }
+
+    /**
+     * Creates the factory of the StAX readers
+     * @return Factory of the StAX readers
+     */
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * Closes a StAX reader and its underlying stream
+     * @param reader StAX reader to close (may be null)
+     * @param grisbiFileStream Underlying stream to close (may be null)
+     */
+    static void close(XMLStreamReader reader, InputStream grisbiFileStream) {
+        try {
+            if (reader != null) {
+                reader.close();
+            }
+        } catch (XMLStreamException ex) {
+            Logger.getLogger(GrisbiFile050Reader.class.getName()).fine("Impossible to close the StAX reader: " + ex.getMessage());
+        }
+        try {
+            if (grisbiFileStream != null) {
+                grisbiFileStream.close();
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(GrisbiFile050Reader.class.getName()).fine("Impossible to close the Grisbi file: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Opens the Grisbi file
+     * @return Buffered stream on the Grisbi file
+     * @throws ParsingException If the Grisbi file cannot be opened
+     */
+    private InputStream openGrisbiFile() throws ParsingException {
+        try {
+            return new BufferedInputStream(new FileInputStream(grisbiFile), 64 * 1024);
+        } catch (IOException ex) {
+            throw new ParsingException("The Grisbi file '" + pathToGrisbiFile + "' cannot be opened", ex);
+        }
+    }
+
+    /**
+     * Gets the text of the element on which the reader is positioned, as an integer
+     * @param reader StAX reader positioned on a start element
+     * @return Value of the element
+     * @throws XMLStreamException If the element does not contain only text
+     * @throws NumberFormatException If the text is not numeric
+     */
+    private static int getElementInt(XMLStreamReader reader) throws XMLStreamException, NumberFormatException {
+        return Integer.parseInt(reader.getElementText().trim());
+    }
+
+    /**
+     * Gets the value of an attribute
+     * @param reader StAX reader positioned on a start element
+     * @param name Name of the attribute
+     * @return Value of the attribute ("" if the attribute does not exist)
+     */
+    private static String getAttribute(XMLStreamReader reader, String name) {
+        String value = reader.getAttributeValue(null, name);
+        if (value == null) {
+            value = "";
+        }
+        return value;
+    }
+
+    /**
+     * First pass: reads the account headers, the payees, the categories and the currencies<BR/>
+     * The transactions are skipped
+     * @throws ParsingException If the Grisbi file cannot be read or if an expected number is not found
+     * @throws NumberFormatException If a string is read when a number is expected
+     */
+    public void readReferenceData() throws ParsingException, NumberFormatException {
+        log.entering(this.getClass().getName(), "readReferenceData");
+        long startReadingTime = System.currentTimeMillis();
+
+        accountHeaders = new ArrayList<AccountHeader>();
+        payees = new ArrayList<Payee>();
+        categories = new ArrayList<CategoryHeader>();
+        currencies = new ArrayList<Currency>();
+        expectedNumberOfPayees = -1;
+        expectedNumberOfCategories = -1;
+        expectedNumberOfCurrencies = -1;
+        encoding = null;
+
+        // The offsets of the transactions are found while the file is read
+        ElementOffsetInputStream grisbiFileStream = new ElementOffsetInputStream(openGrisbiFile(), OPERATIONS_ELEMENT);
+        XMLStreamReader reader = null;
+        try {
+            reader = createReader(grisbiFileStream);
+            encoding = reader.getEncoding();
+
+            String section = null; // Current child of <Grisbi> (Comptes, Tiers, Categories, Devises...)
+            AccountHeader accountHeader = null; // Current account
+            CategoryHeader categoryHeader = null; // Current category
+            boolean inAccountDetails = false; // Is the reader in <Compte><Details>?
+            int depth = 0;
+
+            while (reader.hasNext() && !importer.isImportCancelled()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                    String name = reader.getLocalName();
+                    if (depth == 1) {
+                        section = null;
+                    } else if (name.equals("Details")) {
+                        inAccountDetails = false;
+                    } else if (name.equals("Compte") && accountHeader != null) {
+                        accountHeaders.add(accountHeader);
+                        accountHeader = null;
+                    } else if (name.equals("Categorie")) {
+                        categoryHeader = null;
+                    }
+                    continue;
+                }
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+
+                depth++;
+                String name = reader.getLocalName();
+                if (depth == 2) {
+                    section = name;
+                } else if ("Comptes".equals(section)) {
+                    if (name.equals("Compte")) {
+                        accountHeader = new AccountHeader();
+                    } else if (name.equals("Details") && depth == 4) {
+                        inAccountDetails = true;
+                    } else if (inAccountDetails && depth == 5 && AccountHeader.isDetail(name)) {
+                        // Read the text of the detail (the end element is consumed by getElementText())
+                        String value = reader.getElementText();
+                        depth--;
+                        accountHeader.setDetail(name, value);
+                    }
+                    // The transactions (<Operation> elements) are read by readOperations()
+                } else if ("Tiers".equals(section)) {
+                    if (name.equals("Nb_tiers")) {
+                        expectedNumberOfPayees = getElementInt(reader);
+                        depth--;
+                    } else if (name.equals("Tiers")) {
+                        long payeeId = Long.parseLong(reader.getAttributeValue(null, "No"));
+                        assert (payeeId > 0);
+                        payees.add(new Payee(payeeId, getAttribute(reader, "Nom"), false));
+                    }
+                } else if ("Categories".equals(section)) {
+                    if (name.equals("Nb_categories")) {
+                        expectedNumberOfCategories = getElementInt(reader);
+                        depth--;
+                    } else if (name.equals("Categorie")) {
+                        categoryHeader = new CategoryHeader(reader);
+                        categories.add(categoryHeader);
+                    } else if (name.equals("Sous-categorie") && categoryHeader != null) {
+                        categoryHeader.addSubCategory(reader);
+                    }
+                } else if ("Devises".equals(section)) {
+                    if (name.equals("Nb_devises")) {
+                        expectedNumberOfCurrencies = getElementInt(reader);
+                        depth--;
+                    } else if (name.equals("Devise")) {
+                        currencies.add(readCurrency(reader));
+                    }
+                }
+            }
+        } catch (XMLStreamException ex) {
+            throw new ParsingException("Error while reading the Grisbi file '" + pathToGrisbiFile + "': " + ex.getMessage(), ex);
+        } finally {
+            close(reader, grisbiFileStream);
+        }
+
+        // Set the offsets of the transactions (the accounts and the <Detail_des_operations> elements are in the same order)
+        List<Long> operationsOffsets = grisbiFileStream.getOffsets();
+        if (operationsOffsets.size() == accountHeaders.size()) {
+            for (int i = 0; i < accountHeaders.size(); i++) {
+                accountHeaders.get(i).operationsOffset = operationsOffsets.get(i);
+            }
+        } else if (!importer.isImportCancelled()) {
+            log.fine("The offsets of the transactions cannot be used: " + operationsOffsets.size() + " elements <" + OPERATIONS_ELEMENT + "> found for " + accountHeaders.size() + " accounts");
+        }
+
+        if (!importer.isImportCancelled()) {
+            // Make sure that the expected numbers have been found
+            if (expectedNumberOfPayees < 0) {
+                throw new ParsingException("The expected number of payees has not been found in the Grisbi file '" + pathToGrisbiFile + "'");
+            }
+            if (expectedNumberOfCategories < 0) {
+                throw new ParsingException("The expected number of categories has not been found in the Grisbi file '" + pathToGrisbiFile + "'");
+            }
+            if (expectedNumberOfCurrencies < 0) {
+                throw new ParsingException("The expected number of currencies has not been found in the Grisbi file '" + pathToGrisbiFile + "'");
+            }
+            for (AccountHeader account : accountHeaders) {
+                if (account.getExpectedNumberOfTransactions() < 0) {
+                    throw new ParsingException("The expected number of transactions has not been found for the account '" + account.getName() + "' in the Grisbi file '" + pathToGrisbiFile + "'");
+                }
+            }
+        }
+
+        long endReadingTime = System.currentTimeMillis();
+        log.info("The reference data of the Grisbi file '" + pathToGrisbiFile + "' has been read in " + (endReadingTime - startReadingTime) + " ms");
+        log.exiting(this.getClass().getName(), "readReferenceData");
+    }
+
+    /**
+     * Reads a currency from a <CODE>Devise</CODE> element<BR/>
+     * By default the currencies are not active: when the accounts are imported, the currencies are activated
+     * @param reader StAX reader positioned on a <CODE>Devise</CODE> element
+     * @return New currency (not saved)
+     * @throws NumberFormatException If a string is read when a number is expected
+     */
+    private static Currency readCurrency(XMLStreamReader reader) throws NumberFormatException {
+        long currencyId = Long.parseLong(reader.getAttributeValue(null, "No")); // Get the ID of the currency
+        assert (currencyId > 0);
+        String currencyName = getAttribute(reader, "Nom"); // Get the name of the currency
+        String currencyCode = getAttribute(reader, "Code"); // Get the code of the currency
+        String currencyIsoCode = getAttribute(reader, "IsoCode"); // Get the code ISO of the currency
+        BigDecimal currencyExchangeRate = new BigDecimal(getAttribute(reader, "Change").replace(',', '.'));
+        boolean currencyMultiply = (getAttribute(reader, "Rapport_entre_devises").compareTo("1") == 0);
+        boolean currencyEuroConversion = (getAttribute(reader, "Passage_euro").compareTo("1") == 0);
+
+        return new Currency(currencyId, currencyName, currencyCode, currencyIsoCode, new BigDecimal(0), new BigDecimal(0), currencyExchangeRate, currencyMultiply, currencyEuroConversion, false);
+    }
+
+    /**
+     * Second pass: reads the transactions account after account<BR/>
+     * <CODE>readReferenceData()</CODE> has to be called before
+     * @param handler Handler which receives the accounts and the transactions
+     * @throws ParsingException If the Grisbi file cannot be read, or if the number of transactions of an account is not the expected number
+     * @throws NumberFormatException If a string is read when a number is expected
+     * @throws DateFormatException If the date format of a transaction is invalid
+     */
+    public void readOperations(OperationHandler handler) throws ParsingException, NumberFormatException, DateFormatException {
+        log.entering(this.getClass().getName(), "readOperations");
+        if (handler == null) {
+            throw new IllegalArgumentException("The parameter 'handler' is null");
+        }
+        assert (accountHeaders != null);
+
+        InputStream grisbiFileStream = openGrisbiFile();
+        XMLStreamReader reader = null;
+        try {
+            reader = createReader(grisbiFileStream);
+
+            int accountIndex = -1; // Index of the current account in 'accountHeaders'
+            AccountHeader accountHeader = null;
+            int numberOfReadTransactions = 0;
+            int depth = 0;
+            boolean inAccounts = false; // Is the reader in <Comptes>?
+
+            while (reader.hasNext() && !importer.isImportCancelled()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                    String name = reader.getLocalName();
+                    if (depth == 1 && name.equals("Comptes")) {
+                        // The transactions are all written in <Comptes>: the end of the file is not needed
+                        break;
+                    } else if (inAccounts && depth == 2 && name.equals("Compte") && accountHeader != null) {
+                        // Make sure that the number of read transactions and sub-transactions is the expected number
+                        if (numberOfReadTransactions != accountHeader.getExpectedNumberOfTransactions()) {
+                            throw new ParsingException("For the account '" + accountHeader.getName() + "', the number of imported transactions (" + numberOfReadTransactions + ") is not equal to the expected number of transactions (" + accountHeader.getExpectedNumberOfTransactions() + ") in the Grisbi file '" + pathToGrisbiFile + "'");
+                        }
+                        handler.endAccount(accountHeader);
+                        accountHeader = null;
+                    }
+                    continue;
+                }
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+
+                depth++;
+                String name = reader.getLocalName();
+                if (depth == 2) {
+                    inAccounts = name.equals("Comptes");
+                } else if (inAccounts && depth == 3 && name.equals("Compte")) {
+                    // The accounts are read in the same order as during the first pass
+                    accountIndex++;
+                    if (accountIndex >= accountHeaders.size()) {
+                        throw new ParsingException("The Grisbi file '" + pathToGrisbiFile + "' has been modified during the import");
+                    }
+                    accountHeader = accountHeaders.get(accountIndex);
+                    numberOfReadTransactions = 0;
+                    handler.startAccount(accountHeader);
+                } else if (accountHeader != null && name.equals("Operation")) {
+                    handler.operation(accountHeader, Operation050.read(reader));
+                    numberOfReadTransactions++;
+                }
+            }
+        } catch (XMLStreamException ex) {
+            throw new ParsingException("Error while reading the Grisbi file '" + pathToGrisbiFile + "': " + ex.getMessage(), ex);
+        } finally {
+            close(reader, grisbiFileStream);
+        }
+
+        log.exiting(this.getClass().getName(), "readOperations");
+    }
+
+    /**
+     * Reads the transactions of one account<BR/>
+     * <CODE>readReferenceData()</CODE> has to be called before: the reading starts directly at the offset of the transactions of the account
+     * @param accountHeader Account to read (from <CODE>getAccountHeaders()</CODE>)
+     * @param handler Handler which receives the account and its transactions
+     * @throws ParsingException If the Grisbi file cannot be read, or if the number of transactions of the account is not the expected number
+     * @throws NumberFormatException If a string is read when a number is expected
+     * @throws DateFormatException If the date format of a transaction is invalid
+     */
+    public void readOperations(final AccountHeader accountHeader, final OperationHandler handler) throws ParsingException, NumberFormatException, DateFormatException {
+        log.entering(this.getClass().getName(), "readOperations", accountHeader);
+        if (accountHeader == null) {
+            throw new IllegalArgumentException("The parameter 'accountHeader' is null");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("The parameter 'handler' is null");
+        }
+        assert (accountHeaders != null && accountHeaders.contains(accountHeader));
+
+        // Without offset, the whole file is read and only the transactions of the account are given to the handler
+        if (accountHeader.getOperationsOffset() < 0) {
+            readOperations(new OperationHandler() {
+
+                @Override
+                public void startAccount(AccountHeader currentAccountHeader) throws ParsingException {
+                    if (currentAccountHeader == accountHeader) {
+                        handler.startAccount(currentAccountHeader);
+                    }
+                }
+
+                @Override
+                public void operation(AccountHeader currentAccountHeader, Operation050 operation) throws ParsingException, NumberFormatException, DateFormatException {
+                    if (currentAccountHeader == accountHeader) {
+                        handler.operation(currentAccountHeader, operation);
+                    }
+                }
+
+                @Override
+                public void endAccount(AccountHeader currentAccountHeader) throws ParsingException {
+                    if (currentAccountHeader == accountHeader) {
+                        handler.endAccount(currentAccountHeader);
+                    }
+                }
+            });
+            log.exiting(this.getClass().getName(), "readOperations");
+            return;
+        }
+
+        InputStream grisbiFileStream = null;
+        XMLStreamReader reader = null;
+        try {
+            // Seek to the <Detail_des_operations> element of the account
+            FileInputStream grisbiFileInputStream = new FileInputStream(grisbiFile);
+            grisbiFileStream = grisbiFileInputStream;
+            grisbiFileInputStream.getChannel().position(accountHeader.getOperationsOffset());
+            grisbiFileStream = new BufferedInputStream(grisbiFileInputStream, 64 * 1024);
+            reader = createReader(grisbiFileStream, encoding != null ? encoding : "UTF-8");
+
+            handler.startAccount(accountHeader);
+            int numberOfReadTransactions = 0;
+            while (reader.hasNext() && !importer.isImportCancelled()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("Operation")) {
+                    handler.operation(accountHeader, Operation050.read(reader));
+                    numberOfReadTransactions++;
+                } else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals(OPERATIONS_ELEMENT)) {
+                    // The rest of the file is not needed (and is not a well-formed fragment)
+                    break;
+                }
+            }
+
+            if (!importer.isImportCancelled()) {
+                // Make sure that the number of read transactions and sub-transactions is the expected number
+                if (numberOfReadTransactions != accountHeader.getExpectedNumberOfTransactions()) {
+                    throw new ParsingException("For the account '" + accountHeader.getName() + "', the number of imported transactions (" + numberOfReadTransactions + ") is not equal to the expected number of transactions (" + accountHeader.getExpectedNumberOfTransactions() + ") in the Grisbi file '" + pathToGrisbiFile + "'");
+                }
+                handler.endAccount(accountHeader);
+            }
+        } catch (IOException ex) {
+            throw new ParsingException("The Grisbi file '" + pathToGrisbiFile + "' cannot be opened", ex);
+        } catch (XMLStreamException ex) {
+            throw new ParsingException("Error while reading the Grisbi file '" + pathToGrisbiFile + "': " + ex.getMessage(), ex);
+        } finally {
+            close(reader, grisbiFileStream);
+        }
+
+        log.exiting(this.getClass().getName(), "readOperations");
+    }
+
+    /**
+     * Gets the account header of an account
+     * @param accountId ID of the account
+     * @return Account header (null if the account is not in the Grisbi file)
+     */
+    public AccountHeader getAccountHeader(long accountId) {
+        for (AccountHeader accountHeader : accountHeaders) {
+            if (accountHeader.getId() == accountId) {
+                return accountHeader;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the account headers (in the order of the Grisbi file)
+     * @return Account headers
+     */
+    public List<AccountHeader> getAccountHeaders() {
+        return accountHeaders;
+    }
+
+    /**
+     * Gets the payees
+     * @return Payees (not saved)
+     */
+    public List<Payee> getPayees() {
+        return payees;
+    }
+
+    /**
+     * Gets the categories
+     * @return Categories with their sub-categories
+     */
+    public List<CategoryHeader> getCategories() {
+        return categories;
+    }
+
+    /**
+     * Gets the currencies
+     * @return Currencies (not saved, not active)
+     */
+    public List<Currency> getCurrencies() {
+        return currencies;
+    }
+
+    /**
+     * Gets the expected number of payees
+     * @return Expected number of payees
+     */
+    public int getExpectedNumberOfPayees() {
+        return expectedNumberOfPayees;
+    }
+
+    /**
+     * Gets the expected number of categories
+     * @return Expected number of categories
+     */
+    public int getExpectedNumberOfCategories() {
+        return expectedNumberOfCategories;
+    }
+
+    /**
+     * Gets the expected number of currencies
+     * @return Expected number of currencies
+     */
+    public int getExpectedNumberOfCurrencies() {
+        return expectedNumberOfCurrencies;
+    }
+
+    /**
+     * Gets the expected number of transactions (all accounts)
+     * @return Expected number of transactions
+     */
+    public int getExpectedNumberOfTransactions() {
+        int expectedNumberOfTransactions = 0;
+        for (AccountHeader accountHeader : accountHeaders) {
+            expectedNumberOfTransactions += accountHeader.getExpectedNumberOfTransactions();
+        }
+        return expectedNumberOfTransactions;
+    }
+
+    /**
+     * Receives the accounts and the transactions read by <CODE>readOperations()</CODE>
+     */
+    interface OperationHandler {
+
+        /**
+         * Called when the transactions of an account start
+         * @param accountHeader Account
+         * @throws ParsingException If the account cannot be handled
+         */
+        void startAccount(AccountHeader accountHeader) throws ParsingException;
+
+        /**
+         * Called for each transaction of the account (parent transactions are always before their sub-transactions)
+         * @param accountHeader Account of the transaction
+         * @param operation Raw transaction
+         * @throws ParsingException If the transaction cannot be handled
+         * @throws NumberFormatException If a string is read when a number is expected
+         * @throws DateFormatException If the date format of the transaction is invalid
+         */
+        void operation(AccountHeader accountHeader, Operation050 operation) throws ParsingException, NumberFormatException, DateFormatException;
+
+        /**
+         * Called when all the transactions of an account have been read
+         * @param accountHeader Account
+         * @throws ParsingException If the account cannot be handled
+         */
+        void endAccount(AccountHeader accountHeader) throws ParsingException;
+    }
+
+    /**
+     * Header of an account (<CODE>Compte/Details</CODE>)
+     */
+    static class AccountHeader {
+
+        /** ID of the account */
+        private long id;
+        /** Name of the account */
+        private String name = "";
+        /** ID of the currency of the account */
+        private long currencyId;
+        /** Initial amount of the account */
+        private BigDecimal initialAmount = new BigDecimal(0);
+        /** Current balance of the account */
+        private BigDecimal balance = new BigDecimal(0);
+        /** Is the account active (not closed)? */
+        private boolean active = true;
+        /** Expected number of transactions of the account (-1 if not found) */
+        private int expectedNumberOfTransactions = -1;
+        /** Byte offset of the transactions of the account (<CODE>Detail_des_operations</CODE> element) in the Grisbi file (-1 if not found) */
+        private long operationsOffset = -1;
+
+        /**
+         * Is the element a needed detail of the account?
+         * @param detailName Name of the element in <CODE>Compte/Details</CODE>
+         * @return true if the text of the element is needed
+         */
+        private static boolean isDetail(String detailName) {
+            return detailName.equals("No_de_compte") || detailName.equals("Nom") ||
+                    detailName.equals("Devise") || detailName.equals("Compte_cloture") ||
+                    detailName.equals("Solde_initial") || detailName.equals("Solde_courant") ||
+                    detailName.equals("Nb_operations");
+        }
+
+        /**
+         * Sets a detail of the account
+         * @param detailName Name of the element in <CODE>Compte/Details</CODE>
+         * @param value Text of the element
+         * @throws NumberFormatException If a string is read when a number is expected
+         */
+        private void setDetail(String detailName, String value) throws NumberFormatException {
+            if (detailName.equals("No_de_compte")) {
+                id = Long.parseLong(value);
+                assert (id >= 0);
+            } else if (detailName.equals("Nom")) {
+                name = value;
+            } else if (detailName.equals("Devise")) {
+                currencyId = Long.parseLong(value);
+                assert (currencyId > 0);
+            } else if (detailName.equals("Compte_cloture")) {
+                active = (value.compareTo("1") != 0);
+            } else if (detailName.equals("Solde_initial")) {
+                initialAmount = new BigDecimal(value.replace(',', '.')).setScale(2, RoundingMode.HALF_EVEN);
+            } else if (detailName.equals("Solde_courant")) {
+                balance = new BigDecimal(value.replace(',', '.')).setScale(2, RoundingMode.HALF_EVEN);
+            } else if (detailName.equals("Nb_operations")) {
+                expectedNumberOfTransactions = Integer.parseInt(value.trim());
+            }
+        }
+
+        /**
+         * Gets the ID of the account
+         * @return ID of the account
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Gets the name of the account
+         * @return Name of the account
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the ID of the currency of the account
+         * @return ID of the currency of the account
+         */
+        public long getCurrencyId() {
+            return currencyId;
+        }
+
+        /**
+         * Gets the initial amount of the account
+         * @return Initial amount of the account
+         */
+        public BigDecimal getInitialAmount() {
+            return initialAmount;
+        }
+
+        /**
+         * Gets the current balance of the account
+         * @return Current balance of the account
+         */
+        public BigDecimal getBalance() {
+            return balance;
+        }
+
+        /**
+         * Is the account active (not closed)?
+         * @return true if the account is active
+         */
+        public boolean isActive() {
+            return active;
+        }
+
+        /**
+         * Gets the expected number of transactions of the account
+         * @return Expected number of transactions (-1 if not found)
+         */
+        public int getExpectedNumberOfTransactions() {
+            return expectedNumberOfTransactions;
+        }
+
+        /**
+         * Gets the byte offset of the transactions of the account in the Grisbi file
+         * @return Offset of the <CODE>Detail_des_operations</CODE> element (-1 if not found)
+         */
+        public long getOperationsOffset() {
+            return operationsOffset;
+        }
+    }
+
+    /**
+     * Category (<CODE>Categorie</CODE> element) and its sub-categories
+     */
+    static class CategoryHeader {
+
+        /** Grisbi ID of the category */
+        private long id;
+        /** Name of the category */
+        private String name;
+        /** Grisbi IDs of the sub-categories */
+        private List<Long> subCategoryIds = new ArrayList<Long>();
+        /** Names of the sub-categories */
+        private List<String> subCategoryNames = new ArrayList<String>();
+
+        /**
+         * Creates a new instance of CategoryHeader
+         * @param reader StAX reader positioned on a <CODE>Categorie</CODE> element
+         * @throws NumberFormatException If the ID of the category is not numeric
+         */
+        private CategoryHeader(XMLStreamReader reader) throws NumberFormatException {
+            id = Long.parseLong(reader.getAttributeValue(null, "No")); // Get the ID of the category
+            assert (id > 0);
+            name = getAttribute(reader, "Nom"); // Get the name of the category
+        }
+
+        /**
+         * Adds a sub-category
+         * @param reader StAX reader positioned on a <CODE>Sous-categorie</CODE> element
+         * @throws NumberFormatException If the ID of the sub-category is not numeric
+         */
+        private void addSubCategory(XMLStreamReader reader) throws NumberFormatException {
+            long subCategoryId = Long.parseLong(reader.getAttributeValue(null, "No")); // Get the ID of the sub-category
+            assert (subCategoryId > 0);
+            subCategoryIds.add(subCategoryId);
+            subCategoryNames.add(getAttribute(reader, "Nom")); // Get the name of the sub-category
+        }
+
+        /**
+         * Gets the Grisbi ID of the category
+         * @return Grisbi ID of the category
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Gets the name of the category
+         * @return Name of the category
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the Grisbi IDs of the sub-categories
+         * @return Grisbi IDs of the sub-categories
+         */
+        public List<Long> getSubCategoryIds() {
+            return subCategoryIds;
+        }
+
+        /**
+         * Gets the names of the sub-categories (in the same order as <CODE>getSubCategoryIds()</CODE>)
+         * @return Names of the sub-categories
+         */
+        public List<String> getSubCategoryNames() {
+            return subCategoryNames;
+        }
+    }
+
+    /**
+     * Stream which records the byte offsets of the start tags of an element while the file is read<BR/>
+     * The bytes are compared with the tag, so the encoding of the file has to be compatible with ASCII (ISO-8859-x, UTF-8)
+     */
+    private static class ElementOffsetInputStream extends FilterInputStream {
+
+        /** Start of the tag to find (<CODE>&lt;name</CODE>) */
+        private byte[] tag;
+        /** Number of bytes of the tag matched by the last bytes read */
+        private int matchedBytes;
+        /** Number of bytes read */
+        private long position;
+        /** Offsets of the start tags found */
+        private List<Long> offsets = new ArrayList<Long>();
+
+        /**
+         * Creates a new instance of ElementOffsetInputStream
+         * @param in Stream to read
+         * @param elementName Name of the element to find
+         */
+        private ElementOffsetInputStream(InputStream in, String elementName) {
+            super(in);
+            try {
+                tag = ("<" + elementName).getBytes("US-ASCII");
+            } catch (UnsupportedEncodingException ex) {
+                throw new AssertionError(ex);
+            }
+        }
+
+        /**
+         * Compares a byte with the tag
+         * @param b Byte read
+         */
+        private void scan(byte b) {
+            if (b == tag[matchedBytes]) {
+                matchedBytes++;
+                if (matchedBytes == tag.length) {
+                    offsets.add(position - tag.length + 1);
+                    matchedBytes = 0;
+                }
+            } else {
+                matchedBytes = (b == tag[0] ? 1 : 0); // '<' is only at the beginning of the tag
+            }
+            position++;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                scan((byte) b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            for (int i = 0; i < n; i++) {
+                scan(b[off + i]);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes have to be scanned
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            int read = read(buffer, 0, buffer.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Gets the offsets of the start tags found
+         * @return Offsets of the start tags
+         */
+        public List<Long> getOffsets() {
+            return offsets;
+        }
+    }
+}
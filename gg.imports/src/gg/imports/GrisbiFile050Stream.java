@@ -0,0 +1,454 @@
+/*
+ * GrisbiFile050Stream.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.imports;
+
+import gg.db.datamodel.BulkLoader;
+import gg.db.datamodel.DateFormatException;
+import gg.db.datamodel.Datamodel;
+import gg.db.entities.Account;
+import gg.db.entities.Category;
+import gg.db.entities.Currency;
+import gg.db.entities.GrisbiCategory;
+import gg.db.entities.Payee;
+import gg.db.entities.Transaction;
+import gg.imports.GrisbiFile050Reader.AccountHeader;
+import gg.imports.GrisbiFile050Reader.CategoryHeader;
+import gg.utilities.Utilities;
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import org.netbeans.api.progress.ProgressHandle;
+import org.netbeans.api.progress.ProgressHandleFactory;
+import org.openide.util.Cancellable;
+import org.openide.util.NbBundle;
+
+/**
+ * <B>GrisbiFile050Stream</B>
+ * <UL>
+ * <LI>Permits to import Grisbi 0.5.x files without loading the whole file into memory</LI>
+ * <LI>The Grisbi file is read with a <CODE>GrisbiFile050Reader</CODE> (StAX): the file is read twice,
+ * once for the reference data (accounts, payees, categories, currencies) and once for the transactions</LI>
+ * <LI>The memory used does not depend on the number of transactions of the file</LI>
+ * </UL>
+ * @author Francois Duchemin
+ */
+public class GrisbiFile050Stream implements Importer {
+
+    /** Reader of the Grisbi file to import */
+    private GrisbiFile050Reader grisbiFileReader;
+    /** Path to the Grisbi file to import*/
+    private String pathToGrisbiFile;
+    /** Is the import task cancelled? */
+    private boolean importCancelled;
+    /** Current work unit (for the progress bar) */
+    private int workUnit;
+    /** Loader used to write the entities in the embedded database (one commit per phase) */
+    private BulkLoader loader;
+    /** Running totals of the accounts (sum of the amounts of the transactions read from the Grisbi file) */
+    private AccountTotals accountTotals = new AccountTotals();
+    /** Logger */
+    private Logger log = Logger.getLogger(GrisbiFile050Stream.class.getName());
+
+    /**
+     * Creates a new instance of GrisbiFile050Stream
+     * @param grisbiFile Grisbi file to import into the embedded database
+     */
+    public GrisbiFile050Stream(File grisbiFile) {
+        if (grisbiFile == null) {
+            throw new IllegalArgumentException("The parameter 'grisbiFile' is null");
+        }
+        this.grisbiFileReader = new GrisbiFile050Reader(grisbiFile, this);
+        this.pathToGrisbiFile = grisbiFile.getAbsolutePath();
+        this.importCancelled = false;
+    }
+
+    /**
+     * Imports the payees read during the first pass into the embedded database
+     * @param p Progress handle for the progress bar
+     * @throws ParsingException If the number of imported payees is not equal to the number of payees defined in the Grisbi file
+     */
+    private void importPayees(ProgressHandle p) throws ParsingException {
+        log.entering(this.getClass().getName(), "importPayees");
+        long startImportingPayeesTime = System.currentTimeMillis();
+
+        // Save default payee in the database
+        loader.insert(Payee.NO_PAYEE); // This constant is used to search the transactions for which no payee is defined
+
+        int numberOfImportedPayees = 0;
+        for (Payee payee : grisbiFileReader.getPayees()) {
+            if (isImportCancelled()) {
+                break;
+            }
+            loader.insert(payee);
+
+            numberOfImportedPayees++;
+            p.progress(workUnit++);
+        }
+
+        // Make sure that all payees have been imported
+        int expectedNumberOfPayees = grisbiFileReader.getExpectedNumberOfPayees();
+        if (!isImportCancelled() && numberOfImportedPayees != expectedNumberOfPayees) {
+            throw new ParsingException("The number of imported payees (" + numberOfImportedPayees + ") is not equal to the expected number of payees (" + expectedNumberOfPayees + ") written in the Grisbi file '" + pathToGrisbiFile + "'");
+        }
+
+        // Commit the phase
+        loader.commit();
+
+        long endImportingPayeesTime = System.currentTimeMillis();
+        log.info(numberOfImportedPayees + " payees have been successfully imported in " + (endImportingPayeesTime - startImportingPayeesTime) + " ms");
+        log.exiting(this.getClass().getName(), "importPayees");
+    }
+
+    /**
+     * Imports the categories read during the first pass into the embedded database
+     * @param p Progress handle for the progress bar
+     * @throws ParsingException If the number of imported categories is not equal to the number of categories defined in the Grisbi file
+     */
+    private void importCategories(ProgressHandle p) throws ParsingException {
+        log.entering(this.getClass().getName(), "importCategories");
+        long startImportingCategoriesTime = System.currentTimeMillis();
+
+        // Save system categories in the embedded database
+        loader.insert(Category.TRANSFER);
+        loader.insert(Category.BREAKDOWN_OF_TRANSACTIONS);
+        loader.insert(Category.NO_CATEGORY);
+
+        int numberOfImportedCategories = 0;
+        for (CategoryHeader categoryHeader : grisbiFileReader.getCategories()) {
+            if (isImportCancelled()) {
+                break;
+            }
+
+            // Create a new category and save it in the embedded database
+            Category category = new Category(categoryHeader.getId(), 0L, categoryHeader.getName(), null, false); // There is no sub-category - the field "grisbi_sub_category_id" is set to 0
+            loader.insert(category);
+
+            // Import the sub-categories into the database
+            List<Long> subCategoryIds = categoryHeader.getSubCategoryIds();
+            List<String> subCategoryNames = categoryHeader.getSubCategoryNames();
+            for (int i = 0; i < subCategoryIds.size(); i++) {
+                Category subCategory = new Category(categoryHeader.getId(), subCategoryIds.get(i), subCategoryNames.get(i), category, false);
+                loader.insert(subCategory);
+            }
+
+            // For each category, save an empty sub-category
+            Category noSubCategory = new Category(categoryHeader.getId(), Category.NO_SUB_CATEGORY_ID, "No sub-category", category, false);
+            loader.insert(noSubCategory);
+
+            numberOfImportedCategories++;
+            p.progress(workUnit++);
+        }
+
+        // Make sure that all categories have been imported
+        int expectedNumberOfCategories = grisbiFileReader.getExpectedNumberOfCategories();
+        if (!isImportCancelled() && numberOfImportedCategories != expectedNumberOfCategories) {
+            throw new ParsingException("The number of imported categories (" + numberOfImportedCategories + ") is not equal to the expected number of categories (" + expectedNumberOfCategories + ") written in the Grisbi file '" + pathToGrisbiFile + "'");
+        }
+
+        // Commit the phase
+        loader.commit();
+
+        long endImportingCategoriesTime = System.currentTimeMillis();
+        log.info(numberOfImportedCategories + " categories have been successfully imported in " + (endImportingCategoriesTime - startImportingCategoriesTime) + " ms");
+        log.exiting(this.getClass().getName(), "importCategories");
+    }
+
+    /**
+     * Imports the currencies read during the first pass into the embedded database
+     * @param p Progress handle for the progress bar
+     * @throws ParsingException If the number of imported currencies is not equal to the number of currencies defined in the Grisbi file
+     */
+    private void importCurrencies(ProgressHandle p) throws ParsingException {
+        log.entering(this.getClass().getName(), "importCurrencies");
+        long startImportingCurrenciesTime = System.currentTimeMillis();
+
+        int numberOfImportedCurrencies = 0;
+        for (Currency currency : grisbiFileReader.getCurrencies()) {
+            if (isImportCancelled()) {
+                break;
+            }
+            loader.insert(currency);
+
+            numberOfImportedCurrencies++;
+            p.progress(workUnit++);
+        }
+
+        // Make sure that all currencies have been imported
+        int expectedNumberOfCurrencies = grisbiFileReader.getExpectedNumberOfCurrencies();
+        if (!isImportCancelled() && numberOfImportedCurrencies != expectedNumberOfCurrencies) {
+            throw new ParsingException("The number of imported currencies (" + numberOfImportedCurrencies + ") is not equal to the expected number of currencies (" + expectedNumberOfCurrencies + ") in the Grisbi file '" + pathToGrisbiFile + "'");
+        }
+
+        // Commit the phase
+        loader.commit();
+
+        long endImportingCurrenciesTime = System.currentTimeMillis();
+        log.info(numberOfImportedCurrencies + " currencies have been successfully imported in " + (endImportingCurrenciesTime - startImportingCurrenciesTime) + " ms");
+        log.exiting(this.getClass().getName(), "importCurrencies");
+    }
+
+    /**
+     * Imports the accounts read during the first pass into the embedded database<BR/>
+     * The method <CODE>importCurrencies()</CODE> has to be called before
+     * @throws NumberFormatException If a string is read when a number is expected
+     */
+    private void importAccounts() throws NumberFormatException {
+        log.entering(this.getClass().getName(), "importAccounts");
+        long startImportingAccountsTime = System.currentTimeMillis();
+
+        // Get all the currencies already saved in the database (the method importCurrencies() has to be called before)
+        Map<Long, Currency> savedCurrencies = Datamodel.getCurrenciesWithId();
+
+        long numberOfImportedAccounts = 0;
+        for (AccountHeader accountHeader : grisbiFileReader.getAccountHeaders()) {
+            if (isImportCancelled()) {
+                break;
+            }
+
+            // Get the corresponding Currency object
+            Currency accountCurrency = savedCurrencies.get(accountHeader.getCurrencyId()); // An account has always a currency in Grisbi
+            assert (accountCurrency != null);
+
+            // Activate the currency if needed
+            if (accountHeader.isActive() && !accountCurrency.getActive()) {
+                accountCurrency.setActive(true);
+            }
+
+            // Create a new account and save the account in the embedded database
+            Account account = new Account(accountHeader.getId(), accountHeader.getName(), accountCurrency, accountHeader.getInitialAmount(), accountHeader.getBalance(), accountHeader.isActive());
+            loader.insert(account);
+
+            // Update the currency's balance and the currency's initial amount
+            if (accountHeader.isActive()) {
+                accountCurrency.setBalance(accountCurrency.getBalance().add(accountHeader.getBalance()));
+                accountCurrency.setInitialAmount(accountCurrency.getInitialAmount().add(accountHeader.getInitialAmount()));
+            }
+
+            numberOfImportedAccounts++;
+        }
+
+        // Update the currencies (active flag, balance, initial amount)
+        for (Currency currency : savedCurrencies.values()) {
+            loader.update(currency);
+        }
+
+        // Commit the phase
+        loader.commit();
+
+        long endImportingAccountsTime = System.currentTimeMillis();
+        log.info(numberOfImportedAccounts + " accounts have been successfully imported in " + (endImportingAccountsTime - startImportingAccountsTime) + " ms");
+        log.exiting(this.getClass().getName(), "importAccounts");
+    }
+
+    /**
+     * Second pass: imports the transactions into the embedded database<BR/>
+     * The transactions are read, converted and saved in parallel by a <CODE>TransactionPipeline</CODE>:
+     * the saved transactions are not kept in memory, only the database IDs of the breakdowns of transactions of the current account
+     * (sub-transactions need the ID of their parent transaction)
+     * @param p Progress handle for the progress bar
+     * @throws ParsingException If the Grisbi file cannot be read, or if the number of imported transactions is not the expected number
+     * @throws NumberFormatException If a string is read when a number is expected
+     * @throws DateFormatException If the date format of a transaction is invalid
+     */
+    private void importTransactions(final ProgressHandle p) throws ParsingException, NumberFormatException, DateFormatException {
+        log.entering(this.getClass().getName(), "importTransactions");
+        long startImportingTotalTransactionsTime = System.currentTimeMillis();
+
+        final Map<Long, Account> savedAccounts = Datamodel.getAccountsWithId();
+        final Map<Long, Payee> savedPayees = Datamodel.getPayeesWithId();
+        final Map<GrisbiCategory, Category> savedCategories = Datamodel.getCategoriesWithGrisbiCategory();
+        final Map<Long, Currency> savedCurrencies = Datamodel.getCurrenciesWithId();
+
+        final long[] totalNumberOfImportedTransactions = new long[1];
+        TransactionPipeline pipeline = new TransactionPipeline(grisbiFileReader, this);
+        pipeline.run(new TransactionPipeline.Converter() {
+
+            @Override
+            public Transaction convert(AccountHeader accountHeader, Operation050 operation) throws NumberFormatException, DateFormatException {
+                // The parent transaction is set by the writer
+                return operation.toTransaction(savedAccounts.get(accountHeader.getId()), savedCurrencies, savedCategories, savedPayees, null);
+            }
+        }, new TransactionPipeline.Writer() {
+
+            /** Database IDs of the breakdowns of transactions of the current account - the key is the Grisbi ID of the transaction */
+            private GrisbiIdMap parentIds = new GrisbiIdMap();
+            /** Number of imported transactions in the current account */
+            private int numberOfImportedTransactions;
+            /** Start time of the import of the current account */
+            private long startImportingTransactionsTime;
+
+            @Override
+            public void startAccount(AccountHeader accountHeader) {
+                assert (savedAccounts.get(accountHeader.getId()) != null);
+                accountTotals.addAccount(accountHeader.getId());
+                numberOfImportedTransactions = 0;
+                startImportingTransactionsTime = System.currentTimeMillis();
+
+                // Display on the progress bar the account from which transactions are imported
+                p.progress("Importing transactions from " + accountHeader.getName());
+            }
+
+            @Override
+            public void write(AccountHeader accountHeader, Operation050 operation, Transaction transaction) throws ParsingException {
+                // Set the parent transaction
+                transaction.setParentTransaction(TransactionPipeline.getParentTransaction(operation, parentIds));
+
+                // Save the transaction in the embedded database
+                loader.insert(transaction);
+                if (transaction.getParentTransaction() == null) {
+                    accountTotals.add(accountHeader.getId(), transaction.getAmount());
+                }
+                if (operation.isBreakdown()) {
+                    parentIds.put(operation.getId(), transaction.getId()); // Only the IDs of the transactions which can have sub-transactions are kept
+                }
+
+                numberOfImportedTransactions++;
+                p.progress(workUnit++);
+            }
+
+            @Override
+            public void endAccount(AccountHeader accountHeader) {
+                long endImportingTransactionsTime = System.currentTimeMillis();
+                log.info(numberOfImportedTransactions + " transactions have been successfully imported in the account '" + accountHeader.getName() + "' in " + (endImportingTransactionsTime - startImportingTransactionsTime) + " ms");
+                totalNumberOfImportedTransactions[0] += numberOfImportedTransactions;
+
+                // Forget the transactions of the account
+                parentIds.clear();
+            }
+        });
+
+        // Commit the phase
+        loader.commit();
+
+        long endImportingTotalTransactionsTime = System.currentTimeMillis();
+        log.info(totalNumberOfImportedTransactions[0] + " transactions have been successfully imported in " + (endImportingTotalTransactionsTime - startImportingTotalTransactionsTime) + " ms");
+        log.exiting(this.getClass().getName(), "importTransactions");
+    }
+
+    /**
+     * Imports the Grisbi file into the database<BR/>
+     * <UL>
+     * <LI>Read the account headers, the payees, the categories and the currencies (first pass)</LI>
+     * <LI>Import the payees</LI>
+     * <LI>Import the categories</LI>
+     * <LI>Import the currencies</LI>
+     * <LI>Import the accounts</LI>
+     * <LI>Import the transactions and the sub-transactions (second pass)</LI>
+     * </UL>
+     * @return Number of miliseconds needed to import the Grisbi file into the database
+     * @throws ParsingException If there is a problem reading the Grisbi file or finding the needed elements
+     * @throws NumberFormatException If a string is read when a number is expected
+     * @throws DateFormatException If a the format of a date is invalid
+     */
+    @Override
+    public long importFile() throws ParsingException, NumberFormatException, DateFormatException {
+        log.entering(this.getClass().getName(), "importFile");
+        importCancelled = false;
+        workUnit = 0;
+        ProgressHandle p = ProgressHandleFactory.createHandle(
+                NbBundle.getMessage(GrisbiFile050Stream.class, "GrisbiFile050.ImportingGrisbiFile"),
+                new Cancellable() {
+
+                    @Override
+                    public boolean cancel() {
+                        Utilities.changeCursorWaitStatus(false);
+                        importCancelled = true;
+                        log.info("Import of '" + pathToGrisbiFile + "' has been cancelled");
+                        return true;
+                    }
+                });
+
+        long startImportingFileTime = System.currentTimeMillis();
+
+        // Start progress bar
+        p.setInitialDelay(0);
+        p.start();
+
+        try {
+            // Read the reference data and get number of expected entities
+            p.progress(NbBundle.getMessage(GrisbiFile050Stream.class, "GrisbiFile050Stream.ReadingGrisbiFile"));
+            grisbiFileReader.readReferenceData();
+            int totalEntities = grisbiFileReader.getExpectedNumberOfPayees() + grisbiFileReader.getExpectedNumberOfCategories() +
+                    grisbiFileReader.getExpectedNumberOfCurrencies() + grisbiFileReader.getExpectedNumberOfTransactions();
+            log.info("Expected number of entities (payees, categories, currencies, transactions): " + totalEntities);
+
+            p.switchToDeterminate(totalEntities);
+
+            // Empty the embedded database
+            if (!isImportCancelled()) {
+                p.progress(NbBundle.getMessage(GrisbiFile050Stream.class, "GrisbiFile050.EmptyingDatabase"));
+                Datamodel.emptyDatabase();
+            }
+
+            // Import the Grisbi file into the embedded database
+            loader = new BulkLoader();
+            try {
+                if (!isImportCancelled()) {
+                    p.progress(NbBundle.getMessage(GrisbiFile050Stream.class, "GrisbiFile050.ImportingPayees"));
+                    importPayees(p);
+                }
+
+                if (!isImportCancelled()) {
+                    p.progress(NbBundle.getMessage(GrisbiFile050Stream.class, "GrisbiFile050.ImportingCategories"));
+                    importCategories(p);
+                }
+
+                if (!isImportCancelled()) {
+                    p.progress(NbBundle.getMessage(GrisbiFile050Stream.class, "GrisbiFile050.ImportingCurrencies"));
+                    importCurrencies(p);
+                }
+
+                if (!isImportCancelled()) {
+                    p.progress(NbBundle.getMessage(GrisbiFile050Stream.class, "GrisbiFile050.ImportingAccounts"));
+                    importAccounts();
+                }
+
+                if (!isImportCancelled()) {
+                    p.progress(NbBundle.getMessage(GrisbiFile050Stream.class, "GrisbiFile050.ImportingTransactions"));
+                    importTransactions(p);
+                }
+            } finally {
+                loader.close();
+                loader = null;
+            }
+        } finally {
+            p.finish();
+        }
+
+        long endImportingFileTime = System.currentTimeMillis();
+        long importDuration = endImportingFileTime - startImportingFileTime;
+
+        log.exiting(this.getClass().getName(), "importFile", importDuration);
+        return importDuration;
+    }
+
+    @Override
+    public boolean isImportCancelled() {
+        return importCancelled;
+    }
+
+    @Override
+    public AccountTotals getAccountTotals() {
+        return accountTotals;
+    }
+}
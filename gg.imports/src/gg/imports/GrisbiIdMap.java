@@ -0,0 +1,128 @@
+/*
+ * GrisbiIdMap.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.imports;
+
+/**
+ * <B>GrisbiIdMap</B>
+ * <UL>
+ * <LI>Map from Grisbi IDs to database IDs, stored in arrays of primitive <CODE>long</CODE> (open addressing)</LI>
+ * <LI>Used during the imports to find the database ID of a parent transaction from its Grisbi ID,
+ * without keeping the <CODE>Transaction</CODE> objects in memory</LI>
+ * <LI>The Grisbi IDs have to be greater than 0</LI>
+ * </UL>
+ * @author Francois Duchemin
+ */
+class GrisbiIdMap {
+
+    /** Value returned by <CODE>get()</CODE> when the Grisbi ID is not in the map */
+    public static final long NOT_FOUND = -1;
+    /** Initial capacity of the map */
+    private static final int INITIAL_CAPACITY = 16;
+    /** Grisbi IDs (0 for the empty slots) */
+    private long[] grisbiIds;
+    /** Database IDs */
+    private long[] ids;
+    /** Number of entries */
+    private int size;
+
+    /** Creates a new instance of GrisbiIdMap */
+    public GrisbiIdMap() {
+        clear();
+    }
+
+    /**
+     * Gets the slot of a Grisbi ID
+     * @param grisbiId Grisbi ID
+     * @param keys Grisbi IDs of the map
+     * @return Index of the slot which contains the Grisbi ID, or of the empty slot where the Grisbi ID has to be added
+     */
+    private static int getSlot(long grisbiId, long[] keys) {
+        int mask = keys.length - 1;
+        long hash = grisbiId * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (keys[slot] != 0 && keys[slot] != grisbiId) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Adds an entry in the map (the existing entry is replaced)
+     * @param grisbiId Grisbi ID (greater than 0)
+     * @param id Database ID
+     */
+    public void put(long grisbiId, long id) {
+        if (grisbiId <= 0) {
+            throw new IllegalArgumentException("The parameter 'grisbiId' should be greater than 0");
+        }
+
+        int slot = getSlot(grisbiId, grisbiIds);
+        if (grisbiIds[slot] == 0) {
+            grisbiIds[slot] = grisbiId;
+            size++;
+        }
+        ids[slot] = id;
+
+        // Keep at least half of the slots empty
+        if (size * 2 > grisbiIds.length) {
+            long[] oldGrisbiIds = grisbiIds;
+            long[] oldIds = ids;
+            grisbiIds = new long[oldGrisbiIds.length * 2];
+            ids = new long[oldIds.length * 2];
+            for (int i = 0; i < oldGrisbiIds.length; i++) {
+                if (oldGrisbiIds[i] != 0) {
+                    int newSlot = getSlot(oldGrisbiIds[i], grisbiIds);
+                    grisbiIds[newSlot] = oldGrisbiIds[i];
+                    ids[newSlot] = oldIds[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the database ID of a Grisbi ID
+     * @param grisbiId Grisbi ID
+     * @return Database ID, <CODE>NOT_FOUND</CODE> if the Grisbi ID is not in the map
+     */
+    public long get(long grisbiId) {
+        if (grisbiId <= 0) {
+            return NOT_FOUND;
+        }
+        int slot = getSlot(grisbiId, grisbiIds);
+        return (grisbiIds[slot] == 0 ? NOT_FOUND : ids[slot]);
+    }
+
+    /**
+     * Gets the number of entries
+     * @return Number of entries in the map
+     */
+    public int size() {
+        return size;
+    }
+
+    /** Removes all the entries (the memory is released) */
+    public void clear() {
+        grisbiIds = new long[INITIAL_CAPACITY];
+        ids = new long[INITIAL_CAPACITY];
+        size = 0;
+    }
+}
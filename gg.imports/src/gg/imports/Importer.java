@@ -48,4 +48,10 @@ public interface Importer {
      * @return true if the import task is cancelled
      */
     public boolean isImportCancelled();
+
+    /**
+     * Gets the running totals of the accounts, computed while the transactions were imported
+     * @return Totals of the accounts of which transactions have been read from the Grisbi file
+     */
+    public AccountTotals getAccountTotals();
 }
@@ -27,20 +27,38 @@ import gg.db.entities.Account;
 import gg.db.entities.Currency;
 import gg.db.entities.FileImport;
 import gg.db.datamodel.DateFormatException;
-import gg.db.entities.Transaction;
 import gg.utilities.Utilities;
 import gg.view.overview.OverviewTopComponent;
 import gg.wallet.Wallet;
 import java.awt.EventQueue;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
-import org.dom4j.Node;
 import org.dom4j.io.SAXReader;
 import org.joda.time.DateTime;
 import org.openide.DialogDisplayer;
@@ -60,10 +78,25 @@ import org.openide.windows.WindowManager;
  */
 public class ImporterEngine implements Runnable {
 
+    /** System property: if 'true', the whole Grisbi file is loaded into a DOM document instead of being streamed */
+    public static final String DOM_IMPORTER_PROPERTY = "gg.imports.dom";
+    /**
+     * Version of the importers, saved with each import<BR/>
+     * It has to be changed when the import of a Grisbi file gives a different database content, so that unchanged Grisbi files are imported again
+     */
+    public static final String IMPORTER_VERSION = "3";
+    /** Algorithm used to compute the hash of the content of the Grisbi files */
+    private static final String CONTENT_HASH_ALGORITHM = "SHA-256";
+    /** Size of the buffer used to read the Grisbi files when the hash is computed */
+    private static final int CONTENT_HASH_BUFFER_SIZE = 1024 * 1024;
     /** Grisbi file to import */
     private File grisbiFile;
+    /** Should only the changes of the Grisbi file be imported, when the file has already been imported? */
+    private boolean deltaImport;
     /** Is the import task cancelled by the user? */
     private boolean importCancelled;
+    /** Running totals of the accounts computed by the last import (null if no file has been imported) */
+    private AccountTotals accountTotals;
     /** Logger */
     private Logger log = Logger.getLogger(ImporterEngine.class.getName());
 
@@ -73,9 +106,20 @@ public class ImporterEngine implements Runnable {
      * @throws FileNotFoundException If the Grisbi file to import does not exist
      */
     public ImporterEngine(File grisbiFile) throws FileNotFoundException {
-        log.entering(this.getClass().getName(), "ImporterEngine", grisbiFile.getAbsolutePath());
+        this(grisbiFile, false);
+    }
+
+    /**
+     * Creates a new instance of ImporterEngine
+     * @param grisbiFile Grisbi file to import
+     * @param deltaImport true if only the changes of the Grisbi file should be imported (when the file is already imported in the database)
+     * @throws FileNotFoundException If the Grisbi file to import does not exist
+     */
+    public ImporterEngine(File grisbiFile, boolean deltaImport) throws FileNotFoundException {
+        log.entering(this.getClass().getName(), "ImporterEngine", new Object[] {grisbiFile.getAbsolutePath(), deltaImport});
 
         setGrisbiFile(grisbiFile);
+        this.deltaImport = deltaImport;
         setImportCancelled(false);
 
         log.exiting(this.getClass().getName(), "ImporterEngine");
@@ -144,29 +188,112 @@ public class ImporterEngine implements Runnable {
     }
 
     /**
-     * Gets the version of the Grisbi file
-     * @param grisbiFileDocument Document of the Grisbi file for which the version is wanted
+     * Gets the version of the Grisbi file<BR/>
+     * The Grisbi file is read with a StAX reader until the version is found (the version is written at the beginning of the file)
      * @return Version of the Grisbi file (<CODE>FileVersion.UNSUPPORTED_VERSION</CODE> if the file is not supported)
+     * @throws ParsingException If there is an error reading the Grisbi file
      */
-    private FileVersion getFileVersion(Document grisbiFileDocument) {
+    private FileVersion getFileVersion() throws ParsingException {
         log.entering(this.getClass().getName(), "getFileVersion");
-        assert (grisbiFileDocument != null);
-
         FileVersion fileVersion = FileVersion.UNSUPPORTED_VERSION;
 
-        // Get the version of the grisbi file
-        Node fileVersionNode = grisbiFileDocument.selectSingleNode("/Grisbi/Generalites/Version_fichier");
-        if (fileVersionNode != null) {
-            String fileVersionStr = fileVersionNode.getText();
-            if (fileVersionStr.compareToIgnoreCase("0.5.0") == 0) {
-                fileVersion = FileVersion.VERSION_0_5_0;
+        InputStream grisbiFileStream = null;
+        XMLStreamReader reader = null;
+        try {
+            grisbiFileStream = new BufferedInputStream(new FileInputStream(grisbiFile));
+            reader = GrisbiFile050Reader.createReader(grisbiFileStream);
+
+            // Get the version of the grisbi file (/Grisbi/Generalites/Version_fichier)
+            int depth = 0;
+            boolean inGeneralInformation = false;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    String name = reader.getLocalName();
+                    if (depth == 2) {
+                        inGeneralInformation = name.equals("Generalites");
+                    } else if (depth == 3 && inGeneralInformation && name.equals("Version_fichier")) {
+                        String fileVersionStr = reader.getElementText().trim();
+                        if (fileVersionStr.compareToIgnoreCase("0.5.0") == 0) {
+                            fileVersion = FileVersion.VERSION_0_5_0;
+                        }
+                        break;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                    if (depth == 1 && inGeneralInformation) {
+                        break; // The version has not been found in <Generalites>
+                    }
+                }
             }
+        } catch (IOException ex) {
+            throw new ParsingException("The Grisbi file '" + grisbiFile.getAbsolutePath() + "' cannot be opened", ex);
+        } catch (XMLStreamException ex) {
+            throw new ParsingException("Error while reading the Grisbi file '" + grisbiFile.getAbsolutePath() + "': " + ex.getMessage(), ex);
+        } finally {
+            GrisbiFile050Reader.close(reader, grisbiFileStream);
         }
 
         log.exiting(this.getClass().getName(), "getFileVersion", fileVersion);
         return fileVersion;
     }
 
+    /**
+     * Computes the hash of the content of a file<BR/>
+     * The file is read through its channel into a direct buffer, so that the content is not copied into the Java heap
+     * @param file File for which the hash is wanted
+     * @return Hash of the content of the file (hexadecimal string)
+     * @throws IOException If the file cannot be read
+     */
+    public static String getContentHash(File file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("The parameter 'file' is null");
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(CONTENT_HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new AssertionError(ex); // SHA-256 is supported by all Java platforms
+        }
+
+        FileInputStream fileStream = new FileInputStream(file);
+        try {
+            FileChannel channel = fileStream.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CONTENT_HASH_BUFFER_SIZE);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            fileStream.close();
+        }
+
+        // Convert the hash into an hexadecimal string
+        StringBuilder contentHash = new StringBuilder();
+        for (byte b : digest.digest()) {
+            contentHash.append(Character.forDigit((b >> 4) & 0xF, 16));
+            contentHash.append(Character.forDigit(b & 0xF, 16));
+        }
+        return contentHash.toString();
+    }
+
+    /**
+     * Is the Grisbi file identical to the last imported Grisbi file?<BR/>
+     * The Grisbi file is unchanged when the last import succeeded, and was done from the same file, with the same content and the same importer version
+     * @param contentHash Hash of the content of the Grisbi file
+     * @return true if the Grisbi file does not need to be imported again
+     */
+    private boolean isGrisbiFileUnchanged(String contentHash) {
+        FileImport currentFileImport = Wallet.getInstance().getCurrentFileImport();
+        return (currentFileImport != null && currentFileImport.getSuccess() &&
+                currentFileImport.getFilePath().compareTo(grisbiFile.getAbsolutePath()) == 0 &&
+                contentHash.equals(currentFileImport.getContentHash()) &&
+                IMPORTER_VERSION.equals(currentFileImport.getImporterVersion()));
+    }
+
     /**
      * Imports the Grisbi file in the embedded database
      * @return Number of miliseconds needed to import the Grisbi file
@@ -179,18 +306,25 @@ public class ImporterEngine implements Runnable {
         log.entering(this.getClass().getName(), "importFile");
         setImportCancelled(false);
 
-        // Import the Grisbi file into a Document (that supports XPath)
-        Document grisbiFileDocument = getGrisbiFileDocument();
-
         // Get the version of the Grisbi file
-        FileVersion fileVersion = getFileVersion(grisbiFileDocument);
+        FileVersion fileVersion = getFileVersion();
 
         // Depending on the Grisbi file version, use the correct importer class to import the file into the embedded database
         Importer grisbiFileImporter;
         switch (fileVersion) {
             case VERSION_0_5_0:
-                log.finest("GrisbiFile050 importer used to import '" + grisbiFile.getAbsolutePath() + "'");
-                grisbiFileImporter = new GrisbiFile050(grisbiFileDocument, grisbiFile.getAbsolutePath());
+                if (Boolean.getBoolean(DOM_IMPORTER_PROPERTY)) {
+                    // Import the Grisbi file into a Document (that supports XPath)
+                    log.finest("GrisbiFile050 importer used to import '" + grisbiFile.getAbsolutePath() + "'");
+                    grisbiFileImporter = new GrisbiFile050(getGrisbiFileDocument(), grisbiFile.getAbsolutePath());
+                } else if (deltaImport && GrisbiFile050Delta.isDeltaImportPossible(grisbiFile)) {
+                    // Import only the changes of the Grisbi file
+                    log.finest("GrisbiFile050Delta importer used to update '" + grisbiFile.getAbsolutePath() + "'");
+                    grisbiFileImporter = new GrisbiFile050Delta(grisbiFile);
+                } else {
+                    log.finest("GrisbiFile050Stream importer used to import '" + grisbiFile.getAbsolutePath() + "'");
+                    grisbiFileImporter = new GrisbiFile050Stream(grisbiFile);
+                }
                 break;
             case VERSION_0_6_0:
                 log.severe("This version of Grisbi file is not supported yet");
@@ -204,18 +338,41 @@ public class ImporterEngine implements Runnable {
         }
 
         // Import the file
-        long importDuration = grisbiFileImporter.importFile();
+        // The daily balances are deleted first (they reference the accounts and the categories, which can be deleted by the import),
+        // and rebuilt from the imported transactions
+        // The snapshot of the transactions of the previous import must not be mapped until this import is logged
+        long startImportingFileTime = System.currentTimeMillis();
+        Datamodel.setImportRunning(true);
+        Datamodel.deleteDailyBalances();
+        grisbiFileImporter.importFile();
         setImportCancelled(grisbiFileImporter.isImportCancelled());
+        accountTotals = grisbiFileImporter.getAccountTotals();
+        if (!isImportCancelled()) {
+            Datamodel.updateDailyBalances();
+        }
+        long importDuration = System.currentTimeMillis() - startImportingFileTime;
 
         log.exiting(this.getClass().getName(), "importFile", importDuration);
         return importDuration;
     }
 
-    @Override
-    public void run() {
+    /**
+     * Imports the Grisbi file, checks the consistency of the database and logs the import<BR/>
+     * The snapshot of the transactions is saved for the logged import. Whatever the outcome of the import, the caches of the database
+     * are emptied and the snapshots can be mapped again once the import is over (after a failed import, the snapshot of the previous
+     * import is mapped only if its fingerprint still matches the database)
+     * @param contentHash Hash of the content of the Grisbi file
+     * @return Log of the import
+     * @throws DocumentException If there is an error during the XML parsing
+     * @throws ParsingException If there is a problem finding the needed nodes
+     * @throws NumberFormatException If a string is read when a number is expected
+     * @throws DateFormatException If a date is wrongly formatted
+     */
+    FileImport importAndLogFile(String contentHash) throws DocumentException, ParsingException, NumberFormatException, DateFormatException {
+        log.entering(this.getClass().getName(), "importAndLogFile", contentHash);
+        FileImport fileImport;
+        boolean cachesInvalidated = false;
         try {
-            // Import the Grisbi file
-            Utilities.changeCursorWaitStatus(true);
             long importDuration = importFile();
 
             // Display a message in the status bar
@@ -238,16 +395,70 @@ public class ImporterEngine implements Runnable {
                 }
             }
 
+            // Empty the caches of the database: the reference data and the balances may have changed
+            Datamodel.invalidateCaches();
+            cachesInvalidated = true;
+
             // Log the import in the database
-            FileImport fileImport = new FileImport(
+            fileImport = new FileImport(
                     new DateTime(), // Import date
                     grisbiFile.getAbsolutePath(),
                     grisbiFile.getName(),
                     new DateTime(grisbiFile.lastModified()), // Last modification date of the grisbi file
                     importDuration, // Import duration in ms
                     success);
+            fileImport.setContentHash(contentHash);
+            fileImport.setImporterVersion(IMPORTER_VERSION);
+            fileImport.setSkipped(false);
             Datamodel.saveFileImport(fileImport);
 
+            // Save the columns of the transactions, which are mapped at the next start instead of being loaded from the database
+            Datamodel.saveTransactionsSnapshot(fileImport);
+        } finally {
+            if (!cachesInvalidated) {
+                // The import failed: the caches may contain the entities of the previous import
+                Datamodel.invalidateCaches();
+            }
+            Datamodel.setImportRunning(false);
+        }
+
+        log.exiting(this.getClass().getName(), "importAndLogFile", fileImport);
+        return fileImport;
+    }
+
+    @Override
+    public void run() {
+        try {
+            Utilities.changeCursorWaitStatus(true);
+
+            // Skip the import if the Grisbi file did not change since the last import: the database and the views are not updated
+            long startHashingTime = System.currentTimeMillis();
+            String contentHash = getContentHash(grisbiFile);
+            if (isGrisbiFileUnchanged(contentHash)) {
+                log.info("The Grisbi file '" + grisbiFile.getAbsolutePath() + "' did not change since the last import: import skipped");
+                FileImport fileImport = new FileImport(
+                        new DateTime(), // Import date
+                        grisbiFile.getAbsolutePath(),
+                        grisbiFile.getName(),
+                        new DateTime(grisbiFile.lastModified()), // Last modification date of the grisbi file
+                        System.currentTimeMillis() - startHashingTime, // Time needed to compare the Grisbi file
+                        true);
+                fileImport.setContentHash(contentHash);
+                fileImport.setImporterVersion(IMPORTER_VERSION);
+                fileImport.setSkipped(true);
+                Datamodel.saveFileImport(fileImport);
+                Wallet.getInstance().updateFileImports();
+
+                StatusDisplayer.getDefault().setStatusText(
+                        NbBundle.getMessage(ImporterEngine.class, "ImporterEngine.GrisbiFileUnchanged"));
+                Utilities.changeCursorWaitStatus(false);
+                return;
+            }
+
+            // Import the Grisbi file and log the import
+            importAndLogFile(contentHash);
+            Datamodel.buildCaches();
+
             // Update content of the wallet with the new database content
             Wallet.getInstance().updateContent();
 
@@ -311,74 +522,84 @@ public class ImporterEngine implements Runnable {
             NotifyDescriptor.Exception message = new NotifyDescriptor.Exception(ex);
             message.setTitle(Constants.APPLICATION_TITLE);
             DialogDisplayer.getDefault().notifyLater(message);
+
+        } catch (IOException ex) {
+            Utilities.changeCursorWaitStatus(false);
+            log.log(Level.SEVERE, "IOException catched", ex);
+            NotifyDescriptor.Exception message = new NotifyDescriptor.Exception(ex);
+            message.setTitle(Constants.APPLICATION_TITLE);
+            DialogDisplayer.getDefault().notifyLater(message);
         }
     }
 
     /**
-     * Run consistency checks on the database
+     * Run consistency checks on the database<BR/>
+     * The balances read from the Grisbi file are compared with the totals of the transactions saved in the database (one grouped query)
+     * and with the running totals computed by the importer: the transactions are not loaded from the database<BR/>
+     * The currencies are checked in parallel
      * @return true if the database is consistent, false otherwise
      */
     public boolean checkDatabase() {
         log.entering(this.getClass().getName(), "checkDatabase");
 
-        List<Currency> currencies = Datamodel.getActiveCurrencies();
-        for (Currency currency : currencies) {
-            BigDecimal currencyBalance = currency.getBalance();
-            BigDecimal currencyTotalBalance = Datamodel.getCurrencyTotalBalance(currency);
-
-            // Check Currency.getBalance() with Datamodel.getCurrencyTotalBalance()
-            if (currencyBalance.compareTo(currencyTotalBalance) != 0) {
-                String errorDetails = NbBundle.getMessage(
-                        ImporterEngine.class,
-                        "ImporterEngine.ConsistencyCheckErrorCurrencyGetCurrencyTotalBalance",
-                        new Object[] {currency.getName(), currencyBalance, currencyTotalBalance});
-                log.info(errorDetails);
-                NotifyDescriptor message = new NotifyDescriptor.Message(errorDetails, NotifyDescriptor.ERROR_MESSAGE);
-                message.setTitle(Constants.APPLICATION_TITLE);
-                DialogDisplayer.getDefault().notify(message);
-                return false;
+        // Get the totals of the transactions saved in the database
+        final Map<Long, BigDecimal> accountsTotalBalances = Datamodel.getAccountsTotalBalances();
+
+        // Group the active accounts by currency
+        Map<Long, List<Account>> currenciesAccounts = new HashMap<Long, List<Account>>();
+        for (Account account : Datamodel.getActiveAccounts()) {
+            Long currencyId = account.getCurrency().getId();
+            List<Account> currencyAccounts = currenciesAccounts.get(currencyId);
+            if (currencyAccounts == null) {
+                currencyAccounts = new ArrayList<Account>();
+                currenciesAccounts.put(currencyId, currencyAccounts);
             }
+            currencyAccounts.add(account);
+        }
 
-            // Check Currency.getBalance() with getBalance()
-            BigDecimal initialCurrencyAmount = currency.getInitialAmount();
-            BigDecimal currencyWalletBalance = getBalance(Datamodel.getCurrencyTransactions(currency)).add(initialCurrencyAmount);
-            if (currencyBalance.compareTo(currencyWalletBalance) != 0) {
-                String errorDetails = NbBundle.getMessage(
-                        ImporterEngine.class,
-                        "ImporterEngine.ConsistencyCheckErrorCurrencyGetCurrencyTransactions",
-                        new Object[] {currency.getName(), currencyBalance, currencyWalletBalance});
-                log.info(errorDetails);
-                NotifyDescriptor message = new NotifyDescriptor.Message(errorDetails, NotifyDescriptor.ERROR_MESSAGE);
-                message.setTitle(Constants.APPLICATION_TITLE);
-                DialogDisplayer.getDefault().notify(message);
-                return false;
+        // Check the currencies in parallel (the checks do not use the database)
+        List<Currency> currencies = Datamodel.getActiveCurrencies();
+        int numberOfCheckers = Math.max(1, Math.min(currencies.size(), TransactionPipeline.getNumberOfWorkers()));
+        ExecutorService checkers = Executors.newFixedThreadPool(numberOfCheckers, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread checker = new Thread(r, "Grisbi import consistency check");
+                checker.setDaemon(true);
+                return checker;
+            }
+        });
+        try {
+            List<Future<String>> currenciesErrors = new ArrayList<Future<String>>();
+            for (final Currency currency : currencies) {
+                List<Account> currencyAccounts = currenciesAccounts.get(currency.getId());
+                final List<Account> activeAccounts = (currencyAccounts == null ? new ArrayList<Account>() : currencyAccounts);
+                currenciesErrors.add(checkers.submit(new Callable<String>() {
+
+                    @Override
+                    public String call() {
+                        return checkCurrency(currency, activeAccounts, accountsTotalBalances);
+                    }
+                }));
             }
 
-            // Check active accounts of the currency
-            for (Account account : Datamodel.getActiveAccounts(currency)) {
-                BigDecimal accountBalance = account.getBalance();
-                BigDecimal accountTotalBalance = Datamodel.getAccountTotalBalance(account).add(account.getInitialAmount());
-
-                // Check Account.getBalance() with Datamodel.getAccountTotalBalance()
-                if (accountBalance.compareTo(accountTotalBalance) != 0) {
-                    String errorDetails = NbBundle.getMessage(
-                            ImporterEngine.class,
-                            "ImporterEngine.ConsistencyCheckErrorAccountGetAccountTotalBalance",
-                            new Object[] {account.getName(), accountBalance, accountTotalBalance});
-                    log.info(errorDetails);
-                    NotifyDescriptor message = new NotifyDescriptor.Message(errorDetails, NotifyDescriptor.ERROR_MESSAGE);
-                    message.setTitle(Constants.APPLICATION_TITLE);
-                    DialogDisplayer.getDefault().notify(message);
+            // Display the first error (in the order of the currencies)
+            for (Future<String> currencyErrors : currenciesErrors) {
+                String errorDetails;
+                try {
+                    errorDetails = currencyErrors.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    log.log(Level.WARNING, "The consistency checks have been interrupted", ex);
                     return false;
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof Error) {
+                        throw (Error) ex.getCause();
+                    }
+                    throw (RuntimeException) ex.getCause(); // The checks do not throw checked exceptions
                 }
 
-                // Check Account.getBalance() with getBalance()
-                BigDecimal accountWalletBalance = getBalance(Datamodel.getAccountTransactions(account)).add(account.getInitialAmount());
-                if (accountBalance.compareTo(accountWalletBalance) != 0) {
-                    String errorDetails = NbBundle.getMessage(
-                            ImporterEngine.class,
-                            "ImporterEngine.ConsistencyCheckErrorAccountGetAccountTransactions",
-                            new Object[] {account.getName(), accountBalance, accountWalletBalance});
+                if (errorDetails != null) {
                     log.info(errorDetails);
                     NotifyDescriptor message = new NotifyDescriptor.Message(errorDetails, NotifyDescriptor.ERROR_MESSAGE);
                     message.setTitle(Constants.APPLICATION_TITLE);
@@ -386,6 +607,8 @@ public class ImporterEngine implements Runnable {
                     return false;
                 }
             }
+        } finally {
+            checkers.shutdownNow();
         }
 
         log.exiting(this.getClass().getName(), "checkDatabase");
@@ -393,25 +616,68 @@ public class ImporterEngine implements Runnable {
     }
 
     /**
-     * Gets the balance of a list of transactions
-     * @param transactions List of transactions
-     * @return Total balance (0 if the list of transactions is empty)
+     * Checks the balances of a currency and of its active accounts
+     * @param currency Currency to check
+     * @param activeAccounts Active accounts of the currency
+     * @param accountsTotalBalances Totals of the transactions saved in the database - the key of the map is the account's ID
+     * @return Details of the first error found, null if the currency is consistent
      */
-    private static BigDecimal getBalance(List<Transaction> transactions) {
-        if (transactions == null) {
-            throw new IllegalArgumentException("The parameter 'transactions' is null");
-        }
+    private String checkCurrency(Currency currency, List<Account> activeAccounts, Map<Long, BigDecimal> accountsTotalBalances) {
+        assert (currency != null && activeAccounts != null && accountsTotalBalances != null);
+
+        BigDecimal currencyBalance = currency.getBalance();
+        BigDecimal accountsBalance = new BigDecimal(0); // Sum of the balances of the active accounts
+        BigDecimal currencyWalletBalance = currency.getInitialAmount(); // Sum of the transactions of the active accounts + initial amount
+
+        // Check active accounts of the currency
+        for (Account account : activeAccounts) {
+            BigDecimal accountBalance = account.getBalance();
+            BigDecimal accountTotalBalance = accountsTotalBalances.get(account.getId());
+            if (accountTotalBalance == null) {
+                accountTotalBalance = new BigDecimal(0); // No transaction in the account
+            }
+            BigDecimal accountWalletBalance = accountTotalBalance.add(account.getInitialAmount());
 
-        BigDecimal totalBalance = new BigDecimal(0); // Sum of the balances of each transaction
+            // Check Account.getBalance() with the transactions saved in the database
+            if (accountBalance.compareTo(accountWalletBalance) != 0) {
+                return NbBundle.getMessage(
+                        ImporterEngine.class,
+                        "ImporterEngine.ConsistencyCheckErrorAccountTransactions",
+                        new Object[] {account.getName(), accountBalance, accountWalletBalance});
+            }
 
-        // Compute the total balance of the list of transactions
-        for (Transaction transaction : transactions) {
-            assert (transaction != null);
+            // Check Account.getBalance() with the transactions read from the Grisbi file (if the account has been imported)
+            BigDecimal accountImportedTotal = (accountTotals == null ? null : accountTotals.get(account.getId()));
+            if (accountImportedTotal != null) {
+                BigDecimal accountImportedBalance = accountImportedTotal.add(account.getInitialAmount());
+                if (accountBalance.compareTo(accountImportedBalance) != 0) {
+                    return NbBundle.getMessage(
+                            ImporterEngine.class,
+                            "ImporterEngine.ConsistencyCheckErrorAccountImportedTransactions",
+                            new Object[] {account.getName(), accountBalance, accountImportedBalance});
+                }
+            }
+
+            accountsBalance = accountsBalance.add(accountBalance);
+            currencyWalletBalance = currencyWalletBalance.add(accountTotalBalance);
+        }
+
+        // Check Currency.getBalance() with the balances of the active accounts
+        if (currencyBalance.compareTo(accountsBalance) != 0) {
+            return NbBundle.getMessage(
+                    ImporterEngine.class,
+                    "ImporterEngine.ConsistencyCheckErrorCurrencyAccountsBalance",
+                    new Object[] {currency.getName(), currencyBalance, accountsBalance});
+        }
 
-            totalBalance = totalBalance.add(transaction.getAmount());
+        // Check Currency.getBalance() with the transactions saved in the database
+        if (currencyBalance.compareTo(currencyWalletBalance) != 0) {
+            return NbBundle.getMessage(
+                    ImporterEngine.class,
+                    "ImporterEngine.ConsistencyCheckErrorCurrencyTransactions",
+                    new Object[] {currency.getName(), currencyBalance, currencyWalletBalance});
         }
 
-        // Return the total balance
-        return totalBalance;
+        return null;
     }
 }
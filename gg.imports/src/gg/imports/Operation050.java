@@ -0,0 +1,298 @@
+/*
+ * Operation050.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.imports;
+
+import gg.db.datamodel.DateFormatException;
+import gg.db.datamodel.Period;
+import gg.db.entities.Account;
+import gg.db.entities.Category;
+import gg.db.entities.Currency;
+import gg.db.entities.GrisbiCategory;
+import gg.db.entities.Payee;
+import gg.db.entities.Transaction;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Map;
+import javax.xml.stream.XMLStreamReader;
+import org.dom4j.Node;
+import org.joda.time.LocalDate;
+
+/**
+ * <B>Operation050</B>
+ * <UL>
+ * <LI>Raw attributes of an <CODE>Operation</CODE> element of a Grisbi 0.5.x file</LI>
+ * <LI>The attributes can be read from a DOM node or from a StAX reader, so that both importers share the conversion into a transaction</LI>
+ * </UL>
+ * @author Francois Duchemin
+ */
+class Operation050 {
+
+    /** ID of the transaction (attribute 'No') */
+    private String id;
+    /** Date of the transaction (attribute 'D') */
+    private String date;
+    /** Exchange rate (attribute 'Tc') */
+    private String exchangeRate;
+    /** Fees (attribute 'Fc') */
+    private String fees;
+    /** Amount of the transaction (attribute 'M') */
+    private String amount;
+    /** Currency of the transaction (attribute 'De') */
+    private String currencyId;
+    /** Exchange rate direction (attribute 'Rdc') */
+    private String rdc;
+    /** Twin transaction of a transfer (attribute 'Ro') */
+    private String twinTransaction;
+    /** Account of the twin transaction of a transfer (attribute 'Rc') */
+    private String accountOfTransfer;
+    /** Breakdown of transactions flag (attribute 'Ov') */
+    private String breakdownOfTransaction;
+    /** Category ID (attribute 'C') */
+    private String categoryId;
+    /** Sub-category ID (attribute 'Sc') */
+    private String subCategoryId;
+    /** Comment (attribute 'N') */
+    private String comment;
+    /** Payee ID (attribute 'T') */
+    private String payeeId;
+    /** Parent transaction ID (attribute 'Va') */
+    private String parentId;
+
+    /** Creates a new instance of Operation050 */
+    private Operation050() {
+    }
+
+    /**
+     * Reads the attributes of an <CODE>Operation</CODE> DOM node
+     * @param transactionNode <CODE>Operation</CODE> node
+     * @return Raw operation
+     */
+    public static Operation050 read(Node transactionNode) {
+        if (transactionNode == null) {
+            throw new IllegalArgumentException("The parameter 'transactionNode' is null");
+        }
+
+        Operation050 operation = new Operation050();
+        operation.id = transactionNode.valueOf("@No");
+        operation.date = transactionNode.valueOf("@D");
+        operation.exchangeRate = transactionNode.valueOf("@Tc");
+        operation.fees = transactionNode.valueOf("@Fc");
+        operation.amount = transactionNode.valueOf("@M");
+        operation.currencyId = transactionNode.valueOf("@De");
+        operation.rdc = transactionNode.valueOf("@Rdc");
+        operation.twinTransaction = transactionNode.valueOf("@Ro");
+        operation.accountOfTransfer = transactionNode.valueOf("@Rc");
+        operation.breakdownOfTransaction = transactionNode.valueOf("@Ov");
+        operation.categoryId = transactionNode.valueOf("@C");
+        operation.subCategoryId = transactionNode.valueOf("@Sc");
+        operation.comment = transactionNode.valueOf("@N");
+        operation.payeeId = transactionNode.valueOf("@T");
+        operation.parentId = transactionNode.valueOf("@Va");
+
+        return operation;
+    }
+
+    /**
+     * Reads the attributes of the <CODE>Operation</CODE> element on which a StAX reader is positioned
+     * @param reader StAX reader positioned on the start of an <CODE>Operation</CODE> element
+     * @return Raw operation
+     */
+    public static Operation050 read(XMLStreamReader reader) {
+        if (reader == null) {
+            throw new IllegalArgumentException("The parameter 'reader' is null");
+        }
+
+        Operation050 operation = new Operation050();
+        operation.id = getAttribute(reader, "No");
+        operation.date = getAttribute(reader, "D");
+        operation.exchangeRate = getAttribute(reader, "Tc");
+        operation.fees = getAttribute(reader, "Fc");
+        operation.amount = getAttribute(reader, "M");
+        operation.currencyId = getAttribute(reader, "De");
+        operation.rdc = getAttribute(reader, "Rdc");
+        operation.twinTransaction = getAttribute(reader, "Ro");
+        operation.accountOfTransfer = getAttribute(reader, "Rc");
+        operation.breakdownOfTransaction = getAttribute(reader, "Ov");
+        operation.categoryId = getAttribute(reader, "C");
+        operation.subCategoryId = getAttribute(reader, "Sc");
+        operation.comment = getAttribute(reader, "N");
+        operation.payeeId = getAttribute(reader, "T");
+        operation.parentId = getAttribute(reader, "Va");
+
+        return operation;
+    }
+
+    /**
+     * Gets the value of an attribute (same behaviour as <CODE>Node.valueOf("@name")</CODE>)
+     * @param reader StAX reader positioned on a start element
+     * @param name Name of the attribute
+     * @return Value of the attribute ("" if the attribute does not exist)
+     */
+    private static String getAttribute(XMLStreamReader reader, String name) {
+        String value = reader.getAttributeValue(null, name);
+        if (value == null) {
+            value = "";
+        }
+        return value;
+    }
+
+    /**
+     * Gets the Grisbi ID of the transaction
+     * @return Grisbi ID of the transaction
+     * @throws NumberFormatException If the ID is not numeric
+     */
+    public long getId() throws NumberFormatException {
+        long transactionId = Long.parseLong(id);
+        assert (transactionId > 0);
+        return transactionId;
+    }
+
+    /**
+     * Gets the Grisbi ID of the parent transaction
+     * @return Grisbi ID of the parent transaction ('0' means that the transaction is a top-transaction)
+     * @throws NumberFormatException If the ID is not numeric
+     */
+    public long getParentId() throws NumberFormatException {
+        long transactionParentId = Long.parseLong(parentId);
+        assert (transactionParentId >= 0);
+        return transactionParentId;
+    }
+
+    /**
+     * Is the transaction a breakdown of transactions (i.e. can the transaction have sub-transactions)?
+     * @return true if the transaction is a breakdown of transactions
+     */
+    public boolean isBreakdown() {
+        return (breakdownOfTransaction.compareTo("1") == 0);
+    }
+
+    /**
+     * Converts the raw operation into a transaction<BR/>
+     * The amount is converted into the currency of the account if needed
+     * @param account Account of the transaction
+     * @param currencies Currencies by ID
+     * @param categories Categories by Grisbi category
+     * @param payees Payees by ID
+     * @param transactionParent Parent transaction (null for top transactions)
+     * @return New transaction (not saved)
+     * @throws NumberFormatException If a string is read when a number is expected
+     * @throws DateFormatException If the date format of the transaction is invalid
+     */
+    public Transaction toTransaction(Account account, Map<Long, Currency> currencies,
+            Map<GrisbiCategory, Category> categories, Map<Long, Payee> payees, Transaction transactionParent)
+            throws NumberFormatException, DateFormatException {
+        // Get the date of the transaction
+        assert (date != null && date.compareTo("") != 0);
+        LocalDate transactionDate = Period.getDate(date); // Throws a DateFormatException if the format of 'date' is not valid
+        assert (transactionDate != null);
+
+        // Get the exchange rate
+        BigDecimal transactionExchangeRate = new BigDecimal(exchangeRate.replace(',', '.')); // exchangeRate = 0 if there is no echange rate
+
+        // Get the fees
+        BigDecimal transactionFees = new BigDecimal(fees.replace(',', '.'));
+
+        // Get the amount of the transaction
+        BigDecimal transactionAmount = new BigDecimal(amount.replace(',', '.'));
+
+        // Get the currency of the transaction
+        long transactionCurrencyId = Long.parseLong(currencyId); // Get the ID of the currency
+        Currency transactionCurrency = currencies.get(transactionCurrencyId);
+        assert (transactionCurrency != null);
+        Currency accountCurrency = currencies.get(account.getCurrency().getId());
+        assert (accountCurrency != null);
+
+        // Update the amount of the transaction if the currency of the transaction is different from the currency of the account
+        // (Method found in the Grisbi source file: devises.c/calcule_montant_devise_renvoi)
+        if (transactionCurrency.getId().compareTo(accountCurrency.getId()) != 0) {
+            if (accountCurrency.getEuroConversion()) {
+                if (transactionCurrency.getName().compareToIgnoreCase("euro") == 0) {
+                    transactionAmount = transactionAmount.multiply(accountCurrency.getExchangeRate());
+                }
+            } else if (accountCurrency.getEuroConversion() && transactionCurrency.getName().compareToIgnoreCase("euro") != 0) {
+                transactionAmount = transactionAmount.divide(transactionCurrency.getExchangeRate(), RoundingMode.HALF_EVEN);
+            } else {
+                if (transactionExchangeRate.compareTo(BigDecimal.ZERO) != 0) {
+                    long transactionRdc = Long.parseLong(rdc);
+
+                    if (transactionRdc == 1) {
+                        transactionAmount = (transactionAmount.divide(transactionExchangeRate, RoundingMode.HALF_EVEN)).subtract(transactionFees);
+                    } else {
+                        transactionAmount = (transactionAmount.multiply(transactionExchangeRate)).subtract(transactionFees);
+                    }
+                } else if (transactionCurrency.getExchangeRate().compareTo(BigDecimal.ZERO) != 0) {
+                    if (transactionCurrency.getMultiply()) {
+                        transactionAmount = (transactionAmount.multiply(transactionCurrency.getExchangeRate())).subtract(transactionFees);
+                    } else {
+                        transactionAmount = (transactionAmount.divide(transactionCurrency.getExchangeRate(), RoundingMode.HALF_EVEN)).subtract(transactionFees);
+                    }
+                } else {
+                    transactionAmount = new BigDecimal(0);
+                }
+            }
+        }
+        transactionAmount = transactionAmount.setScale(2, RoundingMode.HALF_EVEN);
+
+        // Get the category and the sub-category of the transaction
+        long transactionGrisbiCategoryId = Long.parseLong(categoryId); // '0' means that the category is not defined
+        assert (transactionGrisbiCategoryId >= 0);
+        long transactionGrisbiSubCategoryId = Long.parseLong(subCategoryId); // '0' means that the sub-category is not defined
+        assert (transactionGrisbiSubCategoryId >= 0);
+
+        // Check if the category is "Transfer" or "Breakdown of transactions"
+        Category transactionCategory = null;
+        if (transactionGrisbiCategoryId == 0 && (twinTransaction.compareTo("0") != 0 || accountOfTransfer.compareTo("0") != 0)) {
+            // The current transaction is a transfer
+            transactionCategory = Category.TRANSFER;
+        } else if (transactionGrisbiCategoryId == 0 && breakdownOfTransaction.compareTo("1") == 0) {
+            // The current transaction is a breakdown of transactions
+            transactionCategory = Category.BREAKDOWN_OF_TRANSACTIONS;
+        } else if (transactionGrisbiSubCategoryId != 0) {
+            transactionCategory = categories.get(new GrisbiCategory(transactionGrisbiCategoryId, transactionGrisbiSubCategoryId));
+            assert (transactionCategory != null);
+        } else if (transactionGrisbiCategoryId != 0) {
+            // Else, if a category is defined, get the category
+            transactionCategory = categories.get(new GrisbiCategory(transactionGrisbiCategoryId, Category.NO_SUB_CATEGORY_ID));
+            assert (transactionCategory != null);
+        } else {
+            // Else, no category is defined
+            transactionCategory = Category.NO_CATEGORY;
+        }
+        assert (transactionCategory != null);
+
+        // Get the payee of the transaction
+        long transactionPayeeId = Long.parseLong(payeeId); // '0' if no payee is defined
+        assert (transactionPayeeId >= 0);
+        Payee transactionPayee = null;
+        if (transactionPayeeId != 0) { // Get the payee if it has been defined
+            transactionPayee = payees.get(transactionPayeeId);
+            assert (transactionPayee != null);
+        } else { // No payee has been defined
+            transactionPayee = Payee.NO_PAYEE;
+        }
+
+        // Create a new transaction
+        Transaction transaction = new Transaction(transactionDate, account, transactionAmount, transactionCategory, comment, transactionPayee, transactionParent);
+        transaction.setGrisbiTransactionId(getId());
+        return transaction;
+    }
+}
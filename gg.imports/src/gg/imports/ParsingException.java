@@ -38,4 +38,13 @@ public class ParsingException extends java.lang.Exception {
     public ParsingException(String msg) {
         super(msg);
     }
+
+    /**
+     * Constructs an instance of <code>ParsingException</code> with the specified detail message and cause
+     * @param msg the detail message
+     * @param cause the cause of the exception
+     */
+    public ParsingException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
 }
@@ -0,0 +1,406 @@
+/*
+ * TransactionPipeline.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.imports;
+
+import gg.db.datamodel.DateFormatException;
+import gg.db.entities.Transaction;
+import gg.imports.GrisbiFile050Reader.AccountHeader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * <B>TransactionPipeline</B>
+ * <UL>
+ * <LI>Imports the transactions of a Grisbi file with three stages running in parallel:
+ * <UL>
+ * <LI>a reader thread reads the raw operations from the Grisbi file (<CODE>GrisbiFile050Reader.readOperations()</CODE>)</LI>
+ * <LI>a pool of workers converts the raw operations into transactions (dates, amounts, currencies, categories, payees)</LI>
+ * <LI>the calling thread writes the transactions in the order of the Grisbi file (parent transactions are always before their sub-transactions)</LI>
+ * </UL>
+ * </LI>
+ * <LI>The stages are linked by a bounded queue, so that the memory used does not depend on the number of transactions</LI>
+ * <LI>The number of workers is the number of processors, or the value of the system property <CODE>gg.imports.threads</CODE></LI>
+ * </UL>
+ * @author Francois Duchemin
+ */
+class TransactionPipeline {
+
+    /** System property which overrides the number of threads used to convert the transactions */
+    public static final String NUMBER_OF_WORKERS_PROPERTY = "gg.imports.threads";
+    /** Maximum number of operations read in advance by the reader thread */
+    private static final int QUEUE_CAPACITY = 1024;
+    /** Reader of the Grisbi file */
+    private GrisbiFile050Reader grisbiFileReader;
+    /** Importer which uses the pipeline (the pipeline stops when the import is cancelled) */
+    private Importer importer;
+    /** Account of which transactions are imported (null to import the transactions of all the accounts) */
+    private AccountHeader accountHeader;
+    /** Logger */
+    private Logger log = Logger.getLogger(TransactionPipeline.class.getName());
+
+    /**
+     * Creates a new instance of TransactionPipeline
+     * @param grisbiFileReader Reader of the Grisbi file (<CODE>readReferenceData()</CODE> has to be called before)
+     * @param importer Importer which uses the pipeline
+     */
+    public TransactionPipeline(GrisbiFile050Reader grisbiFileReader, Importer importer) {
+        this(grisbiFileReader, importer, null);
+    }
+
+    /**
+     * Creates a new instance of TransactionPipeline
+     * @param grisbiFileReader Reader of the Grisbi file (<CODE>readReferenceData()</CODE> has to be called before)
+     * @param importer Importer which uses the pipeline
+     * @param accountHeader Account of which transactions are imported (null to import the transactions of all the accounts)
+     */
+    public TransactionPipeline(GrisbiFile050Reader grisbiFileReader, Importer importer, AccountHeader accountHeader) {
+        if (grisbiFileReader == null) {
+            throw new IllegalArgumentException("The parameter 'grisbiFileReader' is null");
+        }
+        if (importer == null) {
+            throw new IllegalArgumentException("The parameter 'importer' is null");
+        }
+        this.grisbiFileReader = grisbiFileReader;
+        this.importer = importer;
+        this.accountHeader = accountHeader;
+    }
+
+    /**
+     * Gets the number of threads used to convert the transactions
+     * @return Value of the system property <CODE>gg.imports.threads</CODE> if it is defined, number of processors otherwise
+     */
+    public static int getNumberOfWorkers() {
+        return Math.max(1, Integer.getInteger(NUMBER_OF_WORKERS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Reads, converts and writes the transactions of the Grisbi file
+     * @param converter Converts the raw operations into transactions (called by the workers: it must not use the database)
+     * @param writer Writes the transactions (called by the current thread, in the order of the Grisbi file)
+     * @throws ParsingException If the Grisbi file cannot be read, or if the number of transactions of an account is not the expected number
+     * @throws NumberFormatException If a string is read when a number is expected
+     * @throws DateFormatException If the date format of a transaction is invalid
+     */
+    public void run(final Converter converter, Writer writer) throws ParsingException, NumberFormatException, DateFormatException {
+        log.entering(this.getClass().getName(), "run");
+        if (converter == null) {
+            throw new IllegalArgumentException("The parameter 'converter' is null");
+        }
+        if (writer == null) {
+            throw new IllegalArgumentException("The parameter 'writer' is null");
+        }
+
+        int numberOfWorkers = getNumberOfWorkers();
+        log.info("Transactions converted by " + numberOfWorkers + " threads");
+
+        final ExecutorService workers = Executors.newFixedThreadPool(numberOfWorkers, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread worker = new Thread(r, "Grisbi import worker");
+                worker.setDaemon(true);
+                return worker;
+            }
+        });
+        final BlockingQueue<Item> queue = new ArrayBlockingQueue<Item>(QUEUE_CAPACITY);
+        final AtomicBoolean stopped = new AtomicBoolean(false); // Set when the writer stops before the end of the file
+
+        // Reader: reads the operations and submits them to the workers
+        Thread readerThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                Throwable error = null;
+                try {
+                    GrisbiFile050Reader.OperationHandler handler = new GrisbiFile050Reader.OperationHandler() {
+
+                        @Override
+                        public void startAccount(AccountHeader accountHeader) throws ParsingException {
+                            put(queue, new Item(Item.START_ACCOUNT, accountHeader, null, null));
+                        }
+
+                        @Override
+                        public void operation(final AccountHeader accountHeader, final Operation050 operation) throws ParsingException {
+                            Future<Transaction> transaction = workers.submit(new Callable<Transaction>() {
+
+                                @Override
+                                public Transaction call() throws Exception {
+                                    return converter.convert(accountHeader, operation);
+                                }
+                            });
+                            put(queue, new Item(Item.OPERATION, accountHeader, operation, transaction));
+                        }
+
+                        @Override
+                        public void endAccount(AccountHeader accountHeader) throws ParsingException {
+                            put(queue, new Item(Item.END_ACCOUNT, accountHeader, null, null));
+                        }
+                    };
+                    if (accountHeader == null) {
+                        grisbiFileReader.readOperations(handler);
+                    } else {
+                        grisbiFileReader.readOperations(accountHeader, handler); // Seek to the transactions of the account
+                    }
+                } catch (Throwable ex) {
+                    error = ex;
+                }
+
+                // Tell the writer that there is no more operation
+                if (!stopped.get()) {
+                    Item end = new Item(Item.END, null, null, null);
+                    end.error = error;
+                    try {
+                        put(queue, end);
+                    } catch (ParsingException ex) {
+                        log.fine("The reader has been interrupted: " + ex.getMessage());
+                    }
+                }
+            }
+        }, "Grisbi import reader");
+        readerThread.setDaemon(true);
+
+        // Writer: writes the converted transactions in the order of the Grisbi file
+        try {
+            readerThread.start();
+
+            Item item = take(queue);
+            while (item.type != Item.END && !importer.isImportCancelled()) {
+                switch (item.type) {
+                    case Item.START_ACCOUNT:
+                        writer.startAccount(item.accountHeader);
+                        break;
+                    case Item.OPERATION:
+                        writer.write(item.accountHeader, item.operation, getTransaction(item.transaction));
+                        break;
+                    case Item.END_ACCOUNT:
+                        writer.endAccount(item.accountHeader);
+                        break;
+                    default:
+                        throw new AssertionError("Unknown item type: " + item.type);
+                }
+                item = take(queue);
+            }
+
+            // Throw the exception of the reader if any
+            if (item.type == Item.END && item.error != null) {
+                rethrow(item.error);
+            }
+        } finally {
+            // Stop the reader and the workers
+            stopped.set(true);
+            readerThread.interrupt();
+            queue.clear();
+            workers.shutdownNow();
+            try {
+                readerThread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        log.exiting(this.getClass().getName(), "run");
+    }
+
+    /**
+     * Gets the parent of a sub-transaction<BR/>
+     * Only the ID of the parent transaction is set: it is enough to save the sub-transaction
+     * @param operation Raw sub-transaction
+     * @param parentIds Database IDs of the breakdowns of transactions already saved in the account - the key is the Grisbi ID
+     * @return Parent transaction (null if the transaction is a top transaction)
+     * @throws ParsingException If the parent transaction has not been saved before the sub-transaction
+     */
+    public static Transaction getParentTransaction(Operation050 operation, GrisbiIdMap parentIds) throws ParsingException {
+        long transactionParentId = operation.getParentId(); // '0' means that the transaction is a top-transaction ; not '0' means that the transaction is a sub-transaction
+        if (transactionParentId == 0) {
+            return null;
+        }
+
+        long parentId = parentIds.get(transactionParentId); // In Grisbi files, parent transactions are always BEFORE sub-transactions
+        if (parentId == GrisbiIdMap.NOT_FOUND) {
+            throw new ParsingException("The parent transaction (" + transactionParentId + ") of the transaction " + operation.getId() + " has not been found");
+        }
+        Transaction transactionParent = new Transaction();
+        transactionParent.setId(parentId);
+        return transactionParent;
+    }
+
+    /**
+     * Adds an item in the queue (waits if the queue is full)
+     * @param queue Queue
+     * @param item Item to add
+     * @throws ParsingException If the thread is interrupted
+     */
+    private static void put(BlockingQueue<Item> queue, Item item) throws ParsingException {
+        try {
+            queue.put(item);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ParsingException("The import of the transactions has been interrupted", ex);
+        }
+    }
+
+    /**
+     * Takes the next item of the queue (waits if the queue is empty)
+     * @param queue Queue
+     * @return Next item
+     * @throws ParsingException If the thread is interrupted
+     */
+    private static Item take(BlockingQueue<Item> queue) throws ParsingException {
+        try {
+            return queue.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ParsingException("The import of the transactions has been interrupted", ex);
+        }
+    }
+
+    /**
+     * Waits for the conversion of a transaction
+     * @param transaction Conversion of the transaction
+     * @return Converted transaction
+     * @throws ParsingException If the thread is interrupted
+     * @throws NumberFormatException If a string is read when a number is expected
+     * @throws DateFormatException If the date format of the transaction is invalid
+     */
+    private static Transaction getTransaction(Future<Transaction> transaction) throws ParsingException, NumberFormatException, DateFormatException {
+        try {
+            return transaction.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ParsingException("The import of the transactions has been interrupted", ex);
+        } catch (ExecutionException ex) {
+            rethrow(ex.getCause());
+            throw new AssertionError("Not reached");
+        }
+    }
+
+    /**
+     * Throws an exception caught in another thread
+     * @param ex Exception to throw
+     * @throws ParsingException If <CODE>ex</CODE> is a <CODE>ParsingException</CODE> or a checked exception of another type
+     * @throws DateFormatException If <CODE>ex</CODE> is a <CODE>DateFormatException</CODE>
+     */
+    private static void rethrow(Throwable ex) throws ParsingException, DateFormatException {
+        if (ex instanceof ParsingException) {
+            throw (ParsingException) ex;
+        } else if (ex instanceof DateFormatException) {
+            throw (DateFormatException) ex;
+        } else if (ex instanceof RuntimeException) {
+            throw (RuntimeException) ex; // NumberFormatException...
+        } else if (ex instanceof Error) {
+            throw (Error) ex;
+        }
+        throw new ParsingException("Error while importing the transactions: " + ex.getMessage(), ex);
+    }
+
+    /**
+     * Converts the raw operations into transactions
+     */
+    interface Converter {
+
+        /**
+         * Converts a raw operation into a transaction (called by several threads at the same time)
+         * @param accountHeader Account of the operation
+         * @param operation Raw operation
+         * @return New transaction (not saved, without parent transaction)
+         * @throws NumberFormatException If a string is read when a number is expected
+         * @throws DateFormatException If the date format of the operation is invalid
+         */
+        Transaction convert(AccountHeader accountHeader, Operation050 operation) throws NumberFormatException, DateFormatException;
+    }
+
+    /**
+     * Writes the converted transactions
+     */
+    interface Writer {
+
+        /**
+         * Called when the transactions of an account start
+         * @param accountHeader Account
+         * @throws ParsingException If the account cannot be handled
+         */
+        void startAccount(AccountHeader accountHeader) throws ParsingException;
+
+        /**
+         * Called for each transaction of the account, in the order of the Grisbi file
+         * @param accountHeader Account of the transaction
+         * @param operation Raw operation
+         * @param transaction Converted transaction (the parent transaction has to be set by the writer)
+         * @throws ParsingException If the transaction cannot be written
+         */
+        void write(AccountHeader accountHeader, Operation050 operation, Transaction transaction) throws ParsingException;
+
+        /**
+         * Called when all the transactions of an account have been written
+         * @param accountHeader Account
+         * @throws ParsingException If the account cannot be handled
+         */
+        void endAccount(AccountHeader accountHeader) throws ParsingException;
+    }
+
+    /**
+     * Element of the queue between the reader and the writer
+     */
+    private static class Item {
+
+        /** Start of an account */
+        private static final int START_ACCOUNT = 0;
+        /** Operation */
+        private static final int OPERATION = 1;
+        /** End of an account */
+        private static final int END_ACCOUNT = 2;
+        /** End of the operations */
+        private static final int END = 3;
+        /** Type of the item */
+        private int type;
+        /** Account */
+        private AccountHeader accountHeader;
+        /** Raw operation (OPERATION items) */
+        private Operation050 operation;
+        /** Conversion of the operation (OPERATION items) */
+        private Future<Transaction> transaction;
+        /** Exception thrown by the reader (END item) */
+        private Throwable error;
+
+        /**
+         * Creates a new instance of Item
+         * @param type Type of the item
+         * @param accountHeader Account
+         * @param operation Raw operation
+         * @param transaction Conversion of the operation
+         */
+        private Item(int type, AccountHeader accountHeader, Operation050 operation, Future<Transaction> transaction) {
+            this.type = type;
+            this.accountHeader = accountHeader;
+            this.operation = operation;
+            this.transaction = transaction;
+        }
+    }
+}
@@ -63,7 +63,7 @@ public final class UpdateGrisbiFileAction implements ActionListener {
 
         try {
             File grisbiFile = new File(currentFileImport.getFilePath());
-            ImporterEngine importerEngine = new ImporterEngine(grisbiFile);
+            ImporterEngine importerEngine = new ImporterEngine(grisbiFile, true); // Only the changes of the Grisbi file are imported
 
             // Import the Grisbi file in the DB
             Thread t = new Thread(importerEngine);
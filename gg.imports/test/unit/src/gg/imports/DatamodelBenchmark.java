@@ -0,0 +1,361 @@
+/*
+ * DatamodelBenchmark.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.imports;
+
+import gg.db.datamodel.Datamodel;
+import gg.db.datamodel.DatamodelQueries;
+import gg.db.datamodel.Installer;
+import gg.db.datamodel.Period;
+import gg.db.datamodel.PeriodType;
+import gg.db.datamodel.Periods;
+import gg.db.datamodel.SearchCriteria;
+import gg.db.entities.Account;
+import gg.db.entities.Category;
+import gg.db.entities.Currency;
+import gg.db.entities.Payee;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.hibernate.Session;
+import org.joda.time.LocalDate;
+
+/**
+ * <B>DatamodelBenchmark</B>
+ * <UL>
+ * <LI>Microbenchmarks of the read paths of <CODE>Datamodel</CODE> (<CODE>getBalanceUntil</CODE>, <CODE>getBalance</CODE>, <CODE>getIncome</CODE>,
+ * <CODE>getCategoriesBalances</CODE>, <CODE>getTransactions</CODE>, <CODE>getAccountsBalancesUntil</CODE>, <CODE>getAccountsMovements</CODE>, <CODE>getCategoriesCube</CODE> and the assembly of the HQL queries) and of the construction of <CODE>Periods</CODE></LI>
+ * <LI>For each data size, a throwaway embedded database is filled by importing a file generated by <CODE>GrisbiFileGenerator</CODE></LI>
+ * <LI>Each query is measured with several filters: currency only, accounts, categories, large list of payees and keywords</LI>
+ * <LI>Each benchmark is run during warm-up iterations, then during measurement iterations of fixed duration
+ * (system properties <CODE>gg.benchmark.sizes</CODE>, <CODE>gg.benchmark.warmupIterations</CODE>,
+ * <CODE>gg.benchmark.iterations</CODE> and <CODE>gg.benchmark.iterationTime</CODE>)</LI>
+ * <LI>The results are written in CSV (one line per benchmark) on the standard output, or in the file <CODE>gg.benchmark.output</CODE></LI>
+ * <LI>JMH is not a library of the suite: the benchmarks are run by a plain loop of warm-up and measurement iterations,
+ * whose results are sent to a sink</LI>
+ * </UL>
+ * Usage: <CODE>java [-Dgg.benchmark.sizes=10000,100000] [-Dgg.benchmark.output=results.csv] gg.imports.DatamodelBenchmark</CODE>
+ * @author Francois Duchemin
+ */
+public class DatamodelBenchmark {
+
+    /** System property which sets the data sizes (numbers of operations, separated by commas) */
+    public static final String SIZES_PROPERTY = "gg.benchmark.sizes";
+    /** System property which sets the number of warm-up iterations */
+    public static final String WARMUP_ITERATIONS_PROPERTY = "gg.benchmark.warmupIterations";
+    /** System property which sets the number of measurement iterations */
+    public static final String ITERATIONS_PROPERTY = "gg.benchmark.iterations";
+    /** System property which sets the duration of an iteration (in ms) */
+    public static final String ITERATION_TIME_PROPERTY = "gg.benchmark.iterationTime";
+    /** System property which sets the CSV file where the results are written */
+    public static final String OUTPUT_PROPERTY = "gg.benchmark.output";
+    /** Number of payees in the filter 'payees' */
+    private static final int NUMBER_OF_FILTERED_PAYEES = 500;
+    /** Number of categories in the filter 'categories' */
+    private static final int NUMBER_OF_FILTERED_CATEGORIES = 10;
+    /** Sink of the results of the benchmarks, so that the JIT compiler cannot remove the measured code */
+    private static volatile int sink;
+    /** Number of warm-up iterations */
+    private int warmupIterations;
+    /** Number of measurement iterations */
+    private int iterations;
+    /** Duration of an iteration (in ms) */
+    private long iterationTime;
+    /** Where the results are written */
+    private PrintStream results;
+
+    /**
+     * <B>Benchmark</B>
+     * <UL>
+     * <LI>Code measured by a benchmark</LI>
+     * </UL>
+     */
+    private interface Benchmark {
+
+        /**
+         * Runs the measured code once
+         * @return Result of the code (sent to the sink)
+         * @throws Exception If the code fails
+         */
+        Object run() throws Exception;
+    }
+
+    /**
+     * Creates a new instance of DatamodelBenchmark
+     * @param results Where the results are written
+     */
+    private DatamodelBenchmark(PrintStream results) {
+        this.warmupIterations = Integer.getInteger(WARMUP_ITERATIONS_PROPERTY, 3);
+        this.iterations = Math.max(1, Integer.getInteger(ITERATIONS_PROPERTY, 5));
+        this.iterationTime = Long.getLong(ITERATION_TIME_PROPERTY, 1000);
+        this.results = results;
+    }
+
+    /**
+     * Measures a benchmark and writes the result
+     * @param name Name of the benchmark
+     * @param size Data size (number of operations)
+     * @param filter Filter used by the benchmark
+     * @param benchmark Measured code
+     * @throws Exception If the measured code fails
+     */
+    private void measure(String name, long size, String filter, Benchmark benchmark) throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            runIteration(benchmark);
+        }
+
+        double[] scores = new double[iterations]; // Operations per second of each iteration
+        double sum = 0;
+        for (int i = 0; i < iterations; i++) {
+            scores[i] = runIteration(benchmark);
+            sum += scores[i];
+        }
+        double mean = sum / iterations;
+        double squares = 0;
+        for (double score : scores) {
+            squares += (score - mean) * (score - mean);
+        }
+        double standardDeviation = (iterations > 1 ? Math.sqrt(squares / (iterations - 1)) : 0);
+
+        results.println(String.format(java.util.Locale.ROOT, "\"%s\",%d,\"%s\",%d,%.3f,%.3f,%.3f",
+                name, size, filter, iterations, mean, standardDeviation, (mean == 0 ? 0 : 1000000 / mean)));
+        results.flush();
+    }
+
+    /**
+     * Runs an iteration of a benchmark
+     * @param benchmark Measured code
+     * @return Number of runs per second
+     * @throws Exception If the measured code fails
+     */
+    private double runIteration(Benchmark benchmark) throws Exception {
+        long start = System.nanoTime();
+        long end = start + iterationTime * 1000000;
+        long numberOfRuns = 0;
+        long now;
+        do {
+            sink ^= System.identityHashCode(benchmark.run());
+            numberOfRuns++;
+            now = System.nanoTime();
+        } while (now < end);
+        return numberOfRuns * 1000000000.0 / (now - start);
+    }
+
+    /**
+     * Fills the database with a generated Grisbi file
+     * @param benchmarkHome Folder of the throwaway database
+     * @param size Number of operations
+     * @throws Exception If the file cannot be generated or imported
+     */
+    private static void fillDatabase(File benchmarkHome, long size) throws Exception {
+        Datamodel.emptyDatabase();
+        File grisbiFile = new File(benchmarkHome, "benchmark-" + size + ".gsb");
+        GrisbiFileGenerator generator = GrisbiFileGenerator.fromSystemProperties();
+        generator.setNumberOfOperations(size);
+        generator.setNumberOfPayees(Math.max(NUMBER_OF_FILTERED_PAYEES * 2, Integer.getInteger(GrisbiFileGenerator.PROPERTY_PREFIX + "payees", 0)));
+        generator.generate(grisbiFile);
+        new ImporterEngine(grisbiFile).importFile();
+        grisbiFile.delete();
+    }
+
+    /**
+     * Gets the filters used by the benchmarks of the queries
+     * @return Search criteria - the key of the map is the name of the filter
+     */
+    private static Map<String, SearchCriteria> getFilters() {
+        Currency currency = Datamodel.getActiveCurrencies().get(0);
+        Period period = new Period(new LocalDate(2005, 1, 1), new LocalDate(2005, 12, 31), PeriodType.FREE);
+        List<Account> accounts = Datamodel.getActiveAccounts(currency);
+        List<Category> categories = new ArrayList<Category>();
+        for (Category category : Datamodel.getTopCategories()) {
+            if (categories.size() < NUMBER_OF_FILTERED_CATEGORIES && category.getGrisbiCategoryId() > 0) {
+                categories.add(category);
+            }
+        }
+        List<Payee> payees = Datamodel.getPayees();
+        payees = new ArrayList<Payee>(payees.subList(0, Math.min(NUMBER_OF_FILTERED_PAYEES, payees.size())));
+
+        Map<String, SearchCriteria> filters = new LinkedHashMap<String, SearchCriteria>();
+        filters.put("currency", new SearchCriteria(currency, null, period, null, null, null, true));
+        filters.put("accounts", new SearchCriteria(currency, accounts.subList(0, Math.min(2, accounts.size())), period, null, null, null, true));
+        filters.put("categories", new SearchCriteria(currency, null, period, categories, null, null, false));
+        filters.put("payees", new SearchCriteria(currency, null, period, null, payees, null, true));
+        filters.put("keywords", new SearchCriteria(currency, null, period, null, null, "operation 1", true));
+        filters.put("one payee, all years", new SearchCriteria(currency, null, null, null, payees.subList(0, 1), null, true));
+        return filters;
+    }
+
+    /**
+     * Runs the benchmarks of the queries for a data size
+     * @param size Data size (number of operations)
+     * @throws Exception If a query fails
+     */
+    private void measureQueries(long size) throws Exception {
+        // Balances and movements of all the accounts for two years of monthly periods
+        final List<Account> accounts = Datamodel.getActiveAccounts();
+        final Periods periods = new Periods(new LocalDate(2004, 1, 1), new LocalDate(2005, 12, 31), PeriodType.MONTH);
+        measure("getAccountsBalancesUntil", size, "all accounts x 24 months", new Benchmark() {
+
+            @Override
+            public Object run() {
+                return Datamodel.getAccountsBalancesUntil(accounts, periods);
+            }
+        });
+        measure("getAccountsMovements", size, "all accounts x 24 months", new Benchmark() {
+
+            @Override
+            public Object run() {
+                return Datamodel.getAccountsMovements(accounts, periods);
+            }
+        });
+
+        // Balances of all the categories for two years of monthly periods
+        final List<Category> categories = Datamodel.getCategories();
+        final SearchCriteria allCategories = new SearchCriteria();
+        measure("getCategoriesCube", size, "all categories x 24 months", new Benchmark() {
+
+            @Override
+            public Object run() {
+                return Datamodel.getCategoriesCube(allCategories, periods, categories);
+            }
+        });
+
+        // Same views with daily periods
+        final Periods days = new Periods(new LocalDate(2004, 1, 1), new LocalDate(2005, 12, 31), PeriodType.DAY);
+        measure("getAccountsMovements", size, "all accounts x 730 days", new Benchmark() {
+
+            @Override
+            public Object run() {
+                return Datamodel.getAccountsMovements(accounts, days);
+            }
+        });
+        measure("getCategoriesCube", size, "all categories x 730 days", new Benchmark() {
+
+            @Override
+            public Object run() {
+                return Datamodel.getCategoriesCube(allCategories, days, categories);
+            }
+        });
+
+        for (Map.Entry<String, SearchCriteria> filter : getFilters().entrySet()) {
+            final SearchCriteria searchCriteria = filter.getValue();
+
+            measure("getBalanceUntil", size, filter.getKey(), new Benchmark() {
+
+                @Override
+                public Object run() {
+                    return Datamodel.getBalanceUntil(searchCriteria);
+                }
+            });
+            measure("getBalance", size, filter.getKey(), new Benchmark() {
+
+                @Override
+                public Object run() {
+                    return Datamodel.getBalance(searchCriteria);
+                }
+            });
+            measure("getIncome", size, filter.getKey(), new Benchmark() {
+
+                @Override
+                public Object run() {
+                    return Datamodel.getIncome(searchCriteria);
+                }
+            });
+            measure("getCategoriesBalances", size, filter.getKey(), new Benchmark() {
+
+                @Override
+                public Object run() {
+                    return Datamodel.getCategoriesBalances(searchCriteria);
+                }
+            });
+            measure("getTransactions", size, filter.getKey(), new Benchmark() {
+
+                @Override
+                public Object run() {
+                    return Datamodel.getTransactions(searchCriteria);
+                }
+            });
+            measure("getQuery", size, filter.getKey(), new Benchmark() {
+
+                @Override
+                public Object run() {
+                    // The query is assembled without being executed
+                    Session session = Installer.createSession();
+                    try {
+                        return DatamodelQueries.getTransactionsQuery(session, searchCriteria, "select sum(t.amount)");
+                    } finally {
+                        session.close();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs the benchmarks of the construction of <CODE>Periods</CODE>
+     * @throws Exception If a benchmark fails
+     */
+    private void measurePeriods() throws Exception {
+        final LocalDate start = new LocalDate(2000, 1, 1);
+        for (final int numberOfYears : new int[] {1, 5, 20}) {
+            for (final PeriodType periodType : new PeriodType[] {PeriodType.DAY, PeriodType.MONTH}) {
+                measure("new Periods(" + periodType.name() + ")", numberOfYears, numberOfYears + " years", new Benchmark() {
+
+                    @Override
+                    public Object run() {
+                        return new Periods(start, start.plusYears(numberOfYears).minusDays(1), periodType).getPeriods();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Runs the benchmarks
+     * @param args Not used
+     * @throws Exception If a benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        File benchmarkHome = ImportBenchmark.useThrowawayDatabase();
+        PrintStream out = ImportBenchmark.hideStandardOutput();
+
+        String output = System.getProperty(OUTPUT_PROPERTY);
+        PrintStream results = (output == null ? out : new PrintStream(new FileOutputStream(output), true, "UTF-8"));
+        results.println("\"Benchmark\",\"Size\",\"Filter\",\"Samples\",\"Score (ops/s)\",\"Error (ops/s)\",\"Time (us/op)\"");
+        DatamodelBenchmark benchmark = new DatamodelBenchmark(results);
+
+        benchmark.measurePeriods();
+        for (String size : System.getProperty(SIZES_PROPERTY, "10000,100000").split(",")) {
+            long numberOfOperations = Long.parseLong(size.trim());
+            fillDatabase(benchmarkHome, numberOfOperations);
+            benchmark.measureQueries(numberOfOperations);
+        }
+
+        if (results != out) {
+            results.close();
+        }
+        System.exit(0);
+    }
+}
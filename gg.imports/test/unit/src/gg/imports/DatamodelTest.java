@@ -0,0 +1,180 @@
+/*
+ * DatamodelTest.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.imports;
+
+import gg.db.datamodel.Datamodel;
+import gg.db.datamodel.SearchCriteria;
+import gg.db.entities.Transaction;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.dom4j.io.OutputFormat;
+import org.dom4j.io.SAXReader;
+import org.dom4j.io.XMLWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test of Datamodel on the transactions of an imported Grisbi file
+ * @author Francois Duchemin
+ */
+public class DatamodelTest {
+
+    /** The transactions are loaded by ID if they are at most 1/TRANSACTIONS_SELECTIVITY of the transactions (see Datamodel) */
+    private static final int TRANSACTIONS_SELECTIVITY = 25;
+    /** Grisbi file imported by the test */
+    private File grisbiFile;
+
+    /**
+     * Uses a throwaway database (before the classes of the application are loaded)
+     * @throws Exception If the database folder cannot be created
+     */
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        ImportBenchmark.useThrowawayDatabase();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        grisbiFile = File.createTempFile("datamodel", ".gsb");
+    }
+
+    @After
+    public void tearDown() {
+        grisbiFile.delete();
+    }
+
+    /**
+     * Test of getTransactions method, of class Datamodel: the keywords ignore the accents and the case whether the transactions
+     * are loaded by ID (narrow filter) or by one query (broad filter)
+     */
+    @Test
+    public void testGetTransactionsKeywords() throws Exception {
+        GrisbiFileGenerator generator = new GrisbiFileGenerator();
+        generator.setNumberOfAccounts(2);
+        generator.setNumberOfCurrencies(1);
+        generator.setNumberOfOperations(300);
+        generator.setSplitRatio(0.1);
+        generator.generate(grisbiFile);
+
+        // One transaction out of two is a "Café", and a few of them are a "Café crème"
+        Document document = new SAXReader().read(grisbiFile);
+        List operations = document.selectNodes("/Grisbi/Comptes/Compte/Detail_des_operations/Operation[@Va='0']");
+        List<Long> cafeNumbers = new ArrayList<Long>();
+        List<Long> cremeNumbers = new ArrayList<Long>();
+        for (int i = 0; i < operations.size(); i += 2) {
+            Element operation = (Element) operations.get(i);
+            Long operationNumber = Long.valueOf(operation.attributeValue("No"));
+            if (i % 50 == 0) {
+                operation.addAttribute("N", "Café crème " + operationNumber);
+                cremeNumbers.add(operationNumber);
+            } else {
+                operation.addAttribute("N", "Café " + operationNumber);
+            }
+            cafeNumbers.add(operationNumber);
+        }
+        writeDocument(document, grisbiFile);
+
+        Datamodel.emptyDatabase();
+        new ImporterEngine(grisbiFile).importFile();
+        Datamodel.invalidateCaches();
+
+        // Broad filter: too many transactions to load them by ID
+        assertTrue(cafeNumbers.size() * TRANSACTIONS_SELECTIVITY > operations.size());
+        List<Transaction> cafeTransactions = getTransactions("cafe");
+        assertEquals(getSortedNumbers(cafeNumbers), getNumbers(cafeTransactions));
+        assertEquals(getNumbers(cafeTransactions), getNumbers(getTransactions("CAFÉ")));
+
+        // Narrow filter: the transactions are loaded by ID
+        assertTrue(cremeNumbers.size() * TRANSACTIONS_SELECTIVITY <= operations.size());
+        List<Transaction> cremeTransactions = getTransactions("café creme");
+        assertEquals(getSortedNumbers(cremeNumbers), getNumbers(cremeTransactions));
+
+        // The rows of the narrow filter are the rows of the broad filter which contain the other keyword
+        List<Transaction> cafeCremeTransactions = new ArrayList<Transaction>();
+        for (Transaction transaction : cafeTransactions) {
+            if (transaction.getComment().contains("crème")) {
+                cafeCremeTransactions.add(transaction);
+            }
+        }
+        assertEquals(getNumbers(cafeCremeTransactions), getNumbers(cremeTransactions));
+    }
+
+    /**
+     * Gets the transactions whose comment contains keywords
+     * @param keywords Keywords
+     * @return Transactions
+     */
+    private static List<Transaction> getTransactions(String keywords) {
+        return Datamodel.getTransactions(new SearchCriteria(null, null, null, null, null, keywords, true));
+    }
+
+    /**
+     * Gets the Grisbi numbers of transactions
+     * @param transactions Transactions
+     * @return Grisbi numbers of the transactions, sorted
+     */
+    private static List<Long> getNumbers(List<Transaction> transactions) {
+        List<Long> numbers = new ArrayList<Long>();
+        for (Transaction transaction : transactions) {
+            numbers.add(transaction.getGrisbiTransactionId());
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    /**
+     * Sorts numbers of operations
+     * @param numbers Numbers of operations
+     * @return Numbers, sorted
+     */
+    private static List<Long> getSortedNumbers(List<Long> numbers) {
+        List<Long> sortedNumbers = new ArrayList<Long>(numbers);
+        Collections.sort(sortedNumbers);
+        return sortedNumbers;
+    }
+
+    /**
+     * Writes a Grisbi file
+     * @param document Content of the Grisbi file
+     * @param grisbiFile File to write
+     * @throws Exception If the file cannot be written
+     */
+    private static void writeDocument(Document document, File grisbiFile) throws Exception {
+        OutputFormat format = new OutputFormat();
+        format.setEncoding("ISO-8859-1");
+        OutputStream out = new FileOutputStream(grisbiFile);
+        try {
+            new XMLWriter(out, format).write(document);
+        } finally {
+            out.close();
+        }
+    }
+}
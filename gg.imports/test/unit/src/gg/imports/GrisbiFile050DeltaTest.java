@@ -0,0 +1,413 @@
+/*
+ * GrisbiFile050DeltaTest.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.imports;
+
+import gg.db.datamodel.Datamodel;
+import gg.db.entities.Account;
+import gg.db.entities.Category;
+import gg.db.entities.Currency;
+import gg.db.entities.Payee;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.dom4j.io.OutputFormat;
+import org.dom4j.io.SAXReader;
+import org.dom4j.io.XMLWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test of GrisbiFile050Delta: a Grisbi file is fully imported, then re-imported with a delta import<BR/>
+ * After each delta import, the content of the database must be the same as after a full import of the same file
+ * @author Francois Duchemin
+ */
+public class GrisbiFile050DeltaTest {
+
+    /** Number of sub-categories of each generated category */
+    private static final int NUMBER_OF_SUB_CATEGORIES = 2;
+    /** Number of system categories (transfer, breakdown of transactions, no category) */
+    private static final int NUMBER_OF_SYSTEM_CATEGORIES = 3;
+    /** Grisbi file imported by the test */
+    private File grisbiFile;
+
+    /**
+     * Uses a throwaway database (before the classes of the application are loaded)
+     * @throws Exception If the database folder cannot be created
+     */
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        ImportBenchmark.useThrowawayDatabase();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        grisbiFile = File.createTempFile("delta", ".gsb");
+    }
+
+    @After
+    public void tearDown() {
+        grisbiFile.delete();
+    }
+
+    /**
+     * Test of importFile method, of class GrisbiFile050Delta: only the transactions which changed are written
+     */
+    @Test
+    public void testImportFileChangedTransactions() throws Exception {
+        getGenerator(2, 5, 3).generate(grisbiFile);
+        importFile(grisbiFile);
+
+        // The file did not change: nothing is written
+        GrisbiFile050Delta delta = updateFile(grisbiFile, null);
+        assertRows(delta, 0, 0, 0);
+
+        // One transaction changed, one transaction deleted and one transaction inserted in the first account
+        Document document = new SAXReader().read(grisbiFile);
+        Element account = (Element) document.selectSingleNode("/Grisbi/Comptes/Compte");
+        List operations = account.selectNodes("Detail_des_operations/Operation[@Va='0' and @Ov='0']");
+        BigDecimal change = new BigDecimal("10.00");
+        BigDecimal insertedAmount = new BigDecimal("-12.34");
+        Element changedOperation = (Element) operations.get(0);
+        changedOperation.addAttribute("M", formatAmount(getAmount(changedOperation.attributeValue("M")).add(change)));
+        Element deletedOperation = (Element) operations.get(1);
+        if (getAmount(deletedOperation.attributeValue("M")).compareTo(change.add(insertedAmount)) == 0) {
+            deletedOperation = (Element) operations.get(2); // The balance of the account has to change
+        }
+        deletedOperation.detach();
+        Element insertedOperation = changedOperation.createCopy();
+        insertedOperation.addAttribute("No", Long.toString(getLastOperationNumber(document) + 1));
+        insertedOperation.addAttribute("M", formatAmount(insertedAmount));
+        ((Element) account.selectSingleNode("Detail_des_operations")).add(insertedOperation);
+        addToBalance(account, change.add(insertedAmount).subtract(getAmount(deletedOperation.attributeValue("M"))));
+        writeDocument(document, grisbiFile);
+
+        // The account and the currency are updated because their balances changed
+        delta = updateFile(grisbiFile, null);
+        assertRows(delta, 1, 3, 1);
+        assertTotals();
+        List<String> content = getDatabaseContent();
+
+        // The file did not change since the last delta import: nothing is written
+        delta = updateFile(grisbiFile, null);
+        assertRows(delta, 0, 0, 0);
+
+        importFile(grisbiFile);
+        assertEquals(getDatabaseContent(), content);
+    }
+
+    /**
+     * Test of importFile method, of class GrisbiFile050Delta: the payees, the categories and the accounts which are not in the file
+     * anymore are deleted with their transactions
+     */
+    @Test
+    public void testImportFileStaleEntities() throws Exception {
+        getGenerator(3, 10, 5).generate(grisbiFile);
+        importFile(grisbiFile);
+        Map<Long, Set<Long>> oldOperationNumbers = getOperationNumbers(grisbiFile);
+
+        getGenerator(2, 5, 3).generate(grisbiFile);
+        Map<Long, Set<Long>> newOperationNumbers = getOperationNumbers(grisbiFile);
+        GrisbiFile050Delta delta = updateFile(grisbiFile, null);
+
+        // 5 payees, 2 categories with their sub-categories and 1 account deleted; the transactions are matched by account and Grisbi ID
+        assertEquals(getNumberOfMissingOperations(newOperationNumbers, oldOperationNumbers), delta.getNumberOfInsertedRows());
+        assertEquals(5 + 2 * (NUMBER_OF_SUB_CATEGORIES + 2) + 1 + getNumberOfMissingOperations(oldOperationNumbers, newOperationNumbers),
+                delta.getNumberOfDeletedRows());
+        assertEquals(5 + 1, Datamodel.getPayees().size()); // The payees of the file and the default payee
+        assertEquals(NUMBER_OF_SYSTEM_CATEGORIES + 3 * (NUMBER_OF_SUB_CATEGORIES + 2), Datamodel.getCategories().size());
+        assertEquals(2, Datamodel.getAccounts().size());
+        assertTotals();
+        List<String> content = getDatabaseContent();
+
+        importFile(grisbiFile);
+        assertEquals(getDatabaseContent(), content);
+    }
+
+    /**
+     * Test of importFile method, of class GrisbiFile050Delta: the transactions can use the payees, the categories and the accounts
+     * inserted by the same delta import (the cached reference data is not stale)
+     */
+    @Test
+    public void testImportFileNewEntities() throws Exception {
+        getGenerator(2, 5, 3).generate(grisbiFile);
+        importFile(grisbiFile);
+        assertEquals(5 + 1, Datamodel.getPayees().size()); // The reference data is cached
+
+        getGenerator(3, 10, 5).generate(grisbiFile);
+        updateFile(grisbiFile, null);
+        assertEquals(10 + 1, Datamodel.getPayees().size());
+        assertEquals(NUMBER_OF_SYSTEM_CATEGORIES + 5 * (NUMBER_OF_SUB_CATEGORIES + 2), Datamodel.getCategories().size());
+        assertEquals(3, Datamodel.getAccounts().size());
+        assertTotals();
+        List<String> content = getDatabaseContent();
+
+        importFile(grisbiFile);
+        assertEquals(getDatabaseContent(), content);
+    }
+
+    /**
+     * Test of importFile method, of class GrisbiFile050Delta: only the transactions of one account are re-imported
+     */
+    @Test
+    public void testImportFileOneAccount() throws Exception {
+        getGenerator(2, 5, 3).generate(grisbiFile);
+        importFile(grisbiFile);
+
+        // One transaction changed in each account
+        Document document = new SAXReader().read(grisbiFile);
+        BigDecimal change = new BigDecimal("1.00");
+        for (Object account : document.selectNodes("/Grisbi/Comptes/Compte")) {
+            Element accountElement = (Element) account;
+            Element operation = (Element) accountElement.selectSingleNode("Detail_des_operations/Operation[@Va='0' and @Ov='0']");
+            operation.addAttribute("M", formatAmount(getAmount(operation.attributeValue("M")).add(change)));
+            addToBalance(accountElement, change);
+        }
+        writeDocument(document, grisbiFile);
+
+        // The transaction of the second account, both accounts and the currency are updated
+        GrisbiFile050Delta delta = updateFile(grisbiFile, 1L);
+        assertRows(delta, 0, 4, 0);
+
+        // The transaction of the first account has not been re-imported
+        delta = updateFile(grisbiFile, null);
+        assertRows(delta, 0, 1, 0);
+        assertTotals();
+    }
+
+    /**
+     * Gets a generator of small Grisbi files (one currency, the same seed for all the files)
+     * @param numberOfAccounts Number of accounts
+     * @param numberOfPayees Number of payees
+     * @param numberOfCategories Number of top categories
+     * @return Generator
+     */
+    private static GrisbiFileGenerator getGenerator(int numberOfAccounts, int numberOfPayees, int numberOfCategories) {
+        GrisbiFileGenerator generator = new GrisbiFileGenerator();
+        generator.setNumberOfAccounts(numberOfAccounts);
+        generator.setNumberOfCurrencies(1);
+        generator.setNumberOfPayees(numberOfPayees);
+        generator.setNumberOfCategories(numberOfCategories);
+        generator.setNumberOfSubCategories(NUMBER_OF_SUB_CATEGORIES);
+        generator.setNumberOfOperations(200);
+        generator.setSplitRatio(0.1);
+        return generator;
+    }
+
+    /**
+     * Fully imports a Grisbi file into an empty database
+     * @param grisbiFile Grisbi file
+     * @throws Exception If the file cannot be imported
+     */
+    private static void importFile(File grisbiFile) throws Exception {
+        Datamodel.emptyDatabase();
+        new ImporterEngine(grisbiFile).importFile();
+        Datamodel.invalidateCaches();
+    }
+
+    /**
+     * Re-imports a Grisbi file with a delta import, like <CODE>ImporterEngine</CODE>
+     * @param grisbiFile Grisbi file
+     * @param accountId ID of the account to re-import (null to re-import all the accounts)
+     * @return Delta importer (which contains the numbers of written rows)
+     * @throws Exception If the file cannot be imported
+     */
+    private static GrisbiFile050Delta updateFile(File grisbiFile, Long accountId) throws Exception {
+        GrisbiFile050Delta delta = new GrisbiFile050Delta(grisbiFile, accountId);
+        Datamodel.deleteDailyBalances();
+        delta.importFile();
+        Datamodel.updateDailyBalances();
+        Datamodel.invalidateCaches();
+        return delta;
+    }
+
+    /**
+     * Checks the numbers of rows written by a delta import
+     * @param delta Delta importer
+     * @param inserted Expected number of inserted rows
+     * @param updated Expected number of updated rows
+     * @param deleted Expected number of deleted rows
+     */
+    private static void assertRows(GrisbiFile050Delta delta, long inserted, long updated, long deleted) {
+        assertEquals("Inserted rows", inserted, delta.getNumberOfInsertedRows());
+        assertEquals("Updated rows", updated, delta.getNumberOfUpdatedRows());
+        assertEquals("Deleted rows", deleted, delta.getNumberOfDeletedRows());
+    }
+
+    /** Checks that the balance of each account is its initial amount plus the total of its transactions */
+    private static void assertTotals() {
+        Map<Long, BigDecimal> accountsTotalBalances = Datamodel.getAccountsTotalBalances();
+        for (Account account : Datamodel.getAccounts()) {
+            BigDecimal accountTotalBalance = accountsTotalBalances.get(account.getId());
+            assertNotNull(accountTotalBalance);
+            assertEquals(0, account.getBalance().compareTo(accountTotalBalance.add(account.getInitialAmount())));
+        }
+    }
+
+    /**
+     * Gets the content of the database, independently of the generated IDs
+     * @return Description of each entity, sorted
+     */
+    private static List<String> getDatabaseContent() {
+        List<String> content = new ArrayList<String>();
+        for (Payee payee : Datamodel.getPayees()) {
+            content.add("Payee " + payee.getId() + " " + payee.getName());
+        }
+        Map<Long, Category> categories = Datamodel.getCategoriesWithId();
+        for (Category category : categories.values()) {
+            content.add("Category " + category.getGrisbiCategoryId() + "." + category.getGrisbiSubCategoryId() + " " + category.getName());
+        }
+        for (Currency currency : Datamodel.getCurrencies()) {
+            content.add("Currency " + currency.getId() + " " + currency.getName() + " " + currency.getBalance().stripTrailingZeros().toPlainString() +
+                    " " + currency.getActive());
+        }
+        for (Account account : Datamodel.getAccounts()) {
+            content.add("Account " + account.getId() + " " + account.getName() + " " + account.getBalance().stripTrailingZeros().toPlainString());
+
+            // Transactions: [ID, Grisbi ID, date, amount, category ID, payee ID, comment, parent transaction ID]
+            List transactions = Datamodel.getImportedTransactions(account.getId());
+            Map<Long, Long> grisbiIds = new HashMap<Long, Long>();
+            for (Object transaction : transactions) {
+                Object[] row = (Object[]) transaction;
+                grisbiIds.put((Long) row[0], (Long) row[1]);
+            }
+            for (Object transaction : transactions) {
+                Object[] row = (Object[]) transaction;
+                Category category = categories.get((Long) row[4]);
+                content.add("Transaction " + account.getId() + "/" + row[1] + " " + row[2] + " " +
+                        ((BigDecimal) row[3]).stripTrailingZeros().toPlainString() + " " +
+                        category.getGrisbiCategoryId() + "." + category.getGrisbiSubCategoryId() + " " + row[5] + " " + row[6] + " " +
+                        (row[7] == null ? "-" : grisbiIds.get((Long) row[7])));
+            }
+        }
+        Collections.sort(content);
+        return content;
+    }
+
+    /**
+     * Gets the numbers of the operations of a Grisbi file
+     * @param grisbiFile Grisbi file
+     * @return Numbers of the operations (including the sub-operations) - the key of the map is the number of the account
+     * @throws Exception If the file cannot be read
+     */
+    private static Map<Long, Set<Long>> getOperationNumbers(File grisbiFile) throws Exception {
+        Map<Long, Set<Long>> operationNumbers = new HashMap<Long, Set<Long>>();
+        for (Object account : new SAXReader().read(grisbiFile).selectNodes("/Grisbi/Comptes/Compte")) {
+            Element accountElement = (Element) account;
+            Set<Long> accountOperationNumbers = new HashSet<Long>();
+            for (Object operation : accountElement.selectNodes("Detail_des_operations/Operation")) {
+                accountOperationNumbers.add(Long.parseLong(((Element) operation).attributeValue("No")));
+            }
+            operationNumbers.put(Long.parseLong(accountElement.selectSingleNode("Details/No_de_compte").getText()), accountOperationNumbers);
+        }
+        return operationNumbers;
+    }
+
+    /**
+     * Counts the operations which are in a file and not in another file (in the same account)
+     * @param operationNumbers Numbers of the operations of the first file, by account
+     * @param otherOperationNumbers Numbers of the operations of the other file, by account
+     * @return Number of operations of the first file which are not in the other file
+     */
+    private static long getNumberOfMissingOperations(Map<Long, Set<Long>> operationNumbers, Map<Long, Set<Long>> otherOperationNumbers) {
+        long numberOfMissingOperations = 0;
+        for (Map.Entry<Long, Set<Long>> account : operationNumbers.entrySet()) {
+            Set<Long> otherAccountOperationNumbers = otherOperationNumbers.get(account.getKey());
+            for (Long operationNumber : account.getValue()) {
+                if (otherAccountOperationNumbers == null || !otherAccountOperationNumbers.contains(operationNumber)) {
+                    numberOfMissingOperations++;
+                }
+            }
+        }
+        return numberOfMissingOperations;
+    }
+
+    /**
+     * Gets the greatest number of operation of a Grisbi file
+     * @param document Grisbi file
+     * @return Greatest number of operation
+     */
+    private static long getLastOperationNumber(Document document) {
+        long lastOperationNumber = 0;
+        for (Object operation : document.selectNodes("/Grisbi/Comptes/Compte/Detail_des_operations/Operation")) {
+            lastOperationNumber = Math.max(lastOperationNumber, Long.parseLong(((Element) operation).attributeValue("No")));
+        }
+        return lastOperationNumber;
+    }
+
+    /**
+     * Adds an amount to the current balance of an account
+     * @param account Account element
+     * @param amount Amount to add
+     */
+    private static void addToBalance(Element account, BigDecimal amount) {
+        Element balance = (Element) account.selectSingleNode("Details/Solde_courant");
+        balance.setText(formatAmount(getAmount(balance.getText()).add(amount)));
+    }
+
+    /**
+     * Writes a Grisbi file
+     * @param document Content of the Grisbi file
+     * @param grisbiFile File to write
+     * @throws Exception If the file cannot be written
+     */
+    private static void writeDocument(Document document, File grisbiFile) throws Exception {
+        OutputFormat format = new OutputFormat();
+        format.setEncoding("ISO-8859-1");
+        OutputStream out = new FileOutputStream(grisbiFile);
+        try {
+            new XMLWriter(out, format).write(document);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Parses an amount written in a Grisbi file
+     * @param amount Amount (i.e. "-12,50")
+     * @return Amount
+     */
+    private static BigDecimal getAmount(String amount) {
+        return new BigDecimal(amount.replace(',', '.'));
+    }
+
+    /**
+     * Formats an amount like in the Grisbi files
+     * @param amount Amount
+     * @return Formatted amount (i.e. "-12,50")
+     */
+    private static String formatAmount(BigDecimal amount) {
+        return amount.setScale(2).toPlainString().replace('.', ',');
+    }
+}
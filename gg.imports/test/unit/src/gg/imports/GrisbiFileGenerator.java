@@ -0,0 +1,448 @@
+/*
+ * GrisbiFileGenerator.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.imports;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+import org.joda.time.LocalDate;
+
+/**
+ * <B>GrisbiFileGenerator</B>
+ * <UL>
+ * <LI>Generates synthetic Grisbi 0.5.0 files, used to measure the performance of the imports</LI>
+ * <LI>The numbers of accounts, currencies, payees, categories and operations can be set, as well as the share of
+ * split operations (breakdowns of transactions) and the share of operations in a foreign currency</LI>
+ * <LI>The operations are written directly into the file: the memory used does not depend on the number of operations
+ * (the operations of each account are generated twice with the same seed, once to compute the header of the account
+ * and once to write them)</LI>
+ * <LI>The balances written in the file are consistent with the operations, so that the consistency checks of the imports succeed</LI>
+ * </UL>
+ * Usage: <CODE>java gg.imports.GrisbiFileGenerator &lt;file&gt;</CODE> (the parameters are read from the system properties <CODE>gg.generator.*</CODE>)
+ * @author Francois Duchemin
+ */
+public class GrisbiFileGenerator {
+
+    /** Prefix of the system properties read by <CODE>fromSystemProperties()</CODE> */
+    public static final String PROPERTY_PREFIX = "gg.generator.";
+    /** Encoding of the generated files */
+    private static final String ENCODING = "ISO-8859-1";
+    /** ISO codes of the first currencies */
+    private static final String[] ISO_CODES = {"EUR", "USD", "GBP", "CHF", "JPY", "CAD", "AUD", "SEK"};
+    /** Date of the first operation */
+    private static final LocalDate START_DATE = new LocalDate(2000, 1, 1);
+    /** Number of days covered by the operations of each account */
+    private static final int NUMBER_OF_DAYS = 10 * 365;
+    /** Number of accounts */
+    private int numberOfAccounts = 5;
+    /** Number of currencies */
+    private int numberOfCurrencies = 2;
+    /** Number of payees */
+    private int numberOfPayees = 200;
+    /** Number of categories */
+    private int numberOfCategories = 20;
+    /** Number of sub-categories of each category */
+    private int numberOfSubCategories = 5;
+    /** Number of operations (the sub-operations of the split operations are not counted) */
+    private long numberOfOperations = 10000;
+    /** Share of split operations (between 0 and 1) */
+    private double splitRatio = 0.05;
+    /** Share of operations in a foreign currency (between 0 and 1) */
+    private double foreignCurrencyRatio = 0.02;
+    /** Seed of the random generator: the same seed gives the same file */
+    private long seed = 1;
+
+    /**
+     * Creates a new generator with the parameters read from the system properties
+     * <CODE>gg.generator.accounts</CODE>, <CODE>gg.generator.currencies</CODE>, <CODE>gg.generator.payees</CODE>,
+     * <CODE>gg.generator.categories</CODE>, <CODE>gg.generator.subCategories</CODE>, <CODE>gg.generator.operations</CODE>,
+     * <CODE>gg.generator.splitRatio</CODE>, <CODE>gg.generator.foreignCurrencyRatio</CODE> and <CODE>gg.generator.seed</CODE>
+     * (the default value is used when a property is not defined)
+     * @return Generator
+     */
+    public static GrisbiFileGenerator fromSystemProperties() {
+        GrisbiFileGenerator generator = new GrisbiFileGenerator();
+        generator.setNumberOfAccounts(Integer.getInteger(PROPERTY_PREFIX + "accounts", generator.numberOfAccounts));
+        generator.setNumberOfCurrencies(Integer.getInteger(PROPERTY_PREFIX + "currencies", generator.numberOfCurrencies));
+        generator.setNumberOfPayees(Integer.getInteger(PROPERTY_PREFIX + "payees", generator.numberOfPayees));
+        generator.setNumberOfCategories(Integer.getInteger(PROPERTY_PREFIX + "categories", generator.numberOfCategories));
+        generator.setNumberOfSubCategories(Integer.getInteger(PROPERTY_PREFIX + "subCategories", generator.numberOfSubCategories));
+        generator.setNumberOfOperations(Long.getLong(PROPERTY_PREFIX + "operations", generator.numberOfOperations));
+        generator.setSplitRatio(Double.parseDouble(System.getProperty(PROPERTY_PREFIX + "splitRatio", String.valueOf(generator.splitRatio))));
+        generator.setForeignCurrencyRatio(Double.parseDouble(System.getProperty(PROPERTY_PREFIX + "foreignCurrencyRatio", String.valueOf(generator.foreignCurrencyRatio))));
+        generator.setSeed(Long.getLong(PROPERTY_PREFIX + "seed", generator.seed));
+        return generator;
+    }
+
+    /**
+     * Sets the number of accounts
+     * @param numberOfAccounts Number of accounts (greater than 0)
+     */
+    public void setNumberOfAccounts(int numberOfAccounts) {
+        if (numberOfAccounts <= 0) {
+            throw new IllegalArgumentException("The parameter 'numberOfAccounts' should be greater than 0");
+        }
+        this.numberOfAccounts = numberOfAccounts;
+    }
+
+    /**
+     * Sets the number of currencies
+     * @param numberOfCurrencies Number of currencies (greater than 0)
+     */
+    public void setNumberOfCurrencies(int numberOfCurrencies) {
+        if (numberOfCurrencies <= 0) {
+            throw new IllegalArgumentException("The parameter 'numberOfCurrencies' should be greater than 0");
+        }
+        this.numberOfCurrencies = numberOfCurrencies;
+    }
+
+    /**
+     * Sets the number of payees
+     * @param numberOfPayees Number of payees (greater than 0)
+     */
+    public void setNumberOfPayees(int numberOfPayees) {
+        if (numberOfPayees <= 0) {
+            throw new IllegalArgumentException("The parameter 'numberOfPayees' should be greater than 0");
+        }
+        this.numberOfPayees = numberOfPayees;
+    }
+
+    /**
+     * Sets the number of categories
+     * @param numberOfCategories Number of categories (greater than 0)
+     */
+    public void setNumberOfCategories(int numberOfCategories) {
+        if (numberOfCategories <= 0) {
+            throw new IllegalArgumentException("The parameter 'numberOfCategories' should be greater than 0");
+        }
+        this.numberOfCategories = numberOfCategories;
+    }
+
+    /**
+     * Sets the number of sub-categories of each category
+     * @param numberOfSubCategories Number of sub-categories (greater or equal to 0)
+     */
+    public void setNumberOfSubCategories(int numberOfSubCategories) {
+        if (numberOfSubCategories < 0) {
+            throw new IllegalArgumentException("The parameter 'numberOfSubCategories' should be greater or equal to 0");
+        }
+        this.numberOfSubCategories = numberOfSubCategories;
+    }
+
+    /**
+     * Sets the number of operations (the sub-operations of the split operations are not counted)
+     * @param numberOfOperations Number of operations (greater or equal to 0)
+     */
+    public void setNumberOfOperations(long numberOfOperations) {
+        if (numberOfOperations < 0) {
+            throw new IllegalArgumentException("The parameter 'numberOfOperations' should be greater or equal to 0");
+        }
+        this.numberOfOperations = numberOfOperations;
+    }
+
+    /**
+     * Sets the share of split operations
+     * @param splitRatio Share of split operations (between 0 and 1)
+     */
+    public void setSplitRatio(double splitRatio) {
+        if (splitRatio < 0 || splitRatio > 1) {
+            throw new IllegalArgumentException("The parameter 'splitRatio' should be between 0 and 1");
+        }
+        this.splitRatio = splitRatio;
+    }
+
+    /**
+     * Sets the share of operations in a foreign currency (ignored if there is only one currency)
+     * @param foreignCurrencyRatio Share of operations in a foreign currency (between 0 and 1)
+     */
+    public void setForeignCurrencyRatio(double foreignCurrencyRatio) {
+        if (foreignCurrencyRatio < 0 || foreignCurrencyRatio > 1) {
+            throw new IllegalArgumentException("The parameter 'foreignCurrencyRatio' should be between 0 and 1");
+        }
+        this.foreignCurrencyRatio = foreignCurrencyRatio;
+    }
+
+    /**
+     * Sets the seed of the random generator
+     * @param seed Seed (the same seed gives the same file)
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Generates a Grisbi file
+     * @param grisbiFile File to generate (replaced if it exists)
+     * @return Number of operations written in the file (including the sub-operations)
+     * @throws IOException If the file cannot be written
+     */
+    public long generate(File grisbiFile) throws IOException {
+        if (grisbiFile == null) {
+            throw new IllegalArgumentException("The parameter 'grisbiFile' is null");
+        }
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(grisbiFile), ENCODING), 1 << 16);
+        try {
+            out.write("<?xml version=\"1.0\" encoding=\"" + ENCODING + "\"?>\n");
+            out.write("<Grisbi>\n");
+            out.write("<Generalites>\n<Version_fichier>0.5.0</Version_fichier>\n<Version_grisbi>0.5.9</Version_grisbi>\n</Generalites>\n");
+            long numberOfWrittenOperations = writeAccounts(out);
+            writePayees(out);
+            writeCategories(out);
+            writeCurrencies(out);
+            out.write("</Grisbi>\n");
+            return numberOfWrittenOperations;
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the accounts and their operations
+     * @param out Writer of the Grisbi file
+     * @return Number of written operations (including the sub-operations)
+     * @throws IOException If the file cannot be written
+     */
+    private long writeAccounts(Writer out) throws IOException {
+        out.write("<Comptes>\n<Generalites><Ordre_des_comptes>");
+        for (int accountId = 0; accountId < numberOfAccounts; accountId++) {
+            out.write((accountId == 0 ? "" : "-") + accountId);
+        }
+        out.write("</Ordre_des_comptes></Generalites>\n");
+
+        long nextOperationId = 1;
+        for (int accountId = 0; accountId < numberOfAccounts; accountId++) {
+            int accountCurrencyId = getAccountCurrencyId(accountId);
+            long numberOfAccountOperations = numberOfOperations / numberOfAccounts + (accountId < numberOfOperations % numberOfAccounts ? 1 : 0);
+            long initialAmount = new Random(seed + accountId).nextInt(500000); // In cents
+
+            // First pass: compute the balance and the number of operations of the account
+            long[] summary = writeOperations(null, accountId, accountCurrencyId, numberOfAccountOperations, nextOperationId);
+
+            out.write("<Compte>\n<Details>\n");
+            out.write("<Nom>Account " + (accountId + 1) + "</Nom>\n");
+            out.write("<No_de_compte>" + accountId + "</No_de_compte>\n");
+            out.write("<Devise>" + accountCurrencyId + "</Devise>\n");
+            out.write("<Compte_cloture>0</Compte_cloture>\n");
+            out.write("<Solde_initial>" + formatAmount(initialAmount) + "</Solde_initial>\n");
+            out.write("<Solde_courant>" + formatAmount(initialAmount + summary[1]) + "</Solde_courant>\n");
+            out.write("<Nb_operations>" + summary[0] + "</Nb_operations>\n");
+            out.write("</Details>\n<Detail_des_operations>\n");
+
+            // Second pass: write the operations
+            writeOperations(out, accountId, accountCurrencyId, numberOfAccountOperations, nextOperationId);
+            nextOperationId += summary[0];
+
+            out.write("</Detail_des_operations>\n</Compte>\n");
+        }
+        out.write("</Comptes>\n");
+        out.write("<Echeances><Generalites><Nb_echeances>0</Nb_echeances></Generalites><Detail_des_echeances /></Echeances>\n");
+
+        return nextOperationId - 1;
+    }
+
+    /**
+     * Generates the operations of an account
+     * @param out Writer of the Grisbi file (null to compute the summary of the account without writing the operations)
+     * @param accountId ID of the account
+     * @param accountCurrencyId ID of the currency of the account
+     * @param numberOfAccountOperations Number of operations of the account (the sub-operations are not counted)
+     * @param firstOperationId ID of the first operation of the account
+     * @return {number of generated operations (including the sub-operations), sum of the amounts of the operations in the currency of the account (in cents)}
+     * @throws IOException If the file cannot be written
+     */
+    private long[] writeOperations(Writer out, int accountId, int accountCurrencyId, long numberOfAccountOperations, long firstOperationId) throws IOException {
+        Random random = new Random(seed * 31 + accountId); // The same operations are generated by both passes
+        long operationId = firstOperationId;
+        long balance = 0;
+
+        for (long i = 0; i < numberOfAccountOperations; i++) {
+            LocalDate date = START_DATE.plusDays((int) (i * NUMBER_OF_DAYS / numberOfAccountOperations));
+            boolean split = (random.nextDouble() < splitRatio);
+            boolean foreign = (numberOfCurrencies > 1 && random.nextDouble() < foreignCurrencyRatio);
+            int currencyId = accountCurrencyId;
+            int exchangeRate = 0; // In hundredths
+            if (foreign) {
+                currencyId = (accountCurrencyId + random.nextInt(numberOfCurrencies - 1)) % numberOfCurrencies + 1;
+                exchangeRate = 50 + random.nextInt(150);
+            }
+            long amount = (random.nextInt(10) == 0 ? 100000 + random.nextInt(200000) : -(100 + random.nextInt(20000))); // In cents
+            int payeeId = 1 + random.nextInt(numberOfPayees);
+            int categoryId = (split ? 0 : 1 + random.nextInt(numberOfCategories));
+            int subCategoryId = (split ? 0 : random.nextInt(numberOfSubCategories + 1));
+
+            // Amount of the operation in the currency of the account (see Operation050.toTransaction())
+            if (foreign) {
+                balance += BigDecimal.valueOf(amount, 2).multiply(BigDecimal.valueOf(exchangeRate, 2)).setScale(2, RoundingMode.HALF_EVEN).unscaledValue().longValue();
+            } else {
+                balance += amount;
+            }
+
+            long parentId = operationId;
+            if (out != null) {
+                writeOperation(out, operationId, date, amount, currencyId, exchangeRate, payeeId, categoryId, subCategoryId, split, 0);
+            }
+            operationId++;
+
+            // Sub-operations of the split operation: the amount is shared between them
+            if (split) {
+                int numberOfSubOperations = 2 + random.nextInt(3);
+                long remainingAmount = amount;
+                for (int j = 0; j < numberOfSubOperations; j++) {
+                    long subAmount = (j == numberOfSubOperations - 1 ? remainingAmount : amount / numberOfSubOperations);
+                    remainingAmount -= subAmount;
+                    int subOperationCategoryId = 1 + random.nextInt(numberOfCategories);
+                    int subOperationSubCategoryId = random.nextInt(numberOfSubCategories + 1);
+                    if (out != null) {
+                        writeOperation(out, operationId, date, subAmount, currencyId, exchangeRate, payeeId, subOperationCategoryId, subOperationSubCategoryId, false, parentId);
+                    }
+                    operationId++;
+                }
+            }
+        }
+
+        return new long[] {operationId - firstOperationId, balance};
+    }
+
+    /**
+     * Writes an operation
+     * @param out Writer of the Grisbi file
+     * @param operationId ID of the operation
+     * @param date Date of the operation
+     * @param amount Amount of the operation in its currency (in cents)
+     * @param currencyId ID of the currency of the operation
+     * @param exchangeRate Exchange rate of the operation (in hundredths, 0 if the operation is in the currency of the account)
+     * @param payeeId ID of the payee
+     * @param categoryId ID of the category (0 if no category)
+     * @param subCategoryId ID of the sub-category (0 if no sub-category)
+     * @param split true if the operation is a breakdown of transactions
+     * @param parentId ID of the parent operation (0 if the operation is not a sub-operation)
+     * @throws IOException If the file cannot be written
+     */
+    private static void writeOperation(Writer out, long operationId, LocalDate date, long amount, int currencyId, int exchangeRate,
+            int payeeId, int categoryId, int subCategoryId, boolean split, long parentId) throws IOException {
+        out.write("<Operation No=\"" + operationId + "\"" +
+                " D=\"" + date.getDayOfMonth() + "/" + date.getMonthOfYear() + "/" + date.getYear() + "\"" +
+                " M=\"" + formatAmount(amount) + "\"" +
+                " De=\"" + currencyId + "\"" +
+                " Rdc=\"0\"" +
+                " Tc=\"" + formatAmount(exchangeRate) + "\"" +
+                " Fc=\"0,00\"" +
+                " T=\"" + payeeId + "\"" +
+                " C=\"" + categoryId + "\"" +
+                " Sc=\"" + subCategoryId + "\"" +
+                " Ov=\"" + (split ? 1 : 0) + "\"" +
+                " N=\"Operation " + operationId + "\"" +
+                " Va=\"" + parentId + "\"" +
+                " Ro=\"0\" Rc=\"0\" />\n");
+    }
+
+    /**
+     * Writes the payees
+     * @param out Writer of the Grisbi file
+     * @throws IOException If the file cannot be written
+     */
+    private void writePayees(Writer out) throws IOException {
+        out.write("<Tiers>\n<Generalites><Nb_tiers>" + numberOfPayees + "</Nb_tiers><No_dernier_tiers>" + numberOfPayees + "</No_dernier_tiers></Generalites>\n");
+        out.write("<Detail_des_tiers>\n");
+        for (int payeeId = 1; payeeId <= numberOfPayees; payeeId++) {
+            out.write("<Tiers No=\"" + payeeId + "\" Nom=\"Payee " + payeeId + "\" Informations=\"\" Liaison=\"0\" />\n");
+        }
+        out.write("</Detail_des_tiers>\n</Tiers>\n");
+    }
+
+    /**
+     * Writes the categories and their sub-categories
+     * @param out Writer of the Grisbi file
+     * @throws IOException If the file cannot be written
+     */
+    private void writeCategories(Writer out) throws IOException {
+        out.write("<Categories>\n<Generalites><Nb_categories>" + numberOfCategories + "</Nb_categories><No_derniere_categorie>" + numberOfCategories + "</No_derniere_categorie></Generalites>\n");
+        out.write("<Detail_des_categories>\n");
+        for (int categoryId = 1; categoryId <= numberOfCategories; categoryId++) {
+            out.write("<Categorie No=\"" + categoryId + "\" Nom=\"Category " + categoryId + "\" Type=\"1\" No_derniere_sous_cagegorie=\"" + numberOfSubCategories + "\">\n");
+            for (int subCategoryId = 1; subCategoryId <= numberOfSubCategories; subCategoryId++) {
+                out.write("<Sous-categorie No=\"" + subCategoryId + "\" Nom=\"Sub-category " + categoryId + "." + subCategoryId + "\" />\n");
+            }
+            out.write("</Categorie>\n");
+        }
+        out.write("</Detail_des_categories>\n</Categories>\n");
+    }
+
+    /**
+     * Writes the currencies
+     * @param out Writer of the Grisbi file
+     * @throws IOException If the file cannot be written
+     */
+    private void writeCurrencies(Writer out) throws IOException {
+        out.write("<Devises>\n<Generalites><Nb_devises>" + numberOfCurrencies + "</Nb_devises><No_derniere_devise>" + numberOfCurrencies + "</No_derniere_devise></Generalites>\n");
+        out.write("<Detail_des_devises>\n");
+        for (int currencyId = 1; currencyId <= numberOfCurrencies; currencyId++) {
+            String isoCode = (currencyId <= ISO_CODES.length ? ISO_CODES[currencyId - 1] : "X" + currencyId);
+            out.write("<Devise No=\"" + currencyId + "\" Nom=\"Currency " + isoCode + "\" IsoCode=\"" + isoCode + "\" Code=\"" + isoCode + "\"" +
+                    " Passage_euro=\"0\" Date_dernier_change=\"\" Rapport_entre_devises=\"0\" Devise_en_rapport=\"0\" Change=\"0,00\" />\n");
+        }
+        out.write("</Detail_des_devises>\n</Devises>\n");
+    }
+
+    /**
+     * Gets the currency of an account
+     * @param accountId ID of the account
+     * @return ID of the currency of the account
+     */
+    private int getAccountCurrencyId(int accountId) {
+        return accountId % numberOfCurrencies + 1;
+    }
+
+    /**
+     * Formats an amount like in the Grisbi files
+     * @param amount Amount in cents
+     * @return Formatted amount (i.e. "-12,50")
+     */
+    private static String formatAmount(long amount) {
+        long absoluteAmount = Math.abs(amount);
+        long cents = absoluteAmount % 100;
+        return (amount < 0 ? "-" : "") + (absoluteAmount / 100) + "," + (cents < 10 ? "0" : "") + cents;
+    }
+
+    /**
+     * Generates a Grisbi file with the parameters read from the system properties
+     * @param args Path of the file to generate
+     * @throws IOException If the file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java [-Dgg.generator.operations=...] gg.imports.GrisbiFileGenerator <file>");
+            System.exit(1);
+        }
+        File grisbiFile = new File(args[0]);
+        long startTime = System.currentTimeMillis();
+        long numberOfWrittenOperations = fromSystemProperties().generate(grisbiFile);
+        System.out.println(numberOfWrittenOperations + " operations written in '" + grisbiFile.getAbsolutePath() + "' in " + (System.currentTimeMillis() - startTime) + " ms");
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * GrisbiFileGeneratorTest.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.imports;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.List;
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test of GrisbiFileGenerator
+ * @author Francois Duchemin
+ */
+public class GrisbiFileGeneratorTest {
+
+    /**
+     * Test of generate method, of class GrisbiFileGenerator.
+     */
+    @Test
+    public void testGenerate() throws Exception {
+        GrisbiFileGenerator generator = new GrisbiFileGenerator();
+        generator.setNumberOfAccounts(3);
+        generator.setNumberOfCurrencies(1);
+        generator.setNumberOfOperations(500);
+        generator.setSplitRatio(0.2);
+
+        File grisbiFile = File.createTempFile("generator", ".gsb");
+        try {
+            long numberOfOperations = generator.generate(grisbiFile);
+            Document document = new SAXReader().read(grisbiFile);
+
+            // The header of each account is consistent with its operations
+            List accounts = document.selectNodes("/Grisbi/Comptes/Compte");
+            assertEquals(3, accounts.size());
+            long totalNumberOfOperations = 0;
+            for (Object account : accounts) {
+                Element accountElement = (Element) account;
+                List operations = accountElement.selectNodes("Detail_des_operations/Operation");
+                assertEquals(Long.parseLong(accountElement.selectSingleNode("Details/Nb_operations").getText()), operations.size());
+                totalNumberOfOperations += operations.size();
+
+                BigDecimal balance = getAmount(accountElement.selectSingleNode("Details/Solde_initial").getText());
+                for (Object operation : operations) {
+                    Element operationElement = (Element) operation;
+                    if (operationElement.attributeValue("Va").equals("0")) {
+                        balance = balance.add(getAmount(operationElement.attributeValue("M")));
+                    }
+                }
+                assertEquals(0, balance.compareTo(getAmount(accountElement.selectSingleNode("Details/Solde_courant").getText())));
+            }
+            assertEquals(numberOfOperations, totalNumberOfOperations);
+        } finally {
+            grisbiFile.delete();
+        }
+    }
+
+    /**
+     * Test of setSplitRatio method, of class GrisbiFileGenerator.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetSplitRatio() {
+        GrisbiFileGenerator generator = new GrisbiFileGenerator();
+        generator.setSplitRatio(1.5);
+    }
+
+    /**
+     * Converts an amount read from a Grisbi file
+     * @param amount Amount (i.e. "-12,50")
+     * @return Amount
+     */
+    private static BigDecimal getAmount(String amount) {
+        return new BigDecimal(amount.replace(',', '.'));
+    }
+}
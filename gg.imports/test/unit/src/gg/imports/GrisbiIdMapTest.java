@@ -0,0 +1,114 @@
+/*
+ * GrisbiIdMapTest.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.imports;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test of GrisbiIdMap
+ * @author Francois Duchemin
+ */
+public class GrisbiIdMapTest {
+
+    /**
+     * Test of put and get methods, of class GrisbiIdMap: the map grows and keeps all the entries
+     */
+    @Test
+    public void testGrowth() {
+        GrisbiIdMap map = new GrisbiIdMap();
+        for (long grisbiId = 1; grisbiId <= 100000; grisbiId++) {
+            map.put(grisbiId, grisbiId * 7);
+        }
+        assertEquals(100000, map.size());
+        for (long grisbiId = 1; grisbiId <= 100000; grisbiId++) {
+            assertEquals(grisbiId * 7, map.get(grisbiId));
+        }
+        assertEquals(GrisbiIdMap.NOT_FOUND, map.get(100001));
+    }
+
+    /**
+     * Test of put and get methods, of class GrisbiIdMap: the Grisbi IDs which share the same slot are all found
+     */
+    @Test
+    public void testCollisions() {
+        // Multiples of a power of two: many of them fall in the same slots of a small table
+        GrisbiIdMap map = new GrisbiIdMap();
+        for (long i = 1; i <= 1000; i++) {
+            map.put(i << 32, i);
+            map.put(i << 16, -i);
+        }
+        assertEquals(2000, map.size());
+        for (long i = 1; i <= 1000; i++) {
+            assertEquals(i, map.get(i << 32));
+            assertEquals(-i, map.get(i << 16));
+        }
+        assertEquals(GrisbiIdMap.NOT_FOUND, map.get(1001L << 32));
+    }
+
+    /**
+     * Test of put method, of class GrisbiIdMap: an existing entry is replaced
+     */
+    @Test
+    public void testReplace() {
+        GrisbiIdMap map = new GrisbiIdMap();
+        map.put(5, 50);
+        map.put(5, 55);
+        assertEquals(1, map.size());
+        assertEquals(55, map.get(5));
+    }
+
+    /**
+     * Test of get method, of class GrisbiIdMap: the Grisbi IDs which are not greater than 0 are never found
+     */
+    @Test
+    public void testGetInvalidGrisbiId() {
+        GrisbiIdMap map = new GrisbiIdMap();
+        map.put(1, 10);
+        assertEquals(GrisbiIdMap.NOT_FOUND, map.get(0));
+        assertEquals(GrisbiIdMap.NOT_FOUND, map.get(-1));
+    }
+
+    /**
+     * Test of put method, of class GrisbiIdMap: the Grisbi ID must be greater than 0
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testPutInvalidGrisbiId() {
+        new GrisbiIdMap().put(0, 10);
+    }
+
+    /**
+     * Test of clear method, of class GrisbiIdMap
+     */
+    @Test
+    public void testClear() {
+        GrisbiIdMap map = new GrisbiIdMap();
+        for (long grisbiId = 1; grisbiId <= 100; grisbiId++) {
+            map.put(grisbiId, grisbiId);
+        }
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(GrisbiIdMap.NOT_FOUND, map.get(1));
+        map.put(1, 2);
+        assertEquals(2, map.get(1));
+    }
+}
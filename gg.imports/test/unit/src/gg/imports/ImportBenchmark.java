@@ -0,0 +1,362 @@
+/*
+ * ImportBenchmark.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.imports;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <B>ImportBenchmark</B>
+ * <UL>
+ * <LI>Measures the performance of the imports: <CODE>ImporterEngine.importFile()</CODE> is run end to end
+ * against a throwaway embedded database</LI>
+ * <LI>For each run, the throughput of each phase (payees, categories, currencies, accounts, transactions) is reported in rows/s,
+ * with the peak heap usage and the allocation rate of the import</LI>
+ * <LI>The Grisbi file is generated by <CODE>GrisbiFileGenerator</CODE> (parameters <CODE>gg.generator.*</CODE>) if no file is given</LI>
+ * <LI>The number of runs is set by the system property <CODE>gg.benchmark.runs</CODE> (the first run warms up the JVM)</LI>
+ * </UL>
+ * Usage: <CODE>java [-Dgg.generator.operations=1000000] [-Dgg.benchmark.runs=3] gg.imports.ImportBenchmark [file]</CODE>
+ * @author Francois Duchemin
+ */
+public class ImportBenchmark {
+
+    /** System property which sets the number of runs */
+    public static final String RUNS_PROPERTY = "gg.benchmark.runs";
+    /** Message logged by the importers at the end of each phase, i.e. "1000 payees have been successfully imported in 25 ms" */
+    private static final Pattern PHASE_MESSAGE = Pattern.compile("^(\\d+) (\\w+) have been successfully (?:imported|compared) in (\\d+) ms$");
+    /** Time between two samples of the memory usage (in ms) */
+    private static final long SAMPLING_PERIOD = 10;
+
+    /**
+     * <B>Phase</B>
+     * <UL>
+     * <LI>Duration of a phase of an import, read from the messages logged by the importers</LI>
+     * </UL>
+     */
+    private static class Phase {
+
+        /** Name of the phase (i.e. "transactions") */
+        private String name;
+        /** Number of imported rows */
+        private long numberOfRows;
+        /** Duration of the phase (in ms) */
+        private long duration;
+
+        /**
+         * Creates a new instance of Phase
+         * @param name Name of the phase
+         * @param numberOfRows Number of imported rows
+         * @param duration Duration of the phase (in ms)
+         */
+        private Phase(String name, long numberOfRows, long duration) {
+            this.name = name;
+            this.numberOfRows = numberOfRows;
+            this.duration = duration;
+        }
+    }
+
+    /**
+     * <B>PhaseHandler</B>
+     * <UL>
+     * <LI>Collects the phases logged by the importers during a run</LI>
+     * </UL>
+     */
+    private static class PhaseHandler extends Handler {
+
+        /** Phases of the current run, in the order of the import */
+        private List<Phase> phases = new ArrayList<Phase>();
+
+        @Override
+        public synchronized void publish(LogRecord record) {
+            if (record.getMessage() == null) {
+                return;
+            }
+            Matcher matcher = PHASE_MESSAGE.matcher(record.getMessage());
+            if (matcher.matches()) {
+                phases.add(new Phase(matcher.group(2), Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(3))));
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        /**
+         * Gets the phases logged since the last call, and forgets them
+         * @return Phases of the current run
+         */
+        private synchronized List<Phase> takePhases() {
+            List<Phase> currentPhases = phases;
+            phases = new ArrayList<Phase>();
+            return currentPhases;
+        }
+    }
+
+    /**
+     * <B>MemorySampler</B>
+     * <UL>
+     * <LI>Samples the heap usage and the bytes allocated by all the threads during a run</LI>
+     * <LI>The allocated bytes are read per thread (if the JVM supports it), so that the threads of the import pipeline are counted
+     * even if they end before the run</LI>
+     * </UL>
+     */
+    private static class MemorySampler extends Thread {
+
+        /** Bytes allocated by each thread, at the last sample - the key is the ID of the thread */
+        private Map<Long, Long> allocatedBytes = new HashMap<Long, Long>();
+        /** Bytes allocated by each thread, at the start of the run - the key is the ID of the thread */
+        private Map<Long, Long> initialAllocatedBytes = new HashMap<Long, Long>();
+        /** Is the sampling stopped? */
+        private volatile boolean stopped;
+
+        /** Creates a new instance of MemorySampler */
+        private MemorySampler() {
+            super("Import benchmark memory sampler");
+            setDaemon(true);
+
+            // Reset the peak usages of the heap
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    pool.resetPeakUsage();
+                }
+            }
+            sample();
+            initialAllocatedBytes.putAll(allocatedBytes);
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                sample();
+                try {
+                    Thread.sleep(SAMPLING_PERIOD);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+
+        /** Reads the bytes allocated by each live thread */
+        private synchronized void sample() {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+                return;
+            }
+            com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+            if (!allocations.isThreadAllocatedMemorySupported() || !allocations.isThreadAllocatedMemoryEnabled()) {
+                return;
+            }
+            long[] threadIds = threads.getAllThreadIds();
+            long[] threadAllocatedBytes = allocations.getThreadAllocatedBytes(threadIds);
+            for (int i = 0; i < threadIds.length; i++) {
+                if (threadAllocatedBytes[i] >= 0) {
+                    allocatedBytes.put(threadIds[i], threadAllocatedBytes[i]);
+                }
+            }
+        }
+
+        /**
+         * Stops the sampling
+         * @return Bytes allocated since the creation of the sampler (-1 if the JVM does not support it)
+         */
+        private long stopSampling() {
+            stopped = true;
+            interrupt();
+            try {
+                join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            sample();
+
+            synchronized (this) {
+                if (allocatedBytes.isEmpty()) {
+                    return -1;
+                }
+                long totalAllocatedBytes = 0;
+                for (Map.Entry<Long, Long> threadAllocatedBytes : allocatedBytes.entrySet()) {
+                    Long initialBytes = initialAllocatedBytes.get(threadAllocatedBytes.getKey());
+                    totalAllocatedBytes += threadAllocatedBytes.getValue() - (initialBytes == null ? 0 : initialBytes);
+                }
+                return totalAllocatedBytes;
+            }
+        }
+
+        /**
+         * Gets the peak usage of the heap since the creation of the sampler
+         * @return Sum of the peak usages of the heap memory pools (in bytes)
+         */
+        private static long getPeakHeapUsage() {
+            long peakHeapUsage = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                    peakHeapUsage += pool.getPeakUsage().getUsed();
+                }
+            }
+            return peakHeapUsage;
+        }
+    }
+
+    /**
+     * Runs the benchmark
+     * @param args Path of the Grisbi file to import (optional)
+     * @throws Exception If the Grisbi file cannot be generated or imported
+     */
+    public static void main(String[] args) throws Exception {
+        File benchmarkHome = useThrowawayDatabase();
+        PrintStream out = hideStandardOutput();
+
+        // Get the Grisbi file to import
+        File grisbiFile;
+        if (args.length > 0) {
+            grisbiFile = new File(args[0]);
+        } else {
+            grisbiFile = new File(benchmarkHome, "benchmark.gsb");
+            long startTime = System.currentTimeMillis();
+            long numberOfOperations = GrisbiFileGenerator.fromSystemProperties().generate(grisbiFile);
+            out.println(numberOfOperations + " operations generated in " + (System.currentTimeMillis() - startTime) + " ms (" + grisbiFile.length() / 1024 + " KB)");
+        }
+
+        // Collect the phases logged by the importers
+        PhaseHandler phaseHandler = new PhaseHandler();
+        phaseHandler.setLevel(Level.INFO);
+        Logger importsLogger = Logger.getLogger("gg.imports");
+        importsLogger.addHandler(phaseHandler);
+
+        int numberOfRuns = Math.max(1, Integer.getInteger(RUNS_PROPERTY, 3));
+        for (int run = 1; run <= numberOfRuns; run++) {
+            gg.db.datamodel.Datamodel.emptyDatabase();
+            phaseHandler.takePhases();
+            System.gc();
+
+            MemorySampler sampler = new MemorySampler();
+            sampler.start();
+            long startTime = System.currentTimeMillis();
+            new ImporterEngine(grisbiFile).importFile();
+            long duration = System.currentTimeMillis() - startTime;
+            long allocatedBytes = sampler.stopSampling();
+            long peakHeapUsage = MemorySampler.getPeakHeapUsage();
+
+            // Report the run
+            out.println("Run " + run + "/" + numberOfRuns + (run == 1 ? " (warm-up)" : "") + ": " + duration + " ms");
+            for (Phase phase : phaseHandler.takePhases()) {
+                out.println(String.format("  %-14s %10d rows %8d ms %12.0f rows/s",
+                        phase.name, phase.numberOfRows, phase.duration, getThroughput(phase.numberOfRows, phase.duration)));
+            }
+            out.println(String.format("  peak heap: %.1f MB", peakHeapUsage / (1024.0 * 1024.0)));
+            if (allocatedBytes >= 0) {
+                out.println(String.format("  allocated: %.1f MB (%.1f MB/s)",
+                        allocatedBytes / (1024.0 * 1024.0), getThroughput(allocatedBytes, duration) / (1024.0 * 1024.0)));
+            } else {
+                out.println("  allocated: not supported by this JVM");
+            }
+        }
+
+        importsLogger.removeHandler(phaseHandler);
+        System.exit(0);
+    }
+
+    /**
+     * Uses a throwaway embedded database, deleted when the JVM exits<BR/>
+     * Has to be called before the application classes are loaded: the folder of the database is read from 'user.home'
+     * @return Folder which contains the database
+     * @throws IOException If the folder cannot be created
+     */
+    static File useThrowawayDatabase() throws IOException {
+        final File benchmarkHome = File.createTempFile("gg-benchmark", "");
+        if (!benchmarkHome.delete() || !benchmarkHome.mkdir()) {
+            throw new IOException("The folder '" + benchmarkHome.getAbsolutePath() + "' cannot be created");
+        }
+        System.setProperty("user.home", benchmarkHome.getAbsolutePath());
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+
+            @Override
+            public void run() {
+                delete(benchmarkHome);
+            }
+        });
+        return benchmarkHome;
+    }
+
+    /**
+     * Hides the standard output, so that the SQL statements printed by Hibernate (<CODE>hibernate.show_sql</CODE>) are not measured
+     * @return Original standard output, used to report the results
+     */
+    static PrintStream hideStandardOutput() {
+        PrintStream standardOutput = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+        return standardOutput;
+    }
+
+    /**
+     * Gets a throughput
+     * @param quantity Processed quantity
+     * @param duration Duration (in ms)
+     * @return Quantity processed per second
+     */
+    private static double getThroughput(long quantity, long duration) {
+        return (duration == 0 ? 0 : quantity * 1000.0 / duration);
+    }
+
+    /**
+     * Deletes a file or a folder with its content
+     * @param file File or folder to delete
+     */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
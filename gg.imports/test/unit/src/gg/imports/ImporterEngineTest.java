@@ -0,0 +1,176 @@
+/*
+ * ImporterEngineTest.java
+ *
+ * Copyright (C) 2009 Francois Duchemin
+ *
+ * This file is part of GrisbiGraphs.
+ *
+ * GrisbiGraphs is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * GrisbiGraphs is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GrisbiGraphs; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package gg.imports;
+
+import gg.db.datamodel.Datamodel;
+import gg.db.entities.FileImport;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test of ImporterEngine
+ * @author Francois Duchemin
+ */
+public class ImporterEngineTest {
+
+    /** Grisbi file imported by the test */
+    private File grisbiFile;
+    /** Grisbi file which cannot be imported */
+    private File invalidGrisbiFile;
+    /** Messages logged by the datamodel */
+    private MessageHandler messageHandler;
+
+    /**
+     * Uses a throwaway database (before the classes of the application are loaded)
+     * @throws Exception If the database folder cannot be created
+     */
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        ImportBenchmark.useThrowawayDatabase();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        grisbiFile = File.createTempFile("engine", ".gsb");
+        invalidGrisbiFile = File.createTempFile("invalid", ".gsb");
+        messageHandler = new MessageHandler();
+        Logger.getLogger("gg.db.datamodel.Datamodel").addHandler(messageHandler);
+    }
+
+    @After
+    public void tearDown() {
+        Logger.getLogger("gg.db.datamodel.Datamodel").removeHandler(messageHandler);
+        grisbiFile.delete();
+        invalidGrisbiFile.delete();
+    }
+
+    /**
+     * Test of importAndLogFile method, of class ImporterEngine: after an import which failed, the snapshot of the transactions
+     * of the previous import is mapped again
+     */
+    @Test
+    public void testImportAndLogFileFailed() throws Exception {
+        GrisbiFileGenerator generator = new GrisbiFileGenerator();
+        generator.setNumberOfAccounts(2);
+        generator.setNumberOfCurrencies(1);
+        generator.setNumberOfOperations(200);
+        generator.generate(grisbiFile);
+
+        // The logged import saves the snapshot of the transactions, which is mapped when the columns are loaded
+        Datamodel.emptyDatabase();
+        FileImport fileImport = new ImporterEngine(grisbiFile).importAndLogFile(ImporterEngine.getContentHash(grisbiFile));
+        assertTrue(fileImport.getSuccess());
+        Datamodel.invalidateCaches();
+        Datamodel.buildCaches();
+        assertTrue(messageHandler.takeMessages().contains("mapped from the snapshot"));
+
+        // The file is truncated in the accounts: the import fails while the reference data are read, before the database is emptied
+        truncateFile(grisbiFile, invalidGrisbiFile, "<Comptes>");
+        try {
+            new ImporterEngine(invalidGrisbiFile).importAndLogFile(ImporterEngine.getContentHash(invalidGrisbiFile));
+            fail("The import of a truncated file must fail");
+        } catch (ParsingException ex) {
+            // Expected
+        }
+        messageHandler.takeMessages();
+        Datamodel.buildCaches();
+        assertTrue(messageHandler.takeMessages().contains("mapped from the snapshot"));
+    }
+
+    /**
+     * Copies the beginning of a Grisbi file
+     * @param grisbiFile Grisbi file
+     * @param truncatedFile Copy of the beginning of the Grisbi file
+     * @param element Element of the Grisbi file after which the file is truncated
+     * @throws Exception If the file cannot be copied
+     */
+    private static void truncateFile(File grisbiFile, File truncatedFile, String element) throws Exception {
+        byte[] content = new byte[(int) grisbiFile.length()];
+        InputStream in = new FileInputStream(grisbiFile);
+        try {
+            int length = 0;
+            while (length < content.length) {
+                length += in.read(content, length, content.length - length);
+            }
+        } finally {
+            in.close();
+        }
+
+        int end = new String(content, "ISO-8859-1").indexOf(element);
+        assertTrue(end > 0);
+        OutputStream out = new FileOutputStream(truncatedFile);
+        try {
+            out.write(content, 0, end + element.length() + 1);
+        } finally {
+            out.close();
+        }
+    }
+
+    /** Handler which collects the messages logged by the datamodel */
+    private static class MessageHandler extends Handler {
+
+        /** Messages logged since the last call to takeMessages */
+        private final List<String> messages = new ArrayList<String>();
+
+        @Override
+        public synchronized void publish(LogRecord record) {
+            if (record.getLevel().intValue() >= Level.INFO.intValue()) {
+                messages.add(record.getMessage());
+            }
+        }
+
+        /**
+         * Gets the messages logged since the last call, and forgets them
+         * @return Messages, separated by new lines
+         */
+        public synchronized String takeMessages() {
+            StringBuilder text = new StringBuilder();
+            for (String message : messages) {
+                text.append(message).append('\n');
+            }
+            messages.clear();
+            return text.toString();
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -53,6 +53,7 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.JTree;
+import javax.swing.Timer;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreePath;
@@ -148,6 +149,12 @@ public final class SearchFilterTopComponent extends TopComponent implements Look
     private static final String DATE_TO_KEY = "DateTo";
     /** Key used to identify the 'by' property */
     private static final String PERIOD_TYPE_KEY = "PeriodType";
+    /** Delay (in milliseconds) during which successive searches are coalesced: only the last search filter is published */
+    private static final int SEARCH_DELAY = 250;
+    /** Timer which publishes the pending search filter when no search has been done during <CODE>SEARCH_DELAY</CODE> */
+    private Timer searchTimer;
+    /** Search filter waiting to be published (null if there is none) */
+    private SearchFilter pendingSearchFilter;
     /** Logger */
     private Logger log = Logger.getLogger(this.getClass().getName());
 
@@ -164,6 +171,16 @@ public final class SearchFilterTopComponent extends TopComponent implements Look
         // Initialize the topcomponent's lookup
         associateLookup(new AbstractLookup(content));
 
+        // Publish the search filter once the user has stopped searching
+        searchTimer = new Timer(SEARCH_DELAY, new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent evt) {
+                publishSearchFilter();
+            }
+        });
+        searchTimer.setRepeats(false);
+
         // Initiate the controls
         jLabelFrom = new JLabel(NbBundle.getMessage(SearchFilterTopComponent.class, "SearchFilterTopComponent.jLabelFrom.text"));
         jXDatePickerFrom = new JXDatePicker();
@@ -400,7 +417,11 @@ public final class SearchFilterTopComponent extends TopComponent implements Look
         }
     }
 
-    /** When the button 'Search' is clicked, creates a searchfilter object and put it in the lookup */
+    /**
+     * When the button 'Search' is clicked, creates a searchfilter object and put it in the lookup<BR/>
+     * The search filter is published after <CODE>SEARCH_DELAY</CODE>: a burst of searches publishes only the last search filter,
+     * so that the views do not compute the results of the intermediate searches
+     */
     public void search() {
         log.entering(this.getClass().getName(), "search");
 
@@ -546,12 +567,24 @@ public final class SearchFilterTopComponent extends TopComponent implements Look
         SearchFilter searchFilter = new SearchFilter(from, to, periodType, selectedCurrency,
                 selectedAccounts, selectedCategories, selectedPayees, keywords);
 
-        // Put the search filter in the lookup of the TC
-        content.set(Collections.singleton(searchFilter), null);
+        // Put the search filter in the lookup of the TC when no other search is done during the delay
+        pendingSearchFilter = searchFilter;
+        searchTimer.restart();
 
         log.exiting(this.getClass().getName(), "search");
     }
 
+    /** Puts the pending search filter in the lookup of the TC */
+    private void publishSearchFilter() {
+        if (pendingSearchFilter == null) {
+            return;
+        }
+
+        content.set(Collections.singleton(pendingSearchFilter), null);
+        log.fine("Search filter published");
+        pendingSearchFilter = null;
+    }
+
     /** This method is called from within the constructor to
      * initialize the jPanelSearchFilter.
      * WARNING: Do NOT modify this code. The content of this method is
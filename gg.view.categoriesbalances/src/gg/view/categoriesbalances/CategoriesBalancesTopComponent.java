@@ -22,8 +22,8 @@
 package gg.view.categoriesbalances;
 
 import gg.searchfilter.FieldsVisibility;
-import gg.db.datamodel.Datamodel;
-import gg.db.datamodel.Period;
+import gg.db.datamodel.AsyncDatamodel;
+import gg.db.datamodel.CategoriesCube;
 import gg.db.datamodel.Periods;
 import gg.db.datamodel.SearchCriteria;
 import gg.db.entities.Category;
@@ -35,12 +35,12 @@ import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Logger;
 import javax.swing.JTable;
 import javax.swing.ListSelectionModel;
+import javax.swing.SwingWorker;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreePath;
@@ -52,6 +52,7 @@ import org.netbeans.api.settings.ConvertAsProperties;
 import org.netbeans.swing.outline.DefaultOutlineModel;
 import org.netbeans.swing.outline.OutlineModel;
 import org.netbeans.swing.outline.RowModel;
+import org.openide.util.Exceptions;
 import org.openide.util.Lookup;
 import org.openide.util.LookupEvent;
 import org.openide.util.LookupListener;
@@ -79,6 +80,8 @@ public final class CategoriesBalancesTopComponent extends TopComponent implement
     private SearchFilter displayedSearchFilter;
     /** Defines which filters are supported by this view */
     private FieldsVisibility fieldsVisibility = new FieldsVisibility();
+    /** Computation of the displayed table (null if the table is displayed) */
+    private SwingWorker<CategoriesCube, Void> displayWorker;
     /** Logger */
     private Logger log = Logger.getLogger(this.getClass().getName());
 
@@ -337,120 +340,40 @@ public final class CategoriesBalancesTopComponent extends TopComponent implement
     }
 
     /**
-     * Displays the categories/sub-categories balances by period
+     * Displays the categories/sub-categories balances by period<BR/>
+     * The balances are computed outside of the event dispatch thread, then the table is updated.
+     * The computation is cancelled if another search filter is displayed before the end
      * @param searchFilter Search filter for which the table must be computed
      */
-    private void displayData(SearchFilter searchFilter) {
-        log.info("Categories' balances table computed and displayed");
+    private void displayData(final SearchFilter searchFilter) {
+        // Cancel the computation of the previous search filter
+        if (displayWorker != null) {
+            displayWorker.cancel(true);
+        }
 
         // Display hourglass cursor
         Utilities.changeCursorWaitStatus(true);
 
-        // Map containing the categories' balances by category ID and search criteria
-        // ((Category ID) --> (SearchCriteria --> Category balance))
-        Map<Long, Map<SearchCriteria, BigDecimal>> categoryBalances =
-                new HashMap<Long, Map<SearchCriteria, BigDecimal>>();
-
-        // List of search criteria (one per column)
-        List<SearchCriteria> searchCriterias = new ArrayList<SearchCriteria>();
-
         // List of periods (one per column)
-        Periods periods = new Periods(searchFilter.getFrom(),
+        final Periods periods = new Periods(searchFilter.getFrom(),
                 searchFilter.getTo(),
                 searchFilter.getPeriodType());
 
-        // Compute the sub-categories' balances (categories have always a balance of 0)
-        for (Period period : periods.getPeriods()) {
-            // Define the search criteria to query the database
-            SearchCriteria searchCriteria = new SearchCriteria();
-            searchCriteria.setPeriod(period);
-            searchCriteria.setCurrency(searchFilter.getCurrency());
-            searchCriteria.setAccounts(searchFilter.getAccounts());
-            searchCriteria.setCategories(searchFilter.getCategories());
-
-            searchCriterias.add(searchCriteria);
-
-            // Get all categories' (categories and sub-categories) balances for the current search criteria
-            List categoriesBalancesForCurrentSearchFilter = Datamodel.getCategoriesBalances(searchCriteria);
-
-            // For each category, add (SearchCriteria --> Category balance)
-            for (Object rowCategoryBalanceObject : categoriesBalancesForCurrentSearchFilter) {
-                Object[] rowCategoryBalance = (Object[]) rowCategoryBalanceObject;
-                // Get category ID
-                Long categoryId = (Long) rowCategoryBalance[0];
-                assert (categoryId != null);
-                // Get category balance
-                BigDecimal categoryBalance = (BigDecimal) rowCategoryBalance[1];
-                assert (categoryBalance != null);
-
-                // Map containing the category's balances
-                // (SearchCriteria --> Category balance)
-                Map<SearchCriteria, BigDecimal> balancesForCurrentCategory =
-                        new HashMap<SearchCriteria, BigDecimal>();
-                // If categories' balances have already been added for other search criteria
-                if (categoryBalances.get(categoryId) != null) {
-                    balancesForCurrentCategory.putAll(categoryBalances.get(categoryId));
-                }
-                // Add the balance of the current category
-                balancesForCurrentCategory.put(searchCriteria, categoryBalance);
-
-
-                // Add (SearchCriteria, Category balance) to the current category
-                categoryBalances.put(categoryId, balancesForCurrentCategory);
-            }
-
-            // Compute the top-categories' balances
-            for (Category topCategory : Wallet.getInstance().getTopCategories()) {
-                // Initialize the category's balance
-                BigDecimal topCategoryBalance = new BigDecimal(0);
-
-                // Add the balance of each sub-category that will added to the tree
-                for (Category subCategory : Wallet.getInstance().getSubCategoriesWithParentCategory().get(topCategory)) {
-                    // The sub-category <subCategory> will be added to the tree if:
-                    // - the user didn't select any category in the search filter or
-                    // - <subCategory> has been selected in the search filter,
-                    //   or the parent category of <subCategory> has been selected in the search filter
-                    if (!searchCriteria.hasCategoriesFilter() ||
-                            isCategoryToDisplay(searchCriteria.getCategories(), subCategory)) {
-                        Map<SearchCriteria, BigDecimal> subCategoryBalances =
-                                categoryBalances.get(subCategory.getId());
-                        if (subCategoryBalances != null) {
-                            // Get the balance of the sub-category for the current search criteria
-                            BigDecimal subCategoryBalance = subCategoryBalances.get(searchCriteria);
-
-                            // Add it to the category's balance
-                            if (subCategoryBalance != null) { // Add the sub-category's balance
-                                topCategoryBalance = topCategoryBalance.add(subCategoryBalance);
-                            } else { // Put the balance 0 in the sub-category's map
-                                subCategoryBalances.put(searchCriteria, new BigDecimal(0));
-                            }
-                        } else {
-                            Map<SearchCriteria, BigDecimal> subCategoryBalanceZero = new HashMap<SearchCriteria, BigDecimal>();
-                            subCategoryBalanceZero.put(searchCriteria, new BigDecimal(0));
-
-                            categoryBalances.put(subCategory.getId(), subCategoryBalanceZero);
-                        }
-                    }
-                }
-
-                // Map that contains the category's balance for the current search criteria
-                // (Search criteria --> Category's balance)
-                Map<SearchCriteria, BigDecimal> topCategoryBalances =
-                        new HashMap<SearchCriteria, BigDecimal>();
-                // If categories' balances have already been added for other SearchFilters
-                if (categoryBalances.get(topCategory.getId()) != null) {
-                    topCategoryBalances.putAll(categoryBalances.get(topCategory.getId()));
-                }
-                // Add the balance of the category
-                topCategoryBalances.put(searchCriteria, topCategoryBalance);
-
-                // Add (SearchCriteria, Category balance> to the current category
-                categoryBalances.put(topCategory.getId(), topCategoryBalances);
-            }
+        // Define the search criteria to query the database
+        final SearchCriteria searchCriteria = new SearchCriteria();
+        searchCriteria.setCurrency(searchFilter.getCurrency());
+        searchCriteria.setAccounts(searchFilter.getAccounts());
+        searchCriteria.setCategories(searchFilter.getCategories());
+
+        // Categories and sub-categories (one row per category: each top-category is followed by its sub-categories)
+        final List<Category> categories = new ArrayList<Category>();
+        for (Category topCategory : Wallet.getInstance().getTopCategories()) {
+            categories.add(topCategory);
+            categories.addAll(Wallet.getInstance().getSubCategoriesWithParentCategory().get(topCategory));
         }
 
         // Prepare the tree model
-        DefaultMutableTreeNode rootNode = new DefaultMutableTreeNode(); // Root (Not displayed)
+        final DefaultMutableTreeNode rootNode = new DefaultMutableTreeNode(); // Root (Not displayed)
 
         // Add the categories and the sub-categories into the tree
         for (Category category : Wallet.getInstance().getTopCategories()) {
@@ -469,11 +392,8 @@ public final class CategoriesBalancesTopComponent extends TopComponent implement
                     // - the user didn't select any category in the search filter or
                     // - <subCategory> has been selected in the search filter,
                     //   or the parent category of <subCategory> has been selected in the search filter
-                    // AND
-                    // - there are some balances' movements for <subCategory> or
-                    //   <subCategory> has been explicitly selected in the seatch filter (in which case 0 are written)
-                    if ((!searchFilter.hasCategoriesFilter() || isCategoryToDisplay(searchFilter.getCategories(), subCategory)) &&
-                            (categoryBalances.get(subCategory.getId()) != null || searchFilter.getCategories().contains(subCategory))) {
+                    // (0 are written if there are no balances' movements for <subCategory>)
+                    if (!searchFilter.hasCategoriesFilter() || isCategoryToDisplay(searchFilter.getCategories(), subCategory)) {
                         // Add the sub-category node into the tree
                         DefaultMutableTreeNode subCategoryNode = new DefaultMutableTreeNode(subCategory);
                         categoryNode.add(subCategoryNode);
@@ -490,55 +410,80 @@ public final class CategoriesBalancesTopComponent extends TopComponent implement
             }
         }
 
-        // Create the outline based on the model
-        DefaultTreeModel treeModel = new DefaultTreeModel(rootNode);
-        OutlineModel outlineModel = DefaultOutlineModel.createOutlineModel(
-                treeModel,
-                new CategoriesBalancesRowModel(searchCriterias, categoryBalances),
-                true,
-                NbBundle.getMessage(CategoriesBalancesTopComponent.class, "CategoriesBalancesTopComponent.Category"));
-        outlineCategoriesBalances.setModel(outlineModel);
-
-        // Expand all nodes of the outline
-        for (int i = 0; i < rootNode.getChildCount(); i++) {
-            outlineCategoriesBalances.expandPath(new TreePath(((DefaultMutableTreeNode) rootNode.getChildAt(i)).getPath()));
-        }
+        // Save the search filter being displayed (a new search with the same filter does not restart the computation)
+        this.displayedSearchFilter = searchFilter;
 
-        // Resize the columns' widths
-        Utilities.packColumns(outlineCategoriesBalances);
+        displayWorker = new SwingWorker<CategoriesCube, Void>() {
 
-        // Save the currently displayed search filter
-        this.displayedSearchFilter = searchFilter;
+            /** Computes the balances (outside of the event dispatch thread) */
+            @Override
+            protected CategoriesCube doInBackground() throws Exception {
+                // Compute the categories' balances for all the periods (one grouped query)
+                // The top-categories' balances are the sums of the balances of their displayed sub-categories
+                return AsyncDatamodel.getResult(AsyncDatamodel.getCategoriesCube(searchCriteria, periods, categories));
+            }
 
-        // Put the balances map in the lookup so that it can be displayed as a chart by another topcomponent
-        content.set(Collections.singleton(categoryBalances), null);
-        content.add(fieldsVisibility); // Add a description of the supported filters for the search filter topcomponent
+            /** Displays the computed table (in the event dispatch thread) */
+            @Override
+            protected void done() {
+                if (displayWorker != this) {
+                    return; // Cancelled: another search filter is being displayed
+                }
+                displayWorker = null;
+
+                try {
+                    CategoriesCube categoriesCube = get();
+                    log.info("Categories' balances table computed and displayed");
+
+                    // Create the outline based on the model
+                    DefaultTreeModel treeModel = new DefaultTreeModel(rootNode);
+                    OutlineModel outlineModel = DefaultOutlineModel.createOutlineModel(
+                            treeModel,
+                            new CategoriesBalancesRowModel(categoriesCube),
+                            true,
+                            NbBundle.getMessage(CategoriesBalancesTopComponent.class, "CategoriesBalancesTopComponent.Category"));
+                    outlineCategoriesBalances.setModel(outlineModel);
+
+                    // Expand all nodes of the outline
+                    for (int i = 0; i < rootNode.getChildCount(); i++) {
+                        outlineCategoriesBalances.expandPath(new TreePath(((DefaultMutableTreeNode) rootNode.getChildAt(i)).getPath()));
+                    }
 
-        // Display normal cursor
-        Utilities.changeCursorWaitStatus(false);
+                    // Resize the columns' widths
+                    Utilities.packColumns(outlineCategoriesBalances);
+
+                    // Put the balances cube in the lookup so that it can be displayed as a chart by another topcomponent
+                    content.set(Collections.singleton(categoriesCube), null);
+                    content.add(fieldsVisibility); // Add a description of the supported filters for the search filter topcomponent
+                } catch (InterruptedException ex) {
+                    displayedSearchFilter = null;
+                    Exceptions.printStackTrace(ex);
+                } catch (ExecutionException ex) {
+                    displayedSearchFilter = null;
+                    Exceptions.printStackTrace(ex.getCause());
+                } finally {
+                    // Display normal cursor
+                    Utilities.changeCursorWaitStatus(false);
+                }
+            }
+        };
+        displayWorker.execute();
     }
 
     /** Row model for the Categories' balances outline */
     private class CategoriesBalancesRowModel implements RowModel {
 
-        /** List of search criteria (columns) */
-        private List<SearchCriteria> searchCriterias;
-        /** Categories/Sub-categories balances by search criteria */
-        private Map<Long, Map<SearchCriteria, BigDecimal>> balances;
+        /** Categories/Sub-categories balances by period (one column per period) */
+        private CategoriesCube balances;
 
         /**
          * Creates a new instance of CategoriesBalancesRowModel
-         * @param searchCriterias Search criteria to display (one per column)
-         * @param balances Category/Sub-category balances by search criteria
+         * @param balances Category/Sub-category balances by period
          */
-        public CategoriesBalancesRowModel(List<SearchCriteria> searchCriterias, Map<Long, Map<SearchCriteria, BigDecimal>> balances) {
-            if (searchCriterias == null) {
-                throw new IllegalArgumentException("The parameter 'searchCriterias' is null");
-            }
+        public CategoriesBalancesRowModel(CategoriesCube balances) {
             if (balances == null) {
                 throw new IllegalArgumentException("The parameter 'balances' is null");
             }
-            this.searchCriterias = searchCriterias;
             this.balances = balances;
         }
 
@@ -558,7 +503,7 @@ public final class CategoriesBalancesTopComponent extends TopComponent implement
          */
         @Override
         public int getColumnCount() {
-            return searchCriterias.size();
+            return balances.getPeriods().getPeriods().size();
         }
 
         /**
@@ -568,7 +513,7 @@ public final class CategoriesBalancesTopComponent extends TopComponent implement
          */
         @Override
         public String getColumnName(int column) {
-            return searchCriterias.get(column).getPeriod().toString();
+            return balances.getPeriods().getPeriods().get(column).toString();
         }
 
         /**
@@ -593,9 +538,7 @@ public final class CategoriesBalancesTopComponent extends TopComponent implement
             // - if the category is a sub-category or
             // - if the category is a top-category and the user wants to see the sums
             if (!category.isTopCategory() || Options.calculateSums()) {
-                SearchCriteria searchCriteria = searchCriterias.get(column);
-                assert (searchCriteria != null);
-                BigDecimal categoryBalance = balances.get(category.getId()).get(searchCriteria);
+                BigDecimal categoryBalance = balances.getBalance(category, column);
                 assert (categoryBalance != null);
                 if (categoryBalance.compareTo(BigDecimal.ZERO) != 0 || Options.displayZero()) {
                     value = Utilities.getSignedBalance(categoryBalance);
@@ -21,17 +21,14 @@
  */
 package gg.view.categoriesbalances;
 
-import gg.db.datamodel.SearchCriteria;
+import gg.db.datamodel.CategoriesCube;
+import gg.db.datamodel.Period;
 import gg.db.entities.Category;
 import gg.utilities.Utilities;
-import gg.wallet.Wallet;
 import java.awt.BorderLayout;
 import java.awt.Color;
-import java.math.BigDecimal;
 import java.util.Collection;
-import java.util.Map;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.List;
 import java.util.logging.Logger;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartPanel;
@@ -195,7 +192,7 @@ public final class GraphCategoriesBalancesTopComponent extends TopComponent impl
         if (result == null) {
             // Register lookup listener on the categories' balance table top component
             result = WindowManager.getDefault().findTopComponent("CategoriesBalancesTopComponent").
-                    getLookup().lookupResult(Map.class);
+                    getLookup().lookupResult(CategoriesCube.class);
             result.addLookupListener(this);
             result.allInstances();
 
@@ -218,9 +215,7 @@ public final class GraphCategoriesBalancesTopComponent extends TopComponent impl
     public void resultChanged(LookupEvent ev) {
         Collection instances = result.allInstances();
         if (!instances.isEmpty()) {
-            @SuppressWarnings("unchecked")
-            Map<Long, Map<SearchCriteria, BigDecimal>> balances =
-                    (Map<Long, Map<SearchCriteria, BigDecimal>>) instances.iterator().next();
+            CategoriesCube balances = (CategoriesCube) instances.iterator().next();
             displayData(balances);
         }
     }
@@ -229,7 +224,7 @@ public final class GraphCategoriesBalancesTopComponent extends TopComponent impl
      * Displays the categories/sub-categories' balances by period
      * @param balances Categories' balances
      */
-    private void displayData(Map<Long, Map<SearchCriteria, BigDecimal>> balances) {
+    private void displayData(CategoriesCube balances) {
         log.info("Categories' balances graph computed and displayed");
 
         // Display hourglass cursor
@@ -266,26 +261,17 @@ public final class GraphCategoriesBalancesTopComponent extends TopComponent impl
         domainAxis.setCategoryLabelPositions(CategoryLabelPositions.UP_45);
 
         // Add the series on the chart for each category/sub-category displayed in the table
-        for (Long categoryId : balances.keySet()) {
-            Category category = Wallet.getInstance().getCategoriesWithId().get(categoryId);
-            assert (category != null);
-
-            SortedSet<SearchCriteria> sortedSearchCriteria = new TreeSet<SearchCriteria>(
-                    balances.get(categoryId).keySet());
-            for (SearchCriteria searchCriteria : sortedSearchCriteria) {
-
-                if ((!searchCriteria.hasCategoriesFilter() && category.isTopCategory() && !category.getSystemProperty()) ||
-                        searchCriteria.getCategories().contains(category)) {
-
-                    BigDecimal balance = new BigDecimal(0);
-                    if (balances.get(categoryId) != null && balances.get(categoryId).get(searchCriteria) != null) {
-                        balance = balances.get(categoryId).get(searchCriteria);
-                    }
+        List<Category> categoriesFilter = balances.getCategoriesFilter();
+        List<Period> periods = balances.getPeriods().getPeriods();
+        for (Category category : balances.getCategories()) {
+            if ((categoriesFilter.isEmpty() && category.isTopCategory() && !category.getSystemProperty()) ||
+                    categoriesFilter.contains(category)) {
 
+                for (int i = 0; i < periods.size(); i++) {
                     dataset.addValue(
-                            balance,
+                            balances.getBalance(category, i),
                             category.getName(),
-                            searchCriteria.getPeriod());
+                            periods.get(i));
                 }
             }
         }
@@ -22,7 +22,7 @@
 package gg.view.movementsbalances;
 
 import gg.searchfilter.FieldsVisibility;
-import gg.db.datamodel.Datamodel;
+import gg.db.datamodel.AsyncDatamodel;
 import gg.db.datamodel.Period;
 import gg.db.datamodel.Periods;
 import gg.db.datamodel.SearchCriteria;
@@ -40,9 +40,11 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Logger;
 import javax.swing.JTable;
 import javax.swing.ListSelectionModel;
+import javax.swing.SwingWorker;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreePath;
@@ -54,6 +56,7 @@ import org.netbeans.api.settings.ConvertAsProperties;
 import org.netbeans.swing.outline.DefaultOutlineModel;
 import org.netbeans.swing.outline.OutlineModel;
 import org.netbeans.swing.outline.RowModel;
+import org.openide.util.Exceptions;
 import org.openide.util.Lookup;
 import org.openide.util.LookupEvent;
 import org.openide.util.LookupListener;
@@ -81,6 +84,8 @@ public final class MovementsBalancesTopComponent extends TopComponent implements
     private SearchFilter displayedSearchFilter;
     /** Defines which filters are supported by this view */
     private FieldsVisibility fieldsVisibility = new FieldsVisibility();
+    /** Computation of the displayed table (null if the table is displayed) */
+    private SwingWorker<DefaultMutableTreeNode, Void> displayWorker;
     /** Logger */
     private Logger log = Logger.getLogger(this.getClass().getName());
 
@@ -305,30 +310,32 @@ public final class MovementsBalancesTopComponent extends TopComponent implements
     }
 
     /**
-     * Displays the currency/accounts' movements by period
+     * Displays the currency/accounts' movements by period<BR/>
+     * The movements are computed outside of the event dispatch thread, then the table is updated.
+     * The computation is cancelled if another search filter is displayed before the end
      * @param searchFilter Search filter for which the table must be computed
      */
-    private void displayData(SearchFilter searchFilter) {
-        log.info("Movements' balances table computed and displayed");
+    private void displayData(final SearchFilter searchFilter) {
+        // Cancel the computation of the previous search filter
+        if (displayWorker != null) {
+            displayWorker.cancel(true);
+        }
 
         // Display hourglass cursor
         Utilities.changeCursorWaitStatus(true);
 
-        // Prepare treetable
-        DefaultMutableTreeNode rootNode = new DefaultMutableTreeNode(); // Root (Not displayed)
-
         // Map containing the movements' balances by currency/account and by search criteria
         // ((Currency/Account) --> (SearchCriteria --> Currency/Account movement balance))
-        Map<MoneyContainer, Map<SearchCriteria, BigDecimal>> balances =
+        final Map<MoneyContainer, Map<SearchCriteria, BigDecimal>> balances =
                 new HashMap<MoneyContainer, Map<SearchCriteria, BigDecimal>>();
 
         // List of periods (one per column)
-        Periods periods = new Periods(searchFilter.getFrom(),
+        final Periods periods = new Periods(searchFilter.getFrom(),
                 searchFilter.getTo(),
                 searchFilter.getPeriodType());
 
         // List of search criteria (one per column)
-        List<SearchCriteria> searchCriterias = new ArrayList<SearchCriteria>();
+        final List<SearchCriteria> searchCriterias = new ArrayList<SearchCriteria>();
         for (Period period : periods.getPeriods()) {
             SearchCriteria searchCriteria = new SearchCriteria();
             searchCriteria.setPeriod(period);
@@ -338,78 +345,126 @@ public final class MovementsBalancesTopComponent extends TopComponent implements
             searchCriterias.add(searchCriteria);
         }
 
-        // Add the currencies into the table
+        // Get the accounts to display
+        final List<Account> displayedAccounts = new ArrayList<Account>();
         for (Currency currency : Wallet.getInstance().getActiveCurrencies()) {
             if (!searchFilter.hasCurrencyFilter() ||
                     (searchFilter.hasCurrencyFilter() && searchFilter.getCurrency().compareTo(currency) == 0)) {
-                // Add currency to the tree
-                DefaultMutableTreeNode currencyNode = new DefaultMutableTreeNode(currency);
-                rootNode.add(currencyNode);
-
-                // Map containing the currency's movements by search criteria
-                Map<SearchCriteria, BigDecimal> currencyBalances = new HashMap<SearchCriteria, BigDecimal>();
-                for (SearchCriteria searchCriteria : searchCriterias) {
-                    currencyBalances.put(searchCriteria, new BigDecimal(0));
-                }
-
-                // Compute the accounts' movements for each search criteria (for each period)
                 for (Account account : Wallet.getInstance().getActiveAccountsWithCurrency().get(currency)) {
                     if (!searchFilter.hasAccountsFilter() ||
                             (searchFilter.hasAccountsFilter() && searchFilter.getAccounts().contains(account))) {
-                        // Add account to the tree
-                        DefaultMutableTreeNode accountNode = new DefaultMutableTreeNode(account);
-                        currencyNode.add(accountNode);
-
-                        // Compute the accounts' movements for each search criteria
-                        Map<SearchCriteria, BigDecimal> accountBalances = new HashMap<SearchCriteria, BigDecimal>();
-                        for (SearchCriteria searchCriteria : searchCriterias) {
-                            SearchCriteria newSearchCriteria = new SearchCriteria();
-                            newSearchCriteria.setCurrency(currency);
-                            List<Account> accounts = new ArrayList<Account>();
-                            accounts.add(account);
-                            newSearchCriteria.setAccounts(accounts);
-                            newSearchCriteria.setPeriod(searchCriteria.getPeriod());
-
-                            BigDecimal accountBalance = Datamodel.getBalance(newSearchCriteria);
-                            accountBalances.put(searchCriteria, accountBalance);
-
-                            currencyBalances.put(searchCriteria,
-                                    currencyBalances.get(searchCriteria).add(accountBalance));
-                        }
-                        balances.put(account, accountBalances);
+                        displayedAccounts.add(account);
                     }
                 }
-
-                balances.put(currency, currencyBalances);
             }
         }
 
-        // Create the outline based on the model
-        DefaultTreeModel treeModel = new DefaultTreeModel(rootNode);
-        OutlineModel outlineModel = DefaultOutlineModel.createOutlineModel(
-                treeModel,
-                new MovementsBalancesRowModel(searchCriterias, balances),
-                true,
-                NbBundle.getMessage(MovementsBalancesTopComponent.class, "MovementsBalancesTopComponent.Account"));
-        outlineMovementsBalances.setModel(outlineModel);
-
-        // Expand all nodes of the outline
-        for (int i = 0; i < rootNode.getChildCount(); i++) {
-            outlineMovementsBalances.expandPath(new TreePath(((DefaultMutableTreeNode) rootNode.getChildAt(i)).getPath()));
-        }
+        // Save the search filter being displayed (a new search with the same filter does not restart the computation)
+        this.displayedSearchFilter = searchFilter;
 
-        // Resize the columns' widths
-        Utilities.packColumns(outlineMovementsBalances);
+        displayWorker = new SwingWorker<DefaultMutableTreeNode, Void>() {
 
-        // Save the currently displayed search filter
-        this.displayedSearchFilter = searchFilter;
+            /** Computes the movements and the tree (outside of the event dispatch thread) */
+            @Override
+            protected DefaultMutableTreeNode doInBackground() throws Exception {
+                // Compute the movements of all the accounts during each period (one grouped query)
+                Map<Long, BigDecimal[]> accountsMovements = AsyncDatamodel.getResult(
+                        AsyncDatamodel.getAccountsMovements(displayedAccounts, periods));
 
-        // Put the balances map in the lookup so that it can be displayed as a chart by another topcomponent
-        content.set(Collections.singleton(balances), null);
-        content.add(fieldsVisibility); // Add a description of the supported filters for the search filter topcomponent
+                // Prepare treetable
+                DefaultMutableTreeNode rootNode = new DefaultMutableTreeNode(); // Root (Not displayed)
 
-        // Display normal cursor
-        Utilities.changeCursorWaitStatus(false);
+                // Add the currencies into the table
+                for (Currency currency : Wallet.getInstance().getActiveCurrencies()) {
+                    if (!searchFilter.hasCurrencyFilter() ||
+                            (searchFilter.hasCurrencyFilter() && searchFilter.getCurrency().compareTo(currency) == 0)) {
+                        // Add currency to the tree
+                        DefaultMutableTreeNode currencyNode = new DefaultMutableTreeNode(currency);
+                        rootNode.add(currencyNode);
+
+                        // Map containing the currency's movements by search criteria
+                        Map<SearchCriteria, BigDecimal> currencyBalances = new HashMap<SearchCriteria, BigDecimal>();
+                        for (SearchCriteria searchCriteria : searchCriterias) {
+                            currencyBalances.put(searchCriteria, new BigDecimal(0));
+                        }
+
+                        // Compute the accounts' movements for each search criteria (for each period)
+                        for (Account account : Wallet.getInstance().getActiveAccountsWithCurrency().get(currency)) {
+                            if (!searchFilter.hasAccountsFilter() ||
+                                    (searchFilter.hasAccountsFilter() && searchFilter.getAccounts().contains(account))) {
+                                // Add account to the tree
+                                DefaultMutableTreeNode accountNode = new DefaultMutableTreeNode(account);
+                                currencyNode.add(accountNode);
+
+                                // Get the accounts' movements for each search criteria (one search criteria per period)
+                                // The currency's movements are the sums of the movements of its accounts
+                                Map<SearchCriteria, BigDecimal> accountBalances = new HashMap<SearchCriteria, BigDecimal>();
+                                BigDecimal[] accountMovementsByPeriod = accountsMovements.get(account.getId());
+                                assert (accountMovementsByPeriod != null && accountMovementsByPeriod.length == searchCriterias.size());
+                                for (int i = 0; i < searchCriterias.size(); i++) {
+                                    SearchCriteria searchCriteria = searchCriterias.get(i);
+                                    BigDecimal accountBalance = accountMovementsByPeriod[i];
+                                    accountBalances.put(searchCriteria, accountBalance);
+
+                                    currencyBalances.put(searchCriteria,
+                                            currencyBalances.get(searchCriteria).add(accountBalance));
+                                }
+                                balances.put(account, accountBalances);
+                            }
+                        }
+
+                        balances.put(currency, currencyBalances);
+                    }
+                }
+
+                return rootNode;
+            }
+
+            /** Displays the computed table (in the event dispatch thread) */
+            @Override
+            protected void done() {
+                if (displayWorker != this) {
+                    return; // Cancelled: another search filter is being displayed
+                }
+                displayWorker = null;
+
+                try {
+                    DefaultMutableTreeNode rootNode = get();
+                    log.info("Movements' balances table computed and displayed");
+
+                    // Create the outline based on the model
+                    DefaultTreeModel treeModel = new DefaultTreeModel(rootNode);
+                    OutlineModel outlineModel = DefaultOutlineModel.createOutlineModel(
+                            treeModel,
+                            new MovementsBalancesRowModel(searchCriterias, balances),
+                            true,
+                            NbBundle.getMessage(MovementsBalancesTopComponent.class, "MovementsBalancesTopComponent.Account"));
+                    outlineMovementsBalances.setModel(outlineModel);
+
+                    // Expand all nodes of the outline
+                    for (int i = 0; i < rootNode.getChildCount(); i++) {
+                        outlineMovementsBalances.expandPath(new TreePath(((DefaultMutableTreeNode) rootNode.getChildAt(i)).getPath()));
+                    }
+
+                    // Resize the columns' widths
+                    Utilities.packColumns(outlineMovementsBalances);
+
+                    // Put the balances map in the lookup so that it can be displayed as a chart by another topcomponent
+                    content.set(Collections.singleton(balances), null);
+                    content.add(fieldsVisibility); // Add a description of the supported filters for the search filter topcomponent
+                } catch (InterruptedException ex) {
+                    displayedSearchFilter = null;
+                    Exceptions.printStackTrace(ex);
+                } catch (ExecutionException ex) {
+                    displayedSearchFilter = null;
+                    Exceptions.printStackTrace(ex.getCause());
+                } finally {
+                    // Display normal cursor
+                    Utilities.changeCursorWaitStatus(false);
+                }
+            }
+        };
+        displayWorker.execute();
     }
 
     /** Row model for the Movements' balances outline */
@@ -21,7 +21,7 @@
  */
 package gg.view.overview;
 
-import gg.db.datamodel.Datamodel;
+import gg.db.datamodel.AsyncDatamodel;
 import gg.db.entities.Currency;
 import gg.db.datamodel.Period;
 import gg.db.datamodel.PeriodType;
@@ -34,9 +34,13 @@ import java.awt.Color;
 import java.awt.GradientPaint;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
+import javax.swing.SwingWorker;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartPanel;
 import org.jfree.chart.JFreeChart;
@@ -49,6 +53,7 @@ import org.jfree.chart.renderer.category.BarRenderer;
 import org.jfree.data.category.DefaultCategoryDataset;
 import org.joda.time.LocalDate;
 import org.netbeans.api.settings.ConvertAsProperties;
+import org.openide.util.Exceptions;
 import org.openide.util.ImageUtilities;
 import org.openide.util.NbBundle;
 import org.openide.windows.TopComponent;
@@ -67,6 +72,8 @@ public final class IncomeExpensesTopComponent extends TopComponent {
     private static final String ICON_PATH = "gg/resources/icons/IncomeExpenses.png";
     /** ID of the component */
     private static final String PREFERRED_ID = "IncomeExpensesTopComponent";
+    /** Computation of the displayed chart (null if the chart is displayed) */
+    private SwingWorker<DefaultCategoryDataset, Void> displayWorker;
     /** Logger */
     private Logger log = Logger.getLogger(this.getClass().getName());
 
@@ -192,51 +199,20 @@ public final class IncomeExpensesTopComponent extends TopComponent {
         return PREFERRED_ID;
     }
 
-    /** Displays the total income vs expenses for the current month */
+    /**
+     * Displays the total income vs expenses for the current month<BR/>
+     * The totals are computed outside of the event dispatch thread (the queries of all the currencies run concurrently),
+     * then the chart is updated. A computation which has not ended is cancelled
+     */
     public void displayData() {
-        log.info("Income vs Expenses graph computed and displayed");
+        // Cancel the previous computation
+        if (displayWorker != null) {
+            displayWorker.cancel(true);
+        }
 
         // Display hourglass cursor
         Utilities.changeCursorWaitStatus(true);
 
-        // Create a dataset (the dataset will contain the plotted values)
-        DefaultCategoryDataset dataset = new DefaultCategoryDataset();
-
-        // Create an empty chart
-        JFreeChart chart = ChartFactory.createBarChart(
-                "", // chart title
-                "", // x axis label
-                NbBundle.getMessage(IncomeExpensesTopComponent.class, "IncomeExpensesTopComponent.Amount"), // y axis label
-                dataset, // data displayed in the chart
-                PlotOrientation.VERTICAL,
-                false, // include legend
-                true, // tooltips
-                false // urls
-                );
-
-        // Update the chart color
-        chart.setBackgroundPaint(jPanelIncomeExpenses.getBackground());
-        CategoryPlot plot = (CategoryPlot) chart.getPlot();
-        plot.setBackgroundPaint(Color.WHITE);
-
-        // Set the orientation of the categories on the domain axis (X axis)
-        CategoryAxis domainAxis = plot.getDomainAxis();
-        domainAxis.setCategoryLabelPositions(CategoryLabelPositions.STANDARD);
-
-        // Set the range axis (Y axis) to display integers only
-        NumberAxis rangeAxis = (NumberAxis) plot.getRangeAxis();
-        rangeAxis.setStandardTickUnits(NumberAxis.createIntegerTickUnits());
-
-        // Set the bar renderer
-        BarRenderer renderer = (BarRenderer) plot.getRenderer();
-        renderer.setDrawBarOutline(false);
-        renderer.setMaximumBarWidth(0.1);
-
-        GradientPaint gradientPaint = new GradientPaint(
-                0.0f, 0.0f, new Color(49, 106, 196),
-                0.0f, 0.0f, Color.LIGHT_GRAY);
-        renderer.setSeriesPaint(0, gradientPaint);
-
         // Create a period for the current month
         LocalDate today = new LocalDate();
         Period currentMonth = new Period(
@@ -244,40 +220,124 @@ public final class IncomeExpensesTopComponent extends TopComponent {
                 Periods.getAdjustedEndDate(today, PeriodType.MONTH),
                 PeriodType.MONTH);
 
-        // Fill the dataset
-        List<Currency> currencies = Wallet.getInstance().getActiveCurrencies();
+        // Submit the queries: income and expenses of each currency
+        final List<Currency> currencies = Wallet.getInstance().getActiveCurrencies();
+        final List<Future<BigDecimal>> currenciesIncome = new ArrayList<Future<BigDecimal>>();
+        final List<Future<BigDecimal>> currenciesExpenses = new ArrayList<Future<BigDecimal>>();
         for (Currency currency : currencies) {
             // Filter on the currency and on the current month
             SearchCriteria searchCriteria = new SearchCriteria(currency, null, currentMonth, null, null, null, false);
-
-            // Get income
-            BigDecimal currencyIncome = Datamodel.getIncome(searchCriteria);
-            currencyIncome = currencyIncome.setScale(2, RoundingMode.HALF_EVEN);
-
-            // Get expenses
-            BigDecimal currencyExpenses = Datamodel.getExpenses(searchCriteria).abs();
-            currencyExpenses = currencyExpenses.setScale(2, RoundingMode.HALF_EVEN);
-
-            // Plot income and expenses for the current month and for the current currency on the chart
-            dataset.addValue(
-                    currencyIncome,
-                    currency.getName(),
-                    NbBundle.getMessage(IncomeExpensesTopComponent.class, "IncomeExpensesTopComponent.Income", new Object[] {currency}));
-
-            dataset.addValue(
-                    currencyExpenses,
-                    currency.getName(),
-                    NbBundle.getMessage(IncomeExpensesTopComponent.class, "IncomeExpensesTopComponent.Expenses", new Object[] {currency}));
+            currenciesIncome.add(AsyncDatamodel.getIncome(searchCriteria));
+            currenciesExpenses.add(AsyncDatamodel.getExpenses(searchCriteria));
         }
 
-        // Create the chart panel that contains the chart
-        ChartPanel chartPanel = new ChartPanel(chart);
-
-        // Display the chart
-        jPanelIncomeExpenses.removeAll();
-        jPanelIncomeExpenses.add(chartPanel, BorderLayout.CENTER);
-
-        // Display the normal cursor
-        Utilities.changeCursorWaitStatus(false);
+        displayWorker = new SwingWorker<DefaultCategoryDataset, Void>() {
+
+            /** Fills the dataset (outside of the event dispatch thread) */
+            @Override
+            protected DefaultCategoryDataset doInBackground() throws Exception {
+                // Create a dataset (the dataset will contain the plotted values)
+                DefaultCategoryDataset dataset = new DefaultCategoryDataset();
+
+                try {
+                    for (int i = 0; i < currencies.size(); i++) {
+                        Currency currency = currencies.get(i);
+
+                        // Get income
+                        BigDecimal currencyIncome = AsyncDatamodel.getResult(currenciesIncome.get(i));
+                        currencyIncome = currencyIncome.setScale(2, RoundingMode.HALF_EVEN);
+
+                        // Get expenses
+                        BigDecimal currencyExpenses = AsyncDatamodel.getResult(currenciesExpenses.get(i)).abs();
+                        currencyExpenses = currencyExpenses.setScale(2, RoundingMode.HALF_EVEN);
+
+                        // Plot income and expenses for the current month and for the current currency on the chart
+                        dataset.addValue(
+                                currencyIncome,
+                                currency.getName(),
+                                NbBundle.getMessage(IncomeExpensesTopComponent.class, "IncomeExpensesTopComponent.Income", new Object[] {currency}));
+
+                        dataset.addValue(
+                                currencyExpenses,
+                                currency.getName(),
+                                NbBundle.getMessage(IncomeExpensesTopComponent.class, "IncomeExpensesTopComponent.Expenses", new Object[] {currency}));
+                    }
+                } catch (InterruptedException ex) {
+                    // Cancelled: the queries which have not started are not needed any more
+                    for (int i = 0; i < currencies.size(); i++) {
+                        currenciesIncome.get(i).cancel(false);
+                        currenciesExpenses.get(i).cancel(false);
+                    }
+                    throw ex;
+                }
+
+                return dataset;
+            }
+
+            /** Displays the chart (in the event dispatch thread) */
+            @Override
+            protected void done() {
+                if (displayWorker != this) {
+                    return; // Cancelled: a newer computation is running
+                }
+                displayWorker = null;
+
+                try {
+                    DefaultCategoryDataset dataset = get();
+                    log.info("Income vs Expenses graph computed and displayed");
+
+                    // Create an empty chart
+                    JFreeChart chart = ChartFactory.createBarChart(
+                            "", // chart title
+                            "", // x axis label
+                            NbBundle.getMessage(IncomeExpensesTopComponent.class, "IncomeExpensesTopComponent.Amount"), // y axis label
+                            dataset, // data displayed in the chart
+                            PlotOrientation.VERTICAL,
+                            false, // include legend
+                            true, // tooltips
+                            false // urls
+                            );
+
+                    // Update the chart color
+                    chart.setBackgroundPaint(jPanelIncomeExpenses.getBackground());
+                    CategoryPlot plot = (CategoryPlot) chart.getPlot();
+                    plot.setBackgroundPaint(Color.WHITE);
+
+                    // Set the orientation of the categories on the domain axis (X axis)
+                    CategoryAxis domainAxis = plot.getDomainAxis();
+                    domainAxis.setCategoryLabelPositions(CategoryLabelPositions.STANDARD);
+
+                    // Set the range axis (Y axis) to display integers only
+                    NumberAxis rangeAxis = (NumberAxis) plot.getRangeAxis();
+                    rangeAxis.setStandardTickUnits(NumberAxis.createIntegerTickUnits());
+
+                    // Set the bar renderer
+                    BarRenderer renderer = (BarRenderer) plot.getRenderer();
+                    renderer.setDrawBarOutline(false);
+                    renderer.setMaximumBarWidth(0.1);
+
+                    GradientPaint gradientPaint = new GradientPaint(
+                            0.0f, 0.0f, new Color(49, 106, 196),
+                            0.0f, 0.0f, Color.LIGHT_GRAY);
+                    renderer.setSeriesPaint(0, gradientPaint);
+
+                    // Create the chart panel that contains the chart
+                    ChartPanel chartPanel = new ChartPanel(chart);
+
+                    // Display the chart
+                    jPanelIncomeExpenses.removeAll();
+                    jPanelIncomeExpenses.add(chartPanel, BorderLayout.CENTER);
+                    jPanelIncomeExpenses.revalidate();
+                } catch (InterruptedException ex) {
+                    Exceptions.printStackTrace(ex);
+                } catch (ExecutionException ex) {
+                    Exceptions.printStackTrace(ex.getCause());
+                } finally {
+                    // Display the normal cursor
+                    Utilities.changeCursorWaitStatus(false);
+                }
+            }
+        };
+        displayWorker.execute();
     }
 }
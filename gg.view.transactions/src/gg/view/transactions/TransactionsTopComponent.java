@@ -21,7 +21,7 @@
  */
 package gg.view.transactions;
 
-import gg.db.datamodel.Datamodel;
+import gg.db.datamodel.AsyncDatamodel;
 import gg.db.datamodel.Period;
 import gg.db.datamodel.PeriodType;
 import gg.db.datamodel.SearchCriteria;
@@ -41,9 +41,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Logger;
 import javax.swing.JTable;
 import javax.swing.ListSelectionModel;
+import javax.swing.SwingWorker;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreePath;
@@ -56,6 +58,7 @@ import org.netbeans.api.settings.ConvertAsProperties;
 import org.netbeans.swing.outline.DefaultOutlineModel;
 import org.netbeans.swing.outline.OutlineModel;
 import org.netbeans.swing.outline.RowModel;
+import org.openide.util.Exceptions;
 import org.openide.util.Lookup;
 import org.openide.util.LookupEvent;
 import org.openide.util.LookupListener;
@@ -80,6 +83,8 @@ public final class TransactionsTopComponent extends TopComponent implements Look
     private Lookup.Result<SearchFilter> result = null;
     /** Currently displayed search filter */
     private SearchFilter displayedSearchFilter;
+    /** Search of the displayed transactions (null if the transactions are displayed) */
+    private SwingWorker<DefaultMutableTreeNode, Void> displayWorker;
     /** Logger */
     private Logger log = Logger.getLogger(this.getClass().getName());
 
@@ -294,17 +299,22 @@ public final class TransactionsTopComponent extends TopComponent implements Look
     }
 
     /**
-     * Displays the transactions
+     * Displays the transactions<BR/>
+     * The transactions are searched outside of the event dispatch thread, then the table is updated.
+     * The search is cancelled if another search filter is displayed before the end
      * @param searchFilter Search filter for which the table must be computed
      */
-    private void displayData(SearchFilter searchFilter) {
-        log.info("Transactions table computed and displayed");
+    private void displayData(final SearchFilter searchFilter) {
+        // Cancel the search of the previous search filter
+        if (displayWorker != null) {
+            displayWorker.cancel(true);
+        }
 
         // Display hourglass cursor
         Utilities.changeCursorWaitStatus(true);
 
         // Prepare the search criteria to query the database
-        SearchCriteria searchCriteria = new SearchCriteria();
+        final SearchCriteria searchCriteria = new SearchCriteria();
         searchCriteria.setPeriod(new Period(searchFilter.getFrom(), searchFilter.getTo(), PeriodType.FREE));
         if (searchFilter.hasCurrencyFilter()) {
             searchCriteria.setCurrency(searchFilter.getCurrency());
@@ -329,76 +339,108 @@ public final class TransactionsTopComponent extends TopComponent implements Look
             searchCriteria.setCategories(newCategories);
         }
 
-        // Get the transactions that match the search criteria
-        List<Transaction> transactions = Datamodel.getTransactions(searchCriteria);
+        // Payees and categories of the transactions
+        final Map<Transaction, Payee> payeesWithTransaction = new HashMap<Transaction, Payee>();
+        final Map<Transaction, Category> categoriesWithTransaction = new HashMap<Transaction, Category>();
 
-        // Get the payees and the categories for each transaction
-        Map<Transaction, Payee> payeesWithTransaction = new HashMap<Transaction, Payee>();
-        Map<Transaction, Category> categoriesWithTransaction = new HashMap<Transaction, Category>();
-        for (Transaction transaction : transactions) {
-            payeesWithTransaction.put(transaction, Wallet.getInstance().getPayeesWithId().get(transaction.getPayee().getId()));
-            categoriesWithTransaction.put(transaction, Wallet.getInstance().getCategoriesWithId().get(transaction.getCategory().getId()));
-        }
+        // Save the search filter being displayed (a new search with the same filter does not restart the search)
+        this.displayedSearchFilter = searchFilter;
 
-        // Prepare the tree
-        DefaultMutableTreeNode rootNode = new DefaultMutableTreeNode(); // Root (Not displayed)
-        for (Currency currency : Wallet.getInstance().getActiveCurrencies()) {
-            // Add currency to the tree
-            DefaultMutableTreeNode currencyNode = new DefaultMutableTreeNode(currency);
+        displayWorker = new SwingWorker<DefaultMutableTreeNode, Void>() {
 
-            // For each active account that belong to the currency
-            for (Account account : Wallet.getInstance().getActiveAccountsWithCurrency().get(currency)) {
-                // Add account to the tree
-                DefaultMutableTreeNode accountNode = new DefaultMutableTreeNode(account);
+            /** Searches the transactions and computes the tree (outside of the event dispatch thread) */
+            @Override
+            protected DefaultMutableTreeNode doInBackground() throws Exception {
+                // Get the transactions that match the search criteria
+                List<Transaction> transactions = AsyncDatamodel.getResult(AsyncDatamodel.getTransactions(searchCriteria));
 
+                // Get the payees and the categories for each transaction
                 for (Transaction transaction : transactions) {
-                    if (transaction.getAccount().getId().compareTo(account.getId()) == 0) {
-                        // Add transactions that belong to the current account to the tree
-                        DefaultMutableTreeNode transactionNode = new DefaultMutableTreeNode(transaction);
-                        accountNode.add(transactionNode);
-                    }
+                    payeesWithTransaction.put(transaction, Wallet.getInstance().getPayeesWithId().get(transaction.getPayee().getId()));
+                    categoriesWithTransaction.put(transaction, Wallet.getInstance().getCategoriesWithId().get(transaction.getCategory().getId()));
                 }
 
-                // If the account contains transactions matching the search criteria, display the account
-                if (accountNode.getChildCount() > 0) {
-                    currencyNode.add(accountNode);
-                }
-            }
+                // Prepare the tree
+                DefaultMutableTreeNode rootNode = new DefaultMutableTreeNode(); // Root (Not displayed)
+                for (Currency currency : Wallet.getInstance().getActiveCurrencies()) {
+                    // Add currency to the tree
+                    DefaultMutableTreeNode currencyNode = new DefaultMutableTreeNode(currency);
+
+                    // For each active account that belong to the currency
+                    for (Account account : Wallet.getInstance().getActiveAccountsWithCurrency().get(currency)) {
+                        // Add account to the tree
+                        DefaultMutableTreeNode accountNode = new DefaultMutableTreeNode(account);
+
+                        for (Transaction transaction : transactions) {
+                            if (transaction.getAccount().getId().compareTo(account.getId()) == 0) {
+                                // Add transactions that belong to the current account to the tree
+                                DefaultMutableTreeNode transactionNode = new DefaultMutableTreeNode(transaction);
+                                accountNode.add(transactionNode);
+                            }
+                        }
 
-            // If the currency contains accounts that contain transactions matching the search criteria, display the currency
-            if (currencyNode.getChildCount() > 0) {
-                rootNode.add(currencyNode);
-            }
-        }
+                        // If the account contains transactions matching the search criteria, display the account
+                        if (accountNode.getChildCount() > 0) {
+                            currencyNode.add(accountNode);
+                        }
+                    }
 
-        // Create the outline based on the model
-        DefaultTreeModel treeModel = new DefaultTreeModel(rootNode);
-        OutlineModel outlineModel = DefaultOutlineModel.createOutlineModel(
-                treeModel,
-                new TransactionsRowModel(payeesWithTransaction, categoriesWithTransaction),
-                true,
-                NbBundle.getMessage(TransactionsTopComponent.class, "TransactionsTopComponent.Account"));
-        outlineTransactions.setModel(outlineModel);
-
-        // Expand all nodes of the outline
-        for (int i = 0; i < rootNode.getChildCount(); i++) {
-            DefaultMutableTreeNode currencyNode = (DefaultMutableTreeNode) rootNode.getChildAt(i);
-            outlineTransactions.expandPath(new TreePath(currencyNode.getPath()));
-
-            for (int j = 0; j < currencyNode.getChildCount(); j++) {
-                DefaultMutableTreeNode accountNode = (DefaultMutableTreeNode) currencyNode.getChildAt(j);
-                outlineTransactions.expandPath(new TreePath(accountNode.getPath()));
-            }
-        }
+                    // If the currency contains accounts that contain transactions matching the search criteria, display the currency
+                    if (currencyNode.getChildCount() > 0) {
+                        rootNode.add(currencyNode);
+                    }
+                }
 
-        // Resize the columns' widths
-        Utilities.packColumns(outlineTransactions);
+                return rootNode;
+            }
 
-        // Save the currently displayed search filter
-        this.displayedSearchFilter = searchFilter;
+            /** Displays the computed table (in the event dispatch thread) */
+            @Override
+            protected void done() {
+                if (displayWorker != this) {
+                    return; // Cancelled: another search filter is being displayed
+                }
+                displayWorker = null;
+
+                try {
+                    DefaultMutableTreeNode rootNode = get();
+                    log.info("Transactions table computed and displayed");
+
+                    // Create the outline based on the model
+                    DefaultTreeModel treeModel = new DefaultTreeModel(rootNode);
+                    OutlineModel outlineModel = DefaultOutlineModel.createOutlineModel(
+                            treeModel,
+                            new TransactionsRowModel(payeesWithTransaction, categoriesWithTransaction),
+                            true,
+                            NbBundle.getMessage(TransactionsTopComponent.class, "TransactionsTopComponent.Account"));
+                    outlineTransactions.setModel(outlineModel);
+
+                    // Expand all nodes of the outline
+                    for (int i = 0; i < rootNode.getChildCount(); i++) {
+                        DefaultMutableTreeNode currencyNode = (DefaultMutableTreeNode) rootNode.getChildAt(i);
+                        outlineTransactions.expandPath(new TreePath(currencyNode.getPath()));
+
+                        for (int j = 0; j < currencyNode.getChildCount(); j++) {
+                            DefaultMutableTreeNode accountNode = (DefaultMutableTreeNode) currencyNode.getChildAt(j);
+                            outlineTransactions.expandPath(new TreePath(accountNode.getPath()));
+                        }
+                    }
 
-        // Display normal cursor
-        Utilities.changeCursorWaitStatus(false);
+                    // Resize the columns' widths
+                    Utilities.packColumns(outlineTransactions);
+                } catch (InterruptedException ex) {
+                    displayedSearchFilter = null;
+                    Exceptions.printStackTrace(ex);
+                } catch (ExecutionException ex) {
+                    displayedSearchFilter = null;
+                    Exceptions.printStackTrace(ex.getCause());
+                } finally {
+                    // Display normal cursor
+                    Utilities.changeCursorWaitStatus(false);
+                }
+            }
+        };
+        displayWorker.execute();
     }
 
     /** Row model for the Accounts' Balances outline */
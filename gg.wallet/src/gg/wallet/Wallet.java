@@ -99,6 +99,13 @@ public class Wallet {
         log.exiting(this.getClass().getName(), "updateContent");
     }
 
+    /** Updates the list of file imports with the current values from the DB (the other lists and maps are not changed) */
+    public void updateFileImports() {
+        log.entering(this.getClass().getName(), "updateFileImports");
+        this.fileImports = Datamodel.getFileImports();
+        log.exiting(this.getClass().getName(), "updateFileImports");
+    }
+
     /**
      * Gets the singleton instance of the wallet
      * @return Instance of the wallet